@@ -0,0 +1,84 @@
+// jTDS JDBC Driver for Microsoft SQL Server and Sybase
+// Copyright (C) 2004 The jTDS Project
+//
+// This library is free software; you can redistribute it and/or
+// modify it under the terms of the GNU Lesser General Public
+// License as published by the Free Software Foundation; either
+// version 2.1 of the License, or (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+//
+package net.sourceforge.jtds.jdbc;
+
+import java.io.IOException;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+
+/**
+ * Helper methods shared by the benchmarks.
+ */
+final class BenchSupport {
+    /** The character set used by the benchmark connections. */
+    static final CharsetInfo CHARSET = new CharsetInfo("1|Cp1252");
+
+    /**
+     * Private constructor, this class only has static methods.
+     */
+    private BenchSupport() {
+    }
+
+    /**
+     * Creates an unconnected <code>JtdsConnection</code> with the settings
+     * the benchmarked code depends on.
+     *
+     * @param serverType one of <code>Driver.SQLSERVER</code> or
+     *                   <code>Driver.SYBASE</code>
+     * @param tdsVersion the TDS protocol version
+     * @return the connection
+     * @throws Exception if the connection cannot be created
+     */
+    static JtdsConnection createConnection(int serverType, int tdsVersion)
+            throws Exception {
+        Constructor constructor = JtdsConnection.class.getDeclaredConstructor();
+        constructor.setAccessible(true);
+        JtdsConnection connection = (JtdsConnection) constructor.newInstance();
+
+        setField(connection, "serverType", new Integer(serverType));
+        setField(connection, "tdsVersion", new Integer(tdsVersion));
+        setField(connection, "databaseMajorVersion", new Integer(10));
+        setField(connection, "prepareSql", new Integer(TdsCore.PREPARE));
+        setField(connection, "charsetInfo", CHARSET);
+
+        return connection;
+    }
+
+    /**
+     * Sets a private field of a <code>JtdsConnection</code>.
+     */
+    private static void setField(JtdsConnection connection, String name, Object value)
+            throws Exception {
+        Field field = JtdsConnection.class.getDeclaredField(name);
+        field.setAccessible(true);
+        field.set(connection, value);
+    }
+
+    /**
+     * Sends an empty request, causing the <code>ReplaySocket</code> to
+     * rewind its capture.
+     *
+     * @param out the request stream
+     * @throws IOException if an I/O error occurs
+     */
+    static void sendRequest(RequestStream out) throws IOException {
+        out.setPacketType(TdsCore.QUERY_PKT);
+        out.write((byte) 0);
+        out.flush();
+    }
+}
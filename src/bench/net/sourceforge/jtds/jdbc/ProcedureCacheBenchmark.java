@@ -0,0 +1,108 @@
+// jTDS JDBC Driver for Microsoft SQL Server and Sybase
+// Copyright (C) 2004 The jTDS Project
+//
+// This library is free software; you can redistribute it and/or
+// modify it under the terms of the GNU Lesser General Public
+// License as published by the Free Software Foundation; either
+// version 2.1 of the License, or (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+//
+package net.sourceforge.jtds.jdbc;
+
+import java.util.concurrent.TimeUnit;
+
+import net.sourceforge.jtds.jdbc.cache.ProcedureCache;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks {@link ProcedureCache} lookups and insertions, the cache is
+ * shared by all benchmark threads like the cache of a connection used by
+ * several statements.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+public class ProcedureCacheBenchmark {
+    /** The number of distinct keys, half of them fit into the cache. */
+    @Param({"1000"})
+    public int keys;
+
+    private ProcedureCache cache;
+    private String[] sql;
+
+    @Setup
+    public void setup() {
+        cache = new ProcedureCache(keys / 2);
+        sql = new String[keys];
+
+        for (int i = 0; i < keys; i++) {
+            sql[i] = "SELECT * FROM t" + i + " WHERE id = ?";
+        }
+
+        for (int i = 0; i < keys / 2; i++) {
+            ProcEntry entry = new ProcEntry();
+            cache.put(sql[i], entry);
+            entry.release();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Counter {
+        int next;
+    }
+
+    @Benchmark
+    public Object get(Counter counter) {
+        String key = sql[counter.next++ % (keys / 2)];
+        ProcEntry entry = (ProcEntry) cache.get(key);
+
+        if (entry != null) {
+            entry.release();
+        }
+
+        return entry;
+    }
+
+    /**
+     * Lookup over all keys, inserting missing entries the way a statement
+     * does when it's prepared and closed again.
+     */
+    @Benchmark
+    public Object getOrPut(Counter counter) {
+        String key = sql[counter.next++ % keys];
+        ProcEntry entry = (ProcEntry) cache.get(key);
+
+        if (entry == null) {
+            entry = new ProcEntry();
+            cache.put(key, entry);
+        }
+
+        entry.release();
+
+        return cache.getObsoleteHandles(null);
+    }
+}
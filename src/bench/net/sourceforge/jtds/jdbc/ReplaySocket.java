@@ -0,0 +1,107 @@
+// jTDS JDBC Driver for Microsoft SQL Server and Sybase
+// Copyright (C) 2004 The jTDS Project
+//
+// This library is free software; you can redistribute it and/or
+// modify it under the terms of the GNU Lesser General Public
+// License as published by the Free Software Foundation; either
+// version 2.1 of the License, or (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+//
+package net.sourceforge.jtds.jdbc;
+
+import java.io.IOException;
+
+/**
+ * In-memory <code>SharedSocket</code> used by the benchmarks.
+ * <p/>
+ * Each request sent through the socket rewinds the capture, the response to
+ * every request is the complete capture, replayed packet by packet through
+ * the normal <code>SharedSocket</code> code path. Request data is discarded.
+ */
+class ReplaySocket extends SharedSocket {
+    /** The captured response packets. */
+    private byte[][] capture = new byte[0][];
+    /** Index of the next packet to return. */
+    private int next;
+
+    /**
+     * Construct a <code>ReplaySocket</code> object.
+     *
+     * @param tdsVersion the TDS protocol version
+     * @param serverType one of <code>Driver.SQLSERVER</code> or
+     *                   <code>Driver.SYBASE</code>
+     */
+    ReplaySocket(int tdsVersion, int serverType) {
+        super(null, tdsVersion, serverType);
+        setCharsetInfo(BenchSupport.CHARSET);
+    }
+
+    /**
+     * Sets the packets returned in response to each request.
+     *
+     * @param capture the complete TDS packets, including headers
+     */
+    void setCapture(byte[][] capture) {
+        this.capture = capture;
+        next = 0;
+    }
+
+    protected byte[] readRawPacket(byte buffer[]) throws IOException {
+        if (next >= capture.length) {
+            throw new IOException("End of capture");
+        }
+
+        byte[] pkt = capture[next++];
+
+        if (buffer == null || pkt.length > buffer.length) {
+            PacketBufferPool.release(buffer);
+            buffer = PacketBufferPool.get(pkt.length);
+        }
+
+        System.arraycopy(pkt, 0, buffer, 0, pkt.length);
+
+        return buffer;
+    }
+
+    protected void writeRawPacket(byte buffer[], int len, boolean flush) {
+        if (flush) {
+            next = 0;
+        }
+    }
+
+    /**
+     * Splits a TDS response stream into reply packets.
+     *
+     * @param data       the response data
+     * @param packetSize the maximum packet size, including the header
+     * @return the TDS packets, the last one has the last packet flag set
+     */
+    static byte[][] packetize(byte[] data, int packetSize) {
+        int payload = packetSize - TDS_HDR_LEN;
+        int count = Math.max(1, (data.length + payload - 1) / payload);
+        byte[][] packets = new byte[count][];
+
+        for (int i = 0; i < count; i++) {
+            int off = i * payload;
+            int len = Math.min(payload, data.length - off);
+            byte[] pkt = new byte[TDS_HDR_LEN + len];
+
+            pkt[0] = TdsCore.REPLY_PKT;
+            pkt[1] = (byte) (i == count - 1 ? 1 : 0);
+            pkt[2] = (byte) (pkt.length >> 8);
+            pkt[3] = (byte) pkt.length;
+            System.arraycopy(data, off, pkt, TDS_HDR_LEN, len);
+            packets[i] = pkt;
+        }
+
+        return packets;
+    }
+}
@@ -0,0 +1,74 @@
+// jTDS JDBC Driver for Microsoft SQL Server and Sybase
+// Copyright (C) 2004 The jTDS Project
+//
+// This library is free software; you can redistribute it and/or
+// modify it under the terms of the GNU Lesser General Public
+// License as published by the Free Software Foundation; either
+// version 2.1 of the License, or (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+//
+package net.sourceforge.jtds.jdbc;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks {@link SQLParser#parse}, both served from the parser cache and
+ * for statements that are not cached.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SQLParserBenchmark {
+    private static final String SQL =
+            "SELECT o.id, o.total, {fn UCASE(c.name)} FROM orders o"
+            + " JOIN customers c ON c.id = o.customer_id"
+            + " WHERE o.created > {ts '2015-01-01 00:00:00'} AND o.status = ? AND c.region IN (?, ?)";
+
+    private static final String CALL = "{?= call sp_update_order(?, ?, ?, 'literal ?')}";
+
+    private JtdsConnection connection;
+
+    @Setup
+    public void setup() throws Exception {
+        connection = BenchSupport.createConnection(Driver.SQLSERVER, Driver.TDS80);
+    }
+
+    @Benchmark
+    public String[] parseCached() throws Exception {
+        return SQLParser.parse(SQL, new ArrayList(), connection, false);
+    }
+
+    @Benchmark
+    public String[] parseCallCached() throws Exception {
+        return SQLParser.parse(CALL, new ArrayList(), connection, false);
+    }
+
+    @Benchmark
+    public String[] parseUncached() throws Exception {
+        // extracting the table name bypasses the cache
+        return SQLParser.parse(SQL, new ArrayList(), connection, true);
+    }
+}
@@ -0,0 +1,141 @@
+// jTDS JDBC Driver for Microsoft SQL Server and Sybase
+// Copyright (C) 2004 The jTDS Project
+//
+// This library is free software; you can redistribute it and/or
+// modify it under the terms of the GNU Lesser General Public
+// License as published by the Free Software Foundation; either
+// version 2.1 of the License, or (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+//
+package net.sourceforge.jtds.jdbc;
+
+import java.math.BigDecimal;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Benchmarks reading strings from a {@link ResponseStream} and writing
+ * strings and decimals to a {@link RequestStream}. Each invocation processes
+ * <code>count</code> values.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StreamBenchmark {
+    /** The string length in characters. */
+    @Param({"16", "256"})
+    public int length;
+
+    /** The number of values per invocation. */
+    @Param({"100"})
+    public int count;
+
+    private RequestStream unicodeOut;
+    private ResponseStream unicodeIn;
+    private RequestStream ansiOut;
+    private ResponseStream ansiIn;
+    private RequestStream out;
+    private String value;
+    private BigDecimal decimal;
+
+    @Setup
+    public void setup() throws Exception {
+        StringBuilder buf = new StringBuilder(length);
+
+        for (int i = 0; i < length; i++) {
+            buf.append((char) ('a' + i % 26));
+        }
+
+        value = buf.toString();
+        decimal = new BigDecimal("12345678901234567890.1234");
+
+        byte[] unicode = value.getBytes("UTF-16LE");
+        byte[] ansi = value.getBytes("Cp1252");
+        byte[] unicodeData = new byte[unicode.length * count];
+        byte[] ansiData = new byte[ansi.length * count];
+
+        for (int i = 0; i < count; i++) {
+            System.arraycopy(unicode, 0, unicodeData, i * unicode.length, unicode.length);
+            System.arraycopy(ansi, 0, ansiData, i * ansi.length, ansi.length);
+        }
+
+        int size = TdsCore.DEFAULT_MIN_PKT_SIZE_TDS70;
+        ReplaySocket unicodeSocket = new ReplaySocket(Driver.TDS80, Driver.SQLSERVER);
+        unicodeSocket.setCapture(ReplaySocket.packetize(unicodeData, size));
+        unicodeOut = unicodeSocket.getRequestStream(size, TdsData.DEFAULT_PRECISION_38);
+        unicodeIn = unicodeSocket.getResponseStream(unicodeOut, size);
+
+        ReplaySocket ansiSocket = new ReplaySocket(Driver.TDS80, Driver.SQLSERVER);
+        ansiSocket.setCapture(ReplaySocket.packetize(ansiData, size));
+        ansiOut = ansiSocket.getRequestStream(size, TdsData.DEFAULT_PRECISION_38);
+        ansiIn = ansiSocket.getResponseStream(ansiOut, size);
+
+        // the response to each write benchmark request is an empty packet
+        ReplaySocket socket = new ReplaySocket(Driver.TDS80, Driver.SQLSERVER);
+        socket.setCapture(ReplaySocket.packetize(new byte[0], size));
+        out = socket.getRequestStream(size, TdsData.DEFAULT_PRECISION_38);
+    }
+
+    @Benchmark
+    public void readUnicodeString(Blackhole bh) throws Exception {
+        BenchSupport.sendRequest(unicodeOut);
+
+        for (int i = 0; i < count; i++) {
+            bh.consume(unicodeIn.readUnicodeString(length));
+        }
+    }
+
+    @Benchmark
+    public void readNonUnicodeString(Blackhole bh) throws Exception {
+        BenchSupport.sendRequest(ansiOut);
+
+        for (int i = 0; i < count; i++) {
+            bh.consume(ansiIn.readNonUnicodeString(length, BenchSupport.CHARSET));
+        }
+    }
+
+    @Benchmark
+    public void writeString() throws Exception {
+        out.setPacketType(TdsCore.QUERY_PKT);
+
+        for (int i = 0; i < count; i++) {
+            out.write(value);
+        }
+
+        out.flush();
+    }
+
+    @Benchmark
+    public void writeBigDecimal() throws Exception {
+        out.setPacketType(TdsCore.QUERY_PKT);
+
+        for (int i = 0; i < count; i++) {
+            out.write(decimal);
+        }
+
+        out.flush();
+    }
+}
@@ -0,0 +1,82 @@
+// jTDS JDBC Driver for Microsoft SQL Server and Sybase
+// Copyright (C) 2004 The jTDS Project
+//
+// This library is free software; you can redistribute it and/or
+// modify it under the terms of the GNU Lesser General Public
+// License as published by the Free Software Foundation; either
+// version 2.1 of the License, or (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+//
+package net.sourceforge.jtds.jdbc;
+
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks {@link Support#convert} for common conversions and the
+ * encoding and decoding of {@link DateTime} values.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SupportBenchmark {
+    private final Integer intValue = new Integer(123456);
+    private final String stringValue = "123456";
+    private final BigDecimal decimalValue = new BigDecimal("1234.5678");
+    private final Timestamp timestamp = Timestamp.valueOf("2015-06-30 12:34:56.789");
+
+    @Benchmark
+    public Object convertStringToInteger() throws Exception {
+        return Support.convert(this, stringValue, Types.INTEGER, null);
+    }
+
+    @Benchmark
+    public Object convertIntegerToString() throws Exception {
+        return Support.convert(this, intValue, Types.VARCHAR, null);
+    }
+
+    @Benchmark
+    public Object convertDecimalToDouble() throws Exception {
+        return Support.convert(this, decimalValue, Types.DOUBLE, null);
+    }
+
+    @Benchmark
+    public Object convertTimestampToString() throws Exception {
+        return Support.convert(this, timestamp, Types.VARCHAR, null);
+    }
+
+    @Benchmark
+    public long encodeDateTime() throws Exception {
+        DateTime dt = new DateTime(timestamp);
+
+        return ((long) dt.getDate() << 32) | dt.getTime();
+    }
+
+    @Benchmark
+    public Timestamp decodeDateTime() {
+        return new DateTime(42183, 13564237).toTimestamp();
+    }
+}
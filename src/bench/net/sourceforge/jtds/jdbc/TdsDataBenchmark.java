@@ -0,0 +1,126 @@
+// jTDS JDBC Driver for Microsoft SQL Server and Sybase
+// Copyright (C) 2004 The jTDS Project
+//
+// This library is free software; you can redistribute it and/or
+// modify it under the terms of the GNU Lesser General Public
+// License as published by the Free Software Foundation; either
+// version 2.1 of the License, or (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+//
+package net.sourceforge.jtds.jdbc;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Benchmarks decoding column values with {@link TdsData#readData}, one type
+ * family at a time. Each invocation replays a response of <code>rows</code>
+ * values through a {@link ReplaySocket}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TdsDataBenchmark {
+    // TDS data types, see TdsData
+    private static final int SYBINTN       = 0x26;
+    private static final int SYBDECIMAL    = 0x6A;
+    private static final int SYBFLTN       = 0x6D;
+    private static final int SYBDATETIMN   = 0x6F;
+    private static final int XSYBVARBINARY = 0xA5;
+    private static final int XSYBVARCHAR   = 0xA7;
+    private static final int XSYBNVARCHAR  = 0xE7;
+
+    /** The type family to decode. */
+    @Param({"int", "float", "decimal", "datetime", "varchar", "nvarchar", "varbinary"})
+    public String family;
+
+    /** The number of values per response. */
+    @Param({"1000"})
+    public int rows;
+
+    private JtdsConnection connection;
+    private RequestStream out;
+    private ResponseStream in;
+    private ColInfo ci;
+
+    @Setup
+    public void setup() throws Exception {
+        connection = BenchSupport.createConnection(Driver.SQLSERVER, Driver.TDS80);
+        ReplaySocket socket = new ReplaySocket(Driver.TDS80, Driver.SQLSERVER);
+        ByteBuffer data = ByteBuffer.allocate(rows * 128).order(ByteOrder.LITTLE_ENDIAN);
+
+        ci = new ColInfo();
+
+        for (int i = 0; i < rows; i++) {
+            if ("int".equals(family)) {
+                ci.tdsType = SYBINTN;
+                data.put((byte) 4).putInt(i * 31);
+            } else if ("float".equals(family)) {
+                ci.tdsType = SYBFLTN;
+                data.put((byte) 8).putDouble(i * 1.25);
+            } else if ("decimal".equals(family)) {
+                ci.tdsType = SYBDECIMAL;
+                ci.scale = 4;
+                data.put((byte) 9).put((byte) 1).putLong(i * 123456789L);
+            } else if ("datetime".equals(family)) {
+                ci.tdsType = SYBDATETIMN;
+                data.put((byte) 8).putInt(40000 + i % 1000).putInt(i * 300);
+            } else if ("varchar".equals(family)) {
+                ci.tdsType = XSYBVARCHAR;
+                byte[] value = ("value " + i).getBytes("Cp1252");
+                data.putShort((short) value.length).put(value);
+            } else if ("nvarchar".equals(family)) {
+                ci.tdsType = XSYBNVARCHAR;
+                byte[] value = ("value " + i).getBytes("UTF-16LE");
+                data.putShort((short) value.length).put(value);
+            } else if ("varbinary".equals(family)) {
+                ci.tdsType = XSYBVARBINARY;
+                data.putShort((short) 16).putLong(i).putLong(-i);
+            } else {
+                throw new IllegalArgumentException(family);
+            }
+        }
+
+        byte[] capture = new byte[data.position()];
+        data.flip();
+        data.get(capture);
+
+        socket.setCapture(ReplaySocket.packetize(capture, TdsCore.DEFAULT_MIN_PKT_SIZE_TDS70));
+        out = socket.getRequestStream(TdsCore.DEFAULT_MIN_PKT_SIZE_TDS70, TdsData.DEFAULT_PRECISION_38);
+        in = socket.getResponseStream(out, TdsCore.DEFAULT_MIN_PKT_SIZE_TDS70);
+    }
+
+    @Benchmark
+    public void readData(Blackhole bh) throws Exception {
+        BenchSupport.sendRequest(out);
+
+        for (int i = 0; i < rows; i++) {
+            bh.consume(TdsData.readData(connection, in, ci));
+        }
+    }
+}
@@ -61,7 +61,7 @@ public class BlobImpl implements Blob {
             throw new IllegalArgumentException("bytes cannot be null");
         }
 
-        blobBuffer = new BlobBuffer(connection.getBufferDir(), connection.getLobBuffer());
+        blobBuffer = new BlobBuffer(connection.getLobStore(), connection.getLobBuffer());
         blobBuffer.setBuffer(bytes, false);
     }
 
@@ -94,6 +94,10 @@ public class CachedResultSet extends JtdsResultSet {
     protected String tableName;
     /** The parent connection object */
     protected JtdsConnection connection;
+    /** Column oriented row storage of read only results or null. */
+    private ColumnarRowStore rowStore;
+    /** Primitive values of the current row loaded from {@link #rowStore}. */
+    private PrimitiveRow rowStorePrimitives;
 
     /**
      * Constructs a new cached result set.
@@ -224,10 +228,15 @@ public class CachedResultSet extends JtdsResultSet {
         // Load result set into buffer
         //
         if (load) {
+            // The result is read only, store it column wise
+            rowStore = new ColumnarRowStore(columns);
+            rowStorePrimitives = new PrimitiveRow(columns.length);
+            rowData = null;
             while (rs.next()) {
-                rowData.add(copyRow(rs.getCurrentRow()));
+                // Unboxed values if read directly from the server
+                rowStore.add(rs.currentRow, rs.primitiveRow);
             }
-            rowsInResult  = rowData.size();
+            rowsInResult  = rowStore.size();
         }
     }
 
@@ -391,7 +400,7 @@ public class CachedResultSet extends JtdsResultSet {
                 ex.setNextException(statement.getMessages().exceptions);
                 throw ex;
             }
-            columns = cursorTds.getColumns();
+            columns = cursorTds.getColumnsForUpdate();
             if (connection.getServerType() == Driver.SQLSERVER) {
                 // Last column will be rowstat but will not be marked as hidden
                 // as we do not have the Column meta data returned by the API
@@ -422,9 +431,10 @@ public class CachedResultSet extends JtdsResultSet {
                     ex.setNextException(statement.getMessages().exceptions);
                     throw ex;
                 }
-                columns = cursorTds.getColumns();
+                columns = cursorTds.getColumnsForUpdate();
                 columnCount = getColumnCount(columns);
                 rowData = new ArrayList(INITIAL_ROW_COUNT);
+                rowStore = null;
                 //
                 // Load result set into buffer
                 //
@@ -461,12 +471,10 @@ public class CachedResultSet extends JtdsResultSet {
                 }
                 columns = cursorTds.getColumns();
                 columnCount = getColumnCount(columns);
-                rowData = new ArrayList(INITIAL_ROW_COUNT);
                 //
-                // Load result set into buffer
+                // Load read only result set into column wise buffer
                 //
-                cacheResultSetRows();
-                rowsInResult  = rowData.size();
+                cacheColumnarRows();
                 pos = POS_BEFORE_FIRST;
             }
         }
@@ -683,7 +691,14 @@ public class CachedResultSet extends JtdsResultSet {
             return false;
         }
         pos = rowNum;
-        currentRow = (Object[])rowData.get(rowNum-1);
+        if (rowStore != null) {
+            // Materialize the row, primitive values stay unboxed
+            currentRow = new Object[columns.length];
+            rowStore.load(rowNum - 1, currentRow, rowStorePrimitives);
+            primitiveRow = rowStorePrimitives;
+        } else {
+            currentRow = (Object[])rowData.get(rowNum-1);
+        }
         rowDeleted = currentRow == null;
 
         if (resultSetType >= ResultSet.TYPE_SCROLL_SENSITIVE &&
@@ -711,6 +726,28 @@ public class CachedResultSet extends JtdsResultSet {
             cursorTds.submitSQL(sql);
         }
         rowData = null;
+        rowStore = null;
+    }
+
+    /**
+     * Loads the remaining rows of a read only result into a
+     * {@link ColumnarRowStore}, reading numeric values without boxing them.
+     *
+     * @throws SQLException if an error occurs
+     */
+    private void cacheColumnarRows() throws SQLException {
+        TdsCore tds = statement.getTds();
+
+        rowStore = new ColumnarRowStore(columns);
+        rowStorePrimitives = new PrimitiveRow(columns.length);
+        rowData = null;
+
+        while (tds.getNextRow()) {
+            rowStore.add(tds.getUnboxedRowData(), tds.getPrimitiveRow());
+        }
+        // Allow statement to process output vars etc
+        statement.cacheResults();
+        rowsInResult = rowStore.size();
     }
 
     /**
@@ -17,6 +17,7 @@
 //
 package net.sourceforge.jtds.jdbc;
 
+import java.nio.charset.Charset;
 import java.sql.SQLException;
 import java.util.HashMap;
 import java.util.Locale;
@@ -212,6 +213,8 @@ public final class CharsetInfo {
     private final String charset;
     /** Indicates whether current charset is wide (ie multi-byte). */
     private final boolean wideChars;
+    /** The Java character set or <code>null</code> if not supported. */
+    private final Charset javaCharset;
 
     /**
      * Constructs a <code>CharsetInfo</code> object from a character set
@@ -224,6 +227,22 @@ public final class CharsetInfo {
     public CharsetInfo(String descriptor) {
         wideChars = !"1".equals(descriptor.substring(0, 1));
         charset = descriptor.substring(2);
+        javaCharset = lookupCharset(charset);
+    }
+
+    /**
+     * Looks up a Java character set.
+     *
+     * @param name the charset name
+     * @return the character set or <code>null</code> if not supported
+     */
+    private static Charset lookupCharset(String name) {
+        try {
+            return Charset.forName(name);
+        } catch (IllegalArgumentException e) {
+            // Illegal or unsupported charset name
+            return null;
+        }
     }
 
     /**
@@ -233,6 +252,17 @@ public final class CharsetInfo {
         return charset;
     }
 
+    /**
+     * Retrieves the Java character set, looked up once instead of by name on
+     * every conversion.
+     *
+     * @return the character set or <code>null</code> if not supported by the
+     *         JVM
+     */
+    public Charset getJavaCharset() {
+        return javaCharset;
+    }
+
     /**
      * Retrieves whether the character set is wide (ie multi-byte).
      */
@@ -78,7 +78,7 @@ public class ClobImpl implements Clob {
         if (str == null) {
             throw new IllegalArgumentException("str cannot be null");
         }
-        blobBuffer = new BlobBuffer(connection.getBufferDir(), connection.getLobBuffer());
+        blobBuffer = new BlobBuffer(connection.getLobStore(), connection.getLobBuffer());
         try {
             byte[] data = str.getBytes("UTF-16LE");
             blobBuffer.setBuffer(data, false);
@@ -137,6 +137,41 @@ public class ColInfo implements Cloneable
     */
    String      sqlType;
 
+   /////////////////////////////////////////////////////////////////////////////
+   // static methods
+   /////////////////////////////////////////////////////////////////////////////
+
+   /**
+    * <p> Copies an array of column descriptors, including the descriptors
+    * themselves. Used to modify descriptors that may be shared with other
+    * results by the {@link MetaDataCache}. </p>
+    *
+    * @param columns
+    *    the column descriptors to copy
+    *
+    * @return
+    *    the new column descriptors
+    */
+   static ColInfo[] copy( ColInfo[] columns )
+   {
+      ColInfo[] copy = new ColInfo[columns.length];
+
+      for( int i = 0; i < columns.length; i ++ )
+      {
+         try
+         {
+            copy[i] = (ColInfo) columns[i].clone();
+         }
+         catch( CloneNotSupportedException e )
+         {
+            // cannot happen, ColInfo is Cloneable
+            throw new IllegalStateException( e );
+         }
+      }
+
+      return copy;
+   }
+
    /////////////////////////////////////////////////////////////////////////////
    // overridden methods of class Object
    /////////////////////////////////////////////////////////////////////////////
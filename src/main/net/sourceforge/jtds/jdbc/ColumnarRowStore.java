@@ -0,0 +1,410 @@
+// jTDS JDBC Driver for Microsoft SQL Server and Sybase
+// Copyright (C) 2004 The jTDS Project
+//
+// This library is free software; you can redistribute it and/or
+// modify it under the terms of the GNU Lesser General Public
+// License as published by the Free Software Foundation; either
+// version 2.1 of the License, or (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+//
+package net.sourceforge.jtds.jdbc;
+
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Column oriented storage for the rows of a read only {@link CachedResultSet}.
+ * <p/>
+ * Implementation notes:
+ * <ol>
+ *   <li>Rows are stored in chunks of {@link #CHUNK_SIZE} rows, each chunk
+ *     holds one array per column, so adding rows never copies the rows
+ *     stored before.
+ *   <li>Integer, bigint and floating point columns are stored in
+ *     <code>int[]</code>, <code>long[]</code> and <code>double[]</code>
+ *     arrays, taken straight from the {@link PrimitiveRow} of the response
+ *     when available. Character and binary columns are stored in one
+ *     <code>char[]</code> or <code>byte[]</code> arena per chunk and column.
+ *     All other columns are stored as objects.
+ *   <li>SQL <code>NULL</code> values of primitive, character and binary
+ *     columns are recorded in a bitmap. Values not matching the storage of
+ *     their column (e.g. a <code>Clob</code> for a <code>TEXT</code> column)
+ *     are kept as objects in a per chunk overflow array.
+ *   <li>Rows are only materialized when the result set is positioned on
+ *     them: primitive values are loaded into a {@link PrimitiveRow} and only
+ *     boxed if retrieved as objects, strings and byte arrays are created
+ *     from the arenas.
+ * </ol>
+ */
+final class ColumnarRowStore {
+    /** Number of rows per chunk (a power of 2). */
+    static final int CHUNK_SIZE = 1024;
+    /** Shift converting a row index into a chunk index. */
+    private static final int CHUNK_SHIFT = 10;
+    /** Initial size of a character or binary arena. */
+    private static final int INITIAL_ARENA_SIZE = 4096;
+
+    /** Column stored as objects. */
+    private static final byte OBJECT = PrimitiveRow.NONE;
+    /** Column stored as <code>int</code> values. */
+    private static final byte INT    = PrimitiveRow.INT;
+    /** Column stored as <code>long</code> values. */
+    private static final byte LONG   = PrimitiveRow.LONG;
+    /** Column stored as <code>float</code> values (in a <code>double[]</code>). */
+    private static final byte FLOAT  = PrimitiveRow.FLOAT;
+    /** Column stored as <code>double</code> values. */
+    private static final byte DOUBLE = PrimitiveRow.DOUBLE;
+    /** Column stored as characters. */
+    private static final byte STRING = 5;
+    /** Column stored as bytes. */
+    private static final byte BYTES  = 6;
+
+    /**
+     * The values of {@link #CHUNK_SIZE} consecutive rows.
+     */
+    private static final class Chunk {
+        /** Per column: <code>int[]</code>, <code>long[]</code>,
+         *  <code>double[]</code>, <code>Object[]</code> or an arena. */
+        final Object[] values;
+        /** Per column: the end offsets of the values in the arena. */
+        final int[][] ends;
+        /** Per column: bitmap of SQL <code>NULL</code> values or null. */
+        final long[][] nulls;
+        /** Per column: values not matching the column storage or null. */
+        final Object[][] overflow;
+        /** Per column: number of arena elements used. */
+        final int[] used;
+
+        Chunk(byte[] kinds) {
+            values   = new Object[kinds.length];
+            ends     = new int[kinds.length][];
+            nulls    = new long[kinds.length][];
+            overflow = new Object[kinds.length][];
+            used     = new int[kinds.length];
+
+            for (int col = 0; col < kinds.length; col++) {
+                switch (kinds[col]) {
+                    case INT:
+                        values[col] = new int[CHUNK_SIZE];
+                        break;
+                    case LONG:
+                        values[col] = new long[CHUNK_SIZE];
+                        break;
+                    case FLOAT:
+                    case DOUBLE:
+                        values[col] = new double[CHUNK_SIZE];
+                        break;
+                    case STRING:
+                        values[col] = new char[INITIAL_ARENA_SIZE];
+                        ends[col] = new int[CHUNK_SIZE];
+                        break;
+                    case BYTES:
+                        values[col] = new byte[INITIAL_ARENA_SIZE];
+                        ends[col] = new int[CHUNK_SIZE];
+                        break;
+                    default:
+                        values[col] = new Object[CHUNK_SIZE];
+                }
+            }
+        }
+
+        boolean isNull(int col, int index) {
+            return nulls[col] != null
+                    && (nulls[col][index >> 6] & (1L << index)) != 0;
+        }
+
+        void setNull(int col, int index) {
+            if (nulls[col] == null) {
+                nulls[col] = new long[CHUNK_SIZE >> 6];
+            }
+            nulls[col][index >> 6] |= 1L << index;
+        }
+
+        void setOverflow(int col, int index, Object value) {
+            if (overflow[col] == null) {
+                overflow[col] = new Object[CHUNK_SIZE];
+            }
+            overflow[col][index] = value;
+        }
+
+        Object getOverflow(int col, int index) {
+            return overflow[col] == null ? null : overflow[col][index];
+        }
+    }
+
+    /** The storage kind of each column. */
+    private final byte[] kinds;
+    /** The chunks, in row order. */
+    private final ArrayList chunks = new ArrayList();
+    /** The number of rows stored. */
+    private int size;
+
+    /**
+     * Constructs a store for rows with the specified columns.
+     *
+     * @param columns the column descriptors of the result
+     */
+    ColumnarRowStore(ColInfo[] columns) {
+        kinds = new byte[columns.length];
+
+        for (int i = 0; i < columns.length; i++) {
+            kinds[i] = getKind(columns[i].jdbcType);
+        }
+    }
+
+    /**
+     * Selects the storage of a column.
+     */
+    private static byte getKind(int jdbcType) {
+        switch (jdbcType) {
+            case Types.TINYINT:
+            case Types.SMALLINT:
+            case Types.INTEGER:
+                return INT;
+            case Types.BIGINT:
+                return LONG;
+            case Types.REAL:
+                return FLOAT;
+            case Types.FLOAT:
+            case Types.DOUBLE:
+                return DOUBLE;
+            case Types.CHAR:
+            case Types.VARCHAR:
+            case Types.LONGVARCHAR:
+            case Types.NCHAR:
+            case Types.NVARCHAR:
+            case Types.LONGNVARCHAR:
+                return STRING;
+            case Types.BINARY:
+            case Types.VARBINARY:
+            case Types.LONGVARBINARY:
+                return BYTES;
+            default:
+                return OBJECT;
+        }
+    }
+
+    /**
+     * Retrieves the number of rows stored.
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Appends a row.
+     *
+     * @param row  the row's objects; for columns set in <code>prim</code>
+     *             the value is taken from there instead
+     * @param prim the row's primitive values or <code>null</code>
+     */
+    void add(Object[] row, PrimitiveRow prim) {
+        int index = size & (CHUNK_SIZE - 1);
+
+        if (index == 0) {
+            chunks.add(new Chunk(kinds));
+        }
+
+        Chunk chunk = (Chunk) chunks.get(chunks.size() - 1);
+
+        for (int col = 0; col < kinds.length; col++) {
+            if (prim != null && prim.isSet(col)) {
+                addPrimitive(chunk, col, index, prim);
+            } else {
+                addObject(chunk, col, index, row[col]);
+            }
+        }
+
+        size++;
+    }
+
+    /**
+     * Stores a value held by a {@link PrimitiveRow}.
+     */
+    private void addPrimitive(Chunk chunk, int col, int index, PrimitiveRow prim) {
+        byte kind = prim.getKind(col);
+
+        if (prim.isNull(col)) {
+            addObject(chunk, col, index, null);
+        } else if (kind == kinds[col]) {
+            switch (kind) {
+                case INT:
+                    ((int[]) chunk.values[col])[index] = prim.getInt(col);
+                    break;
+                case LONG:
+                    ((long[]) chunk.values[col])[index] = prim.getLong(col);
+                    break;
+                default:
+                    ((double[]) chunk.values[col])[index] = prim.getDouble(col);
+            }
+        } else {
+            Object value;
+
+            switch (kind) {
+                case INT:
+                    value = Integer.valueOf(prim.getInt(col));
+                    break;
+                case LONG:
+                    value = Long.valueOf(prim.getLong(col));
+                    break;
+                case FLOAT:
+                    value = Float.valueOf(prim.getFloat(col));
+                    break;
+                default:
+                    value = Double.valueOf(prim.getDouble(col));
+            }
+
+            addObject(chunk, col, index, value);
+        }
+    }
+
+    /**
+     * Stores a value held as an object.
+     */
+    private void addObject(Chunk chunk, int col, int index, Object value) {
+        switch (kinds[col]) {
+            case INT:
+                if (value instanceof Integer) {
+                    ((int[]) chunk.values[col])[index] = ((Integer) value).intValue();
+                    return;
+                }
+                break;
+            case LONG:
+                if (value instanceof Long) {
+                    ((long[]) chunk.values[col])[index] = ((Long) value).longValue();
+                    return;
+                }
+                break;
+            case FLOAT:
+                if (value instanceof Float) {
+                    ((double[]) chunk.values[col])[index] = ((Float) value).floatValue();
+                    return;
+                }
+                break;
+            case DOUBLE:
+                if (value instanceof Double) {
+                    ((double[]) chunk.values[col])[index] = ((Double) value).doubleValue();
+                    return;
+                }
+                break;
+            case STRING:
+                chunk.ends[col][index] = chunk.used[col];
+                if (value instanceof String) {
+                    String s = (String) value;
+                    char[] arena = (char[]) chunk.values[col];
+                    int end = chunk.used[col] + s.length();
+
+                    if (end > arena.length) {
+                        arena = Arrays.copyOf(arena, Math.max(end, arena.length * 2));
+                        chunk.values[col] = arena;
+                    }
+                    s.getChars(0, s.length(), arena, chunk.used[col]);
+                    chunk.used[col] = end;
+                    chunk.ends[col][index] = end;
+                    return;
+                }
+                break;
+            case BYTES:
+                chunk.ends[col][index] = chunk.used[col];
+                if (value instanceof byte[]) {
+                    byte[] b = (byte[]) value;
+                    byte[] arena = (byte[]) chunk.values[col];
+                    int end = chunk.used[col] + b.length;
+
+                    if (end > arena.length) {
+                        arena = Arrays.copyOf(arena, Math.max(end, arena.length * 2));
+                        chunk.values[col] = arena;
+                    }
+                    System.arraycopy(b, 0, arena, chunk.used[col], b.length);
+                    chunk.used[col] = end;
+                    chunk.ends[col][index] = end;
+                    return;
+                }
+                break;
+            default:
+                ((Object[]) chunk.values[col])[index] = value;
+                return;
+        }
+
+        if (value == null) {
+            chunk.setNull(col, index);
+        } else {
+            chunk.setOverflow(col, index, value);
+        }
+    }
+
+    /**
+     * Loads a row. Primitive values are loaded into <code>prim</code>, the
+     * corresponding elements of <code>row</code> are set to
+     * <code>null</code>.
+     *
+     * @param rowIndex the zero based row index
+     * @param row      receives the row's objects
+     * @param prim     receives the row's primitive values
+     */
+    void load(int rowIndex, Object[] row, PrimitiveRow prim) {
+        Chunk chunk = (Chunk) chunks.get(rowIndex >>> CHUNK_SHIFT);
+        int index = rowIndex & (CHUNK_SIZE - 1);
+
+        for (int col = 0; col < kinds.length; col++) {
+            Object value = chunk.getOverflow(col, index);
+
+            if (value != null) {
+                prim.clear(col);
+                row[col] = value;
+                continue;
+            }
+
+            byte kind = kinds[col];
+            boolean isNull = chunk.isNull(col, index);
+
+            switch (kind) {
+                case INT:
+                case LONG:
+                case FLOAT:
+                case DOUBLE:
+                    row[col] = null;
+                    if (isNull) {
+                        prim.setNull(col, kind);
+                    } else if (kind == INT) {
+                        prim.setInt(col, ((int[]) chunk.values[col])[index]);
+                    } else if (kind == LONG) {
+                        prim.setLong(col, ((long[]) chunk.values[col])[index]);
+                    } else if (kind == FLOAT) {
+                        prim.setFloat(col, (float) ((double[]) chunk.values[col])[index]);
+                    } else {
+                        prim.setDouble(col, ((double[]) chunk.values[col])[index]);
+                    }
+                    break;
+                case STRING:
+                case BYTES:
+                    prim.clear(col);
+                    if (isNull) {
+                        row[col] = null;
+                    } else {
+                        int start = index == 0 ? 0 : chunk.ends[col][index - 1];
+                        int end = chunk.ends[col][index];
+
+                        if (kind == STRING) {
+                            row[col] = new String((char[]) chunk.values[col], start, end - start);
+                        } else {
+                            row[col] = Arrays.copyOfRange((byte[]) chunk.values[col], start, end);
+                        }
+                    }
+                    break;
+                default:
+                    prim.clear(col);
+                    row[col] = ((Object[]) chunk.values[col])[index];
+            }
+        }
+    }
+}
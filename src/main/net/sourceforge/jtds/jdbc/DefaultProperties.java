@@ -22,6 +22,7 @@ import java.util.Properties;
 import java.util.Map;
 import java.util.HashMap;
 
+import net.sourceforge.jtds.jdbc.cache.ProcedureCache;
 import net.sourceforge.jtds.ssl.Ssl;
 
 /**
@@ -69,6 +70,8 @@ public final class DefaultProperties {
     public static final String CACHEMETA = "false";
     /** Default <code>charset</code> property. */
     public static final String CHARSET = "";
+    /** Default <code>cursorPrefetch</code> property. */
+    public static final String CURSOR_PREFETCH = "false";
     /** Default <code>databaseName</code> property. */
     public static final String DATABASE_NAME = "";
     /** Default <code>instance</code> property. */
@@ -127,6 +130,8 @@ public final class DefaultProperties {
     public static final String USELOBS = "true";
     /** Default <code>useNTLMv2</code> property. */
     public static final String USENTLMV2 = "false";
+    /** Default <code>useNIO</code> property. */
+    public static final String USENIO = "false";
     /** Default <code>useKerberos</code> property. */
     public static final String USEKERBEROS = "false";
     /** Default <code>user</code> property. */
@@ -162,6 +167,12 @@ public final class DefaultProperties {
 
     /** Default <code>ssl</code> property. */
     public static final String SSL = Ssl.SSL_OFF;
+    /** Default <code>statementCache</code> property. */
+    public static final String STATEMENT_CACHE = ProcedureCache.LRU;
+    /** Default <code>streamLOBs</code> property. */
+    public static final String STREAM_LOBS = "false";
+    /** Default <code>streamResults</code> property. */
+    public static final String STREAM_RESULTS = "false";
 
     /** Default TDS version based on server type */
     private static final HashMap tdsDefaults;
@@ -244,6 +255,7 @@ public final class DefaultProperties {
         addDefaultPropertyIfNotSet(props, Driver.PACKETSIZE, Driver.TDS, packetSizeDefaults);
         addDefaultPropertyIfNotSet(props, Driver.CACHEMETA, CACHEMETA);
         addDefaultPropertyIfNotSet(props, Driver.CHARSET, CHARSET);
+        addDefaultPropertyIfNotSet(props, Driver.CURSORPREFETCH, CURSOR_PREFETCH);
         addDefaultPropertyIfNotSet(props, Driver.LANGUAGE, LANGUAGE);
         addDefaultPropertyIfNotSet(props, Driver.PREPARESQL, Driver.SERVERTYPE, prepareSQLDefaults);
         addDefaultPropertyIfNotSet(props, Driver.SENDSTRINGPARAMETERSASUNICODE, USE_UNICODE);
@@ -260,6 +272,10 @@ public final class DefaultProperties {
         addDefaultPropertyIfNotSet(props, Driver.BINDADDRESS, BIND_ADDRESS);
         addDefaultPropertyIfNotSet(props, Driver.USEJCIFS, USEJCIFS);
         addDefaultPropertyIfNotSet(props, Driver.BUFFERDIR, BUFFER_DIR);
+        addDefaultPropertyIfNotSet(props, Driver.STATEMENTCACHE, STATEMENT_CACHE);
+        addDefaultPropertyIfNotSet(props, Driver.STREAMLOBS, STREAM_LOBS);
+        addDefaultPropertyIfNotSet(props, Driver.STREAMRESULTS, STREAM_RESULTS);
+        addDefaultPropertyIfNotSet(props, Driver.USENIO, USENIO);
 
         return props;
     }
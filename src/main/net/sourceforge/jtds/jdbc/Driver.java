@@ -28,6 +28,7 @@ import java.util.Locale;
 import java.util.Map;
 import java.util.Properties;
 
+import net.sourceforge.jtds.jdbc.cache.ProcedureCache;
 import net.sourceforge.jtds.ssl.Ssl;
 
 /**
@@ -86,6 +87,7 @@ public class Driver implements java.sql.Driver {
     public static final String BUFFERMINPACKETS = "prop.bufferminpackets";
     public static final String CACHEMETA     = "prop.cachemetadata";
     public static final String CHARSET       = "prop.charset";
+    public static final String CURSORPREFETCH = "prop.cursorprefetch";
     public static final String DATABASENAME  = "prop.databasename";
     public static final String DOMAIN        = "prop.domain";
     public static final String INSTANCE      = "prop.instance";
@@ -108,11 +110,15 @@ public class Driver implements java.sql.Driver {
     public static final String SOKEEPALIVE   = "prop.sokeepalive";
     public static final String PROCESSID     = "prop.processid";
     public static final String SSL           = "prop.ssl";
+    public static final String STATEMENTCACHE = "prop.statementcache";
+    public static final String STREAMLOBS    = "prop.streamlobs";
+    public static final String STREAMRESULTS = "prop.streamresults";
     public static final String TCPNODELAY    = "prop.tcpnodelay";
     public static final String TDS           = "prop.tds";
     public static final String USECURSORS    = "prop.usecursors";
     public static final String USEJCIFS      = "prop.usejcifs";
     public static final String USENTLMV2     = "prop.usentlmv2";
+    public static final String USENIO        = "prop.usenio";
     public static final String USEKERBEROS   = "prop.usekerberos";
     public static final String USELOBS       = "prop.uselobs";
     public static final String USER          = "prop.user";
@@ -269,6 +275,7 @@ public class Driver implements java.sql.Driver {
 
         final String[] booleanChoices = new String[]{"true", "false"};
         choicesMap.put(Messages.get(Driver.CACHEMETA), booleanChoices);
+        choicesMap.put(Messages.get(Driver.CURSORPREFETCH), booleanChoices);
         choicesMap.put(Messages.get(Driver.LASTUPDATECOUNT), booleanChoices);
         choicesMap.put(Messages.get(Driver.NAMEDPIPE), booleanChoices);
         choicesMap.put(Messages.get(Driver.TCPNODELAY), booleanChoices);
@@ -276,6 +283,9 @@ public class Driver implements java.sql.Driver {
         choicesMap.put(Messages.get(Driver.USECURSORS), booleanChoices);
         choicesMap.put(Messages.get(Driver.USELOBS), booleanChoices);
         choicesMap.put(Messages.get(Driver.XAEMULATION), booleanChoices);
+        choicesMap.put(Messages.get(Driver.STREAMLOBS), booleanChoices);
+        choicesMap.put(Messages.get(Driver.STREAMRESULTS), booleanChoices);
+        choicesMap.put(Messages.get(Driver.USENIO), booleanChoices);
 
         final String[] prepareSqlChoices = new String[]{
             String.valueOf(TdsCore.UNPREPARED),
@@ -307,6 +317,13 @@ public class Driver implements java.sql.Driver {
         };
         choicesMap.put(Messages.get(Driver.SSL), sslChoices);
 
+        final String[] statementCacheChoices = new String[]{
+            ProcedureCache.LRU,
+            ProcedureCache.FIFO,
+            ProcedureCache.LFU
+        };
+        choicesMap.put(Messages.get(Driver.STATEMENTCACHE), statementCacheChoices);
+
         return choicesMap;
     }
 
@@ -0,0 +1,407 @@
+// jTDS JDBC Driver for Microsoft SQL Server and Sybase
+// Copyright (C) 2004 The jTDS Project
+//
+// This library is free software; you can redistribute it and/or
+// modify it under the terms of the GNU Lesser General Public
+// License as published by the Free Software Foundation; either
+// version 2.1 of the License, or (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+//
+package net.sourceforge.jtds.jdbc;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Iterator;
+
+/**
+ * Loads rows into a SQL Server table using the bulk load protocol, the way
+ * <code>bcp</code> does, which is much faster than executing
+ * <code>INSERT</code> statements.
+ * <p/>
+ * Implementation notes:
+ * <ol>
+ *   <li>The column types are obtained from the server by selecting no rows
+ *     from the target table. Rows are sent in the native format of these
+ *     types, values are converted as if set on a prepared statement.
+ *   <li>Identity and <code>timestamp</code> columns are skipped unless
+ *     columns are specified with {@link #setColumns}. To load identity
+ *     values specify the <code>KEEP_IDENTITY</code> option.
+ *   <li>Text, image, <code>sql_variant</code> and XML columns are not
+ *     supported.
+ *   <li>Each batch of rows is loaded by an <code>INSERT BULK</code>
+ *     statement followed by a bulk load request. The rows of a batch are
+ *     streamed to the server while they are read from the source. If the
+ *     source fails, the current batch is discarded by the server.
+ *   <li>Only supported by SQL Server using TDS 7.0 or later.
+ * </ol>
+ *
+ * @see JtdsConnection#createBulkCopy(String)
+ */
+public class JtdsBulkCopy {
+    /** <code>userType</code> of SQL Server <code>timestamp</code> columns. */
+    private static final int UDT_TIMESTAMP = 80;
+
+    /**
+     * Source of the rows to load. Values are retrieved the way they are from
+     * a <code>ResultSet</code>, integer and floating point columns using the
+     * primitive getters, all other columns using {@link #getObject}.
+     */
+    public interface RowSource {
+        /**
+         * Moves to the next row.
+         *
+         * @return <code>false</code> if there are no more rows
+         */
+        boolean next() throws SQLException;
+
+        /**
+         * Retrieves an integer or bit value.
+         *
+         * @param column the column index, starting at 1
+         */
+        long getLong(int column) throws SQLException;
+
+        /**
+         * Retrieves a floating point value.
+         *
+         * @param column the column index, starting at 1
+         */
+        double getDouble(int column) throws SQLException;
+
+        /**
+         * Retrieves any other value.
+         *
+         * @param column the column index, starting at 1
+         * @return the value or <code>null</code>
+         */
+        Object getObject(int column) throws SQLException;
+
+        /**
+         * Reports whether the last primitive value retrieved was SQL
+         * <code>NULL</code>.
+         */
+        boolean wasNull() throws SQLException;
+    }
+
+    /** The connection to load data through. */
+    private final JtdsConnection connection;
+    /** The name of the target table. */
+    private final String table;
+    /** The target columns or <code>null</code> for all columns. */
+    private String[] columnNames;
+    /** The options of the <code>INSERT BULK</code> statement. */
+    private String options;
+    /** The maximum number of rows per batch or 0 for a single batch. */
+    private int batchSize;
+    /** The number of rows loaded so far. */
+    private long rowsCopied;
+
+    /**
+     * Creates a bulk copy for a table.
+     *
+     * @param connection the connection to use
+     * @param table      the name of the target table
+     * @throws SQLException if the connection does not support bulk loads
+     */
+    JtdsBulkCopy(JtdsConnection connection, String table) throws SQLException {
+        if (connection.getServerType() != Driver.SQLSERVER
+                || connection.getTdsVersion() < Driver.TDS70) {
+            throw new SQLException(Messages.get("error.bulkcopy.notsup"), "HYC00");
+        }
+
+        this.connection = connection;
+        this.table = table;
+    }
+
+    /**
+     * Sets the target columns, in the order of the source columns. By
+     * default the source columns map to the columns of the table, excluding
+     * identity and <code>timestamp</code> columns.
+     *
+     * @param columnNames the target column names or <code>null</code>
+     */
+    public void setColumns(String[] columnNames) {
+        this.columnNames = columnNames;
+    }
+
+    /**
+     * Sets the options of the <code>INSERT BULK</code> statement, e.g.
+     * <code>"TABLOCK, CHECK_CONSTRAINTS"</code>.
+     *
+     * @param options the options or <code>null</code> for none
+     */
+    public void setOptions(String options) {
+        this.options = options;
+    }
+
+    /**
+     * Sets the number of rows loaded per batch. In auto commit mode each
+     * batch is committed by the server.
+     *
+     * @param batchSize the number of rows or 0 to load all rows in one batch
+     */
+    public void setBatchSize(int batchSize) {
+        if (batchSize < 0) {
+            throw new IllegalArgumentException("batchSize: " + batchSize);
+        }
+
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Retrieves the number of rows loaded by this bulk copy so far.
+     */
+    public long getRowsCopied() {
+        return rowsCopied;
+    }
+
+    /**
+     * Loads the remaining rows of a result set.
+     *
+     * @param rs the result set, its columns map to the target columns
+     * @return the number of rows loaded
+     * @throws SQLException if reading or loading the rows fails
+     */
+    public long writeRows(final ResultSet rs) throws SQLException {
+        return writeRows(new RowSource() {
+            public boolean next() throws SQLException {
+                return rs.next();
+            }
+
+            public long getLong(int column) throws SQLException {
+                return rs.getLong(column);
+            }
+
+            public double getDouble(int column) throws SQLException {
+                return rs.getDouble(column);
+            }
+
+            public Object getObject(int column) throws SQLException {
+                return rs.getObject(column);
+            }
+
+            public boolean wasNull() throws SQLException {
+                return rs.wasNull();
+            }
+        });
+    }
+
+    /**
+     * Loads rows supplied as arrays.
+     *
+     * @param rows iterator over <code>Object[]</code> rows, their elements
+     *             map to the target columns
+     * @return the number of rows loaded
+     * @throws SQLException if loading the rows fails
+     */
+    public long writeRows(final Iterator rows) throws SQLException {
+        return writeRows(new RowSource() {
+            private Object[] row;
+            private boolean wasNull;
+
+            public boolean next() {
+                if (!rows.hasNext()) {
+                    return false;
+                }
+
+                row = (Object[]) rows.next();
+
+                return true;
+            }
+
+            public long getLong(int column) throws SQLException {
+                Object value = row[column - 1];
+
+                wasNull = value == null;
+
+                if (value instanceof Number) {
+                    return ((Number) value).longValue();
+                }
+
+                return value == null ? 0
+                        : ((Long) Support.convert(connection, value, Types.BIGINT, null)).longValue();
+            }
+
+            public double getDouble(int column) throws SQLException {
+                Object value = row[column - 1];
+
+                wasNull = value == null;
+
+                if (value instanceof Number) {
+                    return ((Number) value).doubleValue();
+                }
+
+                return value == null ? 0
+                        : ((Double) Support.convert(connection, value, Types.DOUBLE, null)).doubleValue();
+            }
+
+            public Object getObject(int column) {
+                Object value = row[column - 1];
+
+                wasNull = value == null;
+
+                return value;
+            }
+
+            public boolean wasNull() {
+                return wasNull;
+            }
+        });
+    }
+
+    /**
+     * Loads the remaining rows of a row source.
+     *
+     * @param rows the row source, its columns map to the target columns
+     * @return the number of rows loaded
+     * @throws SQLException if reading or loading the rows fails
+     */
+    public long writeRows(RowSource rows) throws SQLException {
+        JtdsStatement stmt = (JtdsStatement) connection.createStatement();
+
+        try {
+            ColInfo[] columns = getColumns(stmt);
+            String insertBulk = getInsertBulk(columns);
+            int maxRows = batchSize > 0 ? batchSize : Integer.MAX_VALUE;
+            TdsCore tds = stmt.getTds();
+            long total = 0;
+            int sent;
+
+            // hold the connection lock, so no other statement runs between
+            // the INSERT BULK statement and the rows
+            synchronized (connection) {
+                do {
+                    sent = tds.bulkLoad(insertBulk, columns, rows, maxRows);
+                    total += sent;
+                    rowsCopied += sent;
+                } while (sent == maxRows);
+            }
+
+            return total;
+        } finally {
+            stmt.close();
+        }
+    }
+
+    /**
+     * Retrieves the descriptors of the target columns.
+     */
+    private ColInfo[] getColumns(Statement stmt) throws SQLException {
+        StringBuilder sql = new StringBuilder(64);
+
+        sql.append("SELECT TOP 0 ");
+
+        if (columnNames == null) {
+            sql.append('*');
+        } else {
+            for (int i = 0; i < columnNames.length; i++) {
+                if (i > 0) {
+                    sql.append(',');
+                }
+                sql.append(quote(columnNames[i]));
+            }
+        }
+
+        sql.append(" FROM ").append(table);
+
+        JtdsResultSet rs = (JtdsResultSet) stmt.executeQuery(sql.toString());
+        ColInfo[] tableColumns = rs.getColumns();
+
+        rs.close();
+
+        ArrayList columns = new ArrayList(tableColumns.length);
+
+        for (int i = 0; i < tableColumns.length; i++) {
+            ColInfo ci = tableColumns[i];
+
+            if (columnNames == null
+                    && (ci.userType == UDT_TIMESTAMP
+                        || ci.isIdentity && !hasOption("KEEP_IDENTITY"))) {
+                continue;
+            }
+
+            ColInfo bulk = TdsData.getBulkColumn(ci);
+
+            if (bulk == null) {
+                throw new SQLException(Messages.get("error.bulkcopy.badtype",
+                        ci.realName, ci.sqlType), "HYC00");
+            }
+
+            columns.add(bulk);
+        }
+
+        if (columns.isEmpty()) {
+            throw new SQLException(Messages.get("error.bulkcopy.nocolumns", table), "HY000");
+        }
+
+        return (ColInfo[]) columns.toArray(new ColInfo[columns.size()]);
+    }
+
+    /**
+     * Builds the <code>INSERT BULK</code> statement for the target columns.
+     */
+    private String getInsertBulk(ColInfo[] columns) {
+        StringBuilder sql = new StringBuilder(32 + columns.length * 24);
+
+        sql.append("INSERT BULK ").append(table).append(" (");
+
+        for (int i = 0; i < columns.length; i++) {
+            if (i > 0) {
+                sql.append(", ");
+            }
+            sql.append(quote(columns[i].realName)).append(' ');
+            sql.append(TdsData.getBulkColumnType(columns[i]));
+        }
+
+        sql.append(')');
+
+        if (options != null && options.trim().length() > 0) {
+            sql.append(" WITH (").append(options).append(')');
+        }
+
+        return sql.toString();
+    }
+
+    /**
+     * Checks whether an option of the <code>INSERT BULK</code> statement is
+     * set.
+     */
+    private boolean hasOption(String option) {
+        return options != null && options.toUpperCase().indexOf(option) >= 0;
+    }
+
+    /**
+     * Quotes a column name, unless it is quoted already.
+     */
+    private static String quote(String name) {
+        if (name.startsWith("[") || name.startsWith("\"")) {
+            return name;
+        }
+
+        StringBuilder buf = new StringBuilder(name.length() + 2);
+
+        buf.append('[');
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+
+            buf.append(c);
+            if (c == ']') {
+                buf.append(']');
+            }
+        }
+        buf.append(']');
+
+        return buf.toString();
+    }
+}
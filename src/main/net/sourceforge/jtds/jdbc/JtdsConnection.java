@@ -80,18 +80,27 @@ public class JtdsConnection implements java.sql.Connection {
                                                          "SET QUOTED_IDENTIFIER ON\r\n"+
                                                          "SET TEXTSIZE 2147483647";
     /**
-     * SQL Server initial connection string. Also contains a
+     * SQL Server initial connection settings. Kept on a single line, as they
+     * may be written in front of the first line of a SQL batch. */
+    private static final String SQL_SERVER_INITIAL_SET = "SET TRANSACTION ISOLATION LEVEL READ COMMITTED " +
+                                                         "SET IMPLICIT_TRANSACTIONS OFF " +
+                                                         "SET QUOTED_IDENTIFIER ON "+
+                                                         "SET TEXTSIZE 2147483647 ";
+    /**
+     * SQL Server 6.5/7.0 initial connection string. Also contains a
      * <code>SELECT @@MAX_PRECISION</code> query to retrieve
      * the maximum precision for DECIMAL/NUMERIC data. */
     private static final String SQL_SERVER_INITIAL_SQL = "SELECT @@MAX_PRECISION\r\n" +
-                                                         "SET TRANSACTION ISOLATION LEVEL READ COMMITTED\r\n" +
-                                                         "SET IMPLICIT_TRANSACTIONS OFF\r\n" +
-                                                         "SET QUOTED_IDENTIFIER ON\r\n"+
-                                                         "SET TEXTSIZE 2147483647";
+                                                         SQL_SERVER_INITIAL_SET;
     /**
      * SQL Server custom transaction isolation level.
      */
     public static final int TRANSACTION_SNAPSHOT = 4096;
+    /**
+     * Maximum time in seconds a request without a query timeout waits for a
+     * streaming result set of another thread to be read or closed.
+     */
+    private static final int STREAM_WAIT_TIMEOUT = 30;
 
     /*
      * Conection attributes
@@ -111,6 +120,8 @@ public class JtdsConnection implements java.sql.Connection {
     private String databaseName;
     /** The current database name. */
     private String currentDatabase;
+    /** The database selected at login, restored by a connection reset. */
+    private String loginDatabase;
     /** The Windows Domain name. */
     private String domainName;
     /** The database user ID. */
@@ -141,6 +152,8 @@ public class JtdsConnection implements java.sql.Connection {
     private int packetSize;
     /** SQL Server 2000 collation. */
     private byte collation[];
+    /** The collation set at login, restored by a connection reset. */
+    private byte loginCollation[];
     /** True if user specifies an explicit charset. */
     private boolean charsetSpecified;
     /** The database product name eg SQL SERVER. */
@@ -185,6 +198,20 @@ public class JtdsConnection implements java.sql.Connection {
     private int maxStatements;
     /** Statement cache.*/
     private StatementCache statementCache;
+    /** Eviction policy of the statement cache. */
+    private String statementCachePolicy;
+    /** Cache of the column meta data of result sets. */
+    private final MetaDataCache metaDataCache = new MetaDataCache();
+    /**
+     * SQL releasing obsolete statement handles, sent with the next request.
+     * Guarded by its own monitor, it is taken while the socket is locked.
+     */
+    private final StringBuilder pendingDropSql = new StringBuilder();
+    /**
+     * Initial connection settings not executed yet, sent with the next
+     * request. Guarded by the monitor of {@link #pendingDropSql}.
+     */
+    private String pendingInitialSql;
     /** Send parameters as unicode. */
     private boolean useUnicode = true;
     /** Use named pipe IPC instead of TCP/IP sockets. */
@@ -207,6 +234,16 @@ public class JtdsConnection implements java.sql.Connection {
     private boolean xaEmulation = true;
     /** Mutual exclusion lock to control access to connection. */
     private final Semaphore mutex = new Semaphore(1);
+    /** Read forward only result sets from the network without buffering. */
+    private boolean streamResults;
+    /** Read large LOB values of forward only result sets as streams. */
+    private boolean streamLOBs;
+    /** The <code>TdsCore</code> streaming a result set or <code>null</code>. */
+    private volatile TdsCore streamOwner;
+    /** The thread that executed the statement streaming a result set. */
+    private Thread streamThread;
+    /** Monitor guarding {@link #streamOwner}, notified when it changes. */
+    private final Object streamLock = new Object();
     /** Socket timeout value in seconds or 0. */
     private int socketTimeout;
     /** True to enable socket keep alive. */
@@ -221,8 +258,12 @@ public class JtdsConnection implements java.sql.Connection {
     private boolean useMetadataCache;
     /** Use fast forward cursors for forward only result sets. */
     private boolean useCursors;
+    /** Prefetch the rows of forward only, read only cursors. */
+    private boolean cursorPrefetch;
     /** The directory to buffer data to */
     private File bufferDir;
+    /** The disk storage shared by the LOBs of this connection. */
+    private LobStore lobStore;
     /** The global buffer memory limit for all connections (in kilobytes). */
     private int bufferMaxMemory;
     /** The minimum number of packets per statement to buffer to memory. */
@@ -239,6 +280,8 @@ public class JtdsConnection implements java.sql.Connection {
     private boolean useNTLMv2 = false;
     /** Force Kerberos authentication */
     private boolean useKerberos = false;
+    /** Use a non-blocking NIO socket channel instead of socket streams. */
+    private boolean useNIO;
 
     /** the number of currently open connections */
     private static int[] connections = new int[1];
@@ -288,7 +331,7 @@ public class JtdsConnection implements java.sql.Connection {
         //
         if (instanceName.length() > 0 && !namedPipe) {
             try {
-                final MSSqlServerInfo msInfo = new MSSqlServerInfo(serverName);
+                final MSSqlServerInfo msInfo = MSSqlServerInfo.getInstance(serverName);
 
                 portNumber = msInfo.getPortForInstance(instanceName);
             } catch (SQLException e) {
@@ -328,8 +371,22 @@ public class JtdsConnection implements java.sql.Connection {
                 // Use named pipe
                 socket = createNamedPipe(this);
             } else {
-                // Use plain TCP/IP socket
-                socket = new SharedSocket(this);
+                try {
+                    if (useNIO) {
+                        // Use TCP/IP socket channel
+                        socket = new SharedSocketChannel(this);
+                    } else {
+                        // Use plain TCP/IP socket
+                        socket = new SharedSocket(this);
+                    }
+                } catch (IOException e) {
+                    if (instanceName.length() > 0) {
+                        // The instance may listen on another port now, ask
+                        // the server again next time
+                        MSSqlServerInfo.invalidate(serverName);
+                    }
+                    throw e;
+                }
             }
 
             if( macAddress.equals( DefaultProperties.MAC_ADDRESS ) )
@@ -392,6 +449,8 @@ public class JtdsConnection implements java.sql.Connection {
             // the TDS version for the socket and there are no other objects
             // with cached TDS versions at this point.
             tdsVersion = baseTds.getTdsVersion();
+            loginDatabase = currentDatabase;
+            loginCollation = collation;
             if (tdsVersion < Driver.TDS70 && databaseName.length() > 0) {
                 // Need to select the default database
                 setCatalog(databaseName);
@@ -410,9 +469,14 @@ public class JtdsConnection implements java.sql.Connection {
             //       transaction isolation = read committed.
             if (serverType == Driver.SYBASE) {
                 baseTds.submitSQL(SYBASE_INITIAL_SQL);
+            } else if (tdsVersion >= Driver.TDS80) {
+                // The maximum decimal precision is 38 for SQL Server 2000
+                // and later. The settings are sent with the first request,
+                // opening the connection does not wait for them.
+                setPendingInitialSql();
             } else {
                 // Also discover the maximum decimal precision:  28 (default)
-                // or 38 for MS SQL Server 6.5/7, or 38 for 2000 and later.
+                // or 38 for MS SQL Server 6.5/7.
                 Statement stmt = this.createStatement();
                 ResultSet rs = stmt.executeQuery(SQL_SERVER_INITIAL_SQL);
 
@@ -633,6 +697,37 @@ public class JtdsConnection implements java.sql.Connection {
                                    boolean returnKeys,
                                    boolean cursorNeeded)
             throws SQLException {
+        return prepareSQL(pstmt, sql, params, returnKeys, cursorNeeded, false);
+    }
+
+    /**
+     * Try to convert the SQL statement into a statement prepare call.
+     * <p/>
+     * If <code>prepExec</code> is <code>true</code> and the statement is not
+     * cached yet, a SQL Server statement isn't prepared by a separate call to
+     * <code>sp_prepare</code> but by the execution which immediately follows,
+     * using <code>sp_prepexec</code>. The handle returned is cached for later
+     * executions. While the statement is being prepared, other executions of
+     * it use <code>sp_executesql</code>.
+     *
+     * @param pstmt        the target prepared statement
+     * @param sql          the SQL statement to prepare
+     * @param params       the parameters
+     * @param returnKeys   indicates whether the statement will return
+     *                     generated keys
+     * @param cursorNeeded indicates whether a cursor prepare is needed
+     * @param prepExec     indicates whether the statement is executed by the
+     *                     statement's {@link TdsCore} right after this call
+     * @return the SQL procedure name as a <code>String</code> or null if the
+     *         SQL cannot be prepared
+     */
+    synchronized String prepareSQL(JtdsPreparedStatement pstmt,
+                                   String sql,
+                                   ParamInfo[] params,
+                                   boolean returnKeys,
+                                   boolean cursorNeeded,
+                                   boolean prepExec)
+            throws SQLException {
         if (prepareSql == TdsCore.UNPREPARED
                 || prepareSql == TdsCore.EXECUTE_SQL) {
             return null; // User selected not to use procs
@@ -685,7 +780,27 @@ public class JtdsConnection implements java.sql.Connection {
         //
         ProcEntry proc = (ProcEntry) statementCache.get(key);
 
-        if (proc != null) {
+        prepExec &= serverType == Driver.SQLSERVER && tdsVersion >= Driver.TDS70
+                && prepareSql == TdsCore.PREPARE && !cursorNeeded;
+
+        if (proc != null && proc.getType() == ProcEntry.PREPARE
+                && (proc.isPreparing() || proc.toString() == null)) {
+            //
+            // Prepared with an execution, but no handle (yet)
+            //
+            if (!prepExec || proc.isPreparing()) {
+                // Not used by this execution, undo the increment by get()
+                proc.release();
+                return null;
+            }
+
+            if (pstmt.handles != null && pstmt.handles.contains(proc)) {
+                proc.release();
+            }
+
+            proc.setPreparing(true);
+            pstmt.getTds().setPrepExec(proc);
+        } else if (proc != null) {
             //
             // Yes found in cache OK
             //
@@ -699,6 +814,15 @@ public class JtdsConnection implements java.sql.Connection {
             if (serverType == Driver.SYBASE) {
                 pstmt.setParamMetaData(proc.getParamMetaData());
             }
+        } else if (prepExec) {
+            //
+            // No, prepare with the execution
+            //
+            proc = new ProcEntry();
+            proc.setType(ProcEntry.PREPARE);
+            proc.setPreparing(true);
+            pstmt.getTds().setPrepExec(proc);
+            addCachedProcedure(key, proc);
         } else {
             //
             // No, so create the stored procedure now
@@ -749,6 +873,10 @@ public class JtdsConnection implements java.sql.Connection {
 
         pstmt.handles.add(proc);
 
+        if (proc.isPreparing()) {
+            return TdsCore.PREPEXEC;
+        }
+
         // Give the user the name will be null if prepare failed
         return proc.toString();
     }
@@ -803,6 +931,26 @@ public class JtdsConnection implements java.sql.Connection {
         return maxStatements;
     }
 
+    /**
+     * Retrieves the statement cache of this connection, a
+     * {@link ProcedureCache} providing the cache statistics.
+     *
+     * @return the statement cache
+     */
+    public StatementCache getStatementCache() {
+        return statementCache;
+    }
+
+    /**
+     * Retrieves the cache of the column meta data of result sets returned on
+     * this connection.
+     *
+     * @return the meta data cache
+     */
+    MetaDataCache getMetaDataCache() {
+        return metaDataCache;
+    }
+
     /**
      * Retrieves the server type.
      *
@@ -834,7 +982,7 @@ public class JtdsConnection implements java.sql.Connection {
     /**
      * Retrieves the current row count on this connection.
      *
-     * @return the row count as an <code>int</code>
+     * @return the row count as an <code>int</code> or -1 if unknown
      */
     int getRowCount() {
         return rowCount;
@@ -852,7 +1000,7 @@ public class JtdsConnection implements java.sql.Connection {
     /**
      * Retrieves the current maximum textsize on this connection.
      *
-     * @return the maximum textsize as an <code>int</code>
+     * @return the maximum textsize as an <code>int</code> or -1 if unknown
      */
     public int getTextSize() {
         return textSize;
@@ -933,6 +1081,16 @@ public class JtdsConnection implements java.sql.Connection {
         return useCursors;
     }
 
+    /**
+     * Indicates whether forward only, read only cursors should fetch the next
+     * block of rows while the current one is read.
+     *
+     * @return <code>true</code> if cursor rows are prefetched
+     */
+    boolean getCursorPrefetch() {
+        return cursorPrefetch;
+    }
+
     /**
      * Indicates whether large types (IMAGE and TEXT/NTEXT) should be mapped by
      * default to LOB types or <code>String</code> and <code>byte[]</code>
@@ -991,6 +1149,26 @@ public class JtdsConnection implements java.sql.Connection {
         return bufferDir;
     }
 
+    /**
+     * Returns the disk storage shared by the LOBs of this connection.
+     *
+     * @return the LOB store or <code>null</code> if there is no buffer
+     *         directory
+     */
+    LobStore getLobStore() {
+        return lobStore;
+    }
+
+    /**
+     * Closes the LOB store of this connection, its file is deleted once no
+     * LOB of this connection holds data in it.
+     */
+    private void closeLobStore() {
+        if (lobStore != null) {
+            lobStore.close();
+        }
+    }
+
     /**
      * Retrieves the maximum amount of memory in Kb to buffer for <em>all</em> connections.
      *
@@ -1154,6 +1332,33 @@ public class JtdsConnection implements java.sql.Connection {
         return useJCIFS;
     }
 
+    /**
+     * Retrieves the useNIO setting for this connection.
+     *
+     * @return the useNIO setting
+     */
+    boolean getUseNIO() {
+        return useNIO;
+    }
+
+    /**
+     * Retrieves the streamLOBs setting for this connection.
+     *
+     * @return the streamLOBs setting
+     */
+    boolean getStreamLOBs() {
+        return streamLOBs;
+    }
+
+    /**
+     * Retrieves the streamResults setting for this connection.
+     *
+     * @return the streamResults setting
+     */
+    boolean getStreamResults() {
+        return streamResults;
+    }
+
     /**
      * Retrieves the user for this connection.
      *
@@ -1201,6 +1406,7 @@ public class JtdsConnection implements java.sql.Connection {
         namedPipe = parseBooleanProperty(info,Driver.NAMEDPIPE);
         tcpNoDelay = parseBooleanProperty(info,Driver.TCPNODELAY);
         useCursors = (serverType == Driver.SQLSERVER) && parseBooleanProperty(info,Driver.USECURSORS);
+        cursorPrefetch = parseBooleanProperty(info,Driver.CURSORPREFETCH);
         useLOBs = parseBooleanProperty(info,Driver.USELOBS);
         useMetadataCache = parseBooleanProperty(info,Driver.CACHEMETA);
         xaEmulation = parseBooleanProperty(info,Driver.XAEMULATION);
@@ -1208,6 +1414,9 @@ public class JtdsConnection implements java.sql.Connection {
         charsetSpecified = serverCharset.length() > 0;
         useNTLMv2 = parseBooleanProperty(info,Driver.USENTLMV2);
         useKerberos = parseBooleanProperty(info,Driver.USEKERBEROS);
+        useNIO = parseBooleanProperty(info,Driver.USENIO);
+        streamResults = parseBooleanProperty(info,Driver.STREAMRESULTS);
+        streamLOBs = parseBooleanProperty(info,Driver.STREAMLOBS);
 
         //note:mdb in certain cases (e.g. NTLMv2) the domain name must be
         //  all upper case for things to work.
@@ -1257,7 +1466,13 @@ public class JtdsConnection implements java.sql.Connection {
 
         maxStatements = parseIntegerProperty(info, Driver.MAXSTATEMENTS);
 
-        statementCache = new ProcedureCache(maxStatements);
+        statementCachePolicy = info.getProperty(Messages.get(Driver.STATEMENTCACHE));
+        try {
+            statementCache = ProcedureCache.getInstance(statementCachePolicy, maxStatements);
+        } catch (IllegalArgumentException e) {
+            throw new SQLException(Messages.get("error.connection.badprop",
+                    Messages.get(Driver.STATEMENTCACHE)), "08001");
+        }
         prepareSql = parseIntegerProperty(info, Driver.PREPARESQL);
         if (prepareSql < 0) {
             prepareSql = 0;
@@ -1288,6 +1503,7 @@ public class JtdsConnection implements java.sql.Connection {
                         Messages.get(Driver.BUFFERDIR)), "08001");
         	}
         }
+        lobStore = new LobStore(bufferDir);
 
         bufferMaxMemory = parseIntegerProperty(info, Driver.BUFFERMAXMEMORY);
         if (bufferMaxMemory < 0) {
@@ -1602,6 +1818,82 @@ public class JtdsConnection implements java.sql.Connection {
         }
     }
 
+    /**
+     * Resets the session state of this connection for reuse by a connection
+     * pool.
+     * <p/>
+     * With SQL Server 2000 and later the reset is not executed immediately
+     * but requested with the next request sent, saving a round trip. The
+     * server then restores the state of the login: open transactions are
+     * rolled back, temporary tables and prepared statements are dropped and
+     * the <code>SET</code> options, database and collation are restored. The
+     * state cached by the driver is reset to match and the initial settings
+     * of the driver (text size, quoted identifiers, implicit transactions
+     * and isolation level) are executed again with the next request, after
+     * the reset. An open transaction is
+     * rolled back immediately, so that its locks are not held while the
+     * connection is idle.
+     *
+     * @return <code>false</code> if the server does not support resetting
+     *         the connection, the caller has to restore the state itself
+     * @throws SQLException if the connection is closed or the rollback fails
+     */
+    public synchronized boolean resetConnection() throws SQLException {
+        checkOpen();
+
+        if (serverType != Driver.SQLSERVER || tdsVersion < Driver.TDS80
+                || xaTransaction) {
+            return false;
+        }
+
+        if (!autoCommit) {
+            rollback();
+        }
+
+        baseTds.resetConnection();
+
+        autoCommit = true;
+        rowCount = 0;
+        textSize = 0;
+        procInTran.clear();
+        clearSavepoints();
+        // the handles of prepared statements and temporary procedures are
+        // released by the server
+        statementCache = ProcedureCache.getInstance(statementCachePolicy, maxStatements);
+        synchronized (pendingDropSql) {
+            pendingDropSql.setLength(0);
+        }
+        messages.clearWarnings();
+
+        // The reset restores the SET options of the login, the initial
+        // settings are sent again with the next request.
+        // They include the isolation level, which survives the reset before
+        // SQL Server 2014.
+        setPendingInitialSql();
+        transactionIsolation = java.sql.Connection.TRANSACTION_READ_COMMITTED;
+
+        return true;
+    }
+
+    /**
+     * Called by the protocol when the server acknowledges a connection reset
+     * requested by {@link #resetConnection()}, restores the database and
+     * collation of the login.
+     *
+     * @throws SQLException if the login collation is not supported
+     */
+    void resetAcknowledged() throws SQLException {
+        currentDatabase = loginDatabase;
+
+        if (loginCollation != null && !java.util.Arrays.equals(collation, loginCollation)) {
+            setCollation(loginCollation);
+        }
+
+        if (Logger.isActive()) {
+            Logger.println("Connection reset, database " + currentDatabase);
+        }
+    }
+
     /**
      * Update the connection instance with information about the server.
      *
@@ -1687,7 +1979,22 @@ public class JtdsConnection implements java.sql.Connection {
 
          if( handles != null )
          {
-            if( serverType == Driver.SQLSERVER )
+            if( serverType == Driver.SQLSERVER && tdsVersion >= Driver.TDS70
+                && prepareSql != TdsCore.TEMPORARY_STORED_PROCEDURES )
+            {
+               // SQL Server unprepare, deferred until the next request so
+               // closing a statement does not cost a round trip; it's sent
+               // as a separate sp_executesql call, never inside the SQL of
+               // a batch. Temporary procedures are still dropped at once
+               synchronized( pendingDropSql )
+               {
+                  for( Iterator iterator = handles.iterator(); iterator.hasNext(); )
+                  {
+                     ( (ProcEntry) iterator.next() ).appendDropSQL( pendingDropSql );
+                  }
+               }
+            }
+            else if( serverType == Driver.SQLSERVER )
             {
                // SQL Server unprepare
                StringBuilder cleanupSql = new StringBuilder( handles.size() * 32 );
@@ -1720,6 +2027,53 @@ public class JtdsConnection implements java.sql.Connection {
       }
    }
 
+    /**
+     * Retrieves and clears the SQL releasing obsolete statement handles,
+     * queued by {@link #removeStatement}.
+     *
+     * @return the SQL or <code>null</code> if there is nothing to release
+     */
+    String takePendingDropSql() {
+        synchronized (pendingDropSql) {
+            if (pendingDropSql.length() == 0) {
+                return null;
+            }
+
+            String sql = pendingDropSql.toString();
+
+            pendingDropSql.setLength(0);
+
+            return sql;
+        }
+    }
+
+    /**
+     * Queues the initial SQL Server connection settings, to be sent with the
+     * next request.
+     */
+    void setPendingInitialSql() {
+        synchronized (pendingDropSql) {
+            pendingInitialSql = SQL_SERVER_INITIAL_SET;
+        }
+    }
+
+    /**
+     * Retrieves and clears the initial connection settings not executed yet,
+     * see {@link #setPendingInitialSql()}.
+     *
+     * @return the <code>SET</code> statements or <code>null</code> if none
+     *         are pending
+     */
+    String takePendingInitialSql() {
+        synchronized (pendingDropSql) {
+            String sql = pendingInitialSql;
+
+            pendingInitialSql = null;
+
+            return sql;
+        }
+    }
+
     /**
      * Adds a statement object to the list maintained by the connection.
      * <p/>
@@ -1845,6 +2199,8 @@ public class JtdsConnection implements java.sql.Connection {
     void setClosed() {
         if (!closed) {
             closed = true;
+            endStream(streamOwner);
+            closeLobStore();
 
             // Make sure we release the socket and all data buffered at the socket
             // level
@@ -2021,6 +2377,98 @@ public class JtdsConnection implements java.sql.Connection {
       return mutex;
     }
 
+    /**
+     * Marks a <code>TdsCore</code> as streaming a result set; requests of
+     * other <code>TdsCore</code>s are held back by {@link #waitForStream}
+     * until {@link #endStream} is called.
+     *
+     * @param tds the <code>TdsCore</code> reading the result set
+     */
+    void beginStream(TdsCore tds) {
+        synchronized (streamLock) {
+            streamOwner = tds;
+            streamThread = Thread.currentThread();
+        }
+    }
+
+    /**
+     * Releases the connection held by a streaming result set, see
+     * {@link #beginStream}.
+     *
+     * @param tds the <code>TdsCore</code> that read the result set
+     */
+    void endStream(TdsCore tds) {
+        synchronized (streamLock) {
+            if (streamOwner == tds) {
+                streamOwner = null;
+                streamThread = null;
+                streamLock.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Waits until no other <code>TdsCore</code> is streaming a result set,
+     * so that a request can be sent without buffering the other result.
+     * <p/>
+     * If the current thread is the one streaming the result set, waiting
+     * would never end and an exception is thrown instead. Without a timeout
+     * the wait is limited to {@link #STREAM_WAIT_TIMEOUT} seconds, so a
+     * result set another thread never closes fails the request rather than
+     * blocking it forever.
+     *
+     * @param tds     the <code>TdsCore</code> about to send a request
+     * @param timeout the maximum time to wait in seconds or 0 for the default
+     * @throws SQLException if the connection is closed, the timeout expires
+     *                      or the current thread streams the result set
+     */
+    void waitForStream(TdsCore tds, int timeout) throws SQLException {
+        if (streamOwner == null || streamOwner == tds) {
+            return;
+        }
+
+        boolean interrupted = false;
+
+        try {
+            synchronized (streamLock) {
+                long deadline = System.currentTimeMillis()
+                        + (timeout > 0 ? timeout : STREAM_WAIT_TIMEOUT) * 1000L;
+
+                while (streamOwner != null && streamOwner != tds) {
+                    checkOpen();
+
+                    if (streamThread == Thread.currentThread()) {
+                        throw new SQLException(
+                                Messages.get("error.connection.streaming"), "HY010");
+                    }
+
+                    long wait = deadline - System.currentTimeMillis();
+
+                    if (wait <= 0) {
+                        if (timeout > 0) {
+                            throw new SQLException(
+                                    Messages.get("error.generic.timeout"), "HYT00");
+                        }
+
+                        throw new SQLException(
+                                Messages.get("error.connection.streaming"), "HY010");
+                    }
+
+                    try {
+                        streamLock.wait(wait);
+                    } catch (InterruptedException e) {
+                        // JDBC can not be interrupted, keep waiting
+                        interrupted = true;
+                    }
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
    /**
     * Releases (either closes or caches) a <code>TdsCore</code>.
     *
@@ -2148,6 +2596,8 @@ public class JtdsConnection implements java.sql.Connection {
                 // Ignore
             } finally {
                 closed = true;
+                endStream(streamOwner);
+                closeLobStore();
                 synchronized( connections ) {
                     if (--connections[0] == 0) {
                         TimerThread.stopTimer();
@@ -2380,6 +2830,20 @@ public class JtdsConnection implements java.sql.Connection {
                                java.sql.ResultSet.CONCUR_READ_ONLY);
     }
 
+    /**
+     * Creates a bulk copy loading rows into a table of this connection.
+     *
+     * @param table the name of the target table
+     * @return the bulk copy
+     * @throws SQLException if the connection is closed or the server does
+     *                      not support bulk loads
+     */
+    public JtdsBulkCopy createBulkCopy(String table) throws SQLException {
+        checkOpen();
+
+        return new JtdsBulkCopy(this, table);
+    }
+
     synchronized public Statement createStatement(int type, int concurrency)
             throws SQLException {
         checkOpen();
@@ -460,10 +460,30 @@ public class JtdsPreparedStatement extends JtdsStatement implements PreparedStat
       if( connection.getPrepareSql() == TdsCore.TEMPORARY_STORED_PROCEDURES || connection.getPrepareSql() == TdsCore.PREPARE )
       {
          procHandle = new String[size];
+         ParamInfo[] previous = null;
+
          for( int i = 0; i < size; i++ )
          {
+            ParamInfo[] params = (ParamInfo[]) batchValues.get( i );
+
+            // rows with the same parameter types share the handle of the previous row
+            if( previous != null && isAllSet( params ) )
+            {
+               for( int p = 0; p < params.length; p ++ )
+               {
+                  TdsData.getNativeType( connection, params[p] );
+               }
+
+               if( Support.isSameParameterTypes( params, previous ) )
+               {
+                  procHandle[i] = procHandle[i - 1];
+                  continue;
+               }
+            }
+
             // Prepare the statement
-            procHandle[i] = connection.prepareSQL( this, sql, (ParamInfo[]) batchValues.get( i ), false, false );
+            procHandle[i] = connection.prepareSQL( this, sql, params, false, false );
+            previous = params;
          }
       }
 
@@ -496,6 +516,20 @@ public class JtdsPreparedStatement extends JtdsStatement implements PreparedStat
       return sqlEx;
    }
 
+   /**
+    * <p> Check whether all parameters have a value. </p>
+    */
+   private static boolean isAllSet( ParamInfo[] params )
+   {
+      for( int i = 0; i < params.length; i ++ )
+      {
+         if( ! params[i].isSet )
+            return false;
+      }
+
+      return true;
+   }
+
    /**
     * <p> Execute the SQL batch on a Sybase server. </p>
     *
@@ -763,7 +797,7 @@ public class JtdsPreparedStatement extends JtdsStatement implements PreparedStat
             // between the moment when the statement is prepared and the moment
             // when it's executed.
             synchronized (connection) {
-                String spName = connection.prepareSQL(this, sql, parameters, returnKeys, false);
+                String spName = connection.prepareSQL(this, sql, parameters, returnKeys, false, true);
                 executeSQL(sql, spName, parameters, true, false);
             }
         } else {
@@ -820,7 +854,7 @@ public class JtdsPreparedStatement extends JtdsStatement implements PreparedStat
             // between the moment when the statement is prepared and the moment
             // when it's executed.
             synchronized (connection) {
-                String spName = connection.prepareSQL(this, sql, parameters, returnKeys, useCursor);
+                String spName = connection.prepareSQL(this, sql, parameters, returnKeys, useCursor, true);
                 return executeSQL(sql, spName, parameters, false, useCursor);
             }
         } else {
@@ -1065,7 +1099,7 @@ public class JtdsPreparedStatement extends JtdsStatement implements PreparedStat
             // between the moment when the statement is prepared and the moment
             // when it's executed.
             synchronized (connection) {
-                String spName = connection.prepareSQL(this, sql, parameters, false, useCursor);
+                String spName = connection.prepareSQL(this, sql, parameters, false, useCursor, true);
                 return executeSQLQuery(sql, spName, parameters, useCursor);
             }
         } else {
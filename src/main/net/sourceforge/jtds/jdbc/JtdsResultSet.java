@@ -90,8 +90,12 @@ public class JtdsResultSet implements ResultSet {
     protected int columnCount;
     /** The array of column descriptors. */
     protected ColInfo[] columns;
+    /** True once the column descriptors have been copied to be modified. */
+    private boolean columnsCopied;
     /** The current result set row. */
     protected Object[] currentRow;
+    /** The primitive values of the current row when read directly from the server. */
+    protected PrimitiveRow primitiveRow;
     /** Cached row data for forward only result set. */
     protected ArrayList rowData;
     /** Index of current row in rowData. */
@@ -112,6 +116,10 @@ public class JtdsResultSet implements ResultSet {
     protected String cursorName;
     /** Cache to optimize findColumn(String) lookups */
     private HashMap columnMap;
+    /** True if large LOB values of the rows are streamed from the server response. */
+    private boolean streamLobs;
+    /** True if the current row has been read with its large LOB values streamed. */
+    private boolean rowStreamed;
 
     /*
      * Private instance variables.
@@ -148,6 +156,13 @@ public class JtdsResultSet implements ResultSet {
             columnCount  = getColumnCount(columns);
             rowsInResult = (statement.getTds().isDataInResultSet()) ? 1 : 0;
         }
+
+        // Not if cached as requested by the statement
+        streamLobs = resultSetType == TYPE_FORWARD_ONLY
+                && concurrency == CONCUR_READ_ONLY
+                && statement.resultSetType == TYPE_FORWARD_ONLY
+                && statement.resultSetConcurrency == CONCUR_READ_ONLY
+                && ((JtdsConnection) statement.getConnection()).getStreamLOBs();
     }
 
     /**
@@ -173,18 +188,35 @@ public class JtdsResultSet implements ResultSet {
     }
 
     /**
-     * Set the specified column's name.
+     * Retrieves the descriptor of a column to be modified. The descriptors
+     * may be shared with other results (see {@link MetaDataCache}), so they
+     * are copied before the first change.
      *
      * @param colIndex The index of the column in the row.
-     * @param name The new name.
+     * @return The column descriptor.
      */
-    protected void setColName(int colIndex, String name) {
+    private ColInfo getColumnForUpdate(int colIndex) {
         if (colIndex < 1 || colIndex > columns.length) {
             throw new IllegalArgumentException("columnIndex "
                     + colIndex + " invalid");
         }
 
-        columns[colIndex - 1].realName = name;
+        if (!columnsCopied) {
+            columns = ColInfo.copy(columns);
+            columnsCopied = true;
+        }
+
+        return columns[colIndex - 1];
+    }
+
+    /**
+     * Set the specified column's name.
+     *
+     * @param colIndex The index of the column in the row.
+     * @param name The new name.
+     */
+    protected void setColName(int colIndex, String name) {
+        getColumnForUpdate(colIndex).realName = name;
     }
 
     /**
@@ -194,12 +226,7 @@ public class JtdsResultSet implements ResultSet {
      * @param name The new label.
      */
     protected void setColLabel(int colIndex, String name) {
-        if (colIndex < 1 || colIndex > columns.length) {
-            throw new IllegalArgumentException("columnIndex "
-                    + colIndex + " invalid");
-        }
-
-        columns[colIndex - 1].name = name;
+        getColumnForUpdate(colIndex).name = name;
     }
 
     /**
@@ -209,12 +236,7 @@ public class JtdsResultSet implements ResultSet {
      * @param jdbcType The new type value.
      */
     protected void setColType(int colIndex, int jdbcType) {
-        if (colIndex < 1 || colIndex > columns.length) {
-            throw new IllegalArgumentException("columnIndex "
-                    + colIndex + " invalid");
-        }
-
-        columns[colIndex - 1].jdbcType = jdbcType;
+        getColumnForUpdate(colIndex).jdbcType = jdbcType;
     }
 
     /**
@@ -285,6 +307,14 @@ public class JtdsResultSet implements ResultSet {
             throw new SQLException(Messages.get("error.resultset.norow"), "24000");
         }
 
+        if (isStreaming()) {
+            statement.getTds().readColumn(index - 1);
+        }
+
+        if (primitiveRow != null) {
+            primitiveRow.box(currentRow, index - 1);
+        }
+
         Object data = currentRow[index - 1];
 
         wasNull = data == null;
@@ -292,6 +322,77 @@ public class JtdsResultSet implements ResultSet {
         return data;
     }
 
+    /**
+     * Retrieves the kind of primitive value held for a column of the current
+     * row, allowing the numeric getters to bypass the wrapper objects. The
+     * {@link #wasNull} flag is updated if a primitive value is present.
+     *
+     * @param index the column index in the row
+     * @return the kind of the value as defined by {@link PrimitiveRow} or
+     *         {@link PrimitiveRow#NONE} if the value has to be retrieved by
+     *         {@link #getColumn(int)}
+     */
+    private byte getPrimitiveKind(int index) {
+        if (primitiveRow == null || currentRow == null
+                || index < 1 || index > columnCount) {
+            return PrimitiveRow.NONE;
+        }
+
+        if (isStreaming() && statement.getTds().isColumnPending(index - 1)) {
+            // not read yet, see getColumn(int)
+            return PrimitiveRow.NONE;
+        }
+
+        byte kind = primitiveRow.getKind(index - 1);
+
+        if (kind != PrimitiveRow.NONE) {
+            wasNull = primitiveRow.isNull(index - 1);
+        }
+
+        return kind;
+    }
+
+    /**
+     * Retrieves whether the current row is read from the server response
+     * with its large LOB values left in the response until retrieved.
+     *
+     * @return <code>true</code> if the current row is streamed
+     */
+    private boolean isStreaming() {
+        return rowStreamed && currentRow != null;
+    }
+
+    /**
+     * Retrieves a large LOB value of the current row directly from the server
+     * response, if streamed (see the <code>streamLOBs</code> connection
+     * property). The stream can be read once and only until the result set
+     * moves to the next row or a later column is retrieved.
+     *
+     * @param index  the column index
+     * @param binary <code>true</code> for an IMAGE column, <code>false</code>
+     *               for a TEXT or NTEXT column
+     * @return the stream or <code>null</code> if the value is not streamed
+     * @throws SQLException if the value has already been retrieved as a stream
+     */
+    private InputStream getLobStream(int index, boolean binary)
+            throws SQLException {
+        checkOpen();
+
+        if (!isStreaming() || index < 1 || index > columnCount
+                || !TdsData.isLob(columns[index - 1])
+                || TdsData.isImage(columns[index - 1]) != binary) {
+            return null;
+        }
+
+        InputStream in = statement.getTds().getLobStream(index - 1);
+
+        if (in != null) {
+            wasNull = false;
+        }
+
+        return in;
+    }
+
     /**
      * Check that this connection is still open.
      *
@@ -386,6 +487,9 @@ public class JtdsResultSet implements ResultSet {
      */
     protected Object[] getCurrentRow()
     {
+        if (primitiveRow != null && currentRow != null) {
+            primitiveRow.box(currentRow);
+        }
         return currentRow;
     }
 
@@ -401,8 +505,13 @@ public class JtdsResultSet implements ResultSet {
             // Need to create local copy of currentRow
             // as this is currently a reference to the
             // row defined in TdsCore
-            currentRow = copyRow(currentRow);
+            if (rowStreamed) {
+                statement.getTds().readRow();
+            }
+            currentRow = copyRow(getCurrentRow());
         }
+        primitiveRow = null;
+        rowStreamed = false;
         //
         // Now load the remaining result set rows into memory
         //
@@ -505,6 +614,7 @@ public class JtdsResultSet implements ResultSet {
             } finally {
                 closed = true;
                 statement = null;
+                primitiveRow = null;
             }
         }
     }
@@ -594,6 +704,7 @@ public class JtdsResultSet implements ResultSet {
             if (rowData != null) {
                 // The rest of the result rows have been cached so
                 // return the next row from the buffer.
+                primitiveRow = null;
                 if (rowPtr < rowData.size()) {
                     currentRow = (Object[])rowData.get(rowPtr);
                     // This is a forward only result set so null out the buffer ref
@@ -608,12 +719,16 @@ public class JtdsResultSet implements ResultSet {
                 }
             } else {
                 // Need to read from server response
-                if (!statement.getTds().getNextRow()) {
+                if (!statement.getTds().getNextRow(streamLobs)) {
                     statement.cacheResults();
                     pos = POS_AFTER_LAST;
                     currentRow = null;
+                    primitiveRow = null;
                 } else {
-                    currentRow = statement.getTds().getRowData();
+                    // Numeric columns are kept unboxed until requested
+                    currentRow = statement.getTds().getUnboxedRowData();
+                    primitiveRow = statement.getTds().getPrimitiveRow();
+                    rowStreamed = streamLobs;
                     pos++;
                     rowsInResult = pos;
                 }
@@ -672,18 +787,36 @@ public class JtdsResultSet implements ResultSet {
     }
 
     public int getInt(int columnIndex) throws SQLException {
+        if (getPrimitiveKind(columnIndex) == PrimitiveRow.INT) {
+            return primitiveRow.getInt(columnIndex - 1);
+        }
+
         return ((Integer) Support.convert(this, getColumn(columnIndex), java.sql.Types.INTEGER, null)).intValue();
     }
 
     public long getLong(int columnIndex) throws SQLException {
+        switch (getPrimitiveKind(columnIndex)) {
+            case PrimitiveRow.INT:
+            case PrimitiveRow.LONG:
+                return primitiveRow.getLong(columnIndex - 1);
+        }
+
         return ((Long) Support.convert(this, getColumn(columnIndex), java.sql.Types.BIGINT, null)).longValue();
     }
 
     public float getFloat(int columnIndex) throws SQLException {
+        if (getPrimitiveKind(columnIndex) == PrimitiveRow.FLOAT) {
+            return primitiveRow.getFloat(columnIndex - 1);
+        }
+
         return ((Float) Support.convert(this, getColumn(columnIndex), java.sql.Types.REAL, null)).floatValue();
     }
 
     public double getDouble(int columnIndex) throws SQLException {
+        if (getPrimitiveKind(columnIndex) != PrimitiveRow.NONE) {
+            return primitiveRow.getDouble(columnIndex - 1);
+        }
+
         return ((Double) Support.convert(this, getColumn(columnIndex), java.sql.Types.DOUBLE, null)).doubleValue();
     }
 
@@ -794,6 +927,12 @@ public class JtdsResultSet implements ResultSet {
     }
 
     public InputStream getBinaryStream(int columnIndex) throws SQLException {
+        InputStream in = getLobStream(columnIndex, true);
+
+        if (in != null) {
+            return in;
+        }
+
         Blob blob = getBlob(columnIndex);
 
         if (blob == null) {
@@ -838,6 +977,17 @@ public class JtdsResultSet implements ResultSet {
     }
 
     public Reader getCharacterStream(int columnIndex) throws SQLException {
+        InputStream in = getLobStream(columnIndex, false);
+
+        if (in != null) {
+            try {
+                return TdsData.getLobReader(getConnection(), columns[columnIndex - 1], in);
+            } catch (UnsupportedEncodingException e) {
+                throw new SQLException(Messages.get("error.charset.nomapping",
+                        e.getMessage()), "2C000");
+            }
+        }
+
         Clob clob = getClob(columnIndex);
 
         if (clob == null) {
@@ -129,6 +129,11 @@ public class JtdsStatement implements java.sql.Statement
     protected ArrayList openResultSets;
     /** The cached column meta data. */
     protected ColInfo[] colMetaData;
+    /**
+     * The parameter definitions of the <code>sp_executesql</code> call that
+     * returned {@link #colMetaData}.
+     */
+    private String colMetaDataDefs;
 
    /**
     * <table>
@@ -516,18 +521,14 @@ public class JtdsStatement implements java.sql.Statement
         //
         // Could not open a cursor (or was not requested) so try a direct select
         //
-        if (spName != null
-                && connection.getUseMetadataCache()
-                && connection.getPrepareSql() == TdsCore.PREPARE
-                && colMetaData != null
-                && connection.getServerType() == Driver.SQLSERVER) {
+        boolean noMetaData = isMetaDataCached(spName, params);
+
+        if (noMetaData) {
             // There is cached meta data available for this
             // prepared statement
             tds.setColumns(colMetaData);
-            tds.executeSQL(sql, spName, params, true, queryTimeout, maxRows, maxFieldSize, true);
-        } else {
-            tds.executeSQL(sql, spName, params, false, queryTimeout, maxRows, maxFieldSize, true);
         }
+        tds.executeSQL(sql, spName, params, noMetaData, queryTimeout, maxRows, maxFieldSize, true);
 
         // Update warning chain if cursor was downgraded before processing results
         if (warningMessage != null) {
@@ -543,10 +544,22 @@ public class JtdsStatement implements java.sql.Statement
         messages.checkErrors();
 
         if (tds.isResultSet()) {
+            if (!noMetaData && spName == null && isMetaDataCacheable(params)) {
+                // Executed with sp_executesql, keep the meta data for the
+                // next execution with the same parameter types
+                colMetaData = tds.getColumns();
+                colMetaDataDefs = Support.getParameterDefinitions(params);
+            }
+
             currentResult = new JtdsResultSet(this,
                                               ResultSet.TYPE_FORWARD_ONLY,
                                               ResultSet.CONCUR_READ_ONLY,
                                               tds.getColumns());
+
+            // Other statements wait for the rows instead of buffering them
+            if (connection.getStreamResults()) {
+                tds.beginStream();
+            }
         } else {
             throw new SQLException(
                     Messages.get("error.statement.noresult"), "24000");
@@ -555,6 +568,65 @@ public class JtdsStatement implements java.sql.Statement
         return currentResult;
     }
 
+    /**
+     * Checks whether the column meta data of the query result is known, so
+     * that the server can be asked to suppress it. This is the case for
+     * statements prepared with <code>sp_prepare</code> or
+     * <code>sp_prepexec</code> (see {@link ProcEntry#getColMetaData()}) and
+     * for statements executed with <code>sp_executesql</code> before, if the
+     * parameter types have not changed.
+     *
+     * @param spName the stored procedure name or prepared statement handle
+     * @param params the parameters
+     * @return <code>true</code> if the meta data is available in
+     *         {@link #colMetaData}
+     */
+    private boolean isMetaDataCached(String spName, ParamInfo[] params)
+            throws SQLException {
+        if (colMetaData == null
+                || !connection.getUseMetadataCache()
+                || connection.getServerType() != Driver.SQLSERVER) {
+            return false;
+        }
+
+        if (spName != null) {
+            return connection.getPrepareSql() == TdsCore.PREPARE
+                    && !TdsCore.PREPEXEC.equals(spName);
+        }
+
+        if (colMetaDataDefs == null || !isMetaDataCacheable(params)) {
+            return false;
+        }
+
+        for (int i = 0; i < params.length; i++) {
+            if (!params[i].isSet) {
+                return false;
+            }
+
+            TdsData.getNativeType(connection, params[i]);
+        }
+
+        return colMetaDataDefs.equals(Support.getParameterDefinitions(params));
+    }
+
+    /**
+     * Checks whether the column meta data of a query executed with
+     * <code>sp_executesql</code> may be kept for later executions.
+     *
+     * @param params the parameters
+     * @return <code>true</code> if the query is executed with
+     *         <code>sp_executesql</code> and the meta data may be cached
+     */
+    private boolean isMetaDataCacheable(ParamInfo[] params) {
+        return this instanceof JtdsPreparedStatement
+                && !(this instanceof JtdsCallableStatement)
+                && params != null && params.length > 0
+                && connection.getUseMetadataCache()
+                && connection.getPrepareSql() == TdsCore.EXECUTE_SQL
+                && connection.getServerType() == Driver.SQLSERVER
+                && connection.getTdsVersion() >= Driver.TDS70;
+    }
+
     /**
      * Executes any type of SQL.
      *
@@ -658,7 +730,7 @@ public class JtdsStatement implements java.sql.Statement
          else
          {
             // get column layout of the resultset
-            ColInfo[] columns = tds.getColumns();
+            ColInfo[] columns = tds.getColumnsForUpdate();
 
             // ensure this is the generated key by checking column layout
             if( columns.length == 1 && columns[0].name.equals( GENKEYCOL ) )
@@ -714,6 +786,10 @@ public class JtdsStatement implements java.sql.Statement
                else
                {
                   resultQueue.add( new JtdsResultSet( this, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY, tds.getColumns() ) );
+
+                  // other statements wait for the rows instead of buffering them
+                  if( connection.getStreamResults() )
+                     tds.beginStream();
                }
 
                break;
@@ -1229,6 +1305,10 @@ public class JtdsStatement implements java.sql.Statement
                     // NB. Due to restrictions on the way API cursors are
                     // created, MSCursorResultSet can never be followed by
                     // any other result sets, update counts or return variables.
+                    if (currentResult instanceof MSCursorResultSet) {
+                        // Read prefetched rows before reading further results
+                        ((MSCursorResultSet) currentResult).completePrefetch();
+                    }
                     openResultSets.add(currentResult);
                 } else if (currentResult != null) {
                     currentResult.cacheResultSetRows();
@@ -34,6 +34,10 @@ import java.sql.ResultSet;
  * <li>This logic was originally implemented in the JtdsResultSet class but on reflection
  * it seems that Alin's original approch of having a dedicated cursor class leads to a more
  * flexible and maintainable design.
+ * <li>With the <code>cursorPrefetch</code> property forward only, read only cursors send the
+ * <code>sp_cursorfetch</code> for the next block of rows as soon as the current block is
+ * loaded and read its response only when the rows are needed. Unless the application set
+ * the fetch size, it is doubled whenever the application had to wait for prefetched rows.
  * </ol>
  *
  * @author Alin Sinpalean
@@ -53,6 +57,13 @@ public class MSCursorResultSet extends JtdsResultSet {
     private static final Integer FETCH_REPEAT   = new Integer(128);
     private static final Integer FETCH_INFO     = new Integer(256);
 
+    /** Maximum number of bytes of row data the fetch size may grow to. */
+    private static final int PREFETCH_MAX_BYTES = 1024 * 1024;
+    /** Maximum number of rows the fetch size may grow to. */
+    private static final int PREFETCH_MAX_ROWS = 10000;
+    /** Wait for prefetched rows (in nanoseconds) that makes the fetch size grow. */
+    private static final long PREFETCH_WAIT = 500000;
+
     private static final int CURSOR_TYPE_KEYSET = 0x01;
     private static final int CURSOR_TYPE_DYNAMIC = 0x02;
     private static final int CURSOR_TYPE_FORWARD = 0x04;
@@ -100,6 +111,22 @@ public class MSCursorResultSet extends JtdsResultSet {
     private int cursorPos;
     /** The cursor is being built asynchronously. */
     private boolean asyncCursor;
+    /** Fetch the next block of rows while the current one is read. */
+    private boolean prefetch;
+    /** Whether the fetch size grows with prefetching; not if set by the application. */
+    private boolean adaptiveFetchSize;
+    /** The next block of rows was requested but the response was not read yet. */
+    private boolean prefetchPending;
+    /** The next block of rows was loaded into {@link #prefetchCache}. */
+    private boolean prefetchReady;
+    /** The row cache the next block of rows is loaded into. */
+    private Object[][] prefetchCache;
+    /** Cursor position of the first prefetched row. */
+    private int prefetchPos;
+    /** Number of rows in the result set reported with the prefetched rows. */
+    private int prefetchRowCount;
+    /** Time spent waiting for the last block of prefetched rows in nanoseconds. */
+    private long prefetchWait;
 
     //
     // Fixed sp_XXX parameters
@@ -156,6 +183,16 @@ public class MSCursorResultSet extends JtdsResultSet {
             // Obtain a provisional row count for the result set
             cursorFetch(FETCH_REPEAT, 0);
         }
+
+        prefetch = statement.connection.getCursorPrefetch()
+                && this.resultSetType == ResultSet.TYPE_FORWARD_ONLY
+                && this.concurrency == ResultSet.CONCUR_READ_ONLY;
+        adaptiveFetchSize = prefetch
+                && fetchSize == statement.getDefaultFetchSize();
+        if (prefetch && cursorPos == 1 && isBlockFull()) {
+            // The first block of rows was fetched with the cursor open
+            sendPrefetch();
+        }
     }
 
     /**
@@ -538,7 +575,7 @@ public class MSCursorResultSet extends JtdsResultSet {
                 statement.getMaxFieldSize(), true);
 
         // Load column meta data and any eventual rows (fast forward cursors)
-        processOutput(tds, true);
+        processOutput(tds, true, rowCache);
         if ((scrollOpt & CURSOR_TYPE_AUTO_FETCH) != 0) {
             // If autofetching, the cursor position is on the first row
             cursorPos = 1;
@@ -669,10 +706,66 @@ public class MSCursorResultSet extends JtdsResultSet {
 
         statement.clearWarnings();
 
+        if (prefetchPending || prefetchReady) {
+            if (fetchType == FETCH_NEXT) {
+                return nextPrefetchedBlock();
+            }
+            // Only FETCH_NEXT is used with prefetching; drop the rows anyway
+            completePrefetch();
+            prefetchReady = false;
+        }
+
         if (fetchType != FETCH_ABSOLUTE && fetchType != FETCH_RELATIVE) {
             rowNum = 1;
         }
 
+        if (rowCache.length != fetchSize) {
+            // If the fetch size changed, update the cache size
+            rowCache = new Object[fetchSize][];
+        }
+        sendFetch(tds, fetchType, rowNum, rowCache.length, true);
+
+        // Load rows
+        processOutput(tds, false, rowCache);
+
+        cursorPos = ((Integer) PARAM_ROWNUM_OUT.getOutValue()).intValue();
+        if (fetchType != FETCH_REPEAT) {
+            // Do not change ResultSet position when refreshing
+            pos = cursorPos;
+        }
+        rowsInResult = ((Integer) PARAM_NUMROWS_OUT.getOutValue()).intValue();
+        if (rowsInResult < 0) {
+            // -1 = Dynamic cursor number of rows cannot be known.
+            // -n = Async cursor = rows loaded so far
+            rowsInResult = 0 - rowsInResult;
+        }
+
+        boolean result = getCurrentRow() != null;
+
+        if (prefetch && fetchType == FETCH_NEXT && isBlockFull()) {
+            sendPrefetch();
+        }
+
+        return result;
+    }
+
+    /**
+     * Sends the <code>sp_cursorfetch</code> calls fetching a block of rows
+     * and the resulting cursor position and row count.
+     *
+     * @param tds           the <code>TdsCore</code> of the statement
+     * @param fetchType     the type of fetch eg FETCH_ABSOLUTE
+     * @param rowNum        the row number to fetch
+     * @param numRows       the number of rows to fetch
+     * @param awaitResponse whether to wait for the response
+     * @throws SQLException if an error occurs
+     */
+    private void sendFetch(TdsCore tds,
+                           Integer fetchType,
+                           int rowNum,
+                           int numRows,
+                           boolean awaitResponse)
+            throws SQLException {
         ParamInfo[] param = new ParamInfo[4];
         // Setup cursor handle param
         param[0] = PARAM_CURSOR_HANDLE;
@@ -685,10 +778,8 @@ public class MSCursorResultSet extends JtdsResultSet {
         PARAM_ROWNUM_IN.value = new Integer(rowNum);
         param[2] = PARAM_ROWNUM_IN;
         // Setup numRows parameter
-        if (((Integer) PARAM_NUMROWS_IN.value).intValue() != fetchSize) {
-            // If the fetch size changed, update the parameter and cache size
-            PARAM_NUMROWS_IN.value = new Integer(fetchSize);
-            rowCache = new Object[fetchSize][];
+        if (((Integer) PARAM_NUMROWS_IN.value).intValue() != numRows) {
+            PARAM_NUMROWS_IN.value = new Integer(numRows);
         }
         param[3] = PARAM_NUMROWS_IN;
 
@@ -712,25 +803,141 @@ public class MSCursorResultSet extends JtdsResultSet {
             // No meta data, use the statement timeout, leave max rows as it is
             // (no limit), leave max field size as it is, send now
             tds.executeSQL(null, "sp_cursorfetch", param, true,
-                    statement.getQueryTimeout(), -1, -1, true);
+                    statement.getQueryTimeout(), -1, -1, true, awaitResponse);
         }
+    }
 
-        // Load rows
-        processOutput(tds, false);
+    /**
+     * Checks whether the row cache was filled by the last fetch, i.e. there
+     * may be more rows to fetch.
+     *
+     * @return <code>true</code> if the last row of the cache is set
+     */
+    private boolean isBlockFull() {
+        return rowCache.length > 0 && rowCache[rowCache.length - 1] != null;
+    }
 
-        cursorPos = ((Integer) PARAM_ROWNUM_OUT.getOutValue()).intValue();
-        if (fetchType != FETCH_REPEAT) {
-            // Do not change ResultSet position when refreshing
-            pos = cursorPos;
+    /**
+     * Requests the next block of rows without waiting for the response.
+     *
+     * @throws SQLException if an error occurs
+     */
+    private void sendPrefetch() throws SQLException {
+        if (adaptiveFetchSize) {
+            adaptFetchSize();
         }
-        rowsInResult = ((Integer) PARAM_NUMROWS_OUT.getOutValue()).intValue();
-        if (rowsInResult < 0) {
-            // -1 = Dynamic cursor number of rows cannot be known.
-            // -n = Async cursor = rows loaded so far
-            rowsInResult = 0 - rowsInResult;
+        if (prefetchCache == null || prefetchCache.length != fetchSize) {
+            prefetchCache = new Object[fetchSize][];
+        }
+        sendFetch(statement.getTds(), FETCH_NEXT, 1, prefetchCache.length, false);
+        prefetchPending = true;
+    }
+
+    /**
+     * Loads the rows requested by {@link #sendPrefetch} into
+     * {@link #prefetchCache}, if not done yet. Must be called before the
+     * <code>TdsCore</code> of the statement is used for anything else.
+     *
+     * @throws SQLException if an error occurs or an error message is returned
+     *                      by the server
+     */
+    void completePrefetch() throws SQLException {
+        if (!prefetchPending) {
+            return;
         }
 
-        return getCurrentRow() != null;
+        TdsCore tds = statement.getTds();
+        long start = System.nanoTime();
+
+        prefetchPending = false;
+        tds.awaitResponse(statement.getQueryTimeout());
+        prefetchWait = System.nanoTime() - start;
+
+        processOutput(tds, false, prefetchCache);
+        prefetchPos = ((Integer) PARAM_ROWNUM_OUT.getOutValue()).intValue();
+        prefetchRowCount = Math.abs(((Integer) PARAM_NUMROWS_OUT.getOutValue()).intValue());
+        prefetchReady = true;
+    }
+
+    /**
+     * Moves to the prefetched block of rows and requests the block after it.
+     *
+     * @return <code>true</code> if a result set row is returned
+     * @throws SQLException if an error occurs
+     */
+    private boolean nextPrefetchedBlock() throws SQLException {
+        completePrefetch();
+        prefetchReady = false;
+
+        // Swap the row caches, the current one receives the next block
+        Object[][] rows = rowCache;
+        rowCache = prefetchCache;
+        prefetchCache = rows;
+        cursorPos = prefetchPos;
+        pos = cursorPos;
+        rowsInResult = prefetchRowCount;
+
+        boolean result = getCurrentRow() != null;
+
+        if (isBlockFull()) {
+            sendPrefetch();
+        }
+
+        return result;
+    }
+
+    /**
+     * Doubles the fetch size if the application had to wait for the last block
+     * of prefetched rows, as long as a block doesn't exceed
+     * {@link #PREFETCH_MAX_BYTES} (estimated from the current rows),
+     * {@link #PREFETCH_MAX_ROWS} or the maximum number of rows of the
+     * statement.
+     */
+    private void adaptFetchSize() {
+        if (prefetchWait < PREFETCH_WAIT) {
+            // The rows arrived before they were needed
+            return;
+        }
+
+        int limit = Math.min(PREFETCH_MAX_ROWS, PREFETCH_MAX_BYTES / getRowSize());
+
+        if (statement.maxRows > 0) {
+            limit = Math.min(limit, statement.maxRows);
+        }
+        if (fetchSize < limit) {
+            fetchSize = Math.min(fetchSize * 2, limit);
+        }
+    }
+
+    /**
+     * Estimates the average size of the rows in the row cache from a sample of
+     * the rows.
+     *
+     * @return the estimated row size in bytes, at least 1
+     */
+    private int getRowSize() {
+        int step = Math.max(1, rowCache.length / 16);
+        long size = 0;
+        int rows = 0;
+
+        for (int i = 0; i < rowCache.length && rowCache[i] != null; i += step) {
+            Object[] row = rowCache[i];
+
+            for (int j = 0; j < row.length; j++) {
+                Object value = row[j];
+
+                if (value instanceof String) {
+                    size += ((String) value).length() * 2;
+                } else if (value instanceof byte[]) {
+                    size += ((byte[]) value).length;
+                } else {
+                    size += 8;
+                }
+            }
+            ++rows;
+        }
+
+        return rows == 0 ? 1 : (int) Math.max(1, size / rows);
     }
 
     /**
@@ -907,7 +1114,10 @@ public class MSCursorResultSet extends JtdsResultSet {
 
         statement.clearWarnings();
 
-        // Consume rest of output and remember any exceptions
+        // Consume rest of output (including prefetched rows) and remember
+        // any exceptions
+        prefetchPending = false;
+        prefetchReady = false;
         tds.clearResponseQueue();
         SQLException ex = statement.getMessages().exceptions;
 
@@ -936,10 +1146,12 @@ public class MSCursorResultSet extends JtdsResultSet {
      *
      * @param tds     the <code>TdsCore</code> instance
      * @param setMeta whether column meta data needs to be loaded (cursor open)
+     * @param rows    the row cache to load the rows into
      * @throws SQLException if an error occurs or an error message is returned
      *                      by the server
      */
-    private void processOutput(TdsCore tds, boolean setMeta) throws SQLException {
+    private void processOutput(TdsCore tds, boolean setMeta, Object[][] rows)
+            throws SQLException {
         while (!tds.getMoreResults() && !tds.isEndOfResponse());
 
         int i = 0;
@@ -955,7 +1167,7 @@ public class MSCursorResultSet extends JtdsResultSet {
             // then the data. This case also used if meta data not supressed.
             if (tds.isRowData() || tds.getNextRow()) {
                 do {
-                    rowCache[i++] = copyRow(tds.getRowData());
+                    rows[i++] = copyRow(tds.getRowData());
                 } while (tds.getNextRow());
             }
         } else if (setMeta) {
@@ -964,8 +1176,8 @@ public class MSCursorResultSet extends JtdsResultSet {
         }
 
         // Set the rest of the rows to null
-        for (; i < rowCache.length; ++i) {
-            rowCache[i] = null;
+        for (; i < rows.length; ++i) {
+            rows[i] = null;
         }
 
         tds.clearResponseQueue();
@@ -1092,6 +1304,11 @@ public class MSCursorResultSet extends JtdsResultSet {
         }
     }
 
+    public void setFetchSize(int rows) throws SQLException {
+        super.setFetchSize(rows);
+        adaptiveFetchSize = false;
+    }
+
     public boolean first() throws SQLException {
         checkOpen();
         checkScrollable();
@@ -20,6 +20,8 @@ package net.sourceforge.jtds.jdbc;
 import java.io.InterruptedIOException;
 import java.sql.SQLException;
 import java.net.*;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
 
 import net.sourceforge.jtds.util.Logger;
 
@@ -46,22 +48,49 @@ import net.sourceforge.jtds.util.Logger;
  * < 000000d0 45 59 5c 70 69 70 65 5c 4d 53 53 51 4c 24 44 4f # EY\pipe\MSSQL$DO
  * < 000000e0 47 5c 73 71 6c 5c 71 75 65 72 79 3b 3b          # G\sql\query;;
  * </pre>
+ * <p>
+ * The responses are cached driver wide by {@link #getInstance}: a server is
+ * asked again once the response is {@link #CACHE_TTL} ms old, while the old
+ * response is still used for up to another {@link #CACHE_TTL} ms and a
+ * background thread refreshes it. Failed lookups are remembered for
+ * {@link #NEGATIVE_CACHE_TTL} ms. Concurrent lookups of the same server wait
+ * for a single request.
  *
  * @author Matt Brinkley
  * @version $Id: MSSqlServerInfo.java,v 1.8.2.1 2009-07-30 10:50:05 ickzon Exp $
  */
 public class MSSqlServerInfo {
+    /** The UDP port of the SQL Server Browser service. */
+    static final int BROWSER_PORT = 1434;
+    /** Time in ms after which a cached response is refreshed. */
+    static final long CACHE_TTL = 60000;
+    /** Time in ms a failed lookup is cached. */
+    static final long NEGATIVE_CACHE_TTL = 5000;
+    /** Cached responses, host and port to {@link CacheEntry}. */
+    private static final ConcurrentHashMap cache = new ConcurrentHashMap();
+
     private final int numRetries = 3;
     private final int timeout = 2000;
     private String[] serverInfoStrings;
 
     public MSSqlServerInfo(String host) throws SQLException {
+        this(host, BROWSER_PORT);
+    }
+
+    /**
+     * Asks the server for its instances.
+     *
+     * @param host the server host name
+     * @param port the UDP port of the SQL Server Browser service
+     * @throws SQLException if the server did not answer
+     */
+    MSSqlServerInfo(String host, int port) throws SQLException {
         DatagramSocket socket = null;
         try {
             InetAddress addr = InetAddress.getByName(host);
             socket = new DatagramSocket();
             byte[] msg = new byte[] {0x02};
-            DatagramPacket requestp = new DatagramPacket(msg, msg.length, addr, 1434);
+            DatagramPacket requestp = new DatagramPacket(msg, msg.length, addr, port);
 
             socket.setSoTimeout(timeout);
 
@@ -102,6 +131,68 @@ public class MSSqlServerInfo {
         throw new SQLException( Messages.get("error.msinfo.badinfo", host), "HY000");
     }
 
+    /**
+     * Retrieves the instances of a server, from the cache if possible.
+     *
+     * @param host the server host name
+     * @return the server info
+     * @throws SQLException if the server did not answer, now or in the last
+     *                      {@link #NEGATIVE_CACHE_TTL} ms
+     */
+    static MSSqlServerInfo getInstance(String host) throws SQLException {
+        return getInstance(host, BROWSER_PORT);
+    }
+
+    /**
+     * Retrieves the instances of a server, from the cache if possible.
+     *
+     * @param host the server host name
+     * @param port the UDP port of the SQL Server Browser service
+     * @return the server info
+     * @throws SQLException if the server did not answer, now or in the last
+     *                      {@link #NEGATIVE_CACHE_TTL} ms
+     */
+    static MSSqlServerInfo getInstance(String host, int port)
+            throws SQLException {
+        String key = getKey(host, port);
+        CacheEntry entry = (CacheEntry) cache.get(key);
+
+        if (entry == null) {
+            CacheEntry newEntry = new CacheEntry(host, port);
+
+            entry = (CacheEntry) cache.putIfAbsent(key, newEntry);
+            if (entry == null) {
+                entry = newEntry;
+            }
+        }
+
+        return entry.get();
+    }
+
+    /**
+     * Removes the cached response of a server, e.g. because connecting to
+     * the port of an instance failed.
+     *
+     * @param host the server host name
+     */
+    static void invalidate(String host) {
+        invalidate(host, BROWSER_PORT);
+    }
+
+    /**
+     * Removes the cached response of a server.
+     *
+     * @param host the server host name
+     * @param port the UDP port of the SQL Server Browser service
+     */
+    static void invalidate(String host, int port) {
+        cache.remove(getKey(host, port));
+    }
+
+    private static String getKey(String host, int port) {
+        return host.toLowerCase(Locale.ENGLISH) + ':' + port;
+    }
+
     /**
      * Call getInfo() before calling this method. It parses the info string
      * returned from SQL Server and looks for the port for the given named
@@ -167,6 +258,97 @@ public class MSSqlServerInfo {
         return -1;
     }
 
+    /**
+     * Cached response of a server.
+     */
+    private static final class CacheEntry implements Runnable {
+        private final String host;
+        private final int port;
+        /** The last response or <code>null</code> if the lookup failed. */
+        private MSSqlServerInfo info;
+        /** The error of the failed lookup. */
+        private SQLException error;
+        /** Time after which the response is refreshed. */
+        private long refreshTime;
+        /** Time after which the response is no longer used. */
+        private long expiryTime;
+        /** True while a background thread refreshes the response. */
+        private boolean refreshing;
+
+        CacheEntry(String host, int port) {
+            this.host = host;
+            this.port = port;
+        }
+
+        /**
+         * Retrieves the response, asking the server if there is none or the
+         * last one has expired.
+         */
+        synchronized MSSqlServerInfo get() throws SQLException {
+            long now = System.currentTimeMillis();
+
+            if (now >= refreshTime) {
+                if (info != null && now < expiryTime) {
+                    // Still usable, refresh in the background
+                    if (!refreshing) {
+                        refreshing = true;
+
+                        Thread thread = new Thread(this, "jTDS SQL Browser lookup");
+                        thread.setDaemon(true);
+                        thread.start();
+                    }
+                } else {
+                    // Other threads looking up this server wait for the
+                    // response as well
+                    try {
+                        update(new MSSqlServerInfo(host, port));
+                    } catch (SQLException e) {
+                        info = null;
+                        error = e;
+                        refreshTime = System.currentTimeMillis() + NEGATIVE_CACHE_TTL;
+                        expiryTime = refreshTime;
+                    }
+                }
+            }
+
+            if (info == null) {
+                throw new SQLException(error.getMessage(), error.getSQLState());
+            }
+
+            return info;
+        }
+
+        /**
+         * Refreshes the response in the background.
+         */
+        public void run() {
+            MSSqlServerInfo newInfo = null;
+
+            try {
+                newInfo = new MSSqlServerInfo(host, port);
+            } catch (SQLException e) {
+                // Keep using the old response, try again later
+            }
+
+            synchronized (this) {
+                if (newInfo != null) {
+                    update(newInfo);
+                } else {
+                    refreshTime = System.currentTimeMillis() + NEGATIVE_CACHE_TTL;
+                }
+
+                refreshing = false;
+            }
+        }
+
+        private void update(MSSqlServerInfo newInfo) {
+            info = newInfo;
+            error = null;
+            refreshTime = System.currentTimeMillis() + CACHE_TTL;
+            expiryTime = refreshTime + CACHE_TTL;
+        }
+    }
+
     private static final String extractString(byte[] buf, int len) {
         // the first three bytes are unknown; after that, it should be a narrow string...
         final int headerLength = 3;
@@ -0,0 +1,128 @@
+// jTDS JDBC Driver for Microsoft SQL Server and Sybase
+// Copyright (C) 2004 The jTDS Project
+//
+// This library is free software; you can redistribute it and/or
+// modify it under the terms of the GNU Lesser General Public
+// License as published by the Free Software Foundation; either
+// version 2.1 of the License, or (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+//
+package net.sourceforge.jtds.jdbc;
+
+/**
+ * Per connection cache of the column meta data of TDS 7.0+ result sets,
+ * keyed by the raw bytes of the <code>COLMETADATA</code> token.
+ * <p/>
+ * Implementation notes:
+ * <ol>
+ *   <li>The length of a <code>COLMETADATA</code> token is not known before
+ *     it has been decoded, so the cached tokens are compared against the
+ *     response, most recently used first, with
+ *     {@link ResponseStream#skipMatching(byte[])}. A match skips the token
+ *     without decoding the column types and names or looking up the column
+ *     character sets.
+ *   <li>The <code>ColInfo</code> arrays returned are shared by all results
+ *     with the same meta data and must not be modified; code changing
+ *     column descriptors copies them first with {@link ColInfo#copy}.
+ *   <li>The cache holds at most {@link #MAX_ENTRIES} entries, the least
+ *     recently used entry is discarded when a new one is added.
+ * </ol>
+ */
+final class MetaDataCache {
+    /** Maximum number of cached meta data. */
+    static final int MAX_ENTRIES = 64;
+
+    /** The cached meta data, most recently used first. */
+    private final Entry[] entries = new Entry[MAX_ENTRIES];
+    /** Number of cached meta data. */
+    private int size;
+    /** Number of lookups answered from the cache. */
+    private long hits;
+    /** Number of lookups not answered from the cache. */
+    private long misses;
+
+    /**
+     * Looks up the meta data following in the response and skips it if
+     * found.
+     *
+     * @param in     the response stream, positioned after the column count
+     * @param colCnt the column count
+     * @return the cached column descriptors or <code>null</code> if not
+     *         found, in which case nothing has been read from the response
+     */
+    synchronized ColInfo[] lookup(ResponseStream in, int colCnt) {
+        for (int i = 0; i < size; i++) {
+            Entry entry = entries[i];
+
+            if (entry.columns.length == colCnt && in.skipMatching(entry.raw)) {
+                // Move to front
+                System.arraycopy(entries, 0, entries, 1, i);
+                entries[0] = entry;
+                hits++;
+
+                return entry.columns;
+            }
+        }
+
+        misses++;
+
+        return null;
+    }
+
+    /**
+     * Adds decoded meta data to the cache.
+     *
+     * @param raw     the bytes of the <code>COLMETADATA</code> token,
+     *                following the column count
+     * @param columns the column descriptors decoded from <code>raw</code>
+     */
+    synchronized void put(byte[] raw, ColInfo[] columns) {
+        if (size < MAX_ENTRIES) {
+            size++;
+        }
+
+        System.arraycopy(entries, 0, entries, 1, size - 1);
+        entries[0] = new Entry(raw, columns);
+    }
+
+    /**
+     * Retrieves the number of lookups answered from the cache.
+     *
+     * @return the number of cache hits
+     */
+    synchronized long getHitCount() {
+        return hits;
+    }
+
+    /**
+     * Retrieves the number of lookups not answered from the cache.
+     *
+     * @return the number of cache misses
+     */
+    synchronized long getMissCount() {
+        return misses;
+    }
+
+    /**
+     * Cached meta data of one result set.
+     */
+    private static final class Entry {
+        /** The bytes of the token, following the column count. */
+        final byte[] raw;
+        /** The shared column descriptors. */
+        final ColInfo[] columns;
+
+        Entry(byte[] raw, ColInfo[] columns) {
+            this.raw = raw;
+            this.columns = columns;
+        }
+    }
+}
@@ -0,0 +1,185 @@
+// jTDS JDBC Driver for Microsoft SQL Server and Sybase
+// Copyright (C) 2004 The jTDS Project
+//
+// This library is free software; you can redistribute it and/or
+// modify it under the terms of the GNU Lesser General Public
+// License as published by the Free Software Foundation; either
+// version 2.1 of the License, or (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+//
+package net.sourceforge.jtds.jdbc;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Driver wide pool of network packet buffers.
+ * <p/>
+ * Implementation notes:
+ * <ol>
+ *   <li>Buffers are grouped into size classes, the powers of two from
+ *     {@link TdsCore#MIN_PKT_SIZE} to the maximum TDS packet size of 64KB. A
+ *     request is served from the smallest class that is large enough, so a
+ *     borrowed buffer may be larger than requested.
+ *   <li>Each size class is a lock free queue, there is no lock shared by the
+ *     size classes or by the connections using the pool.
+ *   <li>The number of buffers kept per size class is bounded, so the pool
+ *     never retains more than {@link #MAX_CLASS_BYTES} per size class. Surplus
+ *     buffers and buffers that do not match a size class are left to the
+ *     garbage collector when returned.
+ *   <li>A buffer must not be used any more after it has been returned to the
+ *     pool.
+ * </ol>
+ */
+public final class PacketBufferPool {
+    /** Log2 of the smallest size class. */
+    private static final int MIN_SHIFT = 9;
+    /** Log2 of the largest size class. */
+    private static final int MAX_SHIFT = 16;
+    /** Upper limit for the memory kept per size class. */
+    static final int MAX_CLASS_BYTES = 256 * 1024;
+    /** Minimum number of buffers kept per size class. */
+    private static final int MIN_CLASS_BUFFERS = 4;
+
+    /** The free buffers of each size class. */
+    private static final ConcurrentLinkedQueue[] freeBuffers =
+            new ConcurrentLinkedQueue[MAX_SHIFT - MIN_SHIFT + 1];
+    /** The number of free buffers of each size class. */
+    private static final AtomicInteger[] freeCounts =
+            new AtomicInteger[MAX_SHIFT - MIN_SHIFT + 1];
+
+    /** Number of requests served from the pool. */
+    private static final AtomicLong hits = new AtomicLong();
+    /** Number of requests that required a new buffer. */
+    private static final AtomicLong misses = new AtomicLong();
+
+    static {
+        for (int i = 0; i < freeBuffers.length; i++) {
+            freeBuffers[i] = new ConcurrentLinkedQueue();
+            freeCounts[i] = new AtomicInteger();
+        }
+    }
+
+    /**
+     * Private constructor, this class only has static methods.
+     */
+    private PacketBufferPool() {
+    }
+
+    /**
+     * Retrieves the size class index for a buffer size.
+     *
+     * @param size the required buffer size
+     * @return the size class index or -1 if the size exceeds the largest class
+     */
+    private static int sizeClass(int size) {
+        if (size <= 1 << MIN_SHIFT) {
+            return 0;
+        }
+
+        int shift = 32 - Integer.numberOfLeadingZeros(size - 1);
+
+        return shift > MAX_SHIFT ? -1 : shift - MIN_SHIFT;
+    }
+
+    /**
+     * Borrows a buffer of at least the specified size from the pool.
+     *
+     * @param size the minimum buffer size
+     * @return a buffer of at least <code>size</code> bytes, the content is
+     *         undefined
+     */
+    static byte[] get(int size) {
+        int sc = sizeClass(size);
+
+        if (sc < 0) {
+            misses.incrementAndGet();
+            return new byte[size];
+        }
+
+        byte[] buffer = (byte[]) freeBuffers[sc].poll();
+
+        if (buffer != null) {
+            freeCounts[sc].decrementAndGet();
+            hits.incrementAndGet();
+            return buffer;
+        }
+
+        misses.incrementAndGet();
+
+        return new byte[1 << (sc + MIN_SHIFT)];
+    }
+
+    /**
+     * Returns a buffer to the pool. The buffer must not be used by the caller
+     * afterwards.
+     *
+     * @param buffer the buffer to return, may be <code>null</code>
+     */
+    static void release(byte[] buffer) {
+        if (buffer == null) {
+            return;
+        }
+
+        int len = buffer.length;
+
+        // only buffers matching a size class exactly are pooled
+        if (len < 1 << MIN_SHIFT || len > 1 << MAX_SHIFT || (len & (len - 1)) != 0) {
+            return;
+        }
+
+        int sc = sizeClass(len);
+        int max = Math.max(MIN_CLASS_BUFFERS, MAX_CLASS_BYTES >> (sc + MIN_SHIFT));
+
+        if (freeCounts[sc].incrementAndGet() > max) {
+            freeCounts[sc].decrementAndGet();
+            return;
+        }
+
+        freeBuffers[sc].offer(buffer);
+    }
+
+    /**
+     * Retrieves the number of buffer requests that have been served from the
+     * pool since the driver was loaded.
+     *
+     * @return the number of pool hits
+     */
+    public static long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * Retrieves the number of buffer requests that required a new buffer to
+     * be allocated since the driver was loaded.
+     *
+     * @return the number of pool misses
+     */
+    public static long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * Retrieves the number of buffers currently held by the pool.
+     *
+     * @return the number of free buffers in all size classes
+     */
+    public static int getFreeCount() {
+        int count = 0;
+
+        for (int i = 0; i < freeCounts.length; i++) {
+            count += freeCounts[i].get();
+        }
+
+        return count;
+    }
+}
@@ -0,0 +1,222 @@
+// jTDS JDBC Driver for Microsoft SQL Server and Sybase
+// Copyright (C) 2004 The jTDS Project
+//
+// This library is free software; you can redistribute it and/or
+// modify it under the terms of the GNU Lesser General Public
+// License as published by the Free Software Foundation; either
+// version 2.1 of the License, or (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+//
+package net.sourceforge.jtds.jdbc;
+
+/**
+ * Primitive storage for the fixed width numeric columns of the current row.
+ * <p/>
+ * Implementation notes:
+ * <ol>
+ *   <li>One instance is kept by {@link TdsCore} for each result and reused for
+ *     every row, integer, bigint and float values are decoded by
+ *     {@link TdsData#readPrimitive} straight into the <code>int[]</code>,
+ *     <code>long[]</code> and <code>double[]</code> slots without creating
+ *     wrapper objects.
+ *   <li>SQL <code>NULL</code> values are recorded in a bitmap.
+ *   <li>Wrapper objects are only created by the <code>box</code> methods,
+ *     i.e. when a caller needs the value as an <code>Object</code>.
+ * </ol>
+ */
+final class PrimitiveRow {
+    /** Column value is not stored in this row (held as an object instead). */
+    static final byte NONE   = 0;
+    /** Column value is an <code>int</code>. */
+    static final byte INT    = 1;
+    /** Column value is a <code>long</code>. */
+    static final byte LONG   = 2;
+    /** Column value is a <code>float</code> (stored as <code>double</code>). */
+    static final byte FLOAT  = 3;
+    /** Column value is a <code>double</code>. */
+    static final byte DOUBLE = 4;
+
+    /** The kind of value currently stored for each column. */
+    private final byte[] kinds;
+    /** Slots for <code>int</code> values. */
+    private final int[] ints;
+    /** Slots for <code>long</code> values. */
+    private final long[] longs;
+    /** Slots for <code>float</code> and <code>double</code> values. */
+    private final double[] doubles;
+    /** Bitmap of columns holding a SQL <code>NULL</code>. */
+    private final long[] nulls;
+
+    /**
+     * Constructs a <code>PrimitiveRow</code> for the specified number of
+     * columns.
+     *
+     * @param columnCount the number of columns in the row
+     */
+    PrimitiveRow(int columnCount) {
+        kinds   = new byte[columnCount];
+        ints    = new int[columnCount];
+        longs   = new long[columnCount];
+        doubles = new double[columnCount];
+        nulls   = new long[(columnCount + 63) >> 6];
+    }
+
+    /**
+     * Retrieves the kind of value stored for a column.
+     *
+     * @param col the zero based column index
+     * @return one of {@link #NONE}, {@link #INT}, {@link #LONG},
+     *         {@link #FLOAT} or {@link #DOUBLE}
+     */
+    byte getKind(int col) {
+        return kinds[col];
+    }
+
+    /**
+     * Indicates whether the column holds a primitive value (or a SQL
+     * <code>NULL</code> for a primitive column).
+     *
+     * @param col the zero based column index
+     */
+    boolean isSet(int col) {
+        return kinds[col] != NONE;
+    }
+
+    /**
+     * Indicates whether the column holds a SQL <code>NULL</code>.
+     *
+     * @param col the zero based column index
+     */
+    boolean isNull(int col) {
+        return (nulls[col >> 6] & (1L << col)) != 0;
+    }
+
+    int getInt(int col) {
+        return ints[col];
+    }
+
+    long getLong(int col) {
+        return kinds[col] == INT ? ints[col] : longs[col];
+    }
+
+    double getDouble(int col) {
+        switch (kinds[col]) {
+            case INT:
+                return ints[col];
+            case LONG:
+                return longs[col];
+            default:
+                return doubles[col];
+        }
+    }
+
+    float getFloat(int col) {
+        return (float) doubles[col];
+    }
+
+    void setInt(int col, int value) {
+        kinds[col] = INT;
+        ints[col] = value;
+        nulls[col >> 6] &= ~(1L << col);
+    }
+
+    void setLong(int col, long value) {
+        kinds[col] = LONG;
+        longs[col] = value;
+        nulls[col >> 6] &= ~(1L << col);
+    }
+
+    void setFloat(int col, float value) {
+        kinds[col] = FLOAT;
+        doubles[col] = value;
+        nulls[col >> 6] &= ~(1L << col);
+    }
+
+    void setDouble(int col, double value) {
+        kinds[col] = DOUBLE;
+        doubles[col] = value;
+        nulls[col >> 6] &= ~(1L << col);
+    }
+
+    /**
+     * Stores a SQL <code>NULL</code> for a primitive column. The slot is
+     * zeroed, so primitive getters return <code>0</code> as required by JDBC.
+     *
+     * @param col  the zero based column index
+     * @param kind the kind of the column
+     */
+    void setNull(int col, byte kind) {
+        kinds[col] = kind;
+        ints[col] = 0;
+        longs[col] = 0;
+        doubles[col] = 0;
+        nulls[col >> 6] |= 1L << col;
+    }
+
+    /**
+     * Marks the column as not being stored in this row.
+     *
+     * @param col the zero based column index
+     */
+    void clear(int col) {
+        kinds[col] = NONE;
+    }
+
+    /**
+     * Creates the wrapper object for a single column and stores it into the
+     * row's object array. The primitive slot is released afterwards, so the
+     * object array becomes the only copy of the value.
+     *
+     * @param row the object array of the current row
+     * @param col the zero based column index
+     */
+    void box(Object[] row, int col) {
+        byte kind = kinds[col];
+
+        if (kind == NONE) {
+            return;
+        }
+
+        if (isNull(col)) {
+            row[col] = null;
+        } else {
+            switch (kind) {
+                case INT:
+                    row[col] = Integer.valueOf(ints[col]);
+                    break;
+                case LONG:
+                    row[col] = Long.valueOf(longs[col]);
+                    break;
+                case FLOAT:
+                    row[col] = Float.valueOf((float) doubles[col]);
+                    break;
+                default:
+                    row[col] = Double.valueOf(doubles[col]);
+            }
+        }
+
+        kinds[col] = NONE;
+    }
+
+    /**
+     * Creates the wrapper objects for all primitive columns, the row's object
+     * array is complete afterwards.
+     *
+     * @param row the object array of the current row
+     */
+    void box(Object[] row) {
+        for (int i = 0; i < kinds.length; i++) {
+            if (kinds[i] != NONE) {
+                box(row, i);
+            }
+        }
+    }
+}
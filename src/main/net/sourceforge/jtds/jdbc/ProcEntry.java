@@ -42,6 +42,8 @@ public class ProcEntry {
     private int type;
     /** Usage count for this statement. */
     private int refCount;
+    /** True while an <code>sp_prepexec</code> call is preparing the statement. */
+    private volatile boolean preparing;
 
     /**
      * Retrieves the procedure or handle name.
@@ -70,6 +72,27 @@ public class ProcEntry {
         name = Integer.toString(handle);
     }
 
+    /**
+     * Retrieves whether an <code>sp_prepexec</code> call preparing this
+     * statement is in progress. A <code>PREPARE</code> entry without a handle
+     * is prepared with its next execution.
+     *
+     * @return <code>true</code> if the statement is being prepared
+     */
+    public boolean isPreparing() {
+        return preparing;
+    }
+
+    /**
+     * Sets whether an <code>sp_prepexec</code> call preparing this statement
+     * is in progress.
+     *
+     * @param preparing <code>true</code> while the statement is being prepared
+     */
+    public void setPreparing(boolean preparing) {
+        this.preparing = preparing;
+    }
+
     /**
      * Retrieves the column meta data array.
      *
@@ -133,7 +156,10 @@ public class ProcEntry {
                 sql.append("DROP PROC ").append(name).append('\n');
                 break;
             case PREPARE:
-                sql.append("EXEC sp_unprepare ").append(name).append('\n');
+                if (name != null) {
+                    // null if sp_prepexec failed
+                    sql.append("EXEC sp_unprepare ").append(name).append('\n');
+                }
                 break;
             case CURSOR:
                 sql.append("EXEC sp_cursorunprepare ").append(name).append('\n');
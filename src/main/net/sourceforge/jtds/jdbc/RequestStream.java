@@ -41,6 +41,8 @@ import net.sourceforge.jtds.util.*;
  * @version $Id: RequestStream.java,v 1.18 2005-09-21 21:50:34 ddkilzer Exp $
  */
 public class RequestStream {
+    /** Packet buffer of a closed stream. */
+    private static final byte[] EMPTY_BUFFER = new byte[0];
     /** The shared network socket. */
     private final SharedSocket socket;
     /** The output packet buffer. */
@@ -54,9 +56,11 @@ public class RequestStream {
     /** True if stream is closed. */
     private boolean isClosed;
     /** The current output buffer size*/
-    private final int bufferSize;
+    private int bufferSize;
     /** The maximum decimal precision. */
     private final int maxPrecision;
+    /** True if the next packet starts a new request. */
+    private boolean firstPacket = true;
 
     /**
      * Construct a RequestStream object.
@@ -78,7 +82,7 @@ public class RequestStream {
         _VirtualSocket = vsock;
         this.socket = socket;
         this.bufferSize = bufferSize;
-        buffer = new byte[bufferSize];
+        buffer = PacketBufferPool.get(bufferSize);
         bufferPtr = TdsCore.PKT_HDR_LEN;
         this.maxPrecision = maxPrecision;
     }
@@ -97,9 +101,14 @@ public class RequestStream {
             throw new IllegalArgumentException("Invalid buffer size parameter " + size);
         }
 
-        byte[] tmp = new byte[size];
-        System.arraycopy(buffer, 0, tmp, 0, bufferPtr);
-        buffer = tmp;
+        if (size > buffer.length) {
+            byte[] tmp = PacketBufferPool.get(size);
+            System.arraycopy(buffer, 0, tmp, 0, bufferPtr);
+            PacketBufferPool.release(buffer);
+            buffer = tmp;
+        }
+
+        bufferSize = size;
     }
 
     /**
@@ -156,7 +165,7 @@ public class RequestStream {
      * @throws IOException
      */
     void write(byte b) throws IOException {
-        if (bufferPtr == buffer.length) {
+        if (bufferPtr == bufferSize) {
             putPacket(0);
         }
 
@@ -174,7 +183,7 @@ public class RequestStream {
         int off = 0;
 
         while (bytesToWrite > 0) {
-            int available = buffer.length - bufferPtr;
+            int available = bufferSize - bufferPtr;
 
             if (available == 0) {
                 putPacket(0);
@@ -203,7 +212,7 @@ public class RequestStream {
         int i = len - bytesToWrite;
 
         while (bytesToWrite > 0) {
-            int available = buffer.length - bufferPtr;
+            int available = bufferSize - bufferPtr;
 
             if (available == 0) {
                 putPacket(0);
@@ -312,13 +321,13 @@ public class RequestStream {
             for (int i = 0; i < len; ++i) {
                 int c = s.charAt(i);
 
-                if (bufferPtr == buffer.length) {
+                if (bufferPtr == bufferSize) {
                     putPacket(0);
                 }
 
                 buffer[bufferPtr++] = (byte) c;
 
-                if (bufferPtr == buffer.length) {
+                if (bufferPtr == bufferSize) {
                     putPacket(0);
                 }
 
@@ -342,13 +351,13 @@ public class RequestStream {
         for ( ; i < limit; i++) {
             char c = s[i];
 
-            if (bufferPtr == buffer.length) {
+            if (bufferPtr == bufferSize) {
                 putPacket(0);
             }
 
             buffer[bufferPtr++] = (byte) c;
 
-            if (bufferPtr == buffer.length) {
+            if (bufferPtr == bufferSize) {
                 putPacket(0);
             }
 
@@ -518,11 +527,35 @@ public class RequestStream {
         putPacket(1);
     }
 
+    /**
+     * Checks whether nothing has been written for the current request yet.
+     *
+     * @return <code>true</code> if the next write starts a new request
+     */
+    boolean isEmpty() {
+        return firstPacket && bufferPtr == TdsCore.PKT_HDR_LEN;
+    }
+
+    /**
+     * Terminate the current request with the ignore flag set, the server will
+     * discard the request instead of executing it.
+     *
+     * @throws IOException
+     */
+    void discard() throws IOException {
+        putPacket(3);
+    }
+
     /**
      * Close the output stream.
      */
     void close() {
         isClosed = true;
+        // Return the packet buffer, any further write will fail
+        PacketBufferPool.release(buffer);
+        buffer = EMPTY_BUFFER;
+        bufferSize = 0;
+        bufferPtr = 0;
     }
 
     /**
@@ -554,8 +587,19 @@ public class RequestStream {
             throw new IOException("RequestStream is closed");
         }
 
+        int status = last; // last segment indicator
+
+        // A pending connection reset is requested by the first packet of the
+        // next SQL batch or RPC, the server resets the session before
+        // executing the request
+        if (firstPacket && socket.isResetPending()
+                && (pktType == TdsCore.QUERY_PKT || pktType == TdsCore.RPC_PKT)) {
+            status |= 0x08;
+            socket.setResetPending(false);
+        }
+
         buffer[0] = pktType;
-        buffer[1] = (byte) last; // last segment indicator
+        buffer[1] = (byte) status;
         buffer[2] = (byte) (bufferPtr >> 8);
         buffer[3] = (byte) bufferPtr;
         buffer[4] = 0;
@@ -569,5 +613,6 @@ public class RequestStream {
 
         buffer = socket.sendNetPacket(_VirtualSocket, buffer);
         bufferPtr = TdsCore.PKT_HDR_LEN;
+        firstPacket = last != 0;
     }
 }
@@ -20,7 +20,7 @@ package net.sourceforge.jtds.jdbc;
 import java.io.IOException;
 import java.io.InputStream;
 import java.math.BigDecimal;
-import java.io.UnsupportedEncodingException;
+import java.nio.charset.Charset;
 
 import net.sourceforge.jtds.jdbc.SharedSocket.VirtualSocket;
 import net.sourceforge.jtds.util.*;
@@ -39,6 +39,8 @@ import net.sourceforge.jtds.util.*;
  * @version $Id: ResponseStream.java,v 1.20 2005-10-27 13:22:33 alin_sinpalean Exp $
  */
 public class ResponseStream {
+    /** Packet buffer of a closed stream. */
+    private static final byte[] EMPTY_BUFFER = new byte[0];
     /** The shared network socket. */
     private final SharedSocket socket;
     /** The Input packet buffer. */
@@ -57,6 +59,14 @@ public class ResponseStream {
     private final byte[] byteBuffer = new byte[255];
     /** A shared char buffer. */
     private final char[] charBuffer = new char[255];
+    /** The maximum number of bytes captured by {@link #startCapture()}. */
+    private static final int MAX_CAPTURE = 16384;
+    /** The bytes read since {@link #startCapture()}. */
+    private byte[] capture = new byte[0];
+    /** The number of bytes captured or -1 if not capturing. */
+    private int captureLen = -1;
+    /** The offset in the packet buffer of the next byte to capture. */
+    private int captureStart;
 
     /**
      * Constructs a <code>RequestStream</code> object.
@@ -74,7 +84,7 @@ public class ResponseStream {
     {
        _VirtualSocket = vsock;
        this.socket = socket;
-       buffer = new byte[bufferSize];
+       buffer = PacketBufferPool.get( bufferSize );
        bufferLen = bufferSize;
        bufferPtr = bufferSize;
     }
@@ -166,23 +176,49 @@ public class ResponseStream {
      * @throws IOException if an I/O error occurs
      */
     int read(char[] c) throws IOException {
-        for (int i = 0; i < c.length; i++) {
+        readChars(c, c.length);
+
+        return c.length;
+    }
+
+    /**
+     * Reads UCS2-LE (Unicode) characters from the server response stream.
+     * The characters within the current packet are decoded in one loop, only
+     * a character split between two packets is read byte by byte.
+     * <p/>
+     * The characters are not decoded as UTF-16, which would replace unpaired
+     * surrogates.
+     *
+     * @param c   the char array to read into
+     * @param len the number of characters to read
+     * @throws IOException if an I/O error occurs
+     */
+    private void readChars(char[] c, int len) throws IOException {
+        int i = 0;
+
+        while (i < len) {
             if (bufferPtr >= bufferLen) {
                 getPacket();
             }
 
-            int b1 = buffer[bufferPtr++] & 0xFF;
+            int run = Math.min(len - i, (bufferLen - bufferPtr) >> 1);
 
-            if (bufferPtr >= bufferLen) {
-                getPacket();
+            if (run == 0) {
+                // Character split between packets
+                c[i++] = (char) (read() | (read() << 8));
+                continue;
             }
 
-            int b2 = buffer[bufferPtr++] << 8;
+            final byte[] buf = buffer;
+            int ptr = bufferPtr;
 
-            c[i] = (char) (b2 | b1);
-        }
+            for (int end = i + run; i < end; i++) {
+                c[i] = (char) ((buf[ptr] & 0xFF) | (buf[ptr + 1] << 8));
+                ptr += 2;
+            }
 
-        return c.length;
+            bufferPtr = ptr;
+        }
     }
 
     /**
@@ -238,21 +274,7 @@ public class ResponseStream {
     String readUnicodeString(int len) throws IOException {
         char[] chars = (len > charBuffer.length) ? new char[len] : charBuffer;
 
-        for (int i = 0; i < len; i++) {
-            if (bufferPtr >= bufferLen) {
-                getPacket();
-            }
-
-            int b1 = buffer[bufferPtr++] & 0xFF;
-
-            if (bufferPtr >= bufferLen) {
-                getPacket();
-            }
-
-            int b2 = buffer[bufferPtr++] << 8;
-
-            chars[i] = (char) (b2 | b1);
-        }
+        readChars(chars, len);
 
         return new String(chars, 0, len);
     }
@@ -295,16 +317,30 @@ public class ResponseStream {
      * @throws IOException if an I/O error occurs
      */
     String readString(int len, CharsetInfo info) throws IOException {
-        String charsetName = info.getCharset();
+        Charset charset = info.getJavaCharset();
+
+        if (len > 0 && bufferPtr >= bufferLen) {
+            getPacket();
+        }
+
+        if (charset != null && bufferLen - bufferPtr >= len) {
+            // Decode directly from the packet buffer
+            String s = new String(buffer, bufferPtr, len, charset);
+            bufferPtr += len;
+
+            return s;
+        }
+
         byte[] bytes = (len > byteBuffer.length) ? new byte[len] : byteBuffer;
 
         read(bytes, 0, len);
 
-        try {
-            return new String(bytes, 0, len, charsetName);
-        } catch (UnsupportedEncodingException e) {
+        if (charset == null) {
+            // Not supported by the JVM
             return new String(bytes, 0, len);
         }
+
+        return new String(bytes, 0, len, charset);
     }
 
     /**
@@ -375,6 +411,91 @@ public class ResponseStream {
                         .add(new BigDecimal(b1));
     }
 
+    /**
+     * Discards the next bytes of the server response stream if they are
+     * equal to the specified bytes. The bytes are only compared if they are
+     * all available in the current packet.
+     *
+     * @param b the bytes expected
+     * @return <code>true</code> if the bytes were equal and have been
+     *         discarded
+     */
+    boolean skipMatching(byte[] b) {
+        int len = b.length;
+
+        if (bufferLen - bufferPtr < len) {
+            return false;
+        }
+
+        for (int i = 0; i < len; i++) {
+            if (buffer[bufferPtr + i] != b[i]) {
+                return false;
+            }
+        }
+
+        bufferPtr += len;
+
+        return true;
+    }
+
+    /**
+     * Starts recording the bytes read from the server response stream, until
+     * {@link #endCapture()} is called.
+     */
+    void startCapture() {
+        captureLen = 0;
+        captureStart = bufferPtr;
+    }
+
+    /**
+     * Stops recording the bytes read from the server response stream.
+     *
+     * @return the bytes read since {@link #startCapture()} or
+     *         <code>null</code> if there were more than can be recorded
+     */
+    byte[] endCapture() {
+        capture(bufferPtr);
+
+        byte[] b = null;
+
+        if (captureLen >= 0) {
+            b = new byte[captureLen];
+            System.arraycopy(capture, 0, b, 0, captureLen);
+        }
+
+        captureLen = -1;
+
+        return b;
+    }
+
+    /**
+     * Records the bytes of the packet buffer up to the specified offset, if
+     * capturing.
+     */
+    private void capture(int end) {
+        if (captureLen < 0 || end <= captureStart) {
+            return;
+        }
+
+        int len = captureLen + end - captureStart;
+
+        if (len > MAX_CAPTURE) {
+            // Too large, stop capturing
+            captureLen = -1;
+            return;
+        }
+
+        if (len > capture.length) {
+            byte[] tmp = new byte[Math.max(len, capture.length * 2)];
+            System.arraycopy(capture, 0, tmp, 0, captureLen);
+            capture = tmp;
+        }
+
+        System.arraycopy(buffer, captureStart, capture, captureLen, end - captureStart);
+        captureLen = len;
+        captureStart = end;
+    }
+
     /**
      * Discards bytes from the server response stream.
      *
@@ -429,6 +550,11 @@ public class ResponseStream {
     void close() {
         isClosed = true;
         socket.closeStream(_VirtualSocket);
+        // Return the packet buffer, any further read will fail
+        PacketBufferPool.release(buffer);
+        buffer = EMPTY_BUFFER;
+        bufferLen = 0;
+        bufferPtr = 0;
     }
 
     /**
@@ -474,9 +600,12 @@ public class ResponseStream {
                 throw new IOException("ResponseStream is closed");
             }
 
+            capture(bufferLen);
+
             buffer = socket.getNetPacket(_VirtualSocket, buffer);
             bufferLen = ((buffer[2] & 0xFF) << 8) | (buffer[3] & 0xFF);
             bufferPtr = TdsCore.PKT_HDR_LEN;
+            captureStart = bufferPtr;
 
             if (Logger.isActive()) {
                 Logger.logPacket(_VirtualSocket.id, true, buffer);
@@ -22,7 +22,7 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Locale;
 
-import net.sourceforge.jtds.jdbc.cache.SimpleLRUCache;
+import net.sourceforge.jtds.jdbc.cache.ConcurrentLRUCache;
 
 /**
  * Process JDBC escape strings and parameter markers in the SQL string.
@@ -89,9 +89,30 @@ class SQLParser {
     }
 
    /**
-    * a LRU cache for the last 1000 parsed SQL statements
+    * maximum number of parsed SQL statements in the cache, can be changed
+    * with the system property {@code net.sourceforge.jtds.jdbc.parserCacheSize}
     */
-   private final static SimpleLRUCache<ConInfo,CachedSQLQuery> _Cache = new SimpleLRUCache( 1000 );
+   final static int _CacheSize = Integer.getInteger( "net.sourceforge.jtds.jdbc.parserCacheSize", 1000 ).intValue();
+
+   /**
+    * maximum total length (in characters) of the SQL statements in the cache,
+    * can be changed with the system property
+    * {@code net.sourceforge.jtds.jdbc.parserCacheWeight}
+    */
+   final static int _CacheWeight = Integer.getInteger( "net.sourceforge.jtds.jdbc.parserCacheWeight", 4 * 1024 * 1024 ).intValue();
+
+   /**
+    * SQL statements longer than this (in characters) are not cached, can be
+    * changed with the system property
+    * {@code net.sourceforge.jtds.jdbc.parserCacheMaxSql}
+    */
+   final static int _CacheMaxSql = Integer.getInteger( "net.sourceforge.jtds.jdbc.parserCacheMaxSql", 64 * 1024 ).intValue();
+
+   /**
+    * an approximate LRU cache for the most recently parsed SQL statements,
+    * shared by all connections
+    */
+   private final static ConcurrentLRUCache<ConInfo,CachedSQLQuery> _Cache = new ConcurrentLRUCache<ConInfo,CachedSQLQuery>( Math.max( 1, _CacheSize ), Math.max( 1, _CacheWeight ) );
 
     /** Input buffer with SQL statement. */
     private final char[] in;
@@ -145,19 +166,20 @@ class SQLParser {
       String[] ret;
       ConInfo conInfo = new ConInfo( sql, connection );
 
-      // don't cache extract table parse requests
-      if( extractTable )
+      // don't cache extract table parse requests or very long statements
+      if( extractTable || sql.length() > _CacheMaxSql || _CacheSize < 1 )
       {
          ret = new SQLParser( paramList, conInfo ).parse( extractTable );
       }
       else
       {
-         // By not synchronizing on the cache, we're admitting that the possibility
-         // of multiple parses of the same statement can occur. However, it is
+         // By not locking the cache around the get()-parse()-put(), we're
+         // admitting that the possibility of multiple parses of the same
+         // statement can occur. However, it is
          //   1) unlikely under normal usage, and
          //   2) harmless to the cache.
-         // By avoiding a synchronization block around the get()-parse()-put(), we
-         // reduce the contention greatly in the nominal case.
+         // Lookups in the cache don't block, so there's no contention at all
+         // in the nominal case.
 
          CachedSQLQuery cachedQuery = _Cache.get( conInfo );
 
@@ -166,8 +188,8 @@ class SQLParser {
             // parse statement
             ret = new SQLParser( paramList, conInfo ).parse( extractTable );
 
-            // update LRU cache
-            _Cache.put( conInfo, new CachedSQLQuery( ret, paramList ) );
+            // update LRU cache, weighted by the length of the SQL statement
+            _Cache.put( conInfo, new CachedSQLQuery( ret, paramList ), sql.length() + ret[0].length() );
          }
          else
          {
@@ -187,6 +209,15 @@ class SQLParser {
       return ret;
    }
 
+   /**
+    * <p> Get the cache of parsed SQL statements shared by all connections,
+    * e.g. to retrieve its hit, miss and eviction counts. </p>
+    */
+   static ConcurrentLRUCache<?,?> getCache()
+   {
+      return _Cache;
+   }
+
     // --------------------------- Private Methods --------------------------------
 
     /** Lookup table to test if character is part of an identifier. */
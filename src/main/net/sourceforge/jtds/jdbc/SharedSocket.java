@@ -24,7 +24,6 @@ import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.io.RandomAccessFile;
 import java.net.InetSocketAddress;
 import java.net.NetworkInterface;
 import java.net.Socket;
@@ -73,6 +72,10 @@ import net.sourceforge.jtds.util.Logger;
 class SharedSocket {
     /**
      * This inner class contains the state information for the virtual socket.
+     * <p/>
+     * The packet queue state is guarded by the <code>VirtualSocket</code>
+     * instance itself, so a stream can consume its cached input while another
+     * stream is reading from the network.
      */
     static class VirtualSocket {
         /**
@@ -84,13 +87,13 @@ class SharedSocket {
          */
         final LinkedList pktQueue;
         /**
-         * File object for disk packet queue.
+         * Offset of the first packet of the disk packet queue.
          */
-        File queueFile;
+        long spillHead = SpillFile.NO_RECORD;
         /**
-         * I/O Stream for disk packet queue.
+         * Offset of the last packet of the disk packet queue.
          */
-        RandomAccessFile diskQueue;
+        long spillTail = SpillFile.NO_RECORD;
         /**
          * Number of packets cached to disk.
          */
@@ -99,6 +102,10 @@ class SharedSocket {
          * Total of input packets in memory or disk.
          */
         int inputPkts;
+        /**
+         * The stream has been closed, input for it is discarded.
+         */
+        boolean closed;
         /**
          * Construct object to hold state information for each caller.
          * @param streamId the Response/Request stream id.
@@ -137,6 +144,13 @@ class SharedSocket {
      * Table of stream objects sharing this socket.
      */
     private final ConcurrentMap<Integer,VirtualSocket> _VirtualSockets = new ConcurrentHashMap<Integer,VirtualSocket>();
+    /**
+     * Synchronization monitor serializing the physical network I/O, i.e.
+     * reading packets from and writing requests to the network and changes
+     * of the {@link #responseOwner}. Lock order is <code>wireLock</code>
+     * before any {@link VirtualSocket}.
+     */
+    private final Object wireLock = new Object();
     /**
      * The virtual socket of the object that is expecting a response from the server.
      */
@@ -149,6 +163,10 @@ class SharedSocket {
      * The directory to buffer data to.
      */
     private final File bufferDir;
+    /**
+     * The file input packets are spilled to, created on demand.
+     */
+    private volatile SpillFile spillFile;
 
    /**
     * total memory usage in all instances of the driver
@@ -204,6 +222,10 @@ class SharedSocket {
      * A cancel packet is pending.
      */
     private boolean cancelPending;
+    /**
+     * The next request is to reset the connection.
+     */
+    private volatile boolean resetPending;
     /**
      * Synchronization monitor for {@link #cancelPending} and
      * {@link #responseOwner}.
@@ -228,7 +250,7 @@ class SharedSocket {
     /**
      * Length of TDS packet header.
      */
-    private static final int TDS_HDR_LEN   = 8;
+    static final int TDS_HDR_LEN   = 8;
 
     protected SharedSocket(File bufferDir, int tdsVersion, int serverType) {
     	this.bufferDir = bufferDir;
@@ -244,12 +266,26 @@ class SharedSocket {
      * @throws IOException if socket open fails
      */
     SharedSocket(JtdsConnection connection) throws IOException, UnknownHostException {
+        this(connection, createSocketForJDBC3(connection));
+        setOut(new DataOutputStream(socket.getOutputStream()));
+        setIn(new DataInputStream(socket.getInputStream()));
+    }
+
+    /**
+     * Construct a <code>SharedSocket</code> object for an already connected
+     * socket. The I/O streams are not created, subclasses using this
+     * constructor have to override {@link #readRawPacket(byte[])} and
+     * {@link #writeRawPacket(byte[], int, boolean)} or set the streams.
+     *
+     * @param connection the connection object
+     * @param socket     the connected network socket
+     * @throws IOException if the socket options cannot be set
+     */
+    protected SharedSocket(JtdsConnection connection, Socket socket) throws IOException {
         this(connection.getBufferDir(), connection.getTdsVersion(), connection.getServerType());
         host = connection.getServerName();
         port = connection.getPortNumber();
-        socket = createSocketForJDBC3(connection);
-        setOut(new DataOutputStream(socket.getOutputStream()));
-        setIn(new DataInputStream(socket.getInputStream()));
+        this.socket = socket;
         socket.setTcpNoDelay(connection.getTcpNoDelay());
         socket.setSoTimeout(connection.getSocketTimeout() * 1000);
         socket.setKeepAlive(connection.getSocketKeepAlive());
@@ -267,7 +303,7 @@ class SharedSocket {
     * @throws IOException
     *    if socket open fails
     */
-   private Socket createSocketForJDBC3( JtdsConnection connection ) throws IOException
+   private static Socket createSocketForJDBC3( JtdsConnection connection ) throws IOException
    {
       final String host = connection.getServerName();
       final int port = connection.getPortNumber();
@@ -425,6 +461,26 @@ class SharedSocket {
         return tdsVersion;
     }
 
+    /**
+     * Requests a reset of the connection with the next request sent.
+     *
+     * @param resetPending <code>true</code> to set the RESETCONNECTION status
+     *                     bit on the next request, <code>false</code> once it
+     *                     has been set
+     */
+    void setResetPending(boolean resetPending) {
+        this.resetPending = resetPending;
+    }
+
+    /**
+     * Retrieves whether the next request is to reset the connection.
+     *
+     * @return <code>true</code> if a reset is pending
+     */
+    boolean isResetPending() {
+        return resetPending;
+    }
+
     /**
      * Set the TDS version field.
      *
@@ -518,8 +574,7 @@ class SharedSocket {
                     cancel[5] = 0;
                     cancel[6] = (tdsVersion >= Driver.TDS70) ? (byte) 1 : 0;
                     cancel[7] = 0;
-                    getOut().write(cancel, 0, TDS_HDR_LEN);
-                    getOut().flush();
+                    writeRawPacket(cancel, TDS_HDR_LEN, true);
                     if (Logger.isActive()) {
                         Logger.logPacket(vsock.id, false, cancel);
                     }
@@ -544,27 +599,26 @@ class SharedSocket {
       if( Logger.isActive() )
       {
          Logger.println( "TdsSocket: Max buffer memory used = " + (peakMemUsage / 1024) + "KB" );
+         Logger.println( "TdsSocket: Packet buffer pool hits = " + PacketBufferPool.getHitCount() + ", misses = " + PacketBufferPool.getMissCount() );
       }
 
       // see if any temporary files need deleting
       for( VirtualSocket vsock : _VirtualSockets.values() )
       {
-         if( vsock != null && vsock.diskQueue != null )
+         if( vsock != null )
          {
-            try
-            {
-               vsock.diskQueue.close();
-               vsock.queueFile.delete();
-            }
-            catch( IOException ioe )
-            {
-               // ignore errors
-            }
+            discardInput( vsock );
          }
       }
 
       _VirtualSockets.clear();
 
+      if( spillFile != null )
+      {
+         spillFile.close();
+         spillFile = null;
+      }
+
       try
       {
          if( sslSocket != null )
@@ -612,17 +666,44 @@ class SharedSocket {
       // unregister virtual socket
       _VirtualSockets.remove( vsock.id );
 
-      if( vsock.diskQueue != null )
+      discardInput( vsock );
+   }
+
+   /**
+    * Mark a virtual socket as closed and discard its cached input. Packet
+    * buffers of the memory queue are returned to the {@link PacketBufferPool},
+    * the records of the disk queue are released in the {@link SpillFile}.
+    *
+    * @param vsock
+    *    the virtual socket owning the queue
+    */
+   private void discardInput( VirtualSocket vsock )
+   {
+      synchronized( vsock )
       {
-         try
+         vsock.closed = true;
+
+         while( vsock.pktQueue.size() > 0 )
          {
-            vsock.diskQueue.close();
-            vsock.queueFile.delete();
+            byte[] buffer = (byte[]) vsock.pktQueue.removeFirst();
+            _MemUsage.addAndGet( -buffer.length );
+            PacketBufferPool.release( buffer );
          }
-         catch( IOException ioe )
+
+         if( vsock.pktsOnDisk > 0 )
          {
-            // ignore errors
+            SpillFile spill = spillFile;
+
+            if( spill != null )
+            {
+               spill.release( vsock.pktsOnDisk );
+            }
          }
+
+         vsock.spillHead = SpillFile.NO_RECORD;
+         vsock.spillTail = SpillFile.NO_RECORD;
+         vsock.pktsOnDisk = 0;
+         vsock.inputPkts = 0;
       }
    }
 
@@ -645,17 +726,19 @@ class SharedSocket {
      */
     byte[] sendNetPacket(VirtualSocket vsock, byte buffer[])
             throws IOException {
-        synchronized (_VirtualSockets) {
+        synchronized (wireLock) {
 
-            while (vsock.inputPkts > 0) {
-                //
-                // There is unread data in the input buffers.
-                // As we are sending another packet we can just discard it now.
-                //
-                if (Logger.isActive()) {
-                    Logger.println("TdsSocket: Unread data in input packet queue");
+            synchronized (vsock) {
+                while (vsock.inputPkts > 0) {
+                    //
+                    // There is unread data in the input buffers.
+                    // As we are sending another packet we can just discard it now.
+                    //
+                    if (Logger.isActive()) {
+                        Logger.println("TdsSocket: Unread data in input packet queue");
+                    }
+                    PacketBufferPool.release(dequeueInput(vsock));
                 }
-                dequeueInput(vsock);
             }
 
             if (responseOwner != null) {
@@ -677,17 +760,22 @@ class SharedSocket {
                         enqueueInput(tmpSock, tmpBuf);
                     }   // Any of our input is discarded.
                 } while (tmpBuf[1] == 0); // Read all data to complete TDS packet
+
+                if (ourData) {
+                    PacketBufferPool.release(tmpBuf);
+                }
             }
             //
             // At this point we know that we are able to send the first
             // or subsequent packet of a new request.
             //
-            getOut().write(buffer, 0, getPktLen(buffer));
+            writeRawPacket(buffer, getPktLen(buffer), buffer[1] != 0);
 
             if (buffer[1] != 0) {
-                getOut().flush();
                 // We are the response owner now
-                responseOwner = vsock;
+                synchronized (cancelMonitor) {
+                    responseOwner = vsock;
+                }
             }
 
             return buffer;
@@ -711,11 +799,20 @@ class SharedSocket {
      *    if an I/O error occurs
      */
     byte[] getNetPacket(VirtualSocket vsock, byte buffer[]) throws IOException {
-        synchronized (_VirtualSockets) {
+        // Return any cached input without waiting for the network
+        byte[] pkt = pollInput(vsock, buffer);
 
-            // Return any cached input
-            if (vsock.inputPkts > 0) {
-                return dequeueInput(vsock);
+        if (pkt != null) {
+            return pkt;
+        }
+
+        synchronized (wireLock) {
+
+            // Another stream may have queued our input while we were waiting
+            pkt = pollInput(vsock, buffer);
+
+            if (pkt != null) {
+                return pkt;
             }
 
             // Nothing cached see if we are expecting network data
@@ -731,6 +828,31 @@ class SharedSocket {
         }
     }
 
+    /**
+     * Retrieve the next cached input packet of a virtual socket, if any.
+     *
+     * @param vsock
+     *    the virtual socket owning the data
+     *
+     * @param buffer
+     *    the caller's current buffer, returned to the pool if a cached packet
+     *    is available
+     *
+     * @return
+     *    the cached packet or <code>null</code> if there is none
+     */
+    private byte[] pollInput(VirtualSocket vsock, byte buffer[]) throws IOException {
+        synchronized (vsock) {
+            if (vsock.inputPkts > 0) {
+                byte[] pkt = dequeueInput(vsock);
+                PacketBufferPool.release(buffer);
+                return pkt;
+            }
+        }
+
+        return null;
+    }
+
    /**
     * <p> Save a packet buffer in a memory queue or to a disk queue if the
     * global memory limit for the driver has been exceeded. </p>
@@ -743,16 +865,44 @@ class SharedSocket {
     */
    private void enqueueInput( VirtualSocket vsock, byte[] buffer )
       throws IOException
+   {
+      synchronized( vsock )
+      {
+         if( vsock.closed )
+         {
+            // nobody will read this input
+            PacketBufferPool.release( buffer );
+         }
+         else
+         {
+            enqueueOpenInput( vsock, buffer );
+         }
+      }
+   }
+
+   /**
+    * <p> Append a packet buffer to the queue of an open virtual socket, the
+    * caller has to hold the lock of the virtual socket. </p>
+    *
+    * @param vsock
+    *    the virtual socket owning this data
+    *
+    * @param buffer
+    *    the data to queue
+    */
+   private void enqueueOpenInput( VirtualSocket vsock, byte[] buffer )
+      throws IOException
    {
       // check to see if we should start caching to disk
-      if( _MemUsage.get() + buffer.length > memoryBudget && vsock.pktQueue.size() >= minMemPkts && !securityViolation && vsock.diskQueue == null )
+      if( _MemUsage.get() + buffer.length > memoryBudget && vsock.pktQueue.size() >= minMemPkts && !securityViolation && vsock.pktsOnDisk == 0 )
       {
-         // try to create a disk file for the queue
+         // try to create the connection's spill file, it's reused afterwards
          try
          {
-            vsock.queueFile = File.createTempFile( "jtds", ".tmp", bufferDir );
-            // vsock.queueFile.deleteOnExit(); memory leak, see http://bugs.java.com/bugdatabase/view_bug.do?bug_id=6664633
-            vsock.diskQueue = new RandomAccessFile( vsock.queueFile, "rw" );
+            if( spillFile == null )
+            {
+               spillFile = new SpillFile( bufferDir );
+            }
 
             // write current cache contents to disk and free memory
             byte[] tmpBuf;
@@ -760,24 +910,21 @@ class SharedSocket {
             while( vsock.pktQueue.size() > 0 )
             {
                tmpBuf = (byte[]) vsock.pktQueue.removeFirst();
-               vsock.diskQueue.write( tmpBuf, 0, getPktLen( tmpBuf ) );
-               vsock.pktsOnDisk ++;
+               spillPacket( vsock, tmpBuf );
+               _MemUsage.addAndGet( -tmpBuf.length );
             }
          }
          catch( java.lang.SecurityException se )
          {
             // not allowed to cache to disk so carry on in memory
             securityViolation = true;
-            vsock.queueFile = null;
-            vsock.diskQueue = null;
          }
       }
 
-      if( vsock.diskQueue != null )
+      if( vsock.pktsOnDisk > 0 )
       {
-         // cache file exists so append buffer to it
-         vsock.diskQueue.write( buffer, 0, getPktLen( buffer ) );
-         vsock.pktsOnDisk ++;
+         // disk queue exists so append buffer to it
+         spillPacket( vsock, buffer );
       }
       else
       {
@@ -794,9 +941,33 @@ class SharedSocket {
       vsock.inputPkts ++;
    }
 
+   /**
+    * <p> Append a packet to the disk queue of a virtual socket and return the
+    * buffer to the {@link PacketBufferPool}, the caller has to hold the lock
+    * of the virtual socket. </p>
+    *
+    * @param vsock
+    *    the virtual socket owning this data
+    *
+    * @param buffer
+    *    the packet to spill
+    */
+   private void spillPacket( VirtualSocket vsock, byte[] buffer )
+      throws IOException
+   {
+      vsock.spillTail = spillFile.write( vsock.spillTail, buffer, getPktLen( buffer ) );
+
+      if( vsock.pktsOnDisk ++ == 0 )
+      {
+         vsock.spillHead = vsock.spillTail;
+      }
+
+      PacketBufferPool.release( buffer );
+   }
+
    /**
     * <p> Read a cached packet from the in memory queue or from a disk based
-    * queue. </p>
+    * queue, the caller has to hold the lock of the virtual socket. </p>
     *
     * @param vsock
     *    the virtual socket owning this data
@@ -812,34 +983,17 @@ class SharedSocket {
       if( vsock.pktsOnDisk > 0 )
       {
          // data is cached on disk
-         if( vsock.diskQueue.getFilePointer() == vsock.diskQueue.length() )
-         {
-            // first read so rewind() file
-            vsock.diskQueue.seek( 0L );
-         }
-
-         vsock.diskQueue.readFully( hdrBuf, 0, TDS_HDR_LEN );
+         int len = spillFile.getPktLen( vsock.spillHead );
 
-         int len = getPktLen( hdrBuf );
-
-         buffer = new byte[len];
-         System.arraycopy( hdrBuf, 0, buffer, 0, TDS_HDR_LEN );
-         vsock.diskQueue.readFully( buffer, TDS_HDR_LEN, len - TDS_HDR_LEN );
+         buffer = PacketBufferPool.get( len );
+         vsock.spillHead = spillFile.read( vsock.spillHead, buffer, len );
          vsock.pktsOnDisk--;
 
          if( vsock.pktsOnDisk < 1 )
          {
-            // file now empty so close and delete it
-            try
-            {
-               vsock.diskQueue.close();
-               vsock.queueFile.delete();
-            }
-            finally
-            {
-               vsock.queueFile = null;
-               vsock.diskQueue = null;
-            }
+            // disk queue now empty, the spill file is kept for reuse
+            vsock.spillHead = SpillFile.NO_RECORD;
+            vsock.spillTail = SpillFile.NO_RECORD;
          }
       }
       else if( vsock.pktQueue.size() > 0 )
@@ -865,48 +1019,9 @@ class SharedSocket {
      */
     private byte[] readPacket(byte buffer[])
             throws IOException {
-        //
-        // Read rest of header
-        try {
-            getIn().readFully(hdrBuf);
-        } catch (EOFException e) {
-            throw new IOException("DB server closed connection.");
-        }
+        buffer = readRawPacket(buffer);
 
-        byte packetType = hdrBuf[0];
-
-        if (packetType != TdsCore.LOGIN_PKT
-                && packetType != TdsCore.QUERY_PKT
-                && packetType != TdsCore.SYBQUERY_PKT // required to connect IBM/Netcool Omnibus, see patch [1844846]
-                && packetType != TdsCore.REPLY_PKT) {
-            throw new IOException("Unknown packet type 0x" +
-                                    Integer.toHexString(packetType & 0xFF));
-        }
-
-        // figure out how many bytes are remaining in this packet.
-        int len = getPktLen(hdrBuf);
-
-        if (len < TDS_HDR_LEN || len > 65536) {
-            throw new IOException("Invalid network packet length " + len);
-        }
-
-        if (buffer == null || len > buffer.length) {
-            // Create or expand the buffer as required
-            buffer = new byte[len];
-
-            if (len > maxBufSize) {
-                maxBufSize = len;
-            }
-        }
-
-        // Preserve the packet header in the buffer
-        System.arraycopy(hdrBuf, 0, buffer, 0, TDS_HDR_LEN);
-
-        try {
-            getIn().readFully(buffer, TDS_HDR_LEN, len - TDS_HDR_LEN);
-        } catch (EOFException e) {
-            throw new IOException("DB server closed connection.");
-        }
+        int len = getPktLen(buffer);
 
         //
         // SQL Server 2000 < SP3 does not set the last packet
@@ -973,6 +1088,104 @@ class SharedSocket {
         return buffer;
     }
 
+    /**
+     * Read a complete physical TDS packet (header and data) from the network.
+     *
+     * @param buffer a buffer to read the data into (if it fits) or null
+     * @return either the incoming buffer if it was large enough or a newly
+     *         allocated buffer with the read packet
+     * @throws IOException if an I/O error occurs or the packet is invalid
+     */
+    protected byte[] readRawPacket(byte buffer[]) throws IOException {
+        //
+        // Read rest of header
+        try {
+            getIn().readFully(hdrBuf);
+        } catch (EOFException e) {
+            throw new IOException("DB server closed connection.");
+        }
+
+        // figure out how many bytes are remaining in this packet.
+        int len = checkPacketHeader(hdrBuf[0], getPktLen(hdrBuf));
+
+        buffer = getPacketBuffer(buffer, len);
+
+        // Preserve the packet header in the buffer
+        System.arraycopy(hdrBuf, 0, buffer, 0, TDS_HDR_LEN);
+
+        try {
+            getIn().readFully(buffer, TDS_HDR_LEN, len - TDS_HDR_LEN);
+        } catch (EOFException e) {
+            throw new IOException("DB server closed connection.");
+        }
+
+        return buffer;
+    }
+
+    /**
+     * Borrows a (larger) buffer from the pool if a packet does not fit into
+     * the current one, see {@link #readRawPacket(byte[])}.
+     *
+     * @param buffer the current buffer or <code>null</code>
+     * @param len    the length of the packet
+     * @return the buffer to read the packet into
+     */
+    final byte[] getPacketBuffer(byte buffer[], int len) {
+        if (buffer == null || len > buffer.length) {
+            PacketBufferPool.release(buffer);
+            buffer = PacketBufferPool.get(len);
+
+            if (len > maxBufSize) {
+                maxBufSize = len;
+            }
+        }
+
+        return buffer;
+    }
+
+    /**
+     * Write a physical TDS packet to the network.
+     *
+     * @param buffer the packet to send
+     * @param len    the length of the packet
+     * @param flush  <code>true</code> if this is the last packet of a request
+     *               and any buffered output has to be sent
+     * @throws IOException if an I/O error occurs
+     */
+    protected void writeRawPacket(byte buffer[], int len, boolean flush)
+            throws IOException {
+        getOut().write(buffer, 0, len);
+
+        if (flush) {
+            getOut().flush();
+        }
+    }
+
+    /**
+     * Validate the type and length of a physical TDS packet.
+     *
+     * @param packetType the packet type from the packet header
+     * @param len        the packet length from the packet header
+     * @return the packet length
+     * @throws IOException if the packet type or length is invalid
+     */
+    protected static int checkPacketHeader(byte packetType, int len)
+            throws IOException {
+        if (packetType != TdsCore.LOGIN_PKT
+                && packetType != TdsCore.QUERY_PKT
+                && packetType != TdsCore.SYBQUERY_PKT // required to connect IBM/Netcool Omnibus, see patch [1844846]
+                && packetType != TdsCore.REPLY_PKT) {
+            throw new IOException("Unknown packet type 0x" +
+                                    Integer.toHexString(packetType & 0xFF));
+        }
+
+        if (len < TDS_HDR_LEN || len > 65536) {
+            throw new IOException("Invalid network packet length " + len);
+        }
+
+        return len;
+    }
+
     /**
      * Convert two bytes (in network byte order) in a byte array into a Java
      * short integer.
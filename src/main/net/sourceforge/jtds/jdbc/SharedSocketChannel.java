@@ -0,0 +1,303 @@
+// jTDS JDBC Driver for Microsoft SQL Server and Sybase
+// Copyright (C) 2004 The jTDS Project
+//
+// This library is free software; you can redistribute it and/or
+// modify it under the terms of the GNU Lesser General Public
+// License as published by the Free Software Foundation; either
+// version 2.1 of the License, or (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+//
+package net.sourceforge.jtds.jdbc;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+
+/**
+ * This class implements the TCP/IP transport using a non-blocking NIO
+ * {@link SocketChannel} instead of the socket streams.
+ * <p/>
+ * Implementation notes:
+ * <ol>
+ *   <li>Network data is read into a direct receive buffer as large as the
+ *     maximum TDS packet, as much as the server has sent is transferred in a
+ *     single read. Complete packets (header and data) are copied from there
+ *     into the caller's packet buffer in one step, which is only replaced if
+ *     it is too small.
+ *   <li>Outgoing packets are copied into a direct send buffer so the channel
+ *     does not need temporary buffers of its own.
+ *   <li>Socket timeouts are implemented using {@link Selector}s, as
+ *     <code>SO_TIMEOUT</code> is ignored by socket channels.
+ *   <li>TLS encryption is layered on the socket streams, while encryption is
+ *     enabled the channel is switched to blocking mode and the stream based
+ *     implementation of {@link SharedSocket} is used.
+ * </ol>
+ *
+ * @see SharedSocket
+ */
+class SharedSocketChannel extends SharedSocket {
+    /** Maximum size of a physical TDS packet. */
+    private static final int MAX_PKT_SIZE = 65536;
+
+    /** The network socket channel. */
+    private final SocketChannel channel;
+    /** Selector used to wait for network input. */
+    private final Selector readSelector;
+    /** Selector used to wait for the network to accept output. */
+    private final Selector writeSelector;
+    /** Receive buffer, always kept ready for reading (flipped). */
+    private final ByteBuffer rcvBuf;
+    /** Send buffer, also used as lock for writing to the channel. */
+    private final ByteBuffer sndBuf;
+    /** The socket timeout in milliseconds or 0 for no timeout. */
+    private volatile int timeout;
+    /** <code>true</code> while TLS encryption is enabled. */
+    private boolean tls;
+
+    /**
+     * Construct a <code>SharedSocketChannel</code> object connected to the
+     * server specified in the connection properties.
+     *
+     * @param connection the connection object
+     * @throws IOException if the channel cannot be opened or connected
+     */
+    SharedSocketChannel(JtdsConnection connection) throws IOException {
+        this(connection, openChannel(connection));
+    }
+
+    private SharedSocketChannel(JtdsConnection connection, SocketChannel channel)
+            throws IOException {
+        super(connection, channel.socket());
+        this.channel = channel;
+        timeout = connection.getSocketTimeout() * 1000;
+        rcvBuf = ByteBuffer.allocateDirect(MAX_PKT_SIZE);
+        rcvBuf.flip();
+        // Larger packets negotiated later on are sent in several writes
+        int packetSize = connection.getPacketSize();
+        sndBuf = ByteBuffer.allocateDirect(packetSize > 0 ? packetSize : TdsCore.MAX_PKT_SIZE);
+        readSelector = Selector.open();
+        writeSelector = Selector.open();
+        setBlocking(false);
+    }
+
+    /**
+     * Opens a socket channel and connects it to the server.
+     *
+     * @param connection the connection object
+     * @return the connected (blocking) socket channel
+     * @throws IOException if the channel cannot be opened or connected
+     */
+    private static SocketChannel openChannel(JtdsConnection connection)
+            throws IOException {
+        SocketChannel channel = SocketChannel.open();
+
+        try {
+            String bindAddress = connection.getBindAddress();
+
+            if (bindAddress != null && !bindAddress.isEmpty()) {
+                channel.socket().bind(new InetSocketAddress(bindAddress, 0));
+            }
+
+            channel.socket().connect(
+                    new InetSocketAddress(connection.getServerName(), connection.getPortNumber()),
+                    connection.getLoginTimeout() * 1000);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+
+        return channel;
+    }
+
+    /**
+     * Switches the channel between blocking and non-blocking mode.
+     *
+     * @param blocking <code>true</code> to switch to blocking mode
+     * @throws IOException if an I/O error occurs
+     */
+    private void setBlocking(boolean blocking) throws IOException {
+        if (blocking) {
+            // A channel has to be deregistered from all selectors first
+            channel.keyFor(readSelector).cancel();
+            channel.keyFor(writeSelector).cancel();
+            readSelector.selectNow();
+            writeSelector.selectNow();
+            channel.configureBlocking(true);
+        } else {
+            channel.configureBlocking(false);
+            channel.register(readSelector, SelectionKey.OP_READ);
+            channel.register(writeSelector, SelectionKey.OP_WRITE);
+        }
+    }
+
+    /**
+     * Waits until the channel is ready for the operation of the selector.
+     *
+     * @param selector the read or write selector
+     * @throws SocketTimeoutException if the socket timeout expired
+     * @throws IOException if an I/O error occurs
+     */
+    private void await(Selector selector) throws IOException {
+        int ms = timeout;
+        long end = System.currentTimeMillis() + ms;
+
+        try {
+            while (selector.select(ms) == 0) {
+                if (!channel.isOpen()) {
+                    throw new IOException("DB server closed connection.");
+                }
+                if (ms > 0) {
+                    ms = (int) (end - System.currentTimeMillis());
+                    if (ms <= 0) {
+                        throw new SocketTimeoutException("Read timed out");
+                    }
+                }
+            }
+        } catch (ClosedSelectorException e) {
+            // Socket has been closed concurrently by forceClose()
+            throw new IOException("DB server closed connection.");
+        }
+
+        selector.selectedKeys().clear();
+    }
+
+    /**
+     * Ensures that the receive buffer contains at least the specified number
+     * of bytes, reading from the network as required.
+     *
+     * @param count the number of bytes required
+     * @throws IOException if an I/O error occurs
+     */
+    private void fill(int count) throws IOException {
+        if (rcvBuf.remaining() >= count) {
+            return;
+        }
+
+        rcvBuf.compact();
+
+        try {
+            while (rcvBuf.position() < count) {
+                int n = channel.read(rcvBuf);
+
+                if (n < 0) {
+                    throw new IOException("DB server closed connection.");
+                }
+                if (n == 0) {
+                    await(readSelector);
+                }
+            }
+        } finally {
+            rcvBuf.flip();
+        }
+    }
+
+    protected byte[] readRawPacket(byte buffer[]) throws IOException {
+        if (tls) {
+            return super.readRawPacket(buffer);
+        }
+
+        fill(TDS_HDR_LEN);
+
+        int pos = rcvBuf.position();
+        int len = ((rcvBuf.get(pos + 2) & 0xFF) << 8) | (rcvBuf.get(pos + 3) & 0xFF);
+
+        checkPacketHeader(rcvBuf.get(pos), len);
+
+        fill(len);
+
+        buffer = getPacketBuffer(buffer, len);
+        rcvBuf.get(buffer, 0, len);
+
+        return buffer;
+    }
+
+    protected void writeRawPacket(byte buffer[], int len, boolean flush)
+            throws IOException {
+        if (tls) {
+            super.writeRawPacket(buffer, len, flush);
+            return;
+        }
+
+        synchronized (sndBuf) {
+            for (int off = 0; off < len; ) {
+                int count = Math.min(len - off, sndBuf.capacity());
+
+                sndBuf.clear();
+                sndBuf.put(buffer, off, count);
+                sndBuf.flip();
+
+                while (sndBuf.hasRemaining()) {
+                    if (channel.write(sndBuf) == 0) {
+                        await(writeSelector);
+                    }
+                }
+
+                off += count;
+            }
+        }
+    }
+
+    void enableEncryption(String ssl) throws IOException {
+        if (rcvBuf.hasRemaining()) {
+            throw new IOException("Unread data in receive buffer while enabling TLS");
+        }
+
+        setBlocking(true);
+        super.enableEncryption(ssl);
+        tls = true;
+    }
+
+    void disableEncryption() throws IOException {
+        super.disableEncryption();
+        tls = false;
+        setBlocking(false);
+    }
+
+    protected void setTimeout(int timeout) throws SocketException {
+        super.setTimeout(timeout);
+        this.timeout = timeout;
+    }
+
+    void close() throws IOException {
+        try {
+            super.close();
+        } finally {
+            closeSelectors();
+        }
+    }
+
+    void forceClose() {
+        super.forceClose();
+        closeSelectors();
+    }
+
+    /**
+     * Closes the selectors, ignoring any errors.
+     */
+    private void closeSelectors() {
+        try {
+            readSelector.close();
+        } catch (IOException e) {
+            // Ignore
+        }
+        try {
+            writeSelector.close();
+        } catch (IOException e) {
+            // Ignore
+        }
+    }
+}
@@ -0,0 +1,244 @@
+// jTDS JDBC Driver for Microsoft SQL Server and Sybase
+// Copyright (C) 2004 The jTDS Project
+//
+// This library is free software; you can redistribute it and/or
+// modify it under the terms of the GNU Lesser General Public
+// License as published by the Free Software Foundation; either
+// version 2.1 of the License, or (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+//
+package net.sourceforge.jtds.jdbc;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+
+/**
+ * Memory mapped temporary file used by a {@link SharedSocket} to spill the
+ * input packets of its virtual sockets to disk.
+ * <p/>
+ * Implementation notes:
+ * <ol>
+ *   <li>There is one file per physical connection, shared by all of its
+ *     virtual sockets. Packets of different virtual sockets are appended in
+ *     the order they arrive, each packet record starts with the offset of the
+ *     next record of the same queue, so every queue is a linked list within
+ *     the file and only needs its head and tail offsets.
+ *   <li>The file is mapped in segments of {@link #SEGMENT_SIZE} bytes, mapped
+ *     on demand as the file grows. A record never spans two segments, so
+ *     writing or reading a packet is a single memory copy.
+ *   <li>Space is not reclaimed per packet, once all queues are empty the file
+ *     is rewound and reused by the next spill. The file and its mappings are
+ *     kept until the connection is closed.
+ *   <li>All methods are synchronized, the lock is only held for the copy.
+ * </ol>
+ */
+class SpillFile {
+    /** Default size of a mapped segment. */
+    static final int SEGMENT_SIZE = 4 * 1024 * 1024;
+    /** Length of the record header, the offset of the next record. */
+    static final int LINK_LEN = 8;
+    /** Link value marking the last record of a queue. */
+    static final long NO_RECORD = -1;
+
+    /** The temporary file. */
+    private final File file;
+    /** The file opened for reading and writing. */
+    private final RandomAccessFile raf;
+    /** The channel used to map the file. */
+    private final FileChannel channel;
+    /** The size of each mapped segment. */
+    private final int segmentSize;
+    /** The mapped segments, in file order. */
+    private final ArrayList segments = new ArrayList();
+    /** Offset at which the next record is written. */
+    private long writePos;
+    /** Number of records not yet read or discarded. */
+    private int records;
+
+    /**
+     * Create a new spill file in the specified directory.
+     *
+     * @param dir the directory to create the file in or <code>null</code> for
+     *            the default temporary directory
+     * @throws IOException if the file cannot be created
+     */
+    SpillFile(File dir) throws IOException {
+        this(dir, SEGMENT_SIZE);
+    }
+
+    /**
+     * Create a new spill file in the specified directory.
+     *
+     * @param dir         the directory to create the file in or
+     *                    <code>null</code> for the default temporary directory
+     * @param segmentSize the size of the mapped segments, large enough to
+     *                    hold the largest TDS packet and its record header
+     * @throws IOException if the file cannot be created
+     */
+    SpillFile(File dir, int segmentSize) throws IOException {
+        if (segmentSize < LINK_LEN + 65536) {
+            throw new IllegalArgumentException("segmentSize: " + segmentSize);
+        }
+
+        this.segmentSize = segmentSize;
+        file = File.createTempFile("jtds", ".tmp", dir);
+        // file.deleteOnExit(); memory leak, see http://bugs.java.com/bugdatabase/view_bug.do?bug_id=6664633
+
+        try {
+            raf = new RandomAccessFile(file, "rw");
+        } catch (IOException e) {
+            file.delete();
+            throw e;
+        }
+
+        channel = raf.getChannel();
+    }
+
+    /**
+     * Retrieves the segment starting at the specified segment index, mapping
+     * it if required.
+     *
+     * @param index the segment index
+     * @return the mapped segment
+     * @throws IOException if the segment cannot be mapped
+     */
+    private MappedByteBuffer segment(int index) throws IOException {
+        while (segments.size() <= index) {
+            long pos = (long) segments.size() * segmentSize;
+
+            segments.add(channel.map(FileChannel.MapMode.READ_WRITE, pos, segmentSize));
+        }
+
+        return (MappedByteBuffer) segments.get(index);
+    }
+
+    /**
+     * Appends a packet to a queue.
+     *
+     * @param tail   the offset of the last record of the queue or
+     *               {@link #NO_RECORD} if the queue is empty
+     * @param buffer the buffer holding the packet
+     * @param len    the packet length
+     * @return the offset of the new record, the new tail of the queue
+     * @throws IOException if the file cannot be extended
+     */
+    synchronized long write(long tail, byte[] buffer, int len) throws IOException {
+        int off = (int) (writePos % segmentSize);
+
+        if (off + LINK_LEN + len > segmentSize) {
+            // record does not fit, continue in the next segment
+            writePos += segmentSize - off;
+            off = 0;
+        }
+
+        long record = writePos;
+        MappedByteBuffer seg = segment((int) (record / segmentSize));
+
+        seg.putLong(off, NO_RECORD);
+        seg.position(off + LINK_LEN);
+        seg.put(buffer, 0, len);
+
+        if (tail != NO_RECORD) {
+            segment((int) (tail / segmentSize)).putLong((int) (tail % segmentSize), record);
+        }
+
+        writePos = record + LINK_LEN + len;
+        records++;
+
+        return record;
+    }
+
+    /**
+     * Reads a packet and removes it from its queue.
+     *
+     * @param head   the offset of the first record of the queue
+     * @param buffer the buffer to read the packet into
+     * @param len    the packet length
+     * @return the offset of the next record of the queue or
+     *         {@link #NO_RECORD} if the queue is empty now
+     * @throws IOException if the segment cannot be mapped
+     */
+    synchronized long read(long head, byte[] buffer, int len) throws IOException {
+        int off = (int) (head % segmentSize);
+        MappedByteBuffer seg = segment((int) (head / segmentSize));
+
+        seg.position(off + LINK_LEN);
+        seg.get(buffer, 0, len);
+
+        long next = seg.getLong(off);
+
+        release(1);
+
+        return next;
+    }
+
+    /**
+     * Reads the packet length from the TDS header of a record.
+     *
+     * @param head the offset of the record
+     * @return the packet length
+     * @throws IOException if the segment cannot be mapped
+     */
+    synchronized int getPktLen(long head) throws IOException {
+        int off = (int) (head % segmentSize) + LINK_LEN;
+        MappedByteBuffer seg = segment((int) (head / segmentSize));
+
+        return ((seg.get(off + 2) & 0xFF) << 8) | (seg.get(off + 3) & 0xFF);
+    }
+
+    /**
+     * Releases records that will not be read any more, e.g. when a virtual
+     * socket is closed. The file is rewound as soon as all records have been
+     * released.
+     *
+     * @param count the number of records to release
+     */
+    synchronized void release(int count) {
+        records -= count;
+
+        if (records <= 0) {
+            records = 0;
+            writePos = 0;
+        }
+    }
+
+    /**
+     * Retrieves the size of the mapped part of the file.
+     *
+     * @return the mapped size in bytes
+     */
+    synchronized long getMappedSize() {
+        return (long) segments.size() * segmentSize;
+    }
+
+    /**
+     * Closes and deletes the file. The mappings are released by the garbage
+     * collector, on platforms that do not allow mapped files to be deleted
+     * the file may remain in the buffer directory until then.
+     */
+    synchronized void close() {
+        segments.clear();
+        records = 0;
+        writePos = 0;
+
+        try {
+            raf.close();
+        } catch (IOException e) {
+            // Ignore
+        }
+
+        file.delete();
+    }
+}
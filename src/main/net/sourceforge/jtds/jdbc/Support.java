@@ -1085,6 +1085,32 @@ public class Support {
         return sql.toString();
     }
 
+    /**
+     * Checks whether two parameter lists have the same names and native SQL
+     * types, i.e. whether they have the same parameter definitions.
+     *
+     * @param params1 the first parameter list
+     * @param params2 the second parameter list, may be <code>null</code>
+     * @return <code>true</code> if the parameter definitions are the same
+     */
+    static boolean isSameParameterTypes(ParamInfo[] params1, ParamInfo[] params2) {
+        if (params2 == null || params1.length != params2.length) {
+            return false;
+        }
+
+        for (int i = 0; i < params1.length; i++) {
+            String name = params1[i].name;
+
+            if (params1[i].sqlType == null
+                    || !params1[i].sqlType.equals(params2[i].sqlType)
+                    || (name == null ? params2[i].name != null : !name.equals(params2[i].name))) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
     /**
      * Update the SQL string and replace the ? markers with parameter names
      * eg @P0, @P1 etc.
@@ -18,6 +18,7 @@
 package net.sourceforge.jtds.jdbc;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
 import java.sql.ResultSetMetaData;
@@ -166,6 +167,66 @@ public class TdsCore {
         String name;
     }
 
+    /**
+     * Inner class streaming a LOB value of the current row directly from the
+     * server response, see {@link TdsCore#getLobStream(int)}. The stream is
+     * invalid once the rest of the row has been read.
+     */
+    private class LobStream extends InputStream {
+        /** Number of bytes of the value not read yet. */
+        int remaining;
+
+        LobStream(int length) {
+            remaining = length;
+        }
+
+        public int read() throws IOException {
+            checkValid();
+
+            if (remaining == 0) {
+                return -1;
+            }
+
+            remaining--;
+
+            return in.read();
+        }
+
+        public int read(byte[] bytes, int offset, int len) throws IOException {
+            checkValid();
+
+            if (len == 0) {
+                return 0;
+            }
+            if (remaining == 0) {
+                return -1;
+            }
+
+            int count = in.read(bytes, offset, Math.min(len, remaining));
+
+            remaining -= count;
+
+            return count;
+        }
+
+        public long skip(long n) throws IOException {
+            checkValid();
+
+            int count = (int) Math.max(0, Math.min(n, remaining));
+
+            in.skip(count);
+            remaining -= count;
+
+            return count;
+        }
+
+        private void checkValid() throws IOException {
+            if (lobStream != this) {
+                throw new IOException(Messages.get("error.resultset.lobstreamclosed"));
+            }
+        }
+    }
+
     //
     // Package private constants
     //
@@ -187,6 +248,8 @@ public class TdsCore {
     public static final byte REPLY_PKT = 4;
     /** TDS Cancel packet. */
     public static final byte CANCEL_PKT = 6;
+    /** TDS 7.0 Bulk load data packet. */
+    public static final byte BULK_PKT = 7;
     /** TDS MSDTC packet. */
     public static final byte MSDTC_PKT = 14;
     /** TDS 5.0 Query packet. */
@@ -295,6 +358,8 @@ public class TdsCore {
     private static final byte TDS_ENV_LCID          = (byte) 5;
     /** Environment change: TDS 8 collation changed. */
     private static final byte TDS_ENV_SQLCOLLATION  = (byte) 7; // TDS8 Collation
+    /** Environment change: connection reset acknowledged. */
+    private static final byte TDS_ENV_RESETACK      = (byte) 18;
 
     //
     // Static variables used only for performance
@@ -330,6 +395,11 @@ public class TdsCore {
     public static final int EXECUTE_SQL = 2;
     /** Prepare SQL using sp_prepare and sp_execute */
     public static final int PREPARE = 3;
+    /**
+     * Procedure name returned by {@link JtdsConnection#prepareSQL} for a
+     * statement to prepare and execute using <code>sp_prepexec</code>.
+     */
+    static final String PREPEXEC = "sp_prepexec";
 
     //
     // Sybase capability flags
@@ -401,12 +471,41 @@ public class TdsCore {
     private boolean endOfResponse = true;
     /** True if the current result set is at end of file. */
     private boolean endOfResults  = true;
+    /** Row count to set with the next request or -1. */
+    private int pendingRowCount = -1;
+    /** Text size to set with the next request or -1. */
+    private int pendingTextSize = -1;
+    /** True if the current request changed the row count or text size. */
+    private boolean rowCountSent;
+    /** True if the current request contains the initial connection settings. */
+    private boolean initialSqlSent;
+    /**
+     * True if the current request starts with the <code>sp_executesql</code>
+     * call releasing obsolete handles and its end has not been read yet.
+     */
+    private boolean dropRpcSent;
+    /** The statement prepared by the next or current request. */
+    private ProcEntry prepExecProc;
     /** The array of column meta data objects for this result set. */
     private ColInfo[] columns;
+    /** True if the column descriptors may be shared with other results. */
+    private boolean columnsShared;
     /** The array of column meta data objects for the computed columns of this result set. */
     private ColInfo[] computedColumns;
     /** The array of column data objects in the current row. */
     private Object[] rowData;
+    /** The primitive values of the fixed width numeric columns in the current row. */
+    private PrimitiveRow primitiveRow;
+    /** True if large LOB values of the row read next are left in the response. */
+    private boolean streamLobs;
+    /** Index of the first column of the current row not read yet or -1. */
+    private int pendingColumn = -1;
+    /** Length in bytes of the LOB value of the pending column. */
+    private int pendingLength;
+    /** Index of the column of the current row retrieved as a stream or -1. */
+    private int streamedColumn = -1;
+    /** The stream over the value of the pending column or <code>null</code>. */
+    private LobStream lobStream;
     /** The array of computed column data objects in the current row. */
     private Object[] computedRowData;
     /** The array of table names associated with this result. */
@@ -432,8 +531,16 @@ public class TdsCore {
     private boolean fatalError;
     /** Mutual exclusion lock on connection. */
     private Semaphore connectionLock;
+    /** Indicates that a result set is read directly from the network. */
+    private boolean streaming;
     /** Indicates processing a batch. */
     private boolean inBatch;
+    /** The SQL the batch <code>sp_executesql</code> parameters were built for. */
+    private String batchSql;
+    /** The parameters the batch <code>sp_executesql</code> parameters were built for. */
+    private ParamInfo[] batchParams;
+    /** The statement and parameter definitions reused by a batch. */
+    private ParamInfo batchStmt, batchDefs;
     /** Indicates type of SSL connection. */
     private int sslMode = SSL_NO_ENCRYPT;
     /** Indicates pending cancel that needs to be cleared. */
@@ -503,6 +610,21 @@ public class TdsCore {
         return columns;
     }
 
+    /**
+     * Retrieve the current result set column descriptors, to be modified by
+     * the caller. Descriptors shared with other results are copied first.
+     *
+     * @return The column descriptors as a <code>ColInfo[]</code>.
+     */
+    ColInfo[] getColumnsForUpdate() {
+        if (columnsShared && columns != null) {
+            columns = ColInfo.copy(columns);
+            columnsShared = false;
+        }
+
+        return columns;
+    }
+
     /**
      * Sets the column meta data.
      *
@@ -510,7 +632,9 @@ public class TdsCore {
      */
     void setColumns(ColInfo[] columns) {
         this.columns = columns;
+        columnsShared = true;
         rowData = new Object[columns.length];
+        primitiveRow = new PrimitiveRow(columns.length);
         tables  = null;
     }
 
@@ -536,13 +660,41 @@ public class TdsCore {
 
     /**
      * Retrieve the current result set data items.
+     * <p/>
+     * Wrapper objects are created for any numeric values still held in the
+     * {@link PrimitiveRow}, use {@link #getUnboxedRowData()} together with
+     * {@link #getPrimitiveRow()} to avoid this.
      *
      * @return the row data as an <code>Object</code> array
      */
     Object[] getRowData() {
+        if (primitiveRow != null && rowData != null) {
+            primitiveRow.box(rowData);
+        }
         return rowData;
     }
 
+    /**
+     * Retrieve the current result set data items without creating wrapper
+     * objects for primitive values. Columns for which the primitive row
+     * {@link PrimitiveRow#isSet(int) is set} hold <code>null</code>.
+     *
+     * @return the row data as an <code>Object</code> array
+     */
+    Object[] getUnboxedRowData() {
+        return rowData;
+    }
+
+    /**
+     * Retrieve the primitive values of the current row.
+     *
+     * @return the <code>PrimitiveRow</code> of the current result or
+     *         <code>null</code> if there is none
+     */
+    PrimitiveRow getPrimitiveRow() {
+        return primitiveRow;
+    }
+
     /**
      * Negotiate SSL settings with SQL 2000+ server.
      * <p/>
@@ -766,11 +918,38 @@ public class TdsCore {
      */
     void clearResponseQueue() throws SQLException {
         checkOpen();
+        skipPendingColumns();
+        streamedColumn = -1;
         while (!endOfResponse) {
             nextToken();
         }
     }
 
+    /**
+     * Marks the current result set as read directly from the network. Until
+     * the end of the response other <code>TdsCore</code>s of the connection
+     * wait before sending requests, instead of forcing the rest of the
+     * response to be buffered.
+     *
+     * @see JtdsConnection#waitForStream(TdsCore, int)
+     */
+    void beginStream() {
+        if (!endOfResponse && !streaming) {
+            streaming = true;
+            connection.beginStream(this);
+        }
+    }
+
+    /**
+     * Releases the connection held by {@link #beginStream}.
+     */
+    private void endStream() {
+        if (streaming) {
+            streaming = false;
+            connection.endStream(this);
+        }
+    }
+
     /**
      * Consume packets from the server response queue up to (and including) the
      * first response terminator.
@@ -799,11 +978,34 @@ public class TdsCore {
      *                      are queued up and not thrown
      */
     boolean getNextRow() throws SQLException {
+        return getNextRow(false);
+    }
+
+    /**
+     * Retrieve the next data row from the result set, optionally leaving LOB
+     * values larger than the <code>lobBuffer</code> of the connection in the
+     * response until they are retrieved, see {@link #getLobStream(int)}.
+     *
+     * @param streamLobs <code>true</code> to leave large LOB values in the
+     *                   response
+     * @return <code>false</code> if at the end of results, <code>true</code>
+     *         otherwise
+     * @throws SQLException if an I/O or protocol error occurs; server errors
+     *                      are queued up and not thrown
+     */
+    boolean getNextRow(boolean streamLobs) throws SQLException {
         if (endOfResponse || endOfResults) {
             return false;
         }
         checkOpen();
-        nextToken();
+        skipPendingColumns();
+        streamedColumn = -1;
+        this.streamLobs = streamLobs;
+        try {
+            nextToken();
+        } finally {
+            this.streamLobs = false;
+        }
 
         // Will either be first or next data row or end.
         while (!currentToken.isRowData() && !currentToken.isEndToken()) {
@@ -896,6 +1098,36 @@ public class TdsCore {
         }
     }
 
+    /**
+     * Requests a reset of the session state with the next request sent on
+     * this connection, by any statement. Only supported by SQL Server 2000
+     * and later.
+     */
+    void resetConnection() {
+        socket.setResetPending(true);
+    }
+
+    /**
+     * Sets the statement to prepare with the next request, which must be
+     * executed with the procedure name {@link #PREPEXEC}. The handle returned
+     * by the server is stored in the entry.
+     *
+     * @param proc the cache entry of the statement
+     */
+    void setPrepExec(ProcEntry proc) {
+        prepExecProc = proc;
+    }
+
+    /**
+     * Ends the preparation of a statement by <code>sp_prepexec</code>.
+     */
+    private void endPrepExec() {
+        if (prepExecProc != null) {
+            prepExecProc.setPreparing(false);
+            prepExecProc = null;
+        }
+    }
+
     /**
      * Send (only) one cancel packet to the server.
      *
@@ -951,6 +1183,126 @@ public class TdsCore {
       messages.checkErrors();
    }
 
+    /**
+     * Executes an <code>INSERT BULK</code> statement and sends the rows to
+     * load. Nothing is sent if the row source has no more rows.
+     * <p/>
+     * If the row source fails the request is discarded by the server, so no
+     * rows of this call are loaded.
+     *
+     * @param insertBulk the <code>INSERT BULK</code> statement
+     * @param columns    the bulk load column descriptors, see
+     *                   {@link TdsData#getBulkColumn(ColInfo)}
+     * @param rows       the row source, the first row sent is the row
+     *                   following the current one
+     * @param maxRows    the maximum number of rows to send
+     * @return the number of rows sent
+     * @throws SQLException if the row source fails or the server reports an
+     *                      error
+     */
+    synchronized int bulkLoad(String insertBulk,
+                              ColInfo[] columns,
+                              JtdsBulkCopy.RowSource rows,
+                              int maxRows)
+            throws SQLException {
+        if (!rows.next()) {
+            return 0;
+        }
+
+        int sent = 0;
+        SQLException sourceError = null;
+
+        try {
+            // The connection is held from the INSERT BULK statement to the
+            // end of the rows, the server expects no other request between
+            if (connectionLock == null) {
+                connection.waitForStream(this, 0);
+                connectionLock = connection.getMutex();
+            }
+
+            executeSQL(insertBulk, null, null, false, 0, -1, -1, false, false);
+            out.flush();
+            endOfResponse = false;
+            endOfResults  = true;
+            wait(0);
+            clearResponseQueue();
+            messages.checkErrors();
+
+            out.setPacketType(BULK_PKT);
+            out.write(TDS7_RESULT_TOKEN);
+            out.write((short) columns.length);
+
+            for (int i = 0; i < columns.length; i++) {
+                ColInfo ci = columns[i];
+
+                out.write((short) ci.userType);
+                out.write((short) ((ci.nullable == ResultSetMetaData.columnNullable ? 0x01 : 0)
+                                   | (ci.isIdentity ? 0x10 : 0) | 0x08));
+                TdsData.writeBulkColumn(out, ci, connection.getCollation());
+                out.write((byte) ci.name.length());
+                out.write(ci.name);
+            }
+
+            try {
+                do {
+                    out.write(TDS_ROW_TOKEN);
+
+                    for (int i = 0; i < columns.length; i++) {
+                        TdsData.writeBulkValue(out, connection, columns[i], rows, i + 1);
+                    }
+                } while (++sent < maxRows && rows.next());
+            } catch (SQLException e) {
+                sourceError = e;
+            }
+
+            if (sourceError == null) {
+                out.write(TDS_DONE_TOKEN);
+                out.write((short) 0);
+                out.write((short) 0);
+                out.write(0);
+                out.flush();
+            } else {
+                out.discard();
+            }
+
+            connectionLock.release();
+            connectionLock = null;
+            endOfResponse = false;
+            endOfResults  = true;
+
+            if (sourceError != null) {
+                // The server may not respond to a discarded request, an
+                // attention is always acknowledged
+                cancel(true);
+            }
+
+            wait(0);
+            clearResponseQueue();
+        } catch (IOException ioe) {
+            connection.setClosed();
+
+            throw Support.linkException(
+                new SQLException(
+                       Messages.get(
+                                "error.generic.ioerror", ioe.getMessage()),
+                                    "08S01"), ioe);
+        } finally {
+            if (connectionLock != null) {
+                connectionLock.release();
+                connectionLock = null;
+            }
+        }
+
+        if (sourceError != null) {
+            messages.exceptions = null;
+            throw sourceError;
+        }
+
+        messages.checkErrors();
+
+        return sent;
+    }
+
     /**
      * Notifies the <code>TdsCore</code> that a batch is starting. This is so
      * that it knows to use <code>sp_executesql</code> for parameterized
@@ -987,6 +1339,44 @@ public class TdsCore {
                                  int maxFieldSize,
                                  boolean sendNow)
             throws SQLException {
+        executeSQL(sql, procName, parameters, noMetaData, timeOut, maxRows,
+                maxFieldSize, sendNow, true);
+    }
+
+    /**
+     * Send an SQL statement with optional parameters to the server, optionally
+     * returning without waiting for the response.
+     * <p/>
+     * If <code>awaitResponse</code> is <code>false</code> the timeout is not
+     * started; call {@link #awaitResponse} before reading the response to
+     * apply it. Other requests of this <code>TdsCore</code> discard the
+     * response if it was not read, requests of other <code>TdsCore</code>s
+     * buffer it.
+     *
+     * @param sql           SQL statement to execute
+     * @param procName      stored procedure to execute or <code>null</code>
+     * @param parameters    parameters for call or null
+     * @param noMetaData    suppress meta data for cursor calls
+     * @param timeOut       optional query timeout or 0
+     * @param maxRows       the maximum number of data rows to return (-1 to
+     *                      leave unaltered)
+     * @param maxFieldSize  the maximum number of bytes in a column to return
+     *                      (-1 to leave unaltered)
+     * @param sendNow       whether to send the request now or not
+     * @param awaitResponse whether to wait for the first byte of the response
+     *                      if the request is sent now
+     * @throws SQLException if an error occurs
+     */
+    synchronized void executeSQL(String sql,
+                                 String procName,
+                                 ParamInfo[] parameters,
+                                 boolean noMetaData,
+                                 int timeOut,
+                                 int maxRows,
+                                 int maxFieldSize,
+                                 boolean sendNow,
+                                 boolean awaitResponse)
+            throws SQLException {
         boolean sendFailed = true; // Used to ensure mutex is released.
         _ErrorReceived = false; // reset error token flag
 
@@ -996,6 +1386,7 @@ public class TdsCore {
             // to the network connection for this thread
             //
             if (connectionLock == null) {
+                connection.waitForStream(this, timeOut);
                 connectionLock = connection.getMutex();
             }
             // Also checks if connection is open
@@ -1004,12 +1395,16 @@ public class TdsCore {
 
             //
             // Set the connection row count and text size if required.
-            // Once set these will not be changed within a
-            // batch so execution of the set rows query will
-            // only occur once a the start of a batch.
+            // The SET statements are sent with the request if it's a SQL
+            // batch, otherwise they are executed before it. Once set these
+            // will not be changed within a batch so the SET statements are
+            // only sent at the start of a batch.
             // No other thread can send until this one has finished.
             //
-            setRowCountAndTextSize(maxRows, maxFieldSize);
+            pendingRowCount = maxRows >= 0 && maxRows != connection.getRowCount() ? maxRows : -1;
+            pendingTextSize = maxFieldSize >= 0 && maxFieldSize != connection.getTextSize() ? maxFieldSize : -1;
+            rowCountSent = false;
+            initialSqlSent = false;
 
             messages.clearWarnings();
             returnStatus = null;
@@ -1094,7 +1489,9 @@ public class TdsCore {
                     sendFailed = false;
                     endOfResponse = false;
                     endOfResults  = true;
-                    wait(timeOut);
+                    if (awaitResponse) {
+                        wait(timeOut);
+                    }
                 } else {
                     sendFailed = false;
                 }
@@ -1108,6 +1505,10 @@ public class TdsCore {
                                         "08S01"), ioe);
             }
         } finally {
+            if (sendFailed) {
+                endPrepExec();
+                dropRpcSent = false;
+            }
             if ((sendNow || sendFailed) && connectionLock != null) {
                 connectionLock.release();
                 connectionLock = null;
@@ -1115,6 +1516,10 @@ public class TdsCore {
             // Clear the in batch flag
             if (sendNow) {
                 inBatch = false;
+                batchSql = null;
+                batchParams = null;
+                batchStmt = null;
+                batchDefs = null;
             }
         }
     }
@@ -1305,6 +1710,7 @@ public class TdsCore {
         Semaphore mutex = null;
 
         try {
+            connection.waitForStream(this, 0);
             mutex = connection.getMutex();
 
             out.setPacketType(SYBQUERY_PKT);
@@ -1368,6 +1774,7 @@ public class TdsCore {
 
         Semaphore mutex = null;
         try {
+            connection.waitForStream(this, 0);
             mutex = connection.getMutex();
 
             out.setPacketType(SYBQUERY_PKT);
@@ -1414,6 +1821,7 @@ public class TdsCore {
     synchronized byte[] enlistConnection(int type, byte[] oleTranID) throws SQLException {
         Semaphore mutex = null;
         try {
+            connection.waitForStream(this, 0);
             mutex = connection.getMutex();
 
             out.setPacketType(MSDTC_PKT);
@@ -2353,6 +2761,12 @@ public class TdsCore {
 
       try
       {
+         // skip the rest of a row left with LOB values in the response
+         if( pendingColumn >= 0 )
+         {
+            readPendingColumns( columns.length - 1, false );
+         }
+
          // handle result set splitting in case of computed results
          if( computedColumns != null )
          {
@@ -2481,6 +2895,20 @@ public class TdsCore {
             case TDS_DONEPROC_TOKEN:
             case TDS_DONEINPROC_TOKEN:
                tdsDoneToken();
+
+               // skip the end of the call releasing obsolete handles and
+               // drop its errors, they don't belong to the user's results
+               if( dropRpcSent && currentToken.token == TDS_DONEPROC_TOKEN )
+               {
+                  dropRpcSent = false;
+                  returnStatus = null;
+                  messages.exceptions = null;
+
+                  if( ! endOfResponse )
+                  {
+                     nextToken();
+                  }
+               }
                break;
             default:
                throw new ProtocolException( "Invalid packet type 0x" + Integer.toHexString( currentToken.token & 0xFF ) );
@@ -2503,6 +2931,7 @@ public class TdsCore {
          endOfResponse = true;
          endOfResults = true;
          cancelPending = false;
+         endStream();
          throw err;
       }
    }
@@ -2572,6 +3001,7 @@ public class TdsCore {
          int colCnt   = in.readShort();
          columns = new ColInfo[colCnt];
          rowData = new Object[colCnt];
+         primitiveRow = new PrimitiveRow(colCnt);
          tables  = null;
 
          for (int colNum = 0; colNum < colCnt; ++colNum) {
@@ -2679,11 +3109,49 @@ public class TdsCore {
             return;
         }
 
-        columns = new ColInfo[colCnt];
         rowData = new Object[colCnt];
+        primitiveRow = new PrimitiveRow(colCnt);
         tables = null;
+        columnsShared = true;
+
+        // Statements executed repeatedly return the same meta data
+        MetaDataCache cache = connection.getMetaDataCache();
+
+        columns = cache.lookup(in, colCnt);
+
+        if (columns == null) {
+            columns = new ColInfo[colCnt];
+            byte[] raw;
+
+            in.startCapture();
+
+            try {
+                readColumns7();
+            } finally {
+                raw = in.endCapture();
+            }
+
+            if (raw != null) {
+                cache.put(raw, columns);
+            }
+        }
 
-        for (int i = 0; i < colCnt; i++) {
+        if (prepExecProc != null && connection.getUseMetadataCache()
+                && prepExecProc.getColMetaData() == null) {
+            // Meta data of the statement prepared with this execution
+            prepExecProc.setColMetaData(columns);
+        }
+    }
+
+    /**
+     * Decodes the column descriptors of a TDS 7.0 result set token.
+     *
+     * @throws IOException
+     * @throws ProtocolException
+     */
+    private void readColumns7()
+            throws IOException, ProtocolException, SQLException {
+        for (int i = 0; i < columns.length; i++) {
             ColInfo col = new ColInfo();
 
             col.userType = in.readShort();
@@ -2740,6 +3208,7 @@ public class TdsCore {
         int colCnt  = colList.size();
         columns = (ColInfo[]) colList.toArray(new ColInfo[colCnt]);
         rowData = new Object[colCnt];
+        primitiveRow = new PrimitiveRow(colCnt);
     }
 
     /**
@@ -2891,6 +3360,8 @@ public class TdsCore {
         final int pktLen = in.readShort();
         int bytesRead = 0;
         int columnIndex = 0;
+        // The descriptors may be shared with other results
+        ColInfo[] columns = getColumnsForUpdate();
 
         while (bytesRead < pktLen) {
             // Seems like all columns are always returned in the COL_INFO
@@ -2983,6 +3454,19 @@ public class TdsCore {
         {
            _ErrorReceived = true;
 
+           if (rowCountSent) {
+               // the batch may have failed before the SET statements
+               // were executed
+               connection.setRowCount(-1);
+               connection.setTextSize(-1);
+               rowCountSent = false;
+           }
+
+           if (initialSqlSent) {
+               connection.setPendingInitialSql();
+               initialSqlSent = false;
+           }
+
             if (severity < 10) {
                 severity = 11; // Ensure treated as error
             }
@@ -3080,6 +3564,15 @@ public class TdsCore {
                         break;
                     }
                 }
+
+                if (nextParam == 0 && prepExecProc != null) {
+                    // The handle returned by sp_prepexec
+                    Integer handle = (Integer) parameters[0].getOutValue();
+
+                    if (handle != null) {
+                        prepExecProc.setHandle(handle.intValue());
+                    }
+                }
             }
         }
     }
@@ -3207,13 +3700,193 @@ public class TdsCore {
      * @throws ProtocolException
      */
     private void tdsRowToken() throws IOException, ProtocolException {
-        for (int i = 0; i < columns.length; i++) {
-            rowData[i] =  TdsData.readData(connection, in, columns[i]);
-        }
+        streamedColumn = -1;
+        readColumns(0, streamLobs ? 0 : columns.length);
 
         endOfResults = false;
     }
 
+    /**
+     * Reads the columns of the current row from a column on. Reading stops at
+     * a LOB value larger than the <code>lobBuffer</code> of the connection in
+     * a column from <code>streamFrom</code> on, the row is then pending from
+     * that column.
+     *
+     * @param from       the index of the first column to read
+     * @param streamFrom the index of the first column whose LOB value may be
+     *                   left in the response
+     * @throws IOException
+     * @throws ProtocolException
+     */
+    private void readColumns(int from, int streamFrom)
+            throws IOException, ProtocolException {
+        pendingColumn = -1;
+
+        for (int i = from; i < columns.length; i++) {
+            if (TdsData.readPrimitive(in, columns[i], primitiveRow, i)) {
+                rowData[i] = null;
+                continue;
+            }
+
+            primitiveRow.clear(i);
+
+            if (i >= streamFrom && TdsData.isLob(columns[i])) {
+                int dataLen = TdsData.readLobLength(in);
+
+                // values of up to 2 bytes are read, a single space may stand
+                // for an empty string with Sybase (see TdsData.readLob)
+                if (dataLen > Math.max(connection.getLobBuffer(), 2)) {
+                    rowData[i] = null;
+                    pendingColumn = i;
+                    pendingLength = dataLen;
+                    return;
+                }
+
+                rowData[i] = dataLen < 0
+                        ? null : TdsData.readLob(connection, in, columns[i], dataLen);
+            } else {
+                rowData[i] = TdsData.readData(connection, in, columns[i]);
+            }
+        }
+    }
+
+    /**
+     * Reads the pending columns of the current row up to a column. A LOB
+     * value already retrieved as a stream is skipped.
+     *
+     * @param last the index of the last column to read
+     * @param keep <code>true</code> to keep the values, <code>false</code> to
+     *             skip LOB values left in the response as the row is left
+     * @throws IOException
+     * @throws ProtocolException
+     */
+    private void readPendingColumns(int last, boolean keep)
+            throws IOException, ProtocolException {
+        while (pendingColumn >= 0 && pendingColumn <= last) {
+            int i = pendingColumn;
+
+            if (lobStream != null) {
+                in.skip(lobStream.remaining);
+                lobStream = null;
+            } else if (keep) {
+                rowData[i] = TdsData.readLob(connection, in, columns[i], pendingLength);
+            } else {
+                in.skip(pendingLength);
+            }
+
+            readColumns(i + 1, keep ? last + 1 : i + 1);
+        }
+    }
+
+    /**
+     * Retrieves a LOB value of the current row left in the response as a
+     * stream, see {@link #getNextRow(boolean)}. The columns before it are
+     * read first.
+     *
+     * @param index the zero based column index
+     * @return the stream or <code>null</code> if the value has been read into
+     *         the row data
+     * @throws SQLException if the value has already been retrieved as a
+     *                      stream or an I/O or protocol error occurs
+     */
+    InputStream getLobStream(int index) throws SQLException {
+        checkStreamed(index);
+        readPending(index - 1, true);
+
+        if (pendingColumn != index) {
+            return null;
+        }
+
+        lobStream = new LobStream(pendingLength);
+        streamedColumn = index;
+
+        return lobStream;
+    }
+
+    /**
+     * Reads the columns of the current row up to a column, if still pending
+     * (see {@link #getNextRow(boolean)}), invalidating a LOB stream retrieved
+     * for a column before it.
+     *
+     * @param index the zero based column index
+     * @throws SQLException if the value of the column has already been
+     *                      retrieved as a stream or an I/O or protocol error
+     *                      occurs
+     */
+    void readColumn(int index) throws SQLException {
+        checkStreamed(index);
+        readPending(index, true);
+    }
+
+    /**
+     * Retrieves whether a column of the current row is still pending, see
+     * {@link #getNextRow(boolean)}.
+     *
+     * @param index the zero based column index
+     * @return <code>true</code> if the column has not been read yet
+     */
+    boolean isColumnPending(int index) {
+        return pendingColumn >= 0 && pendingColumn <= index;
+    }
+
+    /**
+     * Reads all pending columns of the current row, see {@link #readColumn}.
+     *
+     * @throws SQLException if an I/O or protocol error occurs
+     */
+    void readRow() throws SQLException {
+        if (pendingColumn >= 0) {
+            readPending(columns.length - 1, true);
+        }
+    }
+
+    /**
+     * Skips the pending columns of the current row, which is left.
+     *
+     * @throws SQLException if an I/O or protocol error occurs
+     */
+    private void skipPendingColumns() throws SQLException {
+        if (pendingColumn >= 0) {
+            readPending(columns.length - 1, false);
+        }
+    }
+
+    /**
+     * Reads the pending columns of the current row up to a column, see
+     * {@link #readPendingColumns}.
+     *
+     * @throws SQLException if an I/O or protocol error occurs
+     */
+    private void readPending(int last, boolean keep) throws SQLException {
+        if (pendingColumn >= 0 && pendingColumn <= last) {
+            try {
+                readPendingColumns(last, keep);
+            } catch (IOException e) {
+                connection.setClosed();
+                throw Support.linkException(new SQLException(Messages.get(
+                        "error.generic.ioerror", e.getMessage()), "08S01"), e);
+            } catch (ProtocolException e) {
+                connection.setClosed();
+                throw Support.linkException(new SQLException(Messages.get(
+                        "error.generic.tdserror", e.getMessage()), "08S01"), e);
+            }
+        }
+    }
+
+    /**
+     * Checks that the value of a column of the current row has not been
+     * retrieved as a stream.
+     *
+     * @param index the zero based column index
+     * @throws SQLException if the value has been retrieved as a stream
+     */
+    private void checkStreamed(int index) throws SQLException {
+        if (index == streamedColumn) {
+            throw new SQLException(Messages.get("error.resultset.lobstreamed",
+                    Integer.toString(index + 1)), "HY010");
+        }
+    }
+
     /**
      * Process TDS 5.0 Params Token.
      * Stored procedure output parameters or data returned in parameter format
@@ -3429,6 +4102,11 @@ public class TdsCore {
                     break;
                 }
 
+            case TDS_ENV_RESETACK:
+                    in.skip(len - 1);
+                    connection.resetAcknowledged();
+                    break;
+
             default:
                 {
                     if (Logger.isActive()) {
@@ -3628,6 +4306,7 @@ public class TdsCore {
         int colCnt = in.readShort();
         columns = new ColInfo[colCnt];
         rowData = new Object[colCnt];
+        primitiveRow = new PrimitiveRow(colCnt);
         tables = null;
 
         for (int colNum = 0; colNum < colCnt; ++colNum) {
@@ -3728,6 +4407,15 @@ public class TdsCore {
             //
             endOfResponse = !cancelPending;
 
+            if (endOfResponse) {
+                endPrepExec();
+                dropRpcSent = false;
+            }
+
+            if (endOfResponse) {
+                endStream();
+            }
+
             if (fatalError) {
                 // A fatal error has occured, the server has closed the
                 // connection
@@ -3762,6 +4450,8 @@ public class TdsCore {
                               boolean sendNow)
             throws IOException, SQLException {
         if (procName != null) {
+            setRowCountAndTextSize();
+
             // RPC call
             out.setPacketType(RPC_PKT);
             byte[] buf = Support.encodeString(connection.getCharset(), procName);
@@ -3798,6 +4488,7 @@ public class TdsCore {
             }
 
             out.setPacketType(QUERY_PKT);
+            writeRowCountAndTextSize(sql);
             out.write(sql);
             if (!sendNow) {
                 // Batch SQL statements
@@ -3856,6 +4547,10 @@ public class TdsCore {
             }
         }
 
+        if (procName != null || isBatchStatement(sql)) {
+            setRowCountAndTextSize();
+        }
+
         out.setPacketType(SYBQUERY_PKT);
 
         if (procName == null) {
@@ -3866,6 +4561,12 @@ public class TdsCore {
                 sql = Support.substituteParamMarkers(sql, parameters);
             }
 
+            String setSql = getRowCountAndTextSizeSql();
+
+            if (setSql != null) {
+                sql = setSql + sql;
+            }
+
             if (connection.isWideChar()) {
                 // Need to preconvert string to get correct length
                 byte[] buf = Support.encodeString(connection.getCharset(), sql);
@@ -4002,15 +4703,32 @@ public class TdsCore {
                     params = new ParamInfo[2 + parameters.length];
                     System.arraycopy(parameters, 0, params, 2, parameters.length);
 
-                    params[0] = new ParamInfo(Types.LONGVARCHAR,
-                            Support.substituteParamMarkers(sql, parameters),
-                            ParamInfo.UNICODE);
-                    TdsData.getNativeType(connection, params[0]);
+                    // Within a batch the statement text and parameter
+                    // definitions are only built once as long as the SQL
+                    // and the parameter types stay the same
+                    if (!inBatch || !sql.equals(batchSql)
+                            || !Support.isSameParameterTypes(parameters, batchParams)) {
+                        batchStmt = new ParamInfo(Types.LONGVARCHAR,
+                                Support.substituteParamMarkers(sql, parameters),
+                                ParamInfo.UNICODE);
+                        TdsData.getNativeType(connection, batchStmt);
+
+                        batchDefs = new ParamInfo(Types.LONGVARCHAR,
+                                Support.getParameterDefinitions(parameters),
+                                ParamInfo.UNICODE);
+                        TdsData.getNativeType(connection, batchDefs);
+
+                        batchSql = inBatch ? sql : null;
+                        batchParams = inBatch ? parameters : null;
+                    }
 
-                    params[1] = new ParamInfo(Types.LONGVARCHAR,
-                            Support.getParameterDefinitions(parameters),
-                            ParamInfo.UNICODE);
-                    TdsData.getNativeType(connection, params[1]);
+                    params[0] = batchStmt;
+                    params[1] = batchDefs;
+
+                    if (!inBatch) {
+                        batchStmt = null;
+                        batchDefs = null;
+                    }
 
                     parameters = params;
 
@@ -4041,12 +4759,39 @@ public class TdsCore {
 
                 // Use sp_execute approach
                 procName = "sp_execute";
+            } else if (PREPEXEC.equals(procName) && prepExecProc != null) {
+                // Prepare and execute in one call, the handle is returned
+                // as the first output parameter
+                if (parameters == null) {
+                    parameters = new ParamInfo[0];
+                }
+
+                ParamInfo params[] = new ParamInfo[3 + parameters.length];
+
+                System.arraycopy(parameters, 0, params, 3, parameters.length);
+
+                params[0] = new ParamInfo(Types.INTEGER, null, ParamInfo.OUTPUT);
+                TdsData.getNativeType(connection, params[0]);
+                params[1] = new ParamInfo(Types.LONGVARCHAR,
+                        Support.getParameterDefinitions(parameters),
+                        ParamInfo.UNICODE);
+                TdsData.getNativeType(connection, params[1]);
+                params[2] = new ParamInfo(Types.LONGVARCHAR,
+                        Support.substituteParamMarkers(sql, parameters),
+                        ParamInfo.UNICODE);
+                TdsData.getNativeType(connection, params[2]);
+
+                parameters = params;
+                this.parameters = params;
             }
         }
 
         if (procName != null) {
+            setRowCountAndTextSize();
+
             // RPC call
             out.setPacketType(RPC_PKT);
+            writeDropRpc();
             Integer shortcut;
 
             if (tdsVersion >= Driver.TDS80
@@ -4089,7 +4834,9 @@ public class TdsCore {
             }
         } else if (sql.length() > 0) {
             // Simple SQL query with no parameters
+            dropHandles();
             out.setPacketType(QUERY_PKT);
+            writeRowCountAndTextSize(sql);
             out.write(sql);
             if (!sendNow) {
                 // Append SQL packets
@@ -4099,48 +4846,268 @@ public class TdsCore {
     }
 
     /**
-     * Sets the server row count (to limit the number of rows in a result set)
-     * and text size (to limit the size of returned TEXT/NTEXT fields).
+     * Builds the <code>SET</code> statements for the initial connection
+     * settings not executed yet (see
+     * {@link JtdsConnection#takePendingInitialSql()}) and for a pending change
+     * of the server row count (to limit the number of rows in a result set)
+     * and text size (to limit the size of returned TEXT/NTEXT fields) and
+     * updates the values stored in the connection. If the request fails the
+     * initial settings are queued again and the stored values are
+     * invalidated, see {@link #tdsErrorToken()}.
+     *
+     * @return the statements on a single line, terminated by a space, or
+     *         <code>null</code> if nothing is pending
+     */
+    private String getRowCountAndTextSizeSql() {
+        String initialSql = connection.takePendingInitialSql();
+
+        if (initialSql != null) {
+            initialSqlSent = true;
+        }
+
+        if (pendingRowCount < 0 && pendingTextSize < 0) {
+            return initialSql;
+        }
+
+        StringBuilder query = new StringBuilder(64);
+
+        if (initialSql != null) {
+            query.append(initialSql);
+        }
+
+        if (pendingRowCount >= 0) {
+            query.append("SET ROWCOUNT ").append(pendingRowCount).append(' ');
+            connection.setRowCount(pendingRowCount);
+        }
+        if (pendingTextSize >= 0) {
+            query.append("SET TEXTSIZE ")
+                    .append(pendingTextSize == 0 ? 2147483647 : pendingTextSize)
+                    .append(' ');
+            connection.setTextSize(pendingTextSize);
+        }
+
+        pendingRowCount = -1;
+        pendingTextSize = -1;
+        rowCountSent = true;
+
+        return query.toString();
+    }
+
+    /**
+     * Writes the pending <code>SET</code> statements (see
+     * {@link #getRowCountAndTextSizeSql()}) in front of the first line of a
+     * SQL batch, saving a round trip. They are executed before the batch
+     * instead if it starts with a statement that must be the first of its
+     * batch, see {@link #isBatchStatement(String)}.
      *
-     * @param rowCount the number of rows to return or 0 for no limit or -1 to
-     *                 leave as is
-     * @param textSize the maximum number of bytes in a TEXT column to return
-     *                 or -1 to leave as is
+     * @param sql the SQL batch
+     * @throws IOException if an I/O error occurs
      * @throws SQLException if an error is returned by the server
      */
-    private void setRowCountAndTextSize(int rowCount, int textSize)
-            throws SQLException {
-        boolean newRowCount =
-                rowCount >= 0 && rowCount != connection.getRowCount();
-        boolean newTextSize =
-                textSize >= 0 && textSize != connection.getTextSize();
-        if (newRowCount || newTextSize) {
-            try {
-                StringBuilder query = new StringBuilder(64);
-                if (newRowCount) {
-                    query.append("SET ROWCOUNT ").append(rowCount);
-                }
-                if (newTextSize) {
-                    query.append(" SET TEXTSIZE ")
-                            .append(textSize == 0 ? 2147483647 : textSize);
-                }
-                out.setPacketType(QUERY_PKT);
-                out.write(query.toString());
-                out.flush();
-                endOfResponse = false;
-                endOfResults  = true;
-                wait(0);
-                clearResponseQueue();
-                messages.checkErrors();
-                // Update the values stored in the Connection
-                connection.setRowCount(rowCount);
-                connection.setTextSize(textSize);
-            } catch (IOException ioe) {
-                throw new SQLException(
-                            Messages.get("error.generic.ioerror",
-                                                    ioe.getMessage()), "08S01");
+    private void writeRowCountAndTextSize(String sql)
+            throws IOException, SQLException {
+        if (isBatchStatement(sql)) {
+            setRowCountAndTextSize();
+            out.setPacketType(QUERY_PKT);
+            return;
+        }
+
+        String setSql = getRowCountAndTextSizeSql();
+
+        if (setSql != null) {
+            out.write(setSql);
+        }
+    }
+
+    /**
+     * Checks whether a SQL batch starts with a <code>CREATE</code> or
+     * <code>ALTER</code> statement. Some of these, e.g. those for procedures,
+     * views, triggers and functions, must be the first statement in a batch,
+     * so no other statements may be written in front of them.
+     *
+     * @param sql the SQL batch
+     * @return <code>true</code> if nothing may precede the batch
+     */
+    private static boolean isBatchStatement(String sql) {
+        int len = sql.length();
+        int i = 0;
+
+        while (i < len) {
+            char c = sql.charAt(i);
+
+            if (Character.isWhitespace(c)) {
+                i++;
+            } else if (sql.startsWith("--", i)) {
+                int end = sql.indexOf('\n', i);
+                i = end < 0 ? len : end + 1;
+            } else if (sql.startsWith("/*", i)) {
+                int end = sql.indexOf("*/", i + 2);
+                i = end < 0 ? len : end + 2;
+            } else {
+                break;
             }
         }
+
+        int end;
+
+        if (sql.regionMatches(true, i, "CREATE", 0, 6)) {
+            end = i + 6;
+        } else if (sql.regionMatches(true, i, "ALTER", 0, 5)) {
+            end = i + 5;
+        } else {
+            return false;
+        }
+
+        return end == len || !Character.isJavaIdentifierPart(sql.charAt(end));
+    }
+
+    /**
+     * Executes the SQL releasing obsolete statement handles with a separate
+     * <code>sp_executesql</code> request before a SQL batch, see
+     * {@link JtdsConnection#takePendingDropSql()}. Written into the batch the
+     * calls could precede a statement that must be the first in its batch,
+     * and their errors would be reported for the statement; errors are
+     * ignored instead, as with the handles released when the statement is
+     * closed. The handles are left for the next request if part of a batch
+     * has been written already.
+     *
+     * @throws IOException if an I/O error occurs
+     * @throws SQLException if the SQL cannot be converted
+     */
+    private void dropHandles() throws IOException, SQLException {
+        if (!out.isEmpty()) {
+            return;
+        }
+
+        String dropSql = connection.takePendingDropSql();
+
+        if (dropSql != null) {
+            // the end of this response must not end the preparation of the
+            // statement executed next
+            ProcEntry proc = prepExecProc;
+
+            prepExecProc = null;
+            out.setPacketType(RPC_PKT);
+            writeExecuteSql(dropSql);
+            out.flush();
+            endOfResponse = false;
+            endOfResults  = true;
+            wait(0);
+            clearResponseQueue();
+            prepExecProc = proc;
+            returnStatus = null;
+            messages.exceptions = null;
+        }
+    }
+
+    /**
+     * Writes the SQL releasing obsolete statement handles as an
+     * <code>sp_executesql</code> call batched in front of the first RPC of a
+     * request, see {@link JtdsConnection#takePendingDropSql()}. The call only
+     * returns a return status, a DONEPROC token and any errors (e.g. for a
+     * handle already released by the server), which are all dropped by
+     * {@link #nextToken()}.
+     *
+     * @throws IOException if an I/O error occurs
+     * @throws SQLException if the SQL cannot be converted
+     */
+    private void writeDropRpc() throws IOException, SQLException {
+        if (!out.isEmpty()) {
+            // only the errors of a call at the start of the response can be
+            // told apart from those of the user's RPCs
+            return;
+        }
+
+        String dropSql = connection.takePendingDropSql();
+
+        dropRpcSent = dropSql != null;
+
+        if (dropRpcSent) {
+            writeExecuteSql(dropSql);
+            out.write(DONE_END_OF_RESPONSE);
+        }
+    }
+
+    /**
+     * Writes an <code>sp_executesql</code> call without parameters.
+     *
+     * @param sql the SQL to execute
+     * @throws IOException if an I/O error occurs
+     * @throws SQLException if the SQL cannot be converted
+     */
+    private void writeExecuteSql(String sql) throws IOException, SQLException {
+        if (tdsVersion >= Driver.TDS80) {
+            out.write((short) -1);
+            out.write(((Integer) tds8SpNames.get("sp_executesql")).shortValue());
+        } else {
+            out.write((short) 13);
+            out.write("sp_executesql");
+        }
+        out.write((short) 0);
+
+        ParamInfo stmt = new ParamInfo(Types.LONGVARCHAR, sql, ParamInfo.UNICODE);
+
+        TdsData.getNativeType(connection, stmt);
+        out.write((byte) 0);
+        out.write((byte) 0);
+        TdsData.writeParam(out, connection.getCharsetInfo(), connection.getCollation(), stmt);
+    }
+
+    /**
+     * Executes the pending <code>SET</code> statements (see
+     * {@link #getRowCountAndTextSizeSql()}) as a batch of their own, before
+     * a request they cannot be written into, i.e. an RPC or a SQL batch
+     * starting with a statement that must be the first of its batch.
+     *
+     * @throws IOException if an I/O error occurs
+     * @throws SQLException if an error is returned by the server
+     */
+    private void setRowCountAndTextSize() throws IOException, SQLException {
+        String setSql = getRowCountAndTextSizeSql();
+
+        if (setSql != null) {
+            // the end of this response must not end the preparation of the
+            // statement executed next
+            ProcEntry proc = prepExecProc;
+
+            prepExecProc = null;
+            out.setPacketType(QUERY_PKT);
+            out.write(setSql);
+            out.flush();
+            endOfResponse = false;
+            endOfResults  = true;
+            wait(0);
+            clearResponseQueue();
+            prepExecProc = proc;
+            rowCountSent = false;
+            initialSqlSent = false;
+            messages.checkErrors();
+        }
+    }
+
+    /**
+     * Waits for the response of a request sent without waiting for it, see
+     * {@link #executeSQL(String, String, ParamInfo[], boolean, int, int, int, boolean, boolean)}.
+     *
+     * @param timeOut the timeout period in seconds or 0
+     * @throws SQLException if the timeout expires or an I/O error occurs
+     */
+    synchronized void awaitResponse(int timeOut) throws SQLException {
+        checkOpen();
+        if (endOfResponse) {
+            return;
+        }
+        try {
+            wait(timeOut);
+        } catch (IOException ioe) {
+            connection.setClosed();
+
+            throw Support.linkException(
+                new SQLException(
+                       Messages.get(
+                                "error.generic.ioerror", ioe.getMessage()),
+                                    "08S01"), ioe);
+        }
     }
 
     /**
@@ -4184,6 +5151,7 @@ public class TdsCore {
             // Clean up result data and meta data
             columns = null;
             rowData = null;
+            primitiveRow = null;
             tables = null;
             computedColumns = null;
             computedRowData = null;
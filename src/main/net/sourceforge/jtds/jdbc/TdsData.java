@@ -20,8 +20,11 @@ package net.sourceforge.jtds.jdbc;
 import java.io.*;
 import java.math.BigInteger;
 import java.math.BigDecimal;
+import java.math.RoundingMode;
 import java.sql.SQLException;
+import java.sql.Timestamp;
 import java.sql.Types;
+import java.util.UUID;
 
 import net.sourceforge.jtds.util.BlobBuffer;
 
@@ -170,6 +173,12 @@ public class TdsData {
     private static final int DATETIME2N            = 42; // 0x2A MSSQL 2008
     private static final int DATETIMEOFFSETN       = 43; // 0x2B MSSQL 2008
 
+    /**
+     * Size of the chunks in which LOB values too large for memory are copied
+     * from the network to the BLOB file, the maximum TDS packet size.
+     */
+    private static final int LOB_COPY_SIZE         = 32768;
+
     /*
      * Special case for Sybase 12.5+
      * This long data type is used to send text and image
@@ -670,6 +679,93 @@ public class TdsData {
         return bytesRead;
     }
 
+    /**
+     * Read a fixed width numeric TDS data item from the Response Stream
+     * straight into a {@link PrimitiveRow}, avoiding the wrapper object
+     * {@link #readData} would create.
+     * <p> Nothing is read if the column type has no primitive representation,
+     * the caller has to use {@link #readData} instead in that case.
+     *
+     * @param in The server ResponseStream.
+     * @param ci The ColInfo column descriptor object.
+     * @param row The primitive row to store the value into.
+     * @param col The zero based column index.
+     * @return <code>true</code> if the value has been read,
+     *         <code>false</code> if the column type is not supported
+     * @throws IOException
+     */
+    static boolean readPrimitive(ResponseStream in, ColInfo ci, PrimitiveRow row, int col)
+            throws IOException {
+        switch (ci.tdsType) {
+            case SYBINTN:
+                switch (in.read()) {
+                    case 1:
+                        row.setInt(col, in.read() & 0xFF);
+                        break;
+                    case 2:
+                        row.setInt(col, in.readShort());
+                        break;
+                    case 4:
+                        row.setInt(col, in.readInt());
+                        break;
+                    case 8:
+                        row.setLong(col, in.readLong());
+                        break;
+                    default:
+                        row.setNull(col, ci.bufferSize == 8 ? PrimitiveRow.LONG : PrimitiveRow.INT);
+                }
+                return true;
+
+            case SYBINT1:
+                row.setInt(col, in.read() & 0xFF);
+                return true;
+
+            case SYBINT2:
+                row.setInt(col, in.readShort());
+                return true;
+
+            case SYBINT4:
+                row.setInt(col, in.readInt());
+                return true;
+
+            case SYBINT8:
+            case SYBSINT8:
+                row.setLong(col, in.readLong());
+                return true;
+
+            case SYBUINT2:
+                row.setInt(col, in.readShort() & 0xFFFF);
+                return true;
+
+            case SYBUINT4:
+                row.setLong(col, in.readInt() & 0xFFFFFFFFL);
+                return true;
+
+            case SYBREAL:
+                row.setFloat(col, Float.intBitsToFloat(in.readInt()));
+                return true;
+
+            case SYBFLT8:
+                row.setDouble(col, Double.longBitsToDouble(in.readLong()));
+                return true;
+
+            case SYBFLTN:
+                switch (in.read()) {
+                    case 4:
+                        row.setFloat(col, Float.intBitsToFloat(in.readInt()));
+                        break;
+                    case 8:
+                        row.setDouble(col, Double.longBitsToDouble(in.readLong()));
+                        break;
+                    default:
+                        row.setNull(col, ci.bufferSize == 4 ? PrimitiveRow.FLOAT : PrimitiveRow.DOUBLE);
+                }
+                return true;
+        }
+
+        return false;
+    }
+
     /**
      * Read the TDS data item from the Response Stream.
      * <p> The data size is either implicit in the type for example
@@ -748,167 +844,13 @@ public class TdsData {
                 return in.readUnsignedLong();
 
             case SYBIMAGE:
-                len = in.read();
-
-                if (len > 0) {
-                    in.skip(24); // Skip textptr and timestamp
-                    int dataLen = in.readInt();
-                    BlobImpl blob;
-                    if (dataLen == 0 && in.getTdsVersion() <= Driver.TDS50) {
-                        // Length of zero may indicate an initialized image
-                        // column that has been updated to null.
-                        break;
-                    }
-                    if (dataLen <= connection.getLobBuffer()) {
-                        //
-                        // OK Small enough to load into memory
-                        //
-                        byte[] data = new byte[dataLen];
-                        in.read(data);
-                        blob = new BlobImpl(connection, data);
-                    } else {
-                        // Too big, need to write straight to disk
-                        try {
-                            blob = new BlobImpl(connection);
-                            OutputStream out = blob.setBinaryStream(1);
-                            byte[] buffer = new byte[1024];
-                            int result;
-                            while ((result = in.read(buffer, 0,
-                                             Math.min(dataLen, buffer.length)))
-                                             != -1 && dataLen != 0) {
-                                out.write(buffer, 0, result);
-                                dataLen -= result;
-                            }
-                            out.close();
-                        } catch (SQLException e) {
-                            // Transform setBinaryStream SQLException
-                            throw new IOException(e.getMessage());
-                        }
-                    }
-                    return blob;
-                }
-
-                break;
-
             case SYBTEXT:
-                len = in.read();
-
-                if (len > 0) {
-                    String charset;
-                    if (ci.charsetInfo != null) {
-                        charset = ci.charsetInfo.getCharset();
-                    } else {
-                        charset = connection.getCharset();
-                    }
-                    in.skip(24); // Skip textptr and timestamp
-                    int dataLen = in.readInt();
-                    if (dataLen == 0 && in.getTdsVersion() <= Driver.TDS50) {
-                        // Length of zero may indicate an initialized text
-                        // column that has been updated to null.
-                        break;
-                    }
-                    ClobImpl clob = new ClobImpl(connection);
-                    BlobBuffer blobBuffer = clob.getBlobBuffer();
-                    if (dataLen <= connection.getLobBuffer()) {
-                        //
-                        // OK Small enough to load into memory
-                        //
-                        BufferedReader rdr =
-                            new BufferedReader(
-                                 new InputStreamReader(in.getInputStream(dataLen),
-                                                                         charset),
-                                                                         1024);
-                        byte[] data = new byte[dataLen * 2];
-                        int p = 0;
-                        int c;
-                        while ((c = rdr.read()) >= 0) {
-                            data[p++] = (byte)c;
-                            data[p++] = (byte)(c >> 8);
-                        }
-                        rdr.close();
-                        blobBuffer.setBuffer(data, false);
-                        if (p == 2 && data[0] == 0x20 && data[1] == 0
-                            && in.getTdsVersion() < Driver.TDS70) {
-                            // Single space with Sybase equates to empty string
-                            p = 0;
-                        }
-                        // Explicitly set length as multi byte character sets
-                        // may not fill array completely.
-                        blobBuffer.setLength(p);
-                    } else {
-                        // Too big, need to write straight to disk
-                        BufferedReader rdr =
-                            new BufferedReader(
-                                 new InputStreamReader(in.getInputStream(dataLen),
-                                                                         charset),
-                                                                         1024);
-                        try {
-                            OutputStream out = blobBuffer.setBinaryStream(1, false);
-                            int c;
-                            while ((c = rdr.read()) >= 0) {
-                                out.write(c);
-                                out.write(c >> 8);
-                            }
-                            out.close();
-                            rdr.close();
-                        } catch (SQLException e) {
-                            // Turn back into an IOException
-                            throw new IOException(e.getMessage());
-                        }
-                    }
-                    return clob;
-                }
-
-                break;
-
             case SYBUNITEXT: // ASE 15+ unicode text type
             case SYBNTEXT:
-                len = in.read();
+                len = readLobLength(in);
 
-                if (len > 0) {
-                    in.skip(24); // Skip textptr and timestamp
-                    int dataLen = in.readInt();
-                    if (dataLen == 0 && in.getTdsVersion() <= Driver.TDS50) {
-                        // Length of zero may indicate an initialized unitext
-                        // column that has been updated to null.
-                        break;
-                    }
-                    ClobImpl clob = new ClobImpl(connection);
-                    BlobBuffer blobBuffer = clob.getBlobBuffer();
-                    if (dataLen <= connection.getLobBuffer()) {
-                        //
-                        // OK Small enough to load into memory
-                        //
-                        byte[] data = new byte[dataLen];
-                        in.read(data);
-                        blobBuffer.setBuffer(data, false);
-                        if (dataLen == 2 && data[0] == 0x20 && data[1] == 0
-                                && in.getTdsVersion() == Driver.TDS50) {
-                                // Single space with Sybase equates to empty string
-                                dataLen = 0;
-                            }
-                            // Explicitly set length as multi byte character sets
-                            // may not fill array completely.
-                            blobBuffer.setLength(dataLen);
-                    } else {
-                        // Too big, need to write straight to disk
-                        try {
-                            OutputStream out = blobBuffer.setBinaryStream(1, false);
-                            byte[] buffer = new byte[1024];
-                            int result;
-                            while ((result = in.read(buffer, 0,
-                                             Math.min(dataLen, buffer.length)))
-                                             != -1 && dataLen != 0) {
-                                out.write(buffer, 0, result);
-                                dataLen -= result;
-                            }
-                            out.close();
-                        } catch (SQLException e) {
-                            // Transform setBinaryStream SQLException
-                            throw new IOException(e.getMessage());
-                        }
-                    }
-                    return clob;
+                if (len >= 0) {
+                    return readLob(connection, in, ci, len);
                 }
 
                 break;
@@ -1143,6 +1085,281 @@ public class TdsData {
         return null;
     }
 
+    /**
+     * Retrieves whether a column is of one of the TEXT, NTEXT or IMAGE types,
+     * which are read with {@link #readLobLength} and {@link #readLob}.
+     *
+     * @param ci the column descriptor
+     * @return <code>true</code> if the column is a LOB column
+     */
+    static boolean isLob(ColInfo ci) {
+        switch (ci.tdsType) {
+            case SYBIMAGE:
+            case SYBTEXT:
+            case SYBUNITEXT:
+            case SYBNTEXT:
+                return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * Retrieves whether a column is of the IMAGE type.
+     *
+     * @param ci the column descriptor
+     * @return <code>true</code> if the column is an IMAGE column
+     */
+    static boolean isImage(ColInfo ci) {
+        return ci.tdsType == SYBIMAGE;
+    }
+
+    /**
+     * Reads the header of a TEXT, NTEXT or IMAGE data item, which is followed
+     * by the data read by {@link #readLob}.
+     *
+     * @param in the server ResponseStream
+     * @return the length of the data in bytes or -1 if the value is null
+     * @throws IOException
+     */
+    static int readLobLength(ResponseStream in) throws IOException {
+        if (in.read() <= 0) {
+            return -1;
+        }
+
+        in.skip(24); // Skip textptr and timestamp
+        int dataLen = in.readInt();
+        if (dataLen == 0 && in.getTdsVersion() <= Driver.TDS50) {
+            // Length of zero may indicate an initialized text or image
+            // column that has been updated to null.
+            return -1;
+        }
+
+        return dataLen;
+    }
+
+    /**
+     * Reads the data of a TEXT, NTEXT or IMAGE data item, following its
+     * header. Values larger than the <code>lobBuffer</code> of the connection
+     * are written straight to disk.
+     *
+     * @param connection the connection
+     * @param in the server ResponseStream
+     * @param ci the column descriptor
+     * @param dataLen the length of the data in bytes, as returned by
+     *        {@link #readLobLength}
+     * @return a <code>BlobImpl</code> or <code>ClobImpl</code> holding the
+     *         value
+     * @throws IOException
+     */
+    static Object readLob(JtdsConnection connection, ResponseStream in,
+                          ColInfo ci, int dataLen) throws IOException {
+        if (ci.tdsType == SYBIMAGE) {
+            if (dataLen <= connection.getLobBuffer()) {
+                //
+                // OK Small enough to load into memory
+                //
+                byte[] data = new byte[dataLen];
+                in.read(data);
+                return new BlobImpl(connection, data);
+            }
+
+            // Too big, need to write straight to disk
+            BlobImpl blob = new BlobImpl(connection);
+            try {
+                copyLob(in, blob.setBinaryStream(1), dataLen);
+            } catch (SQLException e) {
+                // Transform setBinaryStream SQLException
+                throw new IOException(e.getMessage());
+            }
+            return blob;
+        }
+
+        ClobImpl clob = new ClobImpl(connection);
+        BlobBuffer blobBuffer = clob.getBlobBuffer();
+
+        if (ci.tdsType == SYBTEXT) {
+            Reader rdr = new BufferedReader(
+                    getLobReader(connection, ci, in.getInputStream(dataLen)), 1024);
+            if (dataLen <= connection.getLobBuffer()) {
+                //
+                // OK Small enough to load into memory
+                //
+                byte[] data = new byte[dataLen * 2];
+                int p = 0;
+                int c;
+                while ((c = rdr.read()) >= 0) {
+                    data[p++] = (byte)c;
+                    data[p++] = (byte)(c >> 8);
+                }
+                rdr.close();
+                blobBuffer.setBuffer(data, false);
+                if (p == 2 && data[0] == 0x20 && data[1] == 0
+                    && in.getTdsVersion() < Driver.TDS70) {
+                    // Single space with Sybase equates to empty string
+                    p = 0;
+                }
+                // Explicitly set length as multi byte character sets
+                // may not fill array completely.
+                blobBuffer.setLength(p);
+            } else {
+                // Too big, need to write straight to disk
+                try {
+                    OutputStream out = blobBuffer.setBinaryStream(1, false);
+                    char[] chars = new char[LOB_COPY_SIZE / 2];
+                    byte[] bytes = new byte[LOB_COPY_SIZE];
+                    int count;
+                    while ((count = rdr.read(chars)) >= 0) {
+                        for (int i = 0; i < count; i++) {
+                            bytes[i * 2] = (byte) chars[i];
+                            bytes[i * 2 + 1] = (byte) (chars[i] >> 8);
+                        }
+                        out.write(bytes, 0, count * 2);
+                    }
+                    out.close();
+                    rdr.close();
+                } catch (SQLException e) {
+                    // Turn back into an IOException
+                    throw new IOException(e.getMessage());
+                }
+            }
+            return clob;
+        }
+
+        // SYBNTEXT and SYBUNITEXT
+        if (dataLen <= connection.getLobBuffer()) {
+            //
+            // OK Small enough to load into memory
+            //
+            byte[] data = new byte[dataLen];
+            in.read(data);
+            blobBuffer.setBuffer(data, false);
+            if (dataLen == 2 && data[0] == 0x20 && data[1] == 0
+                    && in.getTdsVersion() == Driver.TDS50) {
+                // Single space with Sybase equates to empty string
+                dataLen = 0;
+            }
+            // Explicitly set length as multi byte character sets
+            // may not fill array completely.
+            blobBuffer.setLength(dataLen);
+        } else {
+            // Too big, need to write straight to disk
+            try {
+                copyLob(in, blobBuffer.setBinaryStream(1, false), dataLen);
+            } catch (SQLException e) {
+                // Transform setBinaryStream SQLException
+                throw new IOException(e.getMessage());
+            }
+        }
+        return clob;
+    }
+
+    /**
+     * Creates a <code>Reader</code> decoding the data of a TEXT or NTEXT data
+     * item.
+     *
+     * @param connection the connection
+     * @param ci the column descriptor
+     * @param in the data
+     * @return the <code>Reader</code>
+     * @throws UnsupportedEncodingException if the character set of the column
+     *         is not supported
+     */
+    static Reader getLobReader(JtdsConnection connection, ColInfo ci, InputStream in)
+            throws UnsupportedEncodingException {
+        if (ci.tdsType != SYBTEXT) {
+            return new Ucs2Reader(in);
+        }
+
+        String charset;
+        if (ci.charsetInfo != null) {
+            charset = ci.charsetInfo.getCharset();
+        } else {
+            charset = connection.getCharset();
+        }
+
+        return new InputStreamReader(in, charset);
+    }
+
+    /**
+     * <code>Reader</code> decoding UCS2-LE (Unicode) data like
+     * {@link ResponseStream#readUnicodeString(int)}. Unlike a UTF-16 decoder
+     * it passes unpaired surrogates through unchanged.
+     */
+    private static class Ucs2Reader extends Reader {
+        /** The data. */
+        private final InputStream in;
+        /** The buffer for the bytes read. */
+        private final byte[] buf = new byte[LOB_COPY_SIZE];
+        /** The first byte of a character split between reads or -1. */
+        private int pending = -1;
+
+        Ucs2Reader(InputStream in) {
+            this.in = in;
+        }
+
+        public int read(char[] c, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+
+            int size = Math.min(len * 2, buf.length);
+            int count = 0;
+
+            if (pending >= 0) {
+                buf[count++] = (byte) pending;
+                pending = -1;
+            }
+
+            while (count < 2) {
+                int n = in.read(buf, count, size - count);
+
+                if (n < 0) {
+                    // an odd trailing byte is dropped
+                    return -1;
+                }
+
+                count += n;
+            }
+
+            if ((count & 1) != 0) {
+                pending = buf[--count] & 0xFF;
+            }
+
+            for (int i = 0; i < count; i += 2) {
+                c[off++] = (char) ((buf[i] & 0xFF) | (buf[i + 1] << 8));
+            }
+
+            return count >> 1;
+        }
+
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+
+    /**
+     * Copies LOB data from the network in chunks of {@link #LOB_COPY_SIZE}
+     * bytes, each of which the BLOB buffer writes straight to its file.
+     *
+     * @param in the server ResponseStream
+     * @param out the stream to copy the data to, closed when done
+     * @param dataLen the length of the data in bytes
+     * @throws IOException
+     */
+    private static void copyLob(ResponseStream in, OutputStream out, int dataLen)
+            throws IOException {
+        byte[] buffer = new byte[Math.min(dataLen, LOB_COPY_SIZE)];
+
+        while (dataLen > 0) {
+            int count = in.read(buffer, 0, Math.min(dataLen, buffer.length));
+            out.write(buffer, 0, count);
+            dataLen -= count;
+        }
+
+        out.close();
+    }
+
     /**
      * Retrieve the signed status of the column.
      *
@@ -2534,6 +2751,376 @@ public class TdsData {
                         + Integer.toHexString(pi.tdsType));
         }
     }
+
+    /**
+     * Creates the descriptor used to send a column in a bulk load from the
+     * column descriptor returned by the server. Fixed length types are sent
+     * as their nullable variants.
+     *
+     * @param ci the column descriptor returned by the server
+     * @return the column descriptor to send or <code>null</code> if the
+     *         column type cannot be bulk loaded
+     */
+    static ColInfo getBulkColumn(ColInfo ci) {
+        ColInfo bulk = new ColInfo();
+        int size = types[ci.tdsType].size;
+
+        bulk.name        = ci.realName;
+        bulk.realName    = ci.realName;
+        bulk.jdbcType    = ci.jdbcType;
+        bulk.nullable    = ci.nullable;
+        bulk.isIdentity  = ci.isIdentity;
+        bulk.userType    = ci.userType;
+        bulk.bufferSize  = size > 0 ? size : ci.bufferSize;
+        bulk.precision   = ci.precision;
+        bulk.scale       = ci.scale;
+        bulk.collation   = ci.collation;
+        bulk.charsetInfo = ci.charsetInfo;
+        bulk.sqlType     = ci.isIdentity && ci.sqlType.endsWith(" identity")
+                ? ci.sqlType.substring(0, ci.sqlType.length() - 9) : ci.sqlType;
+
+        switch (ci.tdsType) {
+            case SYBINT1:
+            case SYBINT2:
+            case SYBINT4:
+            case SYBINT8:
+            case SYBINTN:
+                bulk.tdsType = SYBINTN;
+                break;
+            case SYBBIT:
+            case SYBBITN:
+                bulk.tdsType = SYBBITN;
+                break;
+            case SYBREAL:
+            case SYBFLT8:
+            case SYBFLTN:
+                bulk.tdsType = SYBFLTN;
+                break;
+            case SYBMONEY4:
+            case SYBMONEY:
+            case SYBMONEYN:
+                bulk.tdsType = SYBMONEYN;
+                break;
+            case SYBDATETIME4:
+            case SYBDATETIME:
+            case SYBDATETIMN:
+                bulk.tdsType = SYBDATETIMN;
+                break;
+            case SYBCHAR:
+            case XSYBCHAR:
+                bulk.tdsType = XSYBCHAR;
+                break;
+            case SYBVARCHAR:
+            case XSYBVARCHAR:
+                bulk.tdsType = XSYBVARCHAR;
+                break;
+            case SYBBINARY:
+            case XSYBBINARY:
+                bulk.tdsType = XSYBBINARY;
+                break;
+            case SYBVARBINARY:
+            case XSYBVARBINARY:
+                bulk.tdsType = XSYBVARBINARY;
+                break;
+            case SYBDECIMAL:
+            case SYBNUMERIC:
+            case XSYBNCHAR:
+            case XSYBNVARCHAR:
+            case SYBUNIQUE:
+                bulk.tdsType = ci.tdsType;
+                break;
+            default:
+                // LOBs, sql_variant, XML and UDTs
+                return null;
+        }
+
+        return bulk;
+    }
+
+    /**
+     * Retrieves the SQL type declaration of a bulk load column, as used in
+     * the <code>INSERT BULK</code> statement.
+     *
+     * @param ci the bulk load column descriptor
+     * @return the SQL type declaration
+     */
+    static String getBulkColumnType(ColInfo ci) {
+        switch (ci.tdsType) {
+            case SYBDECIMAL:
+            case SYBNUMERIC:
+                return ci.sqlType + '(' + ci.precision + ',' + ci.scale + ')';
+            case XSYBCHAR:
+            case XSYBVARCHAR:
+            case XSYBBINARY:
+            case XSYBVARBINARY:
+                return ci.sqlType + '(' + ci.bufferSize + ')';
+            case XSYBNCHAR:
+            case XSYBNVARCHAR:
+                return ci.sqlType + '(' + ci.bufferSize / 2 + ')';
+            default:
+                return ci.sqlType;
+        }
+    }
+
+    /**
+     * Writes the type description of a bulk load column, as used in the
+     * column metadata sent ahead of the rows.
+     *
+     * @param out       the server request stream
+     * @param ci        the bulk load column descriptor
+     * @param collation the default collation of the connection
+     * @throws IOException if an I/O error occurs
+     */
+    static void writeBulkColumn(RequestStream out, ColInfo ci, byte[] collation)
+            throws IOException {
+        out.write((byte) ci.tdsType);
+
+        switch (ci.tdsType) {
+            case SYBDECIMAL:
+            case SYBNUMERIC:
+                out.write((byte) ci.bufferSize);
+                out.write((byte) ci.precision);
+                out.write((byte) ci.scale);
+                break;
+            case XSYBCHAR:
+            case XSYBVARCHAR:
+            case XSYBNCHAR:
+            case XSYBNVARCHAR:
+                out.write((short) ci.bufferSize);
+
+                if (out.getTdsVersion() >= Driver.TDS80) {
+                    byte[] coll = ci.collation != null ? ci.collation : collation;
+                    out.write(coll != null ? coll : new byte[5]);
+                }
+                break;
+            case XSYBBINARY:
+            case XSYBVARBINARY:
+                out.write((short) ci.bufferSize);
+                break;
+            default:
+                out.write((byte) ci.bufferSize);
+        }
+    }
+
+    /**
+     * Writes a column value of a bulk load row, converting it to the column
+     * type if required. Integer and floating point columns are read from the
+     * row source as primitives.
+     *
+     * @param out        the server request stream
+     * @param connection the connection, used for conversions
+     * @param ci         the bulk load column descriptor
+     * @param rows       the row source, positioned on the row to write
+     * @param column     the column index in the row source, starting at 1
+     * @throws IOException  if an I/O error occurs
+     * @throws SQLException if the value cannot be read or converted
+     */
+    static void writeBulkValue(RequestStream out,
+                               JtdsConnection connection,
+                               ColInfo ci,
+                               JtdsBulkCopy.RowSource rows,
+                               int column)
+            throws IOException, SQLException {
+        CharsetInfo charsetInfo = ci.charsetInfo != null
+                ? ci.charsetInfo : connection.getCharsetInfo();
+
+        switch (ci.tdsType) {
+            case SYBINTN:
+            case SYBBITN: {
+                long value = rows.getLong(column);
+
+                if (rows.wasNull()) {
+                    out.write((byte) 0);
+                } else if (ci.tdsType == SYBBITN) {
+                    out.write((byte) 1);
+                    out.write((byte) (value != 0 ? 1 : 0));
+                } else {
+                    out.write((byte) ci.bufferSize);
+                    switch (ci.bufferSize) {
+                        case 1:
+                            out.write((byte) value);
+                            break;
+                        case 2:
+                            out.write((short) value);
+                            break;
+                        case 4:
+                            out.write((int) value);
+                            break;
+                        default:
+                            out.write(value);
+                    }
+                }
+                break;
+            }
+
+            case SYBFLTN: {
+                double value = rows.getDouble(column);
+
+                if (rows.wasNull()) {
+                    out.write((byte) 0);
+                } else if (ci.bufferSize == 4) {
+                    out.write((byte) 4);
+                    out.write((float) value);
+                } else {
+                    out.write((byte) 8);
+                    out.write(value);
+                }
+                break;
+            }
+
+            case SYBMONEYN:
+            case SYBDECIMAL:
+            case SYBNUMERIC: {
+                Object value = rows.getObject(column);
+
+                if (value == null) {
+                    out.write((byte) 0);
+                    break;
+                }
+
+                BigDecimal dec = (BigDecimal) Support.convert(connection, value, Types.DECIMAL, null);
+                BigInteger unscaled = dec.setScale(ci.scale, RoundingMode.HALF_UP).unscaledValue();
+
+                if (ci.tdsType == SYBMONEYN) {
+                    long money = unscaled.longValue();
+
+                    out.write((byte) ci.bufferSize);
+                    if (ci.bufferSize == 8) {
+                        out.write((int) (money >> 32));
+                    }
+                    out.write((int) money);
+                    break;
+                }
+
+                byte[] mantissa = unscaled.abs().toByteArray();
+                int len = mantissa.length;
+
+                // toByteArray() may add a leading sign byte
+                if (len > 1 && mantissa[0] == 0) {
+                    len--;
+                }
+
+                if (len > ci.bufferSize - 1) {
+                    throw new SQLException(Messages.get("error.normalize.numtoobig",
+                            String.valueOf(ci.precision)), "22000");
+                }
+
+                out.write((byte) ci.bufferSize);
+                out.write((byte) (unscaled.signum() < 0 ? 0 : 1));
+
+                for (int i = 0; i < ci.bufferSize - 1; i++) {
+                    out.write(i < len ? mantissa[mantissa.length - 1 - i] : (byte) 0);
+                }
+                break;
+            }
+
+            case SYBDATETIMN: {
+                Object value = rows.getObject(column);
+
+                if (value == null) {
+                    out.write((byte) 0);
+                    break;
+                }
+
+                DateTime dt = new DateTime((Timestamp) Support.convert(connection, value, Types.TIMESTAMP, null));
+
+                if (ci.bufferSize == 8) {
+                    out.write((byte) 8);
+                    out.write(dt.getDate());
+                    out.write(dt.getTime());
+                } else {
+                    // smalldatetime, rounded to the minute
+                    int days = dt.getDate();
+                    int minutes = (dt.getTime() + 9000) / 18000;
+
+                    if (minutes >= 24 * 60) {
+                        days++;
+                        minutes = 0;
+                    }
+
+                    out.write((byte) 4);
+                    out.write((short) days);
+                    out.write((short) minutes);
+                }
+                break;
+            }
+
+            case XSYBCHAR:
+            case XSYBVARCHAR:
+            case XSYBNCHAR:
+            case XSYBNVARCHAR:
+            case XSYBBINARY:
+            case XSYBVARBINARY: {
+                Object value = rows.getObject(column);
+
+                if (value == null) {
+                    out.write((short) 0xFFFF);
+                } else if (ci.tdsType == XSYBNCHAR || ci.tdsType == XSYBNVARCHAR) {
+                    String str = (String) Support.convert(connection, value, Types.VARCHAR, charsetInfo.getCharset());
+
+                    checkBulkLength(ci, str.length() * 2);
+                    out.write((short) (str.length() * 2));
+                    out.write(str);
+                } else {
+                    byte[] buf;
+
+                    if (ci.tdsType == XSYBCHAR || ci.tdsType == XSYBVARCHAR) {
+                        String str = (String) Support.convert(connection, value, Types.VARCHAR, charsetInfo.getCharset());
+                        buf = Support.encodeString(charsetInfo.getCharset(), str);
+                    } else {
+                        buf = (byte[]) Support.convert(connection, value, Types.VARBINARY, charsetInfo.getCharset());
+                    }
+
+                    checkBulkLength(ci, buf.length);
+                    out.write((short) buf.length);
+                    out.write(buf);
+                }
+                break;
+            }
+
+            case SYBUNIQUE: {
+                Object value = rows.getObject(column);
+
+                if (value == null) {
+                    out.write((byte) 0);
+                    break;
+                }
+
+                byte[] guid;
+
+                if (value instanceof String || value instanceof UUID) {
+                    // SQL Server stores the first three groups little endian
+                    UUID uuid = value instanceof UUID ? (UUID) value : UUID.fromString((String) value);
+                    long msb = uuid.getMostSignificantBits();
+                    long lsb = uuid.getLeastSignificantBits();
+
+                    guid = new byte[16];
+                    for (int i = 0; i < 8; i++) {
+                        guid[8 + i] = (byte) (lsb >>> (56 - i * 8));
+                    }
+                    guid[0] = (byte) (msb >>> 32);
+                    guid[1] = (byte) (msb >>> 40);
+                    guid[2] = (byte) (msb >>> 48);
+                    guid[3] = (byte) (msb >>> 56);
+                    guid[4] = (byte) (msb >>> 16);
+                    guid[5] = (byte) (msb >>> 24);
+                    guid[6] = (byte) msb;
+                    guid[7] = (byte) (msb >>> 8);
+                } else {
+                    guid = (byte[]) Support.convert(connection, value, Types.BINARY, charsetInfo.getCharset());
+                }
+
+                out.write((byte) guid.length);
+                out.write(guid);
+                break;
+            }
+
+            default:
+                throw new IllegalStateException("Unsupported bulk load TDS type "
+                        + Integer.toHexString(ci.tdsType));
+        }
+    }
+
 //
 // ---------------------- Private methods from here -----------------------
 //
@@ -2545,6 +3132,23 @@ public class TdsData {
     private TdsData() {
     }
 
+    /**
+     * Checks that a string or binary value fits into its bulk load column.
+     * The server would reject the whole request instead, after all rows
+     * have been sent.
+     *
+     * @param ci     the bulk load column descriptor
+     * @param length the length of the value in bytes
+     * @throws SQLException if the value is longer than the column
+     */
+    private static void checkBulkLength(ColInfo ci, int length)
+            throws SQLException {
+        if (length > ci.bufferSize) {
+            throw new SQLException(Messages.get("error.bulkcopy.toolong",
+                    ci.name, String.valueOf(ci.bufferSize)), "22001");
+        }
+    }
+
     /**
      * Get a DATETIME value from the server response stream.
      *
@@ -0,0 +1,332 @@
+// jTDS JDBC Driver for Microsoft SQL Server and Sybase
+// Copyright (C) 2004 The jTDS Project
+//
+// This library is free software; you can redistribute it and/or
+// modify it under the terms of the GNU Lesser General Public
+// License as published by the Free Software Foundation; either
+// version 2.1 of the License, or (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+
+package net.sourceforge.jtds.jdbc.cache;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * <p> Approximate LRU cache for any type of object, safe for concurrent use
+ * without a cache wide lock. </p>
+ *
+ * <p> Implementation notes: </p>
+ * <ol>
+ *   <li> Entries are kept in a {@link ConcurrentHashMap}, {@link #get(Object)}
+ *   never blocks. A hit only records the current value of a logical clock in
+ *   the entry, the clock advances with each {@link #put(Object,Object,int)},
+ *   so recency is tracked with a resolution of one insertion. </li>
+ *   <li> The cache is bounded by the number of entries and by the total
+ *   weight of all entries. Once a bound is exceeded, the inserting thread
+ *   evicts the least recently used eighth of the cache in one batch; threads
+ *   inserting concurrently don't wait for the eviction. </li>
+ * </ol>
+ */
+public class ConcurrentLRUCache<K,V>
+{
+
+   // private inner class Entry ////////////////////////////////////////////////
+
+   /**
+    * <p> A cached value with its weight and the time of the last access. </p>
+    */
+   private static class Entry<V>
+   {
+
+      /**
+       * the cached value
+       */
+      final V             value;
+
+      /**
+       * the weight of this entry
+       */
+      final int           weight;
+
+      /**
+       * clock value of the last access
+       */
+      volatile long       stamp;
+
+      /**
+       * clock value used while evicting, not modified by concurrent hits
+       */
+      long                sortStamp;
+
+      Entry( V value, int weight, long stamp )
+      {
+         this.value  = value;
+         this.weight = weight;
+         this.stamp  = stamp;
+      }
+
+   }
+
+   // private instance fields //////////////////////////////////////////////////
+
+   /**
+    * map backing the cache
+    */
+   private final ConcurrentHashMap<K,Entry<V>> _Map;
+
+   /**
+    * maximum number of entries
+    */
+   private final int                _Capacity;
+
+   /**
+    * maximum total weight of all entries
+    */
+   private final long               _MaxWeight;
+
+   /**
+    * logical clock, advanced by each insertion
+    */
+   private final AtomicLong         _Clock     = new AtomicLong();
+
+   /**
+    * current number of entries
+    */
+   private final AtomicInteger      _Size      = new AtomicInteger();
+
+   /**
+    * current total weight of all entries
+    */
+   private final AtomicLong         _Weight    = new AtomicLong();
+
+   /**
+    * number of successful lookups
+    */
+   private final AtomicLong         _Hits      = new AtomicLong();
+
+   /**
+    * number of failed lookups
+    */
+   private final AtomicLong         _Misses    = new AtomicLong();
+
+   /**
+    * number of entries evicted
+    */
+   private final AtomicLong         _Evictions = new AtomicLong();
+
+   /**
+    * lock held by the thread evicting entries
+    */
+   private final ReentrantLock      _EvictionLock = new ReentrantLock();
+
+   // public constructors //////////////////////////////////////////////////////
+
+   /**
+    * <p> Constructs a new cache with a limited capacity and weight. </p>
+    *
+    * @param capacity
+    *    maximum number of entries in this cache
+    *
+    * @param maxWeight
+    *    maximum total weight of all entries in this cache
+    */
+   public ConcurrentLRUCache( int capacity, long maxWeight )
+   {
+      if( capacity < 1 || maxWeight < 1 )
+         throw new IllegalArgumentException( "capacity: " + capacity + ", maxWeight: " + maxWeight );
+
+      _Capacity  = capacity;
+      _MaxWeight = maxWeight;
+      _Map       = new ConcurrentHashMap<K,Entry<V>>( Math.min( capacity, 1 << 16 ) + 16, 0.75f, 16 );
+   }
+
+   // public methods ///////////////////////////////////////////////////////////
+
+   /**
+    * <p> Get the value associated with the given key, if any. </p>
+    *
+    * @param key
+    *    the key whose associated value is to be returned
+    *
+    * @return
+    *    the value to which the specified key is mapped, or {@code null} if this
+    *    cache contains no mapping for the key
+    */
+   public V get( K key )
+   {
+      Entry<V> entry = _Map.get( key );
+
+      if( entry == null )
+      {
+         _Misses.incrementAndGet();
+         return null;
+      }
+
+      _Hits.incrementAndGet();
+
+      // avoid writing the shared entry if it's already up to date
+      long now = _Clock.get();
+
+      if( entry.stamp != now )
+      {
+         entry.stamp = now;
+      }
+
+      return entry.value;
+   }
+
+   /**
+    * <p> Updates the cache by adding a new entry, evicting the least recently
+    * used entries if the capacity or weight limit is exceeded. </p>
+    *
+    * @param key
+    *    key with which the specified value is to be associated
+    *
+    * @param value
+    *    value to be associated with the specified key
+    *
+    * @param weight
+    *    the weight of the new entry, e.g. its approximate size
+    *
+    * @return
+    *    previous value associated with key or {@code null} if there was no
+    *    mapping for key
+    */
+   public V put( K key, V value, int weight )
+   {
+      Entry<V> entry = new Entry<V>( value, weight, _Clock.incrementAndGet() );
+      Entry<V> old   = _Map.put( key, entry );
+
+      if( old == null )
+      {
+         _Size.incrementAndGet();
+         _Weight.addAndGet( weight );
+      }
+      else
+      {
+         _Weight.addAndGet( weight - old.weight );
+      }
+
+      if( _Size.get() > _Capacity || _Weight.get() > _MaxWeight )
+      {
+         evict();
+      }
+
+      return old == null ? null : old.value;
+   }
+
+   /**
+    * <p> Get the number of entries in this cache. </p>
+    */
+   public int size()
+   {
+      return _Size.get();
+   }
+
+   /**
+    * <p> Get the total weight of all entries in this cache. </p>
+    */
+   public long getWeight()
+   {
+      return _Weight.get();
+   }
+
+   /**
+    * <p> Get the number of lookups that found a cached value. </p>
+    */
+   public long getHitCount()
+   {
+      return _Hits.get();
+   }
+
+   /**
+    * <p> Get the number of lookups that didn't find a cached value. </p>
+    */
+   public long getMissCount()
+   {
+      return _Misses.get();
+   }
+
+   /**
+    * <p> Get the number of entries that have been evicted from this cache. </p>
+    */
+   public long getEvictionCount()
+   {
+      return _Evictions.get();
+   }
+
+   // private methods //////////////////////////////////////////////////////////
+
+   /**
+    * <p> Evicts the least recently used entries until the cache is at 7/8 of
+    * its capacity and weight limits. Returns immediately if another thread is
+    * already evicting. </p>
+    */
+   @SuppressWarnings( "unchecked" )
+   private void evict()
+   {
+      if( ! _EvictionLock.tryLock() )
+         return;
+
+      try
+      {
+         int  size   = _Capacity  - ( _Capacity  >> 3 );
+         long weight = _MaxWeight - ( _MaxWeight >> 3 );
+
+         if( _Size.get() <= size && _Weight.get() <= weight )
+            return;
+
+         // snapshot the access stamps so they don't change while sorting
+         Map.Entry<K,Entry<V>>[] entries = _Map.entrySet().toArray( new Map.Entry[_Size.get()] );
+         int count = 0;
+
+         for( int i = 0; i < entries.length && entries[i] != null; i ++ )
+         {
+            entries[i].getValue().sortStamp = entries[i].getValue().stamp;
+            count ++;
+         }
+
+         Arrays.sort( entries, 0, count, new Comparator<Map.Entry<K,Entry<V>>>()
+         {
+            public int compare( Map.Entry<K,Entry<V>> e1, Map.Entry<K,Entry<V>> e2 )
+            {
+               long s1 = e1.getValue().sortStamp;
+               long s2 = e2.getValue().sortStamp;
+               return s1 < s2 ? -1 : s1 == s2 ? 0 : 1;
+            }
+         } );
+
+         for( int i = 0; i < count && ( _Size.get() > size || _Weight.get() > weight ); i ++ )
+         {
+            Entry<V> entry = entries[i].getValue();
+
+            // don't remove an entry that has been replaced in the meantime
+            if( _Map.remove( entries[i].getKey(), entry ) )
+            {
+               _Size.decrementAndGet();
+               _Weight.addAndGet( - entry.weight );
+               _Evictions.incrementAndGet();
+            }
+         }
+      }
+      finally
+      {
+         _EvictionLock.unlock();
+      }
+   }
+
+}
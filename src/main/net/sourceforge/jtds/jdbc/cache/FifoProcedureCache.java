@@ -0,0 +1,39 @@
+//jTDS JDBC Driver for Microsoft SQL Server and Sybase
+//Copyright (C) 2004 The jTDS Project
+//
+//This library is free software; you can redistribute it and/or
+//modify it under the terms of the GNU Lesser General Public
+//License as published by the Free Software Foundation; either
+//version 2.1 of the License, or (at your option) any later version.
+//
+//This library is distributed in the hope that it will be useful,
+//but WITHOUT ANY WARRANTY; without even the implied warranty of
+//MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+//Lesser General Public License for more details.
+//
+//You should have received a copy of the GNU Lesser General Public
+//License along with this library; if not, write to the Free Software
+//Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+//
+package net.sourceforge.jtds.jdbc.cache;
+
+/**
+ * FIFO cache for procedures and statement handles. Entries are released in
+ * the order they were added, lookups don't reorder the entries.
+ */
+class FifoProcedureCache extends ProcedureCache {
+
+    /**
+     * Constructs a new statement cache.
+     *
+     * @param cacheSize maximum cache size or 0 to disable caching
+     */
+    FifoProcedureCache(int cacheSize) {
+        super(cacheSize);
+    }
+
+    @Override
+    void accessed(String key, CacheEntry ce) {
+        // Keep the insertion order
+    }
+}
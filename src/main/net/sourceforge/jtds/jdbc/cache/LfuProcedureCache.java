@@ -0,0 +1,169 @@
+//jTDS JDBC Driver for Microsoft SQL Server and Sybase
+//Copyright (C) 2004 The jTDS Project
+//
+//This library is free software; you can redistribute it and/or
+//modify it under the terms of the GNU Lesser General Public
+//License as published by the Free Software Foundation; either
+//version 2.1 of the License, or (at your option) any later version.
+//
+//This library is distributed in the hope that it will be useful,
+//but WITHOUT ANY WARRANTY; without even the implied warranty of
+//MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+//Lesser General Public License for more details.
+//
+//You should have received a copy of the GNU Lesser General Public
+//License along with this library; if not, write to the Free Software
+//Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+//
+package net.sourceforge.jtds.jdbc.cache;
+
+/**
+ * LFU cache for procedures and statement handles. The least frequently used
+ * unused entry is released first, the least recently used one if several
+ * entries have the same frequency.
+ * <p/>
+ * Frequencies are estimated by a count-min sketch of 4 bit counters (as
+ * used by TinyLFU), which also counts the lookups of keys that are not (or
+ * no longer) cached. A frequently used statement evicted once is therefore
+ * not released again in favour of statements that are only executed once.
+ * The counters are halved periodically, so statements that are no longer
+ * used lose their frequency.
+ */
+class LfuProcedureCache extends ProcedureCache {
+    /** Seeds of the hash functions of the sketch. */
+    private static final long[] SEEDS = {
+        0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L,
+        0x9ae16a3b2f90404fL, 0xcbf29ce484222325L
+    };
+    /** Mask of the low bit of each counter. */
+    private static final long ONE_MASK = 0x1111111111111111L;
+    /** Mask clearing the high bit of each counter. */
+    private static final long RESET_MASK = 0x7777777777777777L;
+    /** Maximum number of counters (16 per element). */
+    private static final int MAX_TABLE_SIZE = 1 << 12;
+
+    /** The counters, 16 per element. */
+    private final long[] table;
+    /** Number of increments before the counters are halved. */
+    private final int sampleSize;
+    /** Number of increments since the counters were last halved. */
+    private int size;
+
+    /**
+     * Constructs a new statement cache.
+     *
+     * @param cacheSize maximum cache size or 0 to disable caching
+     */
+    LfuProcedureCache(int cacheSize) {
+        super(cacheSize);
+
+        int tableSize = 16;
+
+        while (tableSize < cacheSize && tableSize < MAX_TABLE_SIZE) {
+            tableSize <<= 1;
+        }
+
+        table = new long[tableSize];
+        sampleSize = tableSize * 10;
+    }
+
+    @Override
+    void accessed(String key, CacheEntry ce) {
+        super.accessed(key, ce);
+        increment(key.hashCode());
+    }
+
+    @Override
+    void evictEntries() {
+        while (cache.size() > cacheSize) {
+            CacheEntry victim = null;
+            int victimFrequency = Integer.MAX_VALUE;
+
+            // From the least recently used entry, so that entry wins ties
+            for (CacheEntry ce = tail.prior; ce != head; ce = ce.prior) {
+                if (ce.value.getRefCount() == 0) {
+                    int frequency = frequency(ce.key.hashCode());
+
+                    if (frequency < victimFrequency) {
+                        victim = ce;
+                        victimFrequency = frequency;
+                    }
+                }
+            }
+
+            if (victim == null) {
+                // All entries are in use
+                break;
+            }
+
+            evict(victim);
+        }
+    }
+
+    /**
+     * Estimates the number of lookups of a key.
+     *
+     * @param hash the hash code of the key
+     * @return the estimate, between 0 and 15
+     */
+    int frequency(int hash) {
+        int start = (hash & 3) << 2;
+        int frequency = Integer.MAX_VALUE;
+
+        for (int i = 0; i < 4; i++) {
+            int index = indexOf(hash, i);
+            int count = (int) ((table[index] >>> ((start + i) << 2)) & 0xF);
+
+            frequency = Math.min(frequency, count);
+        }
+
+        return frequency;
+    }
+
+    /**
+     * Increments the counters of a key, halving all counters once the
+     * sample size is reached.
+     *
+     * @param hash the hash code of the key
+     */
+    private void increment(int hash) {
+        int start = (hash & 3) << 2;
+        boolean added = false;
+
+        for (int i = 0; i < 4; i++) {
+            int index = indexOf(hash, i);
+            int offset = (start + i) << 2;
+            long mask = 0xFL << offset;
+
+            if ((table[index] & mask) != mask) {
+                table[index] += 1L << offset;
+                added = true;
+            }
+        }
+
+        if (added && ++size == sampleSize) {
+            int odd = 0;
+
+            for (int i = 0; i < table.length; i++) {
+                odd += Long.bitCount(table[i] & ONE_MASK);
+                table[i] = (table[i] >>> 1) & RESET_MASK;
+            }
+
+            size = (size >>> 1) - (odd >>> 2);
+        }
+    }
+
+    /**
+     * Returns the table index of a counter of a key.
+     *
+     * @param hash the hash code of the key
+     * @param i    the number of the hash function
+     */
+    private int indexOf(int hash, int i) {
+        long h = (hash + SEEDS[i]) * SEEDS[i];
+
+        h += h >>> 32;
+
+        return (int) h & (table.length - 1);
+    }
+}
@@ -26,16 +26,30 @@ import net.sourceforge.jtds.jdbc.ProcEntry;
 
 /**
  * LRU cache for procedures and statement handles.
+ * <p/>
+ * Other eviction policies are implemented by subclasses, see
+ * {@link #getInstance(String, int)}. With a size of
+ * <code>Integer.MAX_VALUE</code> entries are never released and the order of
+ * the entries is not maintained (fast caching).
+ * <p/>
+ * The cache keeps statistics (hits, misses, released handles and the time
+ * spent looking for entries to release) for tuning its size and policy.
  *
  * @version $Id: ProcedureCache.java,v 1.5 2005-07-05 16:44:25 alin_sinpalean Exp $
  */
 public class ProcedureCache implements StatementCache {
+    /** Policy releasing the least recently used entries first. */
+    public static final String LRU = "lru";
+    /** Policy releasing the oldest entries first. */
+    public static final String FIFO = "fifo";
+    /** Policy releasing the least frequently used entries first. */
+    public static final String LFU = "lfu";
 
     /**
      * Encapsulates the cached Object and implements the linked list used to
      * implement the LRU logic.
      */
-    private static class CacheEntry {
+    static class CacheEntry {
         String key;
         ProcEntry value;
         CacheEntry next;
@@ -77,7 +91,7 @@ public class ProcedureCache implements StatementCache {
     /** The maximum initial HashMap size. */
     private static final int MAX_INITIAL_SIZE = 50;
     /** The actual cache instance. */
-    private HashMap cache;
+    HashMap cache;
     /** Maximum cache size or 0 to disable. */
     int cacheSize;
     /** Head node of the linked list. */
@@ -86,6 +100,35 @@ public class ProcedureCache implements StatementCache {
     CacheEntry tail;
     /** List of redundant cache entries. */
     ArrayList free;
+    /** Number of lookups that found an entry. */
+    private long hits;
+    /** Number of lookups that found no entry. */
+    private long misses;
+    /** Number of entries released to reduce the cache size. */
+    private long evictions;
+    /** Time spent looking for entries to release, in nanoseconds. */
+    private long scavengeTime;
+
+    /**
+     * Creates a statement cache with the specified eviction policy.
+     *
+     * @param policy    {@link #LRU}, {@link #FIFO} or {@link #LFU}, case
+     *                  insensitive
+     * @param cacheSize maximum cache size or 0 to disable caching
+     * @return the new cache
+     * @throws IllegalArgumentException if the policy is unknown
+     */
+    public static ProcedureCache getInstance(String policy, int cacheSize) {
+        if (LRU.equalsIgnoreCase(policy)) {
+            return new ProcedureCache(cacheSize);
+        } else if (FIFO.equalsIgnoreCase(policy)) {
+            return new FifoProcedureCache(cacheSize);
+        } else if (LFU.equalsIgnoreCase(policy)) {
+            return new LfuProcedureCache(cacheSize);
+        }
+
+        throw new IllegalArgumentException("Unknown statement cache policy: " + policy);
+    }
 
     /**
      * Constructs a new statement cache.
@@ -114,19 +157,37 @@ public class ProcedureCache implements StatementCache {
      */
     public synchronized Object get(String key) {
         CacheEntry ce = (CacheEntry) cache.get(key);
+
+        accessed(key, ce);
+
         if (ce != null) {
-            // remove entry from linked list
-            ce.unlink();
-            // Relink at Head
-            ce.link(head);
+            hits++;
             // Increment usage count
             ce.value.addRef();
 
             return ce.value;
         }
+
+        misses++;
         return null;
     }
 
+    /**
+     * Called by {@link #get} for every lookup. Moves the entry to the front
+     * of the linked list, unless the cache never releases entries.
+     *
+     * @param key the key looked up
+     * @param ce  the entry found or <code>null</code>
+     */
+    void accessed(String key, CacheEntry ce) {
+        if (ce != null && cacheSize != Integer.MAX_VALUE) {
+            // remove entry from linked list
+            ce.unlink();
+            // Relink at Head
+            ce.link(head);
+        }
+    }
+
     /**
      * Inserts a new entry, identified by a key, into the cache.
      * <p/>
@@ -196,6 +257,54 @@ public class ProcedureCache implements StatementCache {
         }
     }
 
+    /**
+     * Retrieves the number of lookups that found an entry.
+     */
+    public synchronized long getHitCount() {
+        return hits;
+    }
+
+    /**
+     * Retrieves the number of lookups that found no entry.
+     */
+    public synchronized long getMissCount() {
+        return misses;
+    }
+
+    /**
+     * Retrieves the ratio of lookups that found an entry.
+     *
+     * @return the ratio between 0 and 1, or 0 if there were no lookups
+     */
+    public synchronized double getHitRatio() {
+        long lookups = hits + misses;
+
+        return lookups == 0 ? 0 : (double) hits / lookups;
+    }
+
+    /**
+     * Retrieves the number of statement handles or procedures in the cache.
+     */
+    public synchronized int getHandleCount() {
+        return cache.size();
+    }
+
+    /**
+     * Retrieves the number of entries released to reduce the cache size.
+     */
+    public synchronized long getEvictionCount() {
+        return evictions;
+    }
+
+    /**
+     * Retrieves the total time spent looking for entries to release.
+     *
+     * @return the time in milliseconds
+     */
+    public synchronized long getScavengeTime() {
+        return scavengeTime / 1000000;
+    }
+
     /**
      * Removes unused entries trying to bring down the cache to the requested
      * size. The removed entries are placed in the {@link #free} list.
@@ -205,17 +314,45 @@ public class ProcedureCache implements StatementCache {
      * the call finishes.
      */
     private void scavengeCache() {
+        if (cache.size() <= cacheSize) {
+            return;
+        }
+
+        long start = System.nanoTime();
+
+        evictEntries();
+        scavengeTime += System.nanoTime() - start;
+    }
+
+    /**
+     * Releases unused entries, starting at the end of the linked list, until
+     * the cache is down to the requested size.
+     */
+    void evictEntries() {
         CacheEntry ce = tail.prior;
         while (ce != head && cache.size() > cacheSize) {
+            CacheEntry prior = ce.prior;
+
             if (ce.value.getRefCount() == 0) {
-                // remove entry from linked list
-                ce.unlink();
-                // Add to free list for reclaiming
-                free.add(ce.value);
-                // Remove from HashMap
-                cache.remove(ce.key);
+                evict(ce);
             }
-            ce = ce.prior;
+            ce = prior;
         }
     }
+
+    /**
+     * Removes an entry from the cache and places it in the {@link #free}
+     * list.
+     *
+     * @param ce the entry to remove
+     */
+    void evict(CacheEntry ce) {
+        // remove entry from linked list
+        ce.unlink();
+        // Add to free list for reclaiming
+        free.add(ce.value);
+        // Remove from HashMap
+        cache.remove(ce.key);
+        evictions++;
+    }
 }
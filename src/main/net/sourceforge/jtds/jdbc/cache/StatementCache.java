@@ -42,16 +42,17 @@ import java.util.Collection;
  * </dl>
  * The cache can retrieve statement handles using statement keys.
  * <p>
- * The caching types provided by jTDS should be:
+ * The caching types provided by jTDS are (see {@link ProcedureCache}):
  * <ul>
- *   <li>Arbitrary first un-latched (initial default until other caches are
- *     implemented)</li>
- *   <li>Fast caching (never latches and never releases handles)</li>
+ *   <li>LRU (the default)</li>
  *   <li>FIFO</li>
- *   <li>LRU</li>
- *   <li>No caching</li>
- *   <li>Touch Count / Most Frequently Used</li>
+ *   <li>LFU, with frequencies estimated by a TinyLFU sketch</li>
+ *   <li>Fast caching (never releases handles), with a size of
+ *     <code>Integer.MAX_VALUE</code></li>
+ *   <li>No caching, with a size of 0</li>
  * </ul>
+ * The policy is selected with the <code>statementCache</code> connection
+ * property.
  *
  * @author Brian Heineman
  * @version $Id: StatementCache.java,v 1.6 2007-07-11 19:57:06 bheineman Exp $
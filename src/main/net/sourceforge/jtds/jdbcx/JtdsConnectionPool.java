@@ -0,0 +1,1129 @@
+// jTDS JDBC Driver for Microsoft SQL Server and Sybase
+// Copyright (C) 2004 The jTDS Project
+//
+// This library is free software; you can redistribute it and/or
+// modify it under the terms of the GNU Lesser General Public
+// License as published by the Free Software Foundation; either
+// version 2.1 of the License, or (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+
+package net.sourceforge.jtds.jdbcx;
+
+import java.io.PrintWriter;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.sql.ConnectionEvent;
+import javax.sql.ConnectionEventListener;
+import javax.sql.DataSource;
+
+import net.sourceforge.jtds.jdbc.JtdsConnection;
+import net.sourceforge.jtds.jdbc.Messages;
+import net.sourceforge.jtds.util.Logger;
+
+/**
+ * <p> Connection pool for the connections of a {@link JtdsDataSource}, for
+ * applications not running in a container that provides pooling. </p>
+ *
+ * <p> Implementation notes: </p>
+ * <ol>
+ *   <li> Borrowing and returning a connection doesn't lock. Each thread first
+ *   tries to reuse the connection it returned last, then takes one from a
+ *   shared queue of idle connections; ownership is decided by a CAS on the
+ *   state of the connection. Only threads that have to wait for a connection
+ *   because the pool is exhausted use a monitor. </li>
+ *   <li> When a connection is returned, an open transaction is rolled back
+ *   and auto-commit, transaction isolation and catalog are restored. With
+ *   SQL Server 2000 and later the server resets the session instead, see
+ *   {@link JtdsConnection#resetConnection()}. </li>
+ *   <li> Connections idle for more than the validation interval are checked
+ *   with a query before they are handed out. </li>
+ *   <li> A daemon thread closes connections idle for longer than the idle
+ *   timeout (keeping the minimum size) and connections older than the
+ *   maximum lifetime, and opens connections up to the minimum size. The
+ *   missing connections are opened concurrently, see {@link #fill()}. </li>
+ * </ol>
+ *
+ * @see JtdsDataSource
+ */
+public class JtdsConnectionPool implements DataSource, ConnectionEventListener
+{
+
+   // private constants ////////////////////////////////////////////////////////
+
+   /**
+    * state of a connection available for borrowing
+    */
+   private static final int IDLE      = 0;
+
+   /**
+    * state of a borrowed connection (or one checked by the housekeeper)
+    */
+   private static final int IN_USE    = 1;
+
+   /**
+    * state of a connection removed from the pool
+    */
+   private static final int REMOVED   = 2;
+
+   /**
+    * interval of the housekeeping runs in milliseconds
+    */
+   private static final long HOUSEKEEPING_INTERVAL = 5000;
+
+   // private inner class Entry ////////////////////////////////////////////////
+
+   /**
+    * <p> A physical connection of the pool. </p>
+    */
+   private static class Entry
+   {
+
+      /**
+       * the pooled connection
+       */
+      final PooledConnection    pooled;
+
+      /**
+       * <code>System.nanoTime()</code> of the connection's creation
+       */
+      final long                created     = System.nanoTime();
+
+      /**
+       * <code>System.nanoTime()</code> of the connection's last return
+       */
+      volatile long             lastUsed    = created;
+
+      /**
+       * one of {@link #IDLE}, {@link #IN_USE} or {@link #REMOVED}
+       */
+      final AtomicInteger       state       = new AtomicInteger( IN_USE );
+
+      /**
+       * whether the entry is in the queue of idle connections
+       */
+      final AtomicBoolean       queued      = new AtomicBoolean();
+
+      /**
+       * the initial transaction isolation level
+       */
+      final int                 isolation;
+
+      /**
+       * the initial catalog
+       */
+      final String              catalog;
+
+      Entry( PooledConnection pooled )
+         throws SQLException
+      {
+         this.pooled = pooled;
+         isolation   = pooled.connection.getTransactionIsolation();
+         catalog     = pooled.connection.getCatalog();
+      }
+
+   }
+
+   // private instance fields //////////////////////////////////////////////////
+
+   /**
+    * the data source connections are opened with
+    */
+   private final JtdsDataSource                          _DataSource;
+
+   /**
+    * the user name to connect with
+    */
+   private final String                                  _User;
+
+   /**
+    * the password to connect with
+    */
+   private final String                                  _Password;
+
+   /**
+    * all connections of the pool
+    */
+   private final ConcurrentHashMap<Object,Entry>          _Entries     = new ConcurrentHashMap<Object,Entry>();
+
+   /**
+    * the connections returned to the pool, may contain entries borrowed again
+    * by the thread that returned them
+    */
+   private final ConcurrentLinkedQueue<Entry>            _Idle        = new ConcurrentLinkedQueue<Entry>();
+
+   /**
+    * the connection returned last by the current thread
+    */
+   private final ThreadLocal<Entry>                      _Affinity    = new ThreadLocal<Entry>();
+
+   /**
+    * monitor for threads waiting for a connection
+    */
+   private final Object                                  _WaitLock    = new Object();
+
+   /**
+    * number of threads waiting for a connection
+    */
+   private final AtomicInteger                           _Waiting     = new AtomicInteger();
+
+   /**
+    * number of connections, including connections being opened
+    */
+   private final AtomicInteger                           _Total       = new AtomicInteger();
+
+   /**
+    * number of borrowed connections
+    */
+   private final AtomicInteger                           _Active      = new AtomicInteger();
+
+   /**
+    * number of connections handed out
+    */
+   private final AtomicLong                              _Borrows     = new AtomicLong();
+
+   /**
+    * total time spent in {@link #getConnection()}, in nanoseconds
+    */
+   private final AtomicLong                              _BorrowNanos = new AtomicLong();
+
+   /**
+    * number of borrows that had to wait for a connection
+    */
+   private final AtomicLong                              _Waits       = new AtomicLong();
+
+   /**
+    * total time spent waiting for a connection, in nanoseconds
+    */
+   private final AtomicLong                              _WaitNanos   = new AtomicLong();
+
+   /**
+    * longest time spent waiting for a connection, in nanoseconds
+    */
+   private final AtomicLong                              _MaxWaitNanos = new AtomicLong();
+
+   /**
+    * number of borrows failed because no connection became available
+    */
+   private final AtomicLong                              _Timeouts    = new AtomicLong();
+
+   /**
+    * number of physical connections opened
+    */
+   private final AtomicLong                              _Created     = new AtomicLong();
+
+   /**
+    * number of physical connections closed
+    */
+   private final AtomicLong                              _Destroyed   = new AtomicLong();
+
+   /**
+    * minimum number of connections
+    */
+   private volatile int                                  _MinSize     = 0;
+
+   /**
+    * maximum number of connections
+    */
+   private volatile int                                  _MaxSize     = 10;
+
+   /**
+    * maximum time to wait for a connection in milliseconds, 0 for no limit
+    */
+   private volatile long                                 _MaxWait     = 30000;
+
+   /**
+    * time after which an idle connection is closed in milliseconds, 0 to keep
+    * idle connections
+    */
+   private volatile long                                 _IdleTimeout = 600000;
+
+   /**
+    * time after which a connection is closed in milliseconds, 0 for no limit
+    */
+   private volatile long                                 _MaxLifetime = 1800000;
+
+   /**
+    * idle time after which a connection is validated before it's used, in
+    * milliseconds
+    */
+   private volatile long                                 _ValidationInterval = 30000;
+
+   /**
+    * the housekeeping thread, started with the first connection
+    */
+   private Thread                                        _Housekeeper;
+
+   /**
+    * set once the pool is closed
+    */
+   private volatile boolean                              _Closed;
+
+   // public constructors //////////////////////////////////////////////////////
+
+   /**
+    * <p> Constructs a pool opening connections with the user and password of
+    * the data source. </p>
+    *
+    * @param dataSource
+    *    the data source to open connections with
+    */
+   public JtdsConnectionPool( JtdsDataSource dataSource )
+   {
+      this( dataSource, dataSource.getUser(), dataSource.getPassword() );
+   }
+
+   /**
+    * <p> Constructs a pool opening connections with the user and password
+    * specified. </p>
+    *
+    * @param dataSource
+    *    the data source to open connections with
+    *
+    * @param user
+    *    the user name to connect with
+    *
+    * @param password
+    *    the password to connect with
+    */
+   public JtdsConnectionPool( JtdsDataSource dataSource, String user, String password )
+   {
+      _DataSource = dataSource;
+      _User       = user;
+      _Password   = password;
+   }
+
+   // public methods ///////////////////////////////////////////////////////////
+
+   /**
+    * <p> Borrows a connection from the pool, opening a new one if none is idle
+    * and the maximum size has not been reached, otherwise waiting for one to
+    * be returned. Closing the connection returns it to the pool. </p>
+    *
+    * @return
+    *    a logical connection
+    *
+    * @throws SQLException
+    *    if the pool is closed, a connection cannot be opened or no connection
+    *    becomes available within the maximum wait time
+    */
+   public Connection getConnection()
+      throws SQLException
+   {
+      long start = System.nanoTime();
+
+      Entry entry = borrow( start );
+
+      try
+      {
+         Connection connection = entry.pooled.getConnection();
+
+         _Active.incrementAndGet();
+         _Borrows.incrementAndGet();
+         _BorrowNanos.addAndGet( System.nanoTime() - start );
+
+         _Affinity.set( entry );
+
+         return connection;
+      }
+      catch( RuntimeException e )
+      {
+         destroy( entry );
+         throw e;
+      }
+   }
+
+   /**
+    * <p> Not supported, all connections of a pool use the same user. </p>
+    */
+   public Connection getConnection( String user, String password )
+      throws SQLException
+   {
+      throw new SQLException( Messages.get( "error.generic.notsup", "getConnection(String, String)" ), "HYC00" );
+   }
+
+   /**
+    * <p> Closes the pool. Idle connections are closed immediately, borrowed
+    * connections when they are returned. </p>
+    */
+   public void close()
+   {
+      Thread housekeeper;
+
+      synchronized( this )
+      {
+         _Closed     = true;
+         housekeeper = _Housekeeper;
+         _Housekeeper = null;
+      }
+
+      if( housekeeper != null )
+      {
+         housekeeper.interrupt();
+      }
+
+      for( Iterator<Entry> it = _Entries.values().iterator(); it.hasNext(); )
+      {
+         Entry entry = it.next();
+
+         if( entry.state.compareAndSet( IDLE, IN_USE ) )
+         {
+            destroy( entry );
+         }
+      }
+
+      signal( true );
+   }
+
+   /**
+    * <p> Opens connections up to the minimum size. The connections are opened
+    * concurrently, see {@link JtdsDataSource#getConnections(int, String,
+    * String)}. The housekeeping thread calls this method periodically; call
+    * it after configuring the pool so that the first requests don't have to
+    * wait for connections to be opened. </p>
+    *
+    * @throws SQLException
+    *    if the pool is closed or the connections cannot be opened
+    */
+   public void fill()
+      throws SQLException
+   {
+      int count;
+
+      // reserve the connections
+      while( true )
+      {
+         if( _Closed )
+            throw new SQLException( Messages.get( "error.jdbcx.poolclosed" ), "08003" );
+
+         int total = _Total.get();
+
+         count = Math.min( _MinSize, _MaxSize ) - total;
+
+         if( count <= 0 )
+            return;
+
+         if( _Total.compareAndSet( total, total + count ) )
+            break;
+      }
+
+      Connection[] connections;
+
+      try
+      {
+         connections = _DataSource.getConnections( count, _User, _Password );
+      }
+      catch( SQLException e )
+      {
+         _Total.addAndGet( - count );
+         signal( false );
+         throw e;
+      }
+
+      SQLException error = null;
+
+      for( int i = 0; i < connections.length; i ++ )
+      {
+         Entry entry;
+
+         try
+         {
+            entry = add( connections[i] );
+         }
+         catch( SQLException e )
+         {
+            _Total.decrementAndGet();
+            signal( false );
+
+            try
+            {
+               connections[i].close();
+            }
+            catch( SQLException ce )
+            {
+               Logger.logException( ce );
+            }
+
+            if( error == null )
+            {
+               error = e;
+            }
+
+            continue;
+         }
+
+         if( _Closed )
+         {
+            destroy( entry );
+            continue;
+         }
+
+         entry.state.set( IDLE );
+         entry.queued.set( true );
+         _Idle.offer( entry );
+         signal( false );
+      }
+
+      if( error != null )
+         throw error;
+   }
+
+   /**
+    * <p> Returns a connection to the pool. Called when the logical connection
+    * is closed. </p>
+    */
+   public void connectionClosed( ConnectionEvent event )
+   {
+      Entry entry = _Entries.get( event.getSource() );
+
+      if( entry == null || entry.state.get() != IN_USE )
+         return;
+
+      _Active.decrementAndGet();
+
+      if( _Closed || isExpired( entry, System.nanoTime() ) || ! reset( entry ) )
+      {
+         destroy( entry );
+         return;
+      }
+
+      entry.lastUsed = System.nanoTime();
+      entry.state.set( IDLE );
+
+      if( entry.queued.compareAndSet( false, true ) )
+      {
+         _Idle.offer( entry );
+      }
+
+      signal( false );
+   }
+
+   /**
+    * <p> Removes a connection that failed from the pool. </p>
+    */
+   public void connectionErrorOccurred( ConnectionEvent event )
+   {
+      Entry entry = _Entries.get( event.getSource() );
+
+      if( entry != null && entry.state.get() == IN_USE )
+      {
+         _Active.decrementAndGet();
+         destroy( entry );
+      }
+   }
+
+   // configuration ////////////////////////////////////////////////////////////
+
+   public void setMinSize( int minSize )
+   {
+      _MinSize = minSize;
+   }
+
+   public int getMinSize()
+   {
+      return _MinSize;
+   }
+
+   public void setMaxSize( int maxSize )
+   {
+      if( maxSize < 1 )
+         throw new IllegalArgumentException( "maxSize: " + maxSize );
+
+      _MaxSize = maxSize;
+   }
+
+   public int getMaxSize()
+   {
+      return _MaxSize;
+   }
+
+   /**
+    * @param maxWait
+    *    the maximum time to wait for a connection in milliseconds or 0 to
+    *    wait indefinitely
+    */
+   public void setMaxWait( long maxWait )
+   {
+      _MaxWait = maxWait;
+   }
+
+   public long getMaxWait()
+   {
+      return _MaxWait;
+   }
+
+   /**
+    * @param idleTimeout
+    *    the time after which idle connections exceeding the minimum size are
+    *    closed in milliseconds or 0 to keep them
+    */
+   public void setIdleTimeout( long idleTimeout )
+   {
+      _IdleTimeout = idleTimeout;
+   }
+
+   public long getIdleTimeout()
+   {
+      return _IdleTimeout;
+   }
+
+   /**
+    * @param maxLifetime
+    *    the time after which connections are closed in milliseconds or 0 for
+    *    no limit
+    */
+   public void setMaxLifetime( long maxLifetime )
+   {
+      _MaxLifetime = maxLifetime;
+   }
+
+   public long getMaxLifetime()
+   {
+      return _MaxLifetime;
+   }
+
+   /**
+    * @param validationInterval
+    *    the idle time in milliseconds after which a connection is validated
+    *    before it is used
+    */
+   public void setValidationInterval( long validationInterval )
+   {
+      _ValidationInterval = validationInterval;
+   }
+
+   public long getValidationInterval()
+   {
+      return _ValidationInterval;
+   }
+
+   // metrics //////////////////////////////////////////////////////////////////
+
+   /**
+    * <p> Get the number of connections, borrowed and idle. </p>
+    */
+   public int getTotalCount()
+   {
+      return _Entries.size();
+   }
+
+   /**
+    * <p> Get the number of borrowed connections. </p>
+    */
+   public int getActiveCount()
+   {
+      return _Active.get();
+   }
+
+   /**
+    * <p> Get the number of idle connections. </p>
+    */
+   public int getIdleCount()
+   {
+      return Math.max( 0, _Entries.size() - _Active.get() );
+   }
+
+   /**
+    * <p> Get the number of threads waiting for a connection. </p>
+    */
+   public int getWaitingCount()
+   {
+      return _Waiting.get();
+   }
+
+   /**
+    * <p> Get the number of connections handed out. </p>
+    */
+   public long getBorrowCount()
+   {
+      return _Borrows.get();
+   }
+
+   /**
+    * <p> Get the average time to borrow a connection in microseconds,
+    * including opening and waiting for connections. </p>
+    */
+   public long getAverageBorrowTime()
+   {
+      long borrows = _Borrows.get();
+
+      return borrows == 0 ? 0 : _BorrowNanos.get() / borrows / 1000;
+   }
+
+   /**
+    * <p> Get the number of borrows that had to wait for a connection to be
+    * returned. </p>
+    */
+   public long getWaitCount()
+   {
+      return _Waits.get();
+   }
+
+   /**
+    * <p> Get the total time spent waiting for connections in milliseconds. </p>
+    */
+   public long getTotalWaitTime()
+   {
+      return _WaitNanos.get() / 1000000;
+   }
+
+   /**
+    * <p> Get the longest time spent waiting for a connection in
+    * milliseconds. </p>
+    */
+   public long getMaxWaitTime()
+   {
+      return _MaxWaitNanos.get() / 1000000;
+   }
+
+   /**
+    * <p> Get the number of borrows that failed because no connection became
+    * available within the maximum wait time. </p>
+    */
+   public long getTimeoutCount()
+   {
+      return _Timeouts.get();
+   }
+
+   /**
+    * <p> Get the number of physical connections opened. </p>
+    */
+   public long getCreatedCount()
+   {
+      return _Created.get();
+   }
+
+   /**
+    * <p> Get the number of physical connections closed. </p>
+    */
+   public long getDestroyedCount()
+   {
+      return _Destroyed.get();
+   }
+
+   // DataSource methods ///////////////////////////////////////////////////////
+
+   public void setLogWriter( PrintWriter out )
+   {
+      _DataSource.setLogWriter( out );
+   }
+
+   public PrintWriter getLogWriter()
+   {
+      return _DataSource.getLogWriter();
+   }
+
+   public void setLoginTimeout( int loginTimeout )
+   {
+      _DataSource.setLoginTimeout( loginTimeout );
+   }
+
+   public int getLoginTimeout()
+   {
+      return _DataSource.getLoginTimeout();
+   }
+
+   // private methods //////////////////////////////////////////////////////////
+
+   /**
+    * <p> Borrows a connection, see {@link #getConnection()}. </p>
+    */
+   private Entry borrow( long start )
+      throws SQLException
+   {
+      long waitStart = 0;
+
+      while( true )
+      {
+         if( _Closed )
+            throw new SQLException( Messages.get( "error.jdbcx.poolclosed" ), "08003" );
+
+         // the connection last returned by this thread is likely idle
+         Entry entry = _Affinity.get();
+
+         if( entry != null && entry.state.compareAndSet( IDLE, IN_USE ) && isUsable( entry ) )
+            return waited( entry, waitStart );
+
+         while( ( entry = _Idle.poll() ) != null )
+         {
+            entry.queued.set( false );
+
+            if( entry.state.compareAndSet( IDLE, IN_USE ) && isUsable( entry ) )
+               return waited( entry, waitStart );
+         }
+
+         int total = _Total.get();
+
+         if( total < _MaxSize )
+         {
+            if( _Total.compareAndSet( total, total + 1 ) )
+               return waited( open(), waitStart );
+
+            continue;
+         }
+
+         // the pool is exhausted, wait for a connection to be returned
+         if( waitStart == 0 )
+         {
+            waitStart = System.nanoTime();
+         }
+
+         long remaining = 0;
+
+         if( _MaxWait > 0 )
+         {
+            remaining = _MaxWait - ( System.nanoTime() - start ) / 1000000;
+
+            if( remaining <= 0 )
+            {
+               _Timeouts.incrementAndGet();
+               throw new SQLException( Messages.get( "error.jdbcx.pooltimeout", String.valueOf( _MaxWait ) ), "HYT00" );
+            }
+         }
+
+         synchronized( _WaitLock )
+         {
+            _Waiting.incrementAndGet();
+
+            try
+            {
+               // returns offer the connection before signalling
+               if( _Idle.isEmpty() && _Total.get() >= _MaxSize && ! _Closed )
+               {
+                  _WaitLock.wait( remaining );
+               }
+            }
+            catch( InterruptedException e )
+            {
+               Thread.currentThread().interrupt();
+               throw new SQLException( Messages.get( "error.jdbcx.pooltimeout", String.valueOf( _MaxWait ) ), "HYT00" );
+            }
+            finally
+            {
+               _Waiting.decrementAndGet();
+            }
+         }
+      }
+   }
+
+   /**
+    * <p> Records the time spent waiting for a connection, if any. </p>
+    */
+   private Entry waited( Entry entry, long waitStart )
+   {
+      if( waitStart != 0 )
+      {
+         long nanos = System.nanoTime() - waitStart;
+         long max;
+
+         _Waits.incrementAndGet();
+         _WaitNanos.addAndGet( nanos );
+
+         while( nanos > ( max = _MaxWaitNanos.get() ) && ! _MaxWaitNanos.compareAndSet( max, nanos ) );
+      }
+
+      return entry;
+   }
+
+   /**
+    * <p> Opens a new physical connection. The caller must have incremented
+    * {@link #_Total}. </p>
+    *
+    * @return
+    *    the new connection, in state {@link #IN_USE}
+    */
+   private Entry open()
+      throws SQLException
+   {
+      try
+      {
+         return add( _DataSource.getConnection( _User, _Password ) );
+      }
+      catch( SQLException e )
+      {
+         _Total.decrementAndGet();
+         signal( false );
+         throw e;
+      }
+   }
+
+   /**
+    * <p> Adds a new physical connection to the pool. The caller must have
+    * incremented {@link #_Total}. </p>
+    *
+    * @return
+    *    the new connection, in state {@link #IN_USE}
+    */
+   private Entry add( Connection connection )
+      throws SQLException
+   {
+      PooledConnection pooled = new PooledConnection( connection );
+      Entry            entry  = new Entry( pooled );
+
+      _Entries.put( pooled, entry );
+      pooled.addConnectionEventListener( this );
+      _Created.incrementAndGet();
+      startHousekeeper();
+
+      return entry;
+   }
+
+   /**
+    * <p> Checks a connection about to be handed out, removing it from the pool
+    * if it's closed, too old or fails validation. </p>
+    */
+   private boolean isUsable( Entry entry )
+   {
+      long now = System.nanoTime();
+
+      if( isExpired( entry, now ) )
+      {
+         destroy( entry );
+         return false;
+      }
+
+      try
+      {
+         Connection connection = entry.pooled.connection;
+
+         if( connection.isClosed() )
+         {
+            destroy( entry );
+            return false;
+         }
+
+         if( ( now - entry.lastUsed ) / 1000000 > _ValidationInterval )
+         {
+            Statement stmt = connection.createStatement();
+
+            try
+            {
+               stmt.execute( "SELECT 1" );
+            }
+            finally
+            {
+               stmt.close();
+            }
+         }
+
+         return true;
+      }
+      catch( SQLException e )
+      {
+         Logger.logException( e );
+         destroy( entry );
+         return false;
+      }
+   }
+
+   /**
+    * <p> Checks whether a connection exceeded its maximum lifetime. </p>
+    */
+   private boolean isExpired( Entry entry, long now )
+   {
+      long maxLifetime = _MaxLifetime;
+
+      return maxLifetime > 0 && ( now - entry.created ) / 1000000 > maxLifetime;
+   }
+
+   /**
+    * <p> Restores the initial state of a returned connection. </p>
+    *
+    * @return
+    *    <code>false</code> if the connection can't be reused
+    */
+   private boolean reset( Entry entry )
+   {
+      Connection connection = entry.pooled.connection;
+
+      try
+      {
+         if( connection == null || connection.isClosed() )
+            return false;
+
+         // SQL Server 2000 and later reset the session with the next request
+         if( connection instanceof JtdsConnection && ( (JtdsConnection) connection ).resetConnection() )
+            return true;
+
+         if( ! connection.getAutoCommit() )
+         {
+            connection.rollback();
+            connection.setAutoCommit( true );
+         }
+
+         if( connection.getTransactionIsolation() != entry.isolation )
+         {
+            connection.setTransactionIsolation( entry.isolation );
+         }
+
+         if( entry.catalog != null && ! entry.catalog.equals( connection.getCatalog() ) )
+         {
+            connection.setCatalog( entry.catalog );
+         }
+
+         connection.clearWarnings();
+         return true;
+      }
+      catch( SQLException e )
+      {
+         Logger.logException( e );
+         return false;
+      }
+   }
+
+   /**
+    * <p> Removes a connection from the pool and closes it. </p>
+    */
+   private void destroy( Entry entry )
+   {
+      if( entry.state.getAndSet( REMOVED ) == REMOVED )
+         return;
+
+      _Entries.remove( entry.pooled );
+      _Total.decrementAndGet();
+      _Destroyed.incrementAndGet();
+
+      try
+      {
+         entry.pooled.close();
+      }
+      catch( SQLException e )
+      {
+         Logger.logException( e );
+      }
+
+      signal( false );
+   }
+
+   /**
+    * <p> Wakes up threads waiting for a connection. </p>
+    */
+   private void signal( boolean all )
+   {
+      if( _Waiting.get() > 0 )
+      {
+         synchronized( _WaitLock )
+         {
+            if( all )
+            {
+               _WaitLock.notifyAll();
+            }
+            else
+            {
+               _WaitLock.notify();
+            }
+         }
+      }
+   }
+
+   /**
+    * <p> Starts the housekeeping thread, if not running already. </p>
+    */
+   private synchronized void startHousekeeper()
+   {
+      if( _Housekeeper != null || _Closed )
+         return;
+
+      _Housekeeper = new Thread( "jTDS connection pool housekeeper" )
+      {
+         public void run()
+         {
+            try
+            {
+               while( ! _Closed )
+               {
+                  Thread.sleep( HOUSEKEEPING_INTERVAL );
+                  housekeeping();
+               }
+            }
+            catch( InterruptedException e )
+            {
+               // pool closed
+            }
+         }
+      };
+
+      _Housekeeper.setDaemon( true );
+      _Housekeeper.start();
+   }
+
+   /**
+    * <p> Closes idle and expired connections and opens connections up to the
+    * minimum size. </p>
+    */
+   private void housekeeping()
+   {
+      long now         = System.nanoTime();
+      long idleTimeout = _IdleTimeout;
+
+      for( Iterator<Entry> it = _Entries.values().iterator(); it.hasNext(); )
+      {
+         Entry entry = it.next();
+
+         // claim the connection so it isn't borrowed while checking it
+         if( ! entry.state.compareAndSet( IDLE, IN_USE ) )
+            continue;
+
+         if( isExpired( entry, now )
+          || idleTimeout > 0 && ( now - entry.lastUsed ) / 1000000 > idleTimeout && _Total.get() > _MinSize )
+         {
+            destroy( entry );
+         }
+         else
+         {
+            entry.state.set( IDLE );
+         }
+      }
+
+      if( ! _Closed )
+      {
+         try
+         {
+            fill();
+         }
+         catch( SQLException e )
+         {
+            Logger.logException( e );
+         }
+      }
+   }
+
+   /////// JDBC4 demarcation, do NOT put any JDBC3 code below this line ///////
+
+   public boolean isWrapperFor( Class<?> iface )
+   {
+      return iface.isInstance( this );
+   }
+
+   public <T> T unwrap( Class<T> iface )
+      throws SQLException
+   {
+      if( iface.isInstance( this ) )
+         return iface.cast( this );
+
+      throw new SQLException( Messages.get( "error.generic.notsup", "unwrap(" + iface.getName() + ")" ), "HYC00" );
+   }
+
+   // // JDBC4.1 demarcation, do NOT put any JDBC3/4.0 code below this line ////
+
+   public java.util.logging.Logger getParentLogger()
+      throws java.sql.SQLFeatureNotSupportedException
+   {
+      throw new java.sql.SQLFeatureNotSupportedException();
+   }
+
+}
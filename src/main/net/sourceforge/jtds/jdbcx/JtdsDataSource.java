@@ -20,10 +20,18 @@ package net.sourceforge.jtds.jdbcx;
 import java.io.*;
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map.Entry;
 import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 import javax.naming.Reference;
 import javax.naming.Referenceable;
 import javax.naming.StringRefAddr;
@@ -65,6 +73,12 @@ public class JtdsDataSource implements DataSource, ConnectionPoolDataSource, XAD
     */
    private static final Driver _Driver          = new Driver();
 
+   /**
+    * Maximum number of connections opened concurrently by
+    * {@link #getConnections(int, String, String)}.
+    */
+   private static final int    MAX_CONNECT_THREADS = 32;
+
    /**
     * Constructs a configured DataSource.
     */
@@ -186,6 +200,150 @@ public class JtdsDataSource implements DataSource, ConnectionPoolDataSource, XAD
       return _Driver.connect( url, props );
    }
 
+   /**
+    * Opens a number of new database connections concurrently.
+    *
+    * @param count
+    * the number of connections to open
+    * @return the new connections
+    * @throws SQLException
+    * if an error occurs
+    * @see #getConnections(int, String, String)
+    */
+   public Connection[] getConnections( int count )
+      throws SQLException
+   {
+      return getConnections( count, (String) _Config.get( Driver.USER ), (String) _Config.get( Driver.PASSWORD ) );
+   }
+
+   /**
+    * Opens a number of new database connections for the user and password
+    * specified concurrently, e.g. to fill a connection pool. The logins
+    * (network round trips and, with SSL, handshakes) of up to 32 connections
+    * overlap, so that opening them takes about as long as opening a single
+    * connection.
+    *
+    * @param count
+    * the number of connections to open
+    * @param user
+    * the user name to connect with
+    * @param password
+    * the password to connect with
+    * @return the new connections
+    * @throws SQLException
+    * if a connection cannot be opened, the connections opened already are
+    * closed
+    */
+   public Connection[] getConnections( int count, final String user, final String password )
+      throws SQLException
+   {
+      if( count < 0 ) throw new SQLException( Messages.get( "error.generic.optltzero", "getConnections" ), "HY092" );
+
+      Connection[] connections = new Connection[count];
+
+      if( count == 1 )
+      {
+         connections[0] = getConnection( user, password );
+      }
+
+      if( count <= 1 )
+         return connections;
+
+      ExecutorService executor = Executors.newFixedThreadPool( Math.min( count, MAX_CONNECT_THREADS ), new ThreadFactory()
+      {
+         public Thread newThread( Runnable runnable )
+         {
+            Thread thread = new Thread( runnable, "jTDS connect" );
+            thread.setDaemon( true );
+            return thread;
+         }
+      } );
+
+      Callable<Connection> connect = new Callable<Connection>()
+      {
+         public Connection call()
+            throws SQLException
+         {
+            return getConnection( user, password );
+         }
+      };
+
+      List<Future<Connection>> futures = new ArrayList<Future<Connection>>( count );
+      Throwable error = null;
+      boolean interrupted = false;
+
+      try
+      {
+         for( int i = 0; i < count; i ++ )
+         {
+            futures.add( executor.submit( connect ) );
+         }
+
+         // wait for all connections, so that none is left open on failure
+         for( int i = 0; i < count; )
+         {
+            try
+            {
+               connections[i] = futures.get( i ).get();
+               i ++;
+            }
+            catch( ExecutionException e )
+            {
+               if( error == null )
+               {
+                  error = e.getCause();
+               }
+
+               i ++;
+            }
+            catch( InterruptedException e )
+            {
+               // the logins in progress can't be cancelled, wait for them
+               if( ! interrupted )
+               {
+                  interrupted = true;
+                  error = Support.linkException( new SQLException( Messages.get( "error.jdbcx.connectinterrupted" ), "08001" ), e );
+               }
+            }
+         }
+      }
+      finally
+      {
+         executor.shutdown();
+
+         if( interrupted )
+         {
+            Thread.currentThread().interrupt();
+         }
+      }
+
+      if( error == null )
+         return connections;
+
+      for( int i = 0; i < count; i ++ )
+      {
+         try
+         {
+            if( connections[i] != null )
+            {
+               connections[i].close();
+            }
+         }
+         catch( SQLException e )
+         {
+            Logger.logException( e );
+         }
+      }
+
+      if( error instanceof SQLException )
+         throw (SQLException) error;
+
+      if( error instanceof Error )
+         throw (Error) error;
+
+      throw (RuntimeException) error;
+   }
+
    public Reference getReference()
    {
       Reference ref = new Reference( getClass().getName(), JtdsObjectFactory.class.getName(), null );
@@ -404,6 +562,16 @@ public class JtdsDataSource implements DataSource, ConnectionPoolDataSource, XAD
       return Boolean.valueOf( (String) _Config.get( Driver.USENTLMV2 ) ).booleanValue();
    }
 
+   public void setUseNIO( boolean useNIO )
+   {
+      _Config.put( Driver.USENIO, String.valueOf( useNIO ) );
+   }
+
+   public boolean getUseNIO()
+   {
+      return Boolean.valueOf( (String) _Config.get( Driver.USENIO ) ).booleanValue();
+   }
+
    public void setUseKerberos(boolean useKerberos)
    {
       _Config.put( Driver.USEKERBEROS, Boolean.toString( useKerberos ) );
@@ -594,6 +762,36 @@ public class JtdsDataSource implements DataSource, ConnectionPoolDataSource, XAD
       return (String) _Config.get( Driver.SSL );
    }
 
+   public void setStatementCache( String statementCache )
+   {
+      _Config.put( Driver.STATEMENTCACHE, statementCache );
+   }
+
+   public String getStatementCache()
+   {
+      return (String) _Config.get( Driver.STATEMENTCACHE );
+   }
+
+   public void setStreamLOBs( boolean streamLOBs )
+   {
+      _Config.put( Driver.STREAMLOBS, String.valueOf( streamLOBs ) );
+   }
+
+   public boolean getStreamLOBs()
+   {
+      return Boolean.valueOf( (String) _Config.get( Driver.STREAMLOBS ) ).booleanValue();
+   }
+
+   public void setStreamResults( boolean streamResults )
+   {
+      _Config.put( Driver.STREAMRESULTS, String.valueOf( streamResults ) );
+   }
+
+   public boolean getStreamResults()
+   {
+      return Boolean.valueOf( (String) _Config.get( Driver.STREAMRESULTS ) ).booleanValue();
+   }
+
    public void setBatchSize( int batchSize )
    {
       _Config.put( Driver.BATCHSIZE, String.valueOf( batchSize ) );
@@ -644,6 +842,16 @@ public class JtdsDataSource implements DataSource, ConnectionPoolDataSource, XAD
       return Boolean.valueOf( (String) _Config.get( Driver.CACHEMETA ) ).booleanValue();
    }
 
+   public void setCursorPrefetch( boolean cursorPrefetch )
+   {
+      _Config.put( Driver.CURSORPREFETCH, String.valueOf( cursorPrefetch ) );
+   }
+
+   public boolean getCursorPrefetch()
+   {
+      return Boolean.valueOf( (String) _Config.get( Driver.CURSORPREFETCH ) ).booleanValue();
+   }
+
    public void setUseCursors( boolean useCursors )
    {
       _Config.put( Driver.USECURSORS, String.valueOf( useCursors ) );
@@ -66,6 +66,7 @@ public class JtdsObjectFactory implements ObjectFactory
             Driver.BUFFERMINPACKETS,
             Driver.CACHEMETA,
             Driver.CHARSET,
+            Driver.CURSORPREFETCH,
             Driver.DATABASENAME,
             Driver.DOMAIN,
             Driver.INSTANCE,
@@ -88,11 +89,15 @@ public class JtdsObjectFactory implements ObjectFactory
             Driver.SOKEEPALIVE,
             Driver.PROCESSID,
             Driver.SSL,
+            Driver.STATEMENTCACHE,
+            Driver.STREAMLOBS,
+            Driver.STREAMRESULTS,
             Driver.TCPNODELAY,
             Driver.TDS,
             Driver.USECURSORS,
             Driver.USEJCIFS,
             Driver.USENTLMV2,
+            Driver.USENIO,
             Driver.USEKERBEROS,
             Driver.USELOBS,
             Driver.USER,
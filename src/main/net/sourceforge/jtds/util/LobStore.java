@@ -0,0 +1,491 @@
+// jTDS JDBC Driver for Microsoft SQL Server and Sybase
+// Copyright (C) 2004 The jTDS Project
+//
+// This library is free software; you can redistribute it and/or
+// modify it under the terms of the GNU Lesser General Public
+// License as published by the Free Software Foundation; either
+// version 2.1 of the License, or (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+
+package net.sourceforge.jtds.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Disk storage shared by the {@link BlobBuffer}s of a connection, backed by
+ * a single temporary file.
+ * <p/>
+ * Implementation notes:
+ * <ol>
+ *   <li>The file is allocated in extents of {@link #EXTENT_SIZE} bytes. A
+ *     LOB holds a list of extents, which need not be contiguous, and returns
+ *     them when truncated or garbage collected. Returned extents are reused.
+ *   <li>The file is memory mapped in segments of {@link #SEGMENT_SIZE}
+ *     bytes, mapped when first accessed, so that reading or writing LOB data
+ *     does not need a system call per access.
+ *   <li>The file is created when the first extent is allocated and deleted
+ *     once the store has been closed and no LOB holds extents, or when the
+ *     store is garbage collected. LOBs may outlive their connection.
+ *   <li>Stores with a file are tracked by weak references, the files of
+ *     stores garbage collected without being closed are deleted by the
+ *     {@link TimerThread}, see {@link #retryDeletes()}.
+ *   <li>A mapping is only released when its buffer is garbage collected and
+ *     a mapped file cannot be deleted on Windows. Such files are deleted by
+ *     the {@link TimerThread} once their segments have been collected.
+ * </ol>
+ */
+public class LobStore {
+    /**
+     * Number of bits of the offset within an extent.
+     */
+    static final int EXTENT_SHIFT = 16;
+    /**
+     * Size of an extent, the unit of allocation (must be power of 2).
+     */
+    static final int EXTENT_SIZE = 1 << EXTENT_SHIFT;
+    /**
+     * Mask for the offset within an extent.
+     */
+    static final int EXTENT_MASK = EXTENT_SIZE - 1;
+    /**
+     * Number of extents in a mapped segment (must be power of 2).
+     */
+    private static final int SEGMENT_EXTENTS = 64;
+    /**
+     * Size of a mapped segment.
+     */
+    static final int SEGMENT_SIZE = SEGMENT_EXTENTS * EXTENT_SIZE;
+    /**
+     * Interval in milliseconds of the attempts to delete files still mapped.
+     */
+    private static final int DELETE_RETRY_INTERVAL = 1000;
+    /**
+     * Number of attempts to delete a file after its segments have been
+     * collected.
+     */
+    private static final int DELETE_RETRY_COUNT = 10;
+    /**
+     * Files that could not be deleted yet, see {@link PendingDelete}.
+     * Guarded by its own monitor.
+     */
+    private static final List pendingDeletes = new ArrayList();
+    /**
+     * The references to the stores with a file, see {@link StoreRef}.
+     * Guarded by the monitor of {@link #pendingDeletes}.
+     */
+    private static final Set stores = new HashSet();
+    /**
+     * The queue the references to garbage collected stores are added to.
+     */
+    private static final ReferenceQueue collected = new ReferenceQueue();
+    /**
+     * True if {@link #retryDeletes()} is scheduled. Guarded by the monitor of
+     * {@link #pendingDeletes}.
+     */
+    private static boolean scheduled;
+
+    /**
+     * A weak reference to a store with a file, holding what is needed to
+     * delete the file if the store is garbage collected without being
+     * closed.
+     */
+    private static class StoreRef extends WeakReference {
+        /** The file of the store. */
+        final File file;
+        /** The RA file object of the store. */
+        final RandomAccessFile raFile;
+        /** The mapped segments of the store. */
+        volatile ByteBuffer[] segments;
+
+        StoreRef(LobStore store) {
+            super(store, collected);
+            this.file = store.file;
+            this.raFile = store.raFile;
+            this.segments = store.segments;
+        }
+    }
+
+    /**
+     * A file that could not be deleted while its segments were mapped.
+     */
+    private static class PendingDelete {
+        /** The file to delete. */
+        final File file;
+        /** The segments mapped when the file was closed. */
+        final WeakReference[] segments;
+        /** Number of attempts made since the segments were collected. */
+        int attempts;
+
+        PendingDelete(File file, WeakReference[] segments) {
+            this.file = file;
+            this.segments = segments;
+        }
+
+        /**
+         * Checks whether a segment of the file may still be mapped.
+         */
+        boolean isMapped() {
+            for (int i = 0; i < segments.length; i++) {
+                if (segments[i].get() != null) {
+                    return true;
+                }
+            }
+
+            return false;
+        }
+    }
+
+    /**
+     * The directory to create the file in.
+     */
+    private final File dir;
+    /**
+     * The temporary file or <code>null</code> if not created.
+     */
+    private File file;
+    /**
+     * The RA file object reference or <code>null</code>.
+     */
+    private RandomAccessFile raFile;
+    /**
+     * The channel of the file or <code>null</code>.
+     */
+    private FileChannel channel;
+    /**
+     * The mapped segments, <code>null</code> if not mapped yet.
+     */
+    private ByteBuffer[] segments;
+    /**
+     * Number of extents handed out from the file.
+     */
+    private int extentCount;
+    /**
+     * Extents returned by LOBs, available for reuse.
+     */
+    private int[] free;
+    /**
+     * Number of extents in <code>free</code>.
+     */
+    private int freeCount;
+    /**
+     * Number of extents held by LOBs.
+     */
+    private int used;
+    /**
+     * True once the file is to be deleted when no longer used.
+     */
+    private boolean closed;
+    /**
+     * The reference tracking this store while it has a file.
+     */
+    private StoreRef ref;
+
+    /**
+     * Creates a LOB store.
+     *
+     * @param dir the directory to create the temporary file in
+     */
+    public LobStore(File dir) {
+        this.dir = dir;
+    }
+
+    /**
+     * Allocates an extent, creating the temporary file if required.
+     *
+     * @return the number of the extent
+     * @throws IOException if the file cannot be created
+     */
+    synchronized int allocate() throws IOException {
+        if (channel == null) {
+            file = File.createTempFile("jtds", ".tmp", dir);
+            // file.deleteOnExit(); memory leak, see http://bugs.sun.com/bugdatabase/view_bug.do?bug_id=6664633
+            raFile = new RandomAccessFile(file, "rw");
+            channel = raFile.getChannel();
+            segments = new ByteBuffer[4];
+            free = new int[16];
+            ref = new StoreRef(this);
+
+            synchronized (pendingDeletes) {
+                stores.add(ref);
+                scheduleDeletes();
+            }
+        }
+
+        used++;
+
+        if (freeCount > 0) {
+            return free[--freeCount];
+        }
+
+        return extentCount++;
+    }
+
+    /**
+     * Returns extents for reuse. The file is deleted if the store has been
+     * closed and no extents are left in use.
+     *
+     * @param extents the extent numbers
+     * @param from    the index of the first extent to return
+     * @param to      the index after the last extent to return
+     */
+    synchronized void release(int[] extents, int from, int to) {
+        if (channel == null) {
+            // already deleted
+            return;
+        }
+
+        int count = to - from;
+
+        if (freeCount + count > free.length) {
+            int[] tmp = new int[Math.max(free.length * 2, freeCount + count)];
+            System.arraycopy(free, 0, tmp, 0, freeCount);
+            free = tmp;
+        }
+
+        System.arraycopy(extents, from, free, freeCount, count);
+        freeCount += count;
+        used -= count;
+
+        if (closed && used == 0) {
+            delete();
+        }
+    }
+
+    /**
+     * Retrieves the mapped segment holding an extent, see
+     * {@link #getSegmentOffset}. Only absolute get and put methods may be
+     * used on the buffer, or those of a duplicate.
+     *
+     * @param extent the extent number
+     * @return the segment
+     * @throws IOException if the segment cannot be mapped
+     */
+    synchronized ByteBuffer getSegment(int extent) throws IOException {
+        int index = extent / SEGMENT_EXTENTS;
+
+        if (index >= segments.length) {
+            ByteBuffer[] tmp = new ByteBuffer[Math.max(segments.length * 2, index + 1)];
+            System.arraycopy(segments, 0, tmp, 0, segments.length);
+            segments = tmp;
+
+            if (ref != null) {
+                ref.segments = tmp;
+            }
+        }
+
+        if (channel == null) {
+            throw new IOException("BLOB file has been deleted");
+        }
+
+        if (segments[index] == null) {
+            // Grows the file as required
+            segments[index] = channel.map(FileChannel.MapMode.READ_WRITE,
+                    (long) index * SEGMENT_SIZE, SEGMENT_SIZE);
+        }
+
+        return segments[index];
+    }
+
+    /**
+     * Retrieves the offset of an extent within its segment.
+     *
+     * @param extent the extent number
+     * @return the offset in bytes
+     */
+    static int getSegmentOffset(int extent) {
+        return (extent % SEGMENT_EXTENTS) * EXTENT_SIZE;
+    }
+
+    /**
+     * Transfers bytes of an extent to a channel without copying them through
+     * the Java heap where supported, see {@link FileChannel#transferTo}.
+     *
+     * @param extent the extent number
+     * @param offset the offset within the extent
+     * @param len    the number of bytes to transfer
+     * @param target the target channel
+     * @throws IOException if an I/O error occurs
+     */
+    void transferTo(int extent, int offset, int len, WritableByteChannel target)
+            throws IOException {
+        FileChannel channel;
+
+        synchronized (this) {
+            channel = this.channel;
+        }
+
+        if (channel == null) {
+            throw new IOException("BLOB file has been deleted");
+        }
+
+        long position = ((long) extent << EXTENT_SHIFT) + offset;
+
+        while (len > 0) {
+            int count = (int) channel.transferTo(position, len, target);
+            position += count;
+            len -= count;
+        }
+    }
+
+    /**
+     * Closes the store, deleting the temporary file once no longer used.
+     */
+    public synchronized void close() {
+        closed = true;
+
+        if (used == 0) {
+            delete();
+        }
+    }
+
+    /**
+     * Deletes the temporary file.
+     */
+    private synchronized void delete() {
+        if (channel == null) {
+            return;
+        }
+
+        ref.clear();
+
+        synchronized (pendingDeletes) {
+            stores.remove(ref);
+        }
+
+        deleteFile(file, raFile, segments);
+
+        // The mapped segments are released when garbage collected
+        segments = null;
+        channel = null;
+        raFile = null;
+        file = null;
+        ref = null;
+        extentCount = 0;
+        freeCount = 0;
+        used = 0;
+    }
+
+    /**
+     * Closes and deletes the file of a store.
+     *
+     * @param file     the file to delete
+     * @param raFile   the RA file object of the file
+     * @param segments the segments mapped from the file
+     */
+    private static void deleteFile(File file, RandomAccessFile raFile,
+                                   ByteBuffer[] segments) {
+        try {
+            raFile.close();
+        } catch (IOException e) {
+            // Ignore we are going to delete anyway
+        }
+
+        if (!file.delete()) {
+            deleteLater(file, segments);
+        }
+    }
+
+    /**
+     * Deletes a file once the segments mapped from it have been garbage
+     * collected, see {@link #retryDeletes()}.
+     *
+     * @param file     the file to delete
+     * @param segments the segments mapped from the file
+     */
+    private static void deleteLater(File file, ByteBuffer[] segments) {
+        List refs = new ArrayList();
+
+        for (int i = 0; i < segments.length; i++) {
+            if (segments[i] != null) {
+                refs.add(new WeakReference(segments[i]));
+            }
+        }
+
+        if (refs.isEmpty()) {
+            Logger.println("Could not delete BLOB file " + file);
+            return;
+        }
+
+        synchronized (pendingDeletes) {
+            pendingDeletes.add(new PendingDelete(file,
+                    (WeakReference[]) refs.toArray(new WeakReference[refs.size()])));
+            scheduleDeletes();
+        }
+    }
+
+    /**
+     * Schedules {@link #retryDeletes()} unless already scheduled. Must be
+     * called with the monitor of {@link #pendingDeletes} held.
+     */
+    private static void scheduleDeletes() {
+        if (scheduled) {
+            return;
+        }
+
+        scheduled = true;
+        TimerThread.getInstance().setTimer(DELETE_RETRY_INTERVAL,
+                new TimerThread.TimerListener() {
+                    public void timerExpired() {
+                        retryDeletes();
+                    }
+                });
+    }
+
+    /**
+     * Deletes the files of the stores garbage collected without being
+     * closed and attempts to delete the pending files whose segments have
+     * been garbage collected. A file is given up after
+     * {@link #DELETE_RETRY_COUNT} failed attempts. Runs as long as stores
+     * with a file or pending files are left.
+     */
+    private static void retryDeletes() {
+        synchronized (pendingDeletes) {
+            scheduled = false;
+
+            for (StoreRef ref; (ref = (StoreRef) collected.poll()) != null; ) {
+                if (stores.remove(ref)) {
+                    deleteFile(ref.file, ref.raFile, ref.segments);
+                }
+            }
+
+            for (Iterator it = pendingDeletes.iterator(); it.hasNext(); ) {
+                PendingDelete pending = (PendingDelete) it.next();
+
+                if (pending.isMapped()) {
+                    continue;
+                }
+
+                if (pending.file.delete() || !pending.file.exists()) {
+                    it.remove();
+                } else if (++pending.attempts >= DELETE_RETRY_COUNT) {
+                    Logger.println("Could not delete BLOB file " + pending.file);
+                    it.remove();
+                }
+            }
+
+            if (!stores.isEmpty() || !pendingDeletes.isEmpty()) {
+                scheduleDeletes();
+            }
+        }
+    }
+}
@@ -17,8 +17,8 @@
 //
 package net.sourceforge.jtds.util;
 
-import java.util.LinkedList;
-import java.util.ListIterator;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Simple timer class used to implement login and query timeouts.
@@ -28,6 +28,22 @@ import java.util.ListIterator;
  * <p/>
  * It provides both a singleton implementation and a default constructor for
  * the case when more than one timer thread is desired.
+ * <p/>
+ * Implementation notes:
+ * <ol>
+ *   <li>Timers are kept in a hashed timing wheel of {@link #WHEEL_SIZE}
+ *     buckets, each covering a tick of {@link #TICK_MILLIS} ms. Setting and
+ *     cancelling a timer only locks the bucket it belongs to and is O(1),
+ *     regardless of the number of pending timers.
+ *   <li>Timers farther away than one revolution of the wheel share buckets
+ *     with nearer ones and are skipped until their tick is reached.
+ *   <li>Time is measured with <code>System.nanoTime()</code>, so timeouts are
+ *     not affected by changes of the system clock. Timers expire at most one
+ *     tick late, never early.
+ *   <li>The thread sleeps until the tick of the nearest timer, it doesn't
+ *     wake up for empty ticks or while no timers are pending. Setting an
+ *     earlier timer wakes it up.
+ * </ol>
  *
  * @author Alin Sinpalean
  * @author Mike Hutchinson
@@ -44,41 +60,102 @@ public class TimerThread extends Thread {
         void timerExpired();
     }
 
+    /** The duration of a tick in milliseconds. */
+    private static final int TICK_MILLIS = 10;
+    /** The duration of a tick in nanoseconds. */
+    private static final long TICK_NANOS = TICK_MILLIS * 1000000L;
+    /** The number of buckets of the wheel, a power of 2. */
+    private static final int WHEEL_SIZE = 512;
+
+    /** The timer is waiting to expire. */
+    private static final int PENDING = 0;
+    /** The listener of the timer is being notified. */
+    private static final int FIRING = 1;
+    /** The timer has expired. */
+    private static final int EXPIRED = 2;
+    /** The timer has been cancelled. */
+    private static final int CANCELLED = 3;
+
     /**
      * Internal class associating a login or query timeout value with a target
      * <code>TimerListener</code>.
      */
     private static class TimerRequest {
-        /** The time when this timeout will expire. */
-        final long time;
+        /** The tick in which this timeout will expire. */
+        long tick;
         /** Target to notify when the timeout expires. */
         final TimerListener target;
+        /** The state of this timer, one of the constants above. */
+        final AtomicInteger state = new AtomicInteger(PENDING);
+        /** The bucket holding this timer. */
+        Bucket bucket;
+        /** The previous timer in the bucket. */
+        TimerRequest prev;
+        /** The next timer in the bucket. */
+        TimerRequest next;
 
         /**
          * Create a <code>TimerRequest</code>.
          *
-         * @param timeout the desired timeout in milliseconds
-         * @param target  the target object; one of <code>SharedSocket</code> or
-         *                <code>TdsCore</code>
-         * @throws IllegalArgumentException if the timeout is negative or 0
+         * @param tick   the tick in which the timeout expires
+         * @param target the target object; one of <code>SharedSocket</code> or
+         *               <code>TdsCore</code>
          */
-        TimerRequest(int timeout, TimerListener target) {
-            if (timeout <= 0) {
-                throw new IllegalArgumentException("Invalid timeout parameter "
-                        + timeout);
-            }
-            this.time = System.currentTimeMillis() + (timeout);
+        TimerRequest(long tick, TimerListener target) {
+            this.tick = tick;
             this.target = target;
         }
     }
 
+    /**
+     * A bucket of the wheel, a doubly linked list of timers guarded by the
+     * bucket itself.
+     */
+    private static class Bucket {
+        /** The first timer in this bucket. */
+        TimerRequest head;
+        /** The last tick this bucket has been swept for. */
+        long sweptTick = -1;
+
+        void add(TimerRequest t) {
+            t.bucket = this;
+            t.next = head;
+            if (head != null) {
+                head.prev = t;
+            }
+            head = t;
+        }
+
+        void remove(TimerRequest t) {
+            if (t.prev != null) {
+                t.prev.next = t.next;
+            } else {
+                head = t.next;
+            }
+            if (t.next != null) {
+                t.next.prev = t.prev;
+            }
+            t.prev = null;
+            t.next = null;
+        }
+    }
+
     /** Singleton instance. */
     private static TimerThread instance;
 
-    /** List of <code>TimerRequest</code>s to execute, ordered by time. */
-    private final LinkedList timerList = new LinkedList();
-    /** Time when the first request time out should occur. */
-    private long nextTimeout;
+    /** The buckets of the wheel. */
+    private final Bucket[] wheel = new Bucket[WHEEL_SIZE];
+    /** The <code>System.nanoTime()</code> value of tick 0. */
+    private final long startTime = System.nanoTime();
+    /** The last tick processed by the timer thread. */
+    private volatile long processedTick = -1;
+    /**
+     * The tick the timer thread sleeps until, <code>Long.MAX_VALUE</code>
+     * for none. Lowered by {@link #setTimer} for an earlier timer.
+     */
+    private final AtomicLong wakeTick = new AtomicLong(Long.MAX_VALUE);
+    /** Monitor the timer thread sleeps on. */
+    private final Object idleLock = new Object();
 
     /**
      * Singleton getter.
@@ -99,90 +176,106 @@ public class TimerThread extends Thread {
         super("jTDS TimerThread");
         // Ensure that this thread does not prevent the VM from exiting
         this.setDaemon(true);
+
+        for (int i = 0; i < WHEEL_SIZE; i++) {
+            wheel[i] = new Bucket();
+        }
     }
 
     /**
      * Execute the <code>TimerThread</code> main loop.
      */
     public void run() {
-        synchronized (timerList) {
-            boolean run = true;
-            while (run) {
-                try {
-                    long ms;
-                    while ((ms = nextTimeout - System.currentTimeMillis()) > 0 || nextTimeout == 0) {
-                        // positive timeout, wait appropriately
-                        timerList.wait(nextTimeout==0 ? 0 : ms);
-                    }
+        try {
+            while (true) {
+                long next = processedTick + 1;
 
-                    // Fire expired timeout requests
-                    long time = System.currentTimeMillis();
-                    while (!timerList.isEmpty()) {
-                        // Examine the head of the list and see
-                        // if the timer has expired.
-                        TimerRequest t = (TimerRequest) timerList.getFirst();
-                        if (t.time > time) {
-                            break; // No timers have expired
+                // Timers set from now on lower the wake up tick themselves
+                wakeTick.set(Long.MAX_VALUE);
+                lowerWakeTick(nextTimerTick(next));
+
+                // Wait for the end of the tick of the nearest timer
+                synchronized (idleLock) {
+                    while (true) {
+                        long wake = wakeTick.get();
+
+                        if (wake == Long.MAX_VALUE) {
+                            idleLock.wait();
+                            continue;
                         }
-                        // Notify target of timeout
-                        t.target.timerExpired();
-                        // Remove the fired timeout request
-                        timerList.removeFirst();
+
+                        long ms = (startTime + (wake + 1) * TICK_NANOS - System.nanoTime()) / 1000000L;
+
+                        if (ms < 0) {
+                            break;
+                        }
+
+                        idleLock.wait(ms + 1);
                     }
+                }
+
+                // Sweep all buckets whose ticks have passed, each at most once
+                long current = currentTick() - 1;
+                long first = Math.max(next, current - WHEEL_SIZE + 1);
 
-                    // Determine next timeout
-                    updateNextTimeout();
-                } catch (InterruptedException e) {
-                    // stopThread() called, or thread interrupted externally
-                    run = false;
-                    timerList.clear();
+                for (long tick = first; tick <= current; tick++) {
+                    sweep(tick);
+                }
+
+                processedTick = Math.max(processedTick, current);
+            }
+        } catch (InterruptedException e) {
+            // stopThread() called, or thread interrupted externally
+            for (int i = 0; i < WHEEL_SIZE; i++) {
+                Bucket bucket = wheel[i];
+
+                synchronized (bucket) {
+                    for (TimerRequest t = bucket.head; t != null; t = t.next) {
+                        t.state.compareAndSet(PENDING, CANCELLED);
+                    }
+                    bucket.head = null;
                 }
             }
         }
     }
 
     /**
-     * Add a timer request to the queue.
-     * <p/>
-     * The queue is ordered by time so that the head of the list is always the
-     * first timer to expire.
+     * Add a timer request to the wheel.
      *
      * @param timeout the interval in milliseconds after which the timer will
      *                expire
      * @param l       <code>TimerListener</code> to be notified on timeout
      * @return a handle to the timer request, that can later be used with
      *         <code>cancelTimer</code>
+     * @throws IllegalArgumentException if the timeout is negative or 0
      */
     public Object setTimer(int timeout, TimerListener l) {
-        // Create a new timer request
-        TimerRequest t = new TimerRequest(timeout, l);
+        if (timeout <= 0) {
+            throw new IllegalArgumentException("Invalid timeout parameter "
+                    + timeout);
+        }
 
-        synchronized (timerList) {
-            if (timerList.isEmpty()) {
-                // List was empty, just add new request
-                timerList.add(t);
-            } else {
-                // Tiny optimization; new requests will usually go to the end
-                TimerRequest crt = (TimerRequest) timerList.getLast();
-                if (t.time >= crt.time) {
-                    timerList.addLast(t);
-                } else {
-                    // Iterate the list and insert it into the right place
-                    for (ListIterator li = timerList.listIterator(); li.hasNext(); ) {
-                        crt = (TimerRequest) li.next();
-                        if (t.time < crt.time) {
-                            li.previous();
-                            li.add(t);
-                            break;
-                        }
-                    }
+        long tick = (System.nanoTime() + timeout * 1000000L - startTime) / TICK_NANOS;
+        TimerRequest t = new TimerRequest(Math.max(tick, processedTick + 1), l);
+
+        while (true) {
+            Bucket bucket = wheel[(int) t.tick & (WHEEL_SIZE - 1)];
+
+            synchronized (bucket) {
+                // The timer thread may have swept the bucket for this tick
+                // meanwhile, use the following one
+                if (bucket.sweptTick < t.tick) {
+                    bucket.add(t);
+                    break;
                 }
+
+                t.tick = bucket.sweptTick + 1;
             }
+        }
 
-            // If this request is now the first in the list, interrupt timer
-            if (timerList.getFirst() == t) {
-                nextTimeout = t.time;
-                timerList.notifyAll();
+        if (lowerWakeTick(t.tick)) {
+            synchronized (idleLock) {
+                idleLock.notifyAll();
             }
         }
 
@@ -192,21 +285,43 @@ public class TimerThread extends Thread {
 
     /**
      * Remove a redundant timer before it expires.
+     * <p/>
+     * If the listener of the timer is being notified, waits until the
+     * notification is complete.
      *
-     * @param handle handle to the request to be removed from the queue (a
+     * @param handle handle to the request to be removed from the wheel (a
      *        <code>TimerRequest</code> instance)
      * @return <code>true</code> if timer had not expired
      */
     public boolean cancelTimer(Object handle) {
         TimerRequest t = (TimerRequest) handle;
 
-        synchronized (timerList) {
-            boolean result = timerList.remove(t);
-            if (nextTimeout == t.time) {
-                updateNextTimeout();
+        if (t.state.compareAndSet(PENDING, CANCELLED)) {
+            synchronized (t.bucket) {
+                t.bucket.remove(t);
             }
-            return result;
+            return true;
         }
+
+        if (t.state.get() == FIRING) {
+            boolean interrupted = false;
+
+            synchronized (t) {
+                while (t.state.get() == FIRING) {
+                    try {
+                        t.wait();
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                    }
+                }
+            }
+
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        return false;
     }
 
     /**
@@ -229,16 +344,101 @@ public class TimerThread extends Thread {
      * @return <code>true</code> if timer has expired
      */
     public boolean hasExpired(Object handle) {
-        TimerRequest t = (TimerRequest) handle;
+        return ((TimerRequest) handle).state.get() != PENDING;
+    }
+
+    /** Returns the tick the current time falls into. */
+    private long currentTick() {
+        return (System.nanoTime() - startTime) / TICK_NANOS;
+    }
+
+    /**
+     * Finds the tick of the nearest pending timer, scanning the buckets in
+     * tick order for at most one revolution of the wheel.
+     *
+     * @param from the first tick not processed yet
+     * @return the tick or <code>Long.MAX_VALUE</code> if no timer is pending
+     */
+    private long nextTimerTick(long from) {
+        long min = Long.MAX_VALUE;
+
+        for (long tick = from; tick < from + WHEEL_SIZE; tick++) {
+            Bucket bucket = wheel[(int) tick & (WHEEL_SIZE - 1)];
+
+            synchronized (bucket) {
+                for (TimerRequest t = bucket.head; t != null; t = t.next) {
+                    min = Math.min(min, t.tick);
+                }
+            }
+
+            // Later buckets only hold timers of later ticks
+            if (min <= tick) {
+                break;
+            }
+        }
 
-        synchronized (timerList) {
-            return !timerList.contains(t);
+        return min;
+    }
+
+    /**
+     * Lowers the tick the timer thread sleeps until.
+     *
+     * @param tick the tick of a timer
+     * @return <code>true</code> if the tick was lowered
+     */
+    private boolean lowerWakeTick(long tick) {
+        while (true) {
+            long wake = wakeTick.get();
+
+            if (tick >= wake) {
+                return false;
+            }
+            if (wakeTick.compareAndSet(wake, tick)) {
+                return true;
+            }
         }
     }
 
-    /** Internal method that updates the value of {@link #nextTimeout}. */
-    private void updateNextTimeout() {
-        nextTimeout = timerList.isEmpty() ? 0
-                : ((TimerRequest) timerList.getFirst()).time;
+    /**
+     * Fires the timers of a tick. The listeners are notified outside of the
+     * bucket lock, so they may set or cancel other timers.
+     *
+     * @param tick the tick to process
+     */
+    private void sweep(long tick) {
+        Bucket bucket = wheel[(int) tick & (WHEEL_SIZE - 1)];
+        TimerRequest expired = null;
+
+        synchronized (bucket) {
+            bucket.sweptTick = tick;
+
+            for (TimerRequest t = bucket.head, next; t != null; t = next) {
+                next = t.next;
+
+                // Later revolutions of the wheel stay in the bucket
+                if (t.tick <= tick && t.state.compareAndSet(PENDING, FIRING)) {
+                    bucket.remove(t);
+                    t.next = expired;
+                    expired = t;
+                }
+            }
+        }
+
+        while (expired != null) {
+            TimerRequest t = expired;
+
+            expired = t.next;
+            t.next = null;
+
+            try {
+                // Notify target of timeout
+                t.target.timerExpired();
+            } finally {
+                synchronized (t) {
+                    t.state.set(EXPIRED);
+                    t.notifyAll();
+                }
+            }
+        }
     }
 }
@@ -0,0 +1,162 @@
+// jTDS JDBC Driver for Microsoft SQL Server and Sybase
+// Copyright (C) 2004 The jTDS Project
+//
+// This library is free software; you can redistribute it and/or
+// modify it under the terms of the GNU Lesser General Public
+// License as published by the Free Software Foundation; either
+// version 2.1 of the License, or (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+//
+package net.sourceforge.jtds.jdbc;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+
+/**
+ * Unit tests for the column wise storage of read only, scrollable
+ * {@link CachedResultSet}s, run against the {@link FakeTdsServer}.
+ */
+public class CachedResultSetUnitTest extends UnitTestBase {
+    /** More rows than fit into one chunk of the row store. */
+    private static final int ROWS = ColumnarRowStore.CHUNK_SIZE * 2 + 100;
+    private static final int[] TYPES = {
+        FakeTdsServer.INT, FakeTdsServer.BIGINT, FakeTdsServer.TINYINT,
+        FakeTdsServer.BIT, FakeTdsServer.FLOAT, FakeTdsServer.NVARCHAR,
+        FakeTdsServer.VARBINARY
+    };
+
+    private FakeTdsServer server;
+    private Connection con;
+
+    public CachedResultSetUnitTest(String name) {
+        super(name);
+    }
+
+    public void setUp() throws Exception {
+        Object[][] rows = new Object[ROWS][];
+
+        for (int i = 0; i < ROWS; i++) {
+            rows[i] = getRow(i);
+        }
+
+        Class.forName(Driver.class.getName());
+        server = new FakeTdsServer();
+        server.setResult("SELECT * FROM t", FakeTdsServer.Result.rows(
+                new String[] {"i", "b", "t", "f", "d", "s", "v"}, TYPES, rows));
+        con = DriverManager.getConnection(server.getUrl(""));
+    }
+
+    public void tearDown() throws Exception {
+        con.close();
+        server.close();
+    }
+
+    /**
+     * Test scrolling through the rows in both directions and to random
+     * positions.
+     */
+    public void testScroll() throws Exception {
+        ResultSet rs = select();
+
+        assertTrue(rs instanceof CachedResultSet);
+
+        int row = 0;
+
+        while (rs.next()) {
+            assertRow(rs, row++);
+        }
+
+        assertEquals(ROWS, row);
+
+        while (rs.previous()) {
+            assertRow(rs, --row);
+        }
+
+        assertEquals(0, row);
+
+        for (int i = 0; i < 500; i++) {
+            row = (i * 7919) % ROWS;
+            assertTrue(rs.absolute(row + 1));
+            assertRow(rs, row);
+        }
+
+        assertTrue(rs.last());
+        assertEquals(ROWS, rs.getRow());
+        assertRow(rs, ROWS - 1);
+    }
+
+    /**
+     * Test that the primitive getters fail when there is no current row.
+     */
+    public void testNoCurrentRow() throws Exception {
+        ResultSet rs = select();
+
+        assertTrue(rs.first());
+        assertEquals(0, rs.getInt(1));
+        rs.afterLast();
+
+        try {
+            rs.getInt(1);
+            fail("Expected an SQLException");
+        } catch (SQLException e) {
+            assertEquals("24000", e.getSQLState());
+        }
+    }
+
+    /**
+     * Executes the select with a scrollable statement. The server doesn't
+     * support cursors, so the result is cached by the driver.
+     */
+    private ResultSet select() throws SQLException {
+        Statement stmt = con.createStatement(ResultSet.TYPE_SCROLL_INSENSITIVE,
+                ResultSet.CONCUR_READ_ONLY);
+
+        assertTrue(stmt.execute("SELECT * FROM t"));
+
+        return stmt.getResultSet();
+    }
+
+    private static Object[] getRow(int i) {
+        byte[] bytes = new byte[i % 13];
+
+        Arrays.fill(bytes, (byte) i);
+
+        return new Object[] {
+            i % 7 == 3 ? null : new Integer(i),
+            i % 5 == 1 ? null : new Long((long) i << 33),
+            new Integer(i & 0xFF),
+            Boolean.valueOf(i % 2 == 0),
+            i % 9 == 4 ? null : new Double(i / 4.0),
+            i % 11 == 2 ? null : "row " + i,
+            i % 3 == 2 ? null : bytes
+        };
+    }
+
+    private static void assertRow(ResultSet rs, int i) throws SQLException {
+        Object[] expected = getRow(i);
+
+        assertEquals(expected[0], rs.getObject(1));
+        assertEquals(i % 7 == 3 ? 0 : i, rs.getInt(1));
+        assertEquals(i % 7 == 3, rs.wasNull());
+        assertEquals(i % 5 == 1 ? 0 : (long) i << 33, rs.getLong(2));
+        assertEquals(expected[1], rs.getObject(2));
+        assertEquals(i & 0xFF, rs.getInt(3));
+        assertEquals(expected[3], rs.getObject(4));
+        assertEquals(i % 9 == 4 ? 0 : i / 4.0, rs.getDouble(5), 0);
+        assertEquals(expected[4], rs.getObject(5));
+        assertEquals(expected[5], rs.getString(6));
+        assertTrue(Arrays.equals((byte[]) expected[6], rs.getBytes(7)));
+    }
+}
@@ -0,0 +1,74 @@
+// jTDS JDBC Driver for Microsoft SQL Server and Sybase
+// Copyright (C) 2004 The jTDS Project
+//
+// This library is free software; you can redistribute it and/or
+// modify it under the terms of the GNU Lesser General Public
+// License as published by the Free Software Foundation; either
+// version 2.1 of the License, or (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+//
+package net.sourceforge.jtds.jdbc;
+
+import junit.framework.TestCase;
+
+import net.sourceforge.jtds.jdbc.cache.ConcurrentLRUCache;
+
+/**
+ * Unit tests for the {@link ConcurrentLRUCache} class.
+ */
+public class ConcurrentLRUCacheUnitTest extends TestCase {
+
+    public ConcurrentLRUCacheUnitTest(String name) {
+        super(name);
+    }
+
+    /**
+     * Test that recently used entries survive an eviction triggered by the
+     * capacity limit.
+     */
+    public void testCapacityEviction() {
+        ConcurrentLRUCache<Integer, String> cache = new ConcurrentLRUCache<Integer, String>(16, Long.MAX_VALUE);
+
+        for (int i = 0; i < 16; i++) {
+            cache.put(new Integer(i), "v" + i, 1);
+        }
+
+        // touch the oldest entry so it's no longer the least recently used
+        assertEquals("v0", cache.get(new Integer(0)));
+        cache.put(new Integer(100), "v100", 1);
+
+        assertTrue(cache.size() <= 16);
+        assertTrue(cache.getEvictionCount() > 0);
+        assertEquals("v0", cache.get(new Integer(0)));
+        assertNull(cache.get(new Integer(1)));
+        assertEquals("v100", cache.get(new Integer(100)));
+        assertEquals(3, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+    }
+
+    /**
+     * Test the weight limit and that replacing an entry updates the weight.
+     */
+    public void testWeightEviction() {
+        ConcurrentLRUCache<String, String> cache = new ConcurrentLRUCache<String, String>(1000, 100);
+
+        cache.put("a", "a", 40);
+        cache.put("a", "a", 30);
+        assertEquals(30, cache.getWeight());
+
+        cache.put("b", "b", 40);
+        cache.put("c", "c", 40);
+
+        assertTrue(cache.getWeight() <= 100);
+        assertNull(cache.get("a"));
+        assertEquals("c", cache.get("c"));
+    }
+}
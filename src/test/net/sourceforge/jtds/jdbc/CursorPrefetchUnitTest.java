@@ -0,0 +1,201 @@
+// jTDS JDBC Driver for Microsoft SQL Server and Sybase
+// Copyright (C) 2004 The jTDS Project
+//
+// This library is free software; you can redistribute it and/or
+// modify it under the terms of the GNU Lesser General Public
+// License as published by the Free Software Foundation; either
+// version 2.1 of the License, or (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+//
+package net.sourceforge.jtds.jdbc;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * Unit tests for the <code>cursorPrefetch</code> connection property, run
+ * against the {@link FakeTdsServer}.
+ */
+public class CursorPrefetchUnitTest extends UnitTestBase {
+    private static final int ROWS = 3000;
+
+    private FakeTdsServer server;
+
+    public CursorPrefetchUnitTest(String name) {
+        super(name);
+    }
+
+    public void setUp() throws Exception {
+        Class.forName(Driver.class.getName());
+        server = new FakeTdsServer();
+        server.setResult("SELECT * FROM t", FakeTdsServer.Result.generated(2, ROWS));
+        server.setResult("SELECT * FROM u", FakeTdsServer.Result.generated(1, 5));
+    }
+
+    public void tearDown() throws Exception {
+        server.close();
+    }
+
+    /**
+     * Test that without prefetching a block of rows is fetched only when
+     * it's needed.
+     */
+    public void testNoPrefetch() throws Exception {
+        Connection con = connect(false);
+        ResultSet rs = con.createStatement().executeQuery("SELECT * FROM t");
+
+        assertTrue(rs instanceof MSCursorResultSet);
+        // the first block is fetched with the cursor open
+        assertTrue(rs.next());
+        assertEquals(0, server.getCursorFetchCount());
+
+        assertRows(rs, 1);
+        assertEquals(100, rs.getFetchSize());
+        con.close();
+    }
+
+    /**
+     * Test that the next block of rows is requested before the application
+     * needs it.
+     */
+    public void testPrefetch() throws Exception {
+        Connection con = connect(true);
+        ResultSet rs = con.createStatement().executeQuery("SELECT * FROM t");
+
+        assertTrue(rs instanceof MSCursorResultSet);
+        waitForFetches(1);
+
+        assertTrue(rs.next());
+        assertRows(rs, 1);
+        con.close();
+    }
+
+    /**
+     * Test that the fetch size grows if the application waits for the
+     * prefetched rows.
+     */
+    public void testAdaptiveFetchSize() throws Exception {
+        Connection con = connect(true);
+        ResultSet rs = con.createStatement().executeQuery("SELECT * FROM t");
+
+        server.setResponseDelay(20);
+        assertTrue(rs.next());
+        assertRows(rs, 1);
+
+        assertTrue(rs.getFetchSize() > 100);
+        // fewer round trips than with a fixed fetch size
+        assertTrue(server.getCursorFetchCount() < (ROWS - 100) / 100);
+        con.close();
+    }
+
+    /**
+     * Test that a fetch size set by the application doesn't change.
+     */
+    public void testFixedFetchSize() throws Exception {
+        Connection con = connect(true);
+        Statement stmt = con.createStatement();
+
+        stmt.setFetchSize(50);
+
+        ResultSet rs = stmt.executeQuery("SELECT * FROM t");
+
+        server.setResponseDelay(5);
+        assertTrue(rs.next());
+        assertRows(rs, 1);
+
+        assertEquals(50, rs.getFetchSize());
+        con.close();
+    }
+
+    /**
+     * Test that the prefetched rows are kept while other statements of the
+     * connection are executed.
+     */
+    public void testOtherStatement() throws Exception {
+        Connection con = connect(true);
+        ResultSet rs = con.createStatement().executeQuery("SELECT * FROM t");
+
+        for (int row = 0; row < 150; row++) {
+            assertTrue(rs.next());
+            assertEquals(row * 2, rs.getInt(1));
+
+            if (row % 50 == 0) {
+                assertEquals(5, count(con.createStatement().executeQuery("SELECT * FROM u")));
+            }
+        }
+
+        assertRows(rs, 150);
+        con.close();
+    }
+
+    /**
+     * Test that closing a result set with a pending prefetch leaves the
+     * statement usable.
+     */
+    public void testClose() throws Exception {
+        Connection con = connect(true);
+        Statement stmt = con.createStatement();
+        ResultSet rs = stmt.executeQuery("SELECT * FROM t");
+
+        assertTrue(rs.next());
+        rs.close();
+
+        assertEquals(5, count(stmt.executeQuery("SELECT * FROM u")));
+        rs = stmt.executeQuery("SELECT * FROM t");
+        assertEquals(ROWS, count(rs));
+        con.close();
+    }
+
+    private Connection connect(boolean prefetch) throws SQLException {
+        return DriverManager.getConnection(server.getUrl(
+                ";useCursors=true;cursorPrefetch=" + prefetch));
+    }
+
+    /**
+     * Waits until the server received a number of fetch calls.
+     */
+    private void waitForFetches(int fetches) throws InterruptedException {
+        for (int i = 0; i < 500 && server.getCursorFetchCount() < fetches; i++) {
+            Thread.sleep(10);
+        }
+
+        assertEquals(fetches, server.getCursorFetchCount());
+    }
+
+    /**
+     * Checks the current and all following rows.
+     *
+     * @param row the number of the current row
+     */
+    private static void assertRows(ResultSet rs, int row) throws SQLException {
+        do {
+            assertEquals((row - 1) * 2, rs.getInt(1));
+            assertEquals("row " + (row - 1) + " column 1", rs.getString(2));
+            row++;
+        } while (rs.next());
+
+        assertEquals(ROWS + 1, row);
+    }
+
+    private static int count(ResultSet rs) throws SQLException {
+        int rows = 0;
+
+        while (rs.next()) {
+            rows++;
+        }
+        rs.close();
+
+        return rows;
+    }
+}
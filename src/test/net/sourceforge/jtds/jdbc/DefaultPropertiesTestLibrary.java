@@ -416,6 +416,19 @@ public abstract class DefaultPropertiesTestLibrary extends TestCase {
         }
     }
 
+    /**
+     * Test the <code>cursorPrefetch</code> property.
+     */
+    public void test_cursorPrefetch() {
+        String fieldName = "cursorPrefetch";
+        String messageKey = Driver.CURSORPREFETCH;
+        String expectedValue = DefaultProperties.CURSOR_PREFETCH;
+        assertDefaultPropertyByServerType(URL_SQLSERVER, messageKey, fieldName, expectedValue);
+        if (!isOnlySqlServerTests()) {
+            assertDefaultPropertyByServerType(URL_SYBASE, messageKey, fieldName, expectedValue);
+        }
+    }
+
     /**
      * Test the <code>tcpNoDelay</code> property.
      */
@@ -429,6 +442,45 @@ public abstract class DefaultPropertiesTestLibrary extends TestCase {
         }
     }
 
+    /**
+     * Test the <code>statementCache</code> property.
+     */
+    public void test_statementCache() {
+        String fieldName = "statementCachePolicy";
+        String messageKey = Driver.STATEMENTCACHE;
+        String expectedValue = DefaultProperties.STATEMENT_CACHE;
+        assertDefaultPropertyByServerType(URL_SQLSERVER, messageKey, fieldName, expectedValue);
+        if (!isOnlySqlServerTests()) {
+            assertDefaultPropertyByServerType(URL_SYBASE, messageKey, fieldName, expectedValue);
+        }
+    }
+
+    /**
+     * Test the <code>streamLOBs</code> property.
+     */
+    public void test_streamLOBs() {
+        String fieldName = "streamLOBs";
+        String messageKey = Driver.STREAMLOBS;
+        String expectedValue = DefaultProperties.STREAM_LOBS;
+        assertDefaultPropertyByServerType(URL_SQLSERVER, messageKey, fieldName, expectedValue);
+        if (!isOnlySqlServerTests()) {
+            assertDefaultPropertyByServerType(URL_SYBASE, messageKey, fieldName, expectedValue);
+        }
+    }
+
+    /**
+     * Test the <code>streamResults</code> property.
+     */
+    public void test_streamResults() {
+        String fieldName = "streamResults";
+        String messageKey = Driver.STREAMRESULTS;
+        String expectedValue = DefaultProperties.STREAM_RESULTS;
+        assertDefaultPropertyByServerType(URL_SQLSERVER, messageKey, fieldName, expectedValue);
+        if (!isOnlySqlServerTests()) {
+            assertDefaultPropertyByServerType(URL_SYBASE, messageKey, fieldName, expectedValue);
+        }
+    }
+
     /**
      * Test the <code>useCursors</code> property.
      */
@@ -469,6 +521,19 @@ public abstract class DefaultPropertiesTestLibrary extends TestCase {
         }
     }
 
+    /**
+     * Test the <code>useNIO</code> property.
+     */
+    public void test_useNIO() {
+        String fieldName = "useNIO";
+        String messageKey = Driver.USENIO;
+        String expectedValue = DefaultProperties.USENIO;
+        assertDefaultPropertyByServerType(URL_SQLSERVER, messageKey, fieldName, expectedValue);
+        if (!isOnlySqlServerTests()) {
+            assertDefaultPropertyByServerType(URL_SYBASE, messageKey, fieldName, expectedValue);
+        }
+    }
+
     /**
      * Test the <code>wsid</code> property.
      */
@@ -24,6 +24,7 @@ import net.sourceforge.jtds.jdbc.DefaultProperties;
 import net.sourceforge.jtds.jdbc.Driver;
 import net.sourceforge.jtds.jdbc.Messages;
 import net.sourceforge.jtds.jdbc.TdsCore;
+import net.sourceforge.jtds.jdbc.cache.ProcedureCache;
 
 import java.sql.DriverPropertyInfo;
 import java.sql.SQLException;
@@ -191,6 +192,11 @@ public class DriverUnitTest extends UnitTestBase {
             DefaultProperties.TDS_VERSION_70,
             DefaultProperties.TDS_VERSION_80,
         };
+        String[] expectedStatementCacheChoices = new String[]{
+            ProcedureCache.LRU,
+            ProcedureCache.FIFO,
+            ProcedureCache.LFU
+        };
 
         Map expectedChoicesMap = new HashMap();
         expectedChoicesMap.put(Messages.get(Driver.LASTUPDATECOUNT), expectedBooleanChoices);
@@ -200,8 +206,13 @@ public class DriverUnitTest extends UnitTestBase {
         expectedChoicesMap.put(Messages.get(Driver.TDS), expectedTdsChoices);
         expectedChoicesMap.put(Messages.get(Driver.SENDSTRINGPARAMETERSASUNICODE), expectedBooleanChoices);
         expectedChoicesMap.put(Messages.get(Driver.CACHEMETA), expectedBooleanChoices);
+        expectedChoicesMap.put(Messages.get(Driver.CURSORPREFETCH), expectedBooleanChoices);
         expectedChoicesMap.put(Messages.get(Driver.USECURSORS), expectedBooleanChoices);
         expectedChoicesMap.put(Messages.get(Driver.USELOBS), expectedBooleanChoices);
+        expectedChoicesMap.put(Messages.get(Driver.STREAMLOBS), expectedBooleanChoices);
+        expectedChoicesMap.put(Messages.get(Driver.STREAMRESULTS), expectedBooleanChoices);
+        expectedChoicesMap.put(Messages.get(Driver.STATEMENTCACHE), expectedStatementCacheChoices);
+        expectedChoicesMap.put(Messages.get(Driver.USENIO), expectedBooleanChoices);
 
         final Map infoMap = new HashMap();
         loadDriverPropertyInfoMap(infoMap);
@@ -0,0 +1,1721 @@
+// jTDS JDBC Driver for Microsoft SQL Server and Sybase
+// Copyright (C) 2004 The jTDS Project
+//
+// This library is free software; you can redistribute it and/or
+// modify it under the terms of the GNU Lesser General Public
+// License as published by the Free Software Foundation; either
+// version 2.1 of the License, or (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+//
+package net.sourceforge.jtds.jdbc;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-process stand-in for a SQL Server, speaking enough of TDS 7.0/7.1 to
+ * run the driver without a database, e.g. for performance tests.
+ * <p/>
+ * Implementation notes:
+ * <ol>
+ *   <li>The server accepts the pre-login and login requests of any user,
+ *     encryption is not supported. Clients requesting a newer protocol
+ *     version are answered with TDS 7.1.
+ *   <li>Language batches and the RPCs <code>sp_executesql</code>,
+ *     <code>sp_prepare</code>, <code>sp_prepexec</code>,
+ *     <code>sp_execute</code> and <code>sp_unprepare</code> are answered
+ *     with the {@link Result} registered for the SQL statement (see
+ *     {@link #setResult}), an update count of 0 if there is none. Calls of
+ *     temporary procedures created by the driver are looked up by the
+ *     procedure body, other stored procedures by name.
+ *   <li>The column metadata of results is suppressed for RPCs sent with
+ *     the no metadata option, see {@link #getNoMetaDataCount}.
+ *   <li>Fast forward only, read only server cursors are supported:
+ *     <code>sp_cursoropen</code> (with auto fetch),
+ *     <code>sp_cursorfetch</code> with <code>FETCH_FIRST</code>,
+ *     <code>FETCH_NEXT</code> and <code>FETCH_INFO</code> and
+ *     <code>sp_cursorclose</code>. Other cursors are rejected with an error
+ *     the driver answers by falling back to a direct select.
+ *   <li>Rows received by bulk load requests are decoded and kept, see
+ *     {@link #getBulkRows}; the preceding <code>INSERT BULK</code>
+ *     statement is answered like any other language batch.
+ *   <li>Rows of generated results are created while they are sent, so
+ *     results of any size can be returned without using memory.
+ *   <li>Each client connection is served by its own daemon thread, requests
+ *     are processed in order.
+ * </ol>
+ */
+public class FakeTdsServer {
+    /** Column type <code>int</code>. */
+    public static final int INT = 1;
+    /** Column type <code>bigint</code>. */
+    public static final int BIGINT = 2;
+    /** Column type <code>tinyint</code>. */
+    public static final int TINYINT = 3;
+    /** Column type <code>bit</code>. */
+    public static final int BIT = 4;
+    /** Column type <code>float</code>. */
+    public static final int FLOAT = 5;
+    /** Column type <code>nvarchar(64)</code>. */
+    public static final int NVARCHAR = 6;
+    /** Column type <code>varbinary(64)</code>. */
+    public static final int VARBINARY = 7;
+    /** Column type <code>image</code>. */
+    public static final int IMAGE = 8;
+    /** Column type <code>ntext</code>. */
+    public static final int NTEXT = 9;
+
+    // Packet types
+    private static final int QUERY_PKT    = 1;
+    private static final int RPC_PKT      = 3;
+    private static final int REPLY_PKT    = 4;
+    private static final int CANCEL_PKT   = 6;
+    private static final int BULK_PKT     = 7;
+    private static final int MSLOGIN_PKT  = 16;
+    private static final int PRELOGIN_PKT = 18;
+
+    // Tokens
+    private static final int RETURNSTATUS_TOKEN = 0x79;
+    private static final int COLMETADATA_TOKEN  = 0x81;
+    private static final int ERROR_TOKEN        = 0xAA;
+    private static final int RETURNVALUE_TOKEN  = 0xAC;
+    private static final int LOGINACK_TOKEN     = 0xAD;
+    private static final int COLINFO_TOKEN      = 0xA5;
+    private static final int ROW_TOKEN          = 0xD1;
+    private static final int ENVCHANGE_TOKEN    = 0xE3;
+    private static final int DONE_TOKEN         = 0xFD;
+    private static final int DONEPROC_TOKEN     = 0xFE;
+    private static final int DONEINPROC_TOKEN   = 0xFF;
+
+    // DONE status bits
+    private static final int DONE_MORE  = 0x01;
+    private static final int DONE_ERROR = 0x02;
+    private static final int DONE_COUNT = 0x10;
+    private static final int DONE_ATTN  = 0x20;
+
+    /** Collation sent to clients, Latin1_General_CI_AS. */
+    private static final byte[] COLLATION = {0x09, 0x04, (byte) 0xD0, 0x00, 0x34};
+
+    /** Names of the procedures with TDS 8 shortcut IDs. */
+    private static final String[] SP_NAMES = {
+        null, "sp_cursor", "sp_cursoropen", "sp_cursorprepare",
+        "sp_cursorexecute", "sp_cursorprepexec", "sp_cursorunprepare",
+        "sp_cursorfetch", "sp_cursoroption", "sp_cursorclose",
+        "sp_executesql", "sp_prepare", "sp_execute", "sp_prepexec",
+        "sp_prepexecrpc", "sp_unprepare"
+    };
+
+    /** Maximum length of the values of <code>NVARCHAR</code> columns. */
+    private static final int NVARCHAR_LEN = 64;
+    /** Maximum length of the values of <code>VARBINARY</code> columns. */
+    private static final int VARBINARY_LEN = 64;
+
+    /**
+     * Result of a SQL statement or stored procedure: a result set, an update
+     * count or an error.
+     */
+    public static final class Result {
+        final String[] names;
+        final int[] types;
+        final int rowCount;
+        final Object[][] rows;
+        final int updateCount;
+        final int errorNumber;
+        final String errorMessage;
+
+        private Result(String[] names, int[] types, int rowCount, Object[][] rows,
+                       int updateCount, int errorNumber, String errorMessage) {
+            this.names = names;
+            this.types = types;
+            this.rowCount = rowCount;
+            this.rows = rows;
+            this.updateCount = updateCount;
+            this.errorNumber = errorNumber;
+            this.errorMessage = errorMessage;
+        }
+
+        /**
+         * Creates a result consisting of an update count.
+         *
+         * @param count the update count or -1 for none
+         */
+        public static Result update(int count) {
+            return new Result(null, null, 0, null, count, 0, null);
+        }
+
+        /**
+         * Creates a result consisting of a server error.
+         *
+         * @param number  the error number
+         * @param message the error message
+         */
+        public static Result error(int number, String message) {
+            return new Result(null, null, 0, null, -1, number, message);
+        }
+
+        /**
+         * Creates a result set with fixed content.
+         *
+         * @param names the column names
+         * @param types the column types, e.g. {@link FakeTdsServer#INT}
+         * @param rows  the column values, <code>null</code> values are
+         *              returned as <code>NULL</code>
+         */
+        public static Result rows(String[] names, int[] types, Object[][] rows) {
+            return new Result(names, types, rows.length, rows, -1, 0, null);
+        }
+
+        /**
+         * Creates a result set with generated content, the column types
+         * cycle through <code>INT</code>, <code>NVARCHAR</code>,
+         * <code>BIGINT</code> and <code>FLOAT</code>.
+         *
+         * @param columns the number of columns
+         * @param rows    the number of rows
+         */
+        public static Result generated(int columns, int rows) {
+            int[] cycle = {INT, NVARCHAR, BIGINT, FLOAT};
+            int[] types = new int[columns];
+
+            for (int i = 0; i < columns; i++) {
+                types[i] = cycle[i % cycle.length];
+            }
+
+            return generated(types, rows);
+        }
+
+        /**
+         * Creates a result set with generated content.
+         *
+         * @param types the column types
+         * @param rows  the number of rows
+         */
+        public static Result generated(int[] types, int rows) {
+            String[] names = new String[types.length];
+
+            for (int i = 0; i < types.length; i++) {
+                names[i] = "c" + (i + 1);
+            }
+
+            return new Result(names, types, rows, null, -1, 0, null);
+        }
+
+        /**
+         * Retrieves the value of a column, generating it if required.
+         */
+        Object getValue(int row, int col) {
+            if (rows != null) {
+                return rows[row][col];
+            }
+
+            switch (types[col]) {
+                case INT:
+                    return new Integer(row * types.length + col);
+                case BIGINT:
+                    return new Long(((long) row << 32) | col);
+                case TINYINT:
+                    return new Integer(row & 0xFF);
+                case BIT:
+                    return Boolean.valueOf((row & 1) != 0);
+                case FLOAT:
+                    return new Double(row + col / 8.0);
+                case NVARCHAR:
+                case NTEXT:
+                    return "row " + row + " column " + col;
+                default:
+                    byte[] value = new byte[16];
+                    for (int i = 0; i < value.length; i++) {
+                        value[i] = (byte) (row + col + i);
+                    }
+                    return value;
+            }
+        }
+    }
+
+    /** The listening socket. */
+    private final ServerSocket serverSocket;
+    /** The results registered for SQL statements and procedure names. */
+    private final Map results = new LinkedHashMap();
+    /** The number of times each registered result has been returned. */
+    private final Map executions = new HashMap();
+    /** The open client connections. */
+    private final List clients = new ArrayList();
+    /** Prepared statement handle counter, shared by all connections. */
+    private final AtomicInteger lastHandle = new AtomicInteger();
+    /** Number of requests processed. */
+    private final AtomicLong requests = new AtomicLong();
+    /** Number of packets sent. */
+    private final AtomicLong packetsSent = new AtomicLong();
+    /** Number of connections accepted. */
+    private final AtomicInteger connections = new AtomicInteger();
+    /** The rows received by bulk load requests. */
+    private final List bulkRows = new ArrayList();
+    /** The SQL of the language batches received. */
+    private final List batches = new ArrayList();
+    /** Number of connection resets requested by clients. */
+    private final AtomicInteger resets = new AtomicInteger();
+    /** Number of statements prepared by clients. */
+    private final AtomicInteger prepares = new AtomicInteger();
+    /** Number of prepared statement handles released by clients. */
+    private final AtomicInteger unprepares = new AtomicInteger();
+    /** Incremented to make all connections forget their prepared statements. */
+    private final AtomicInteger preparedGeneration = new AtomicInteger();
+    /** Number of <code>sp_cursorfetch</code> calls fetching rows. */
+    private final AtomicInteger cursorFetches = new AtomicInteger();
+    /** Number of results sent without column metadata. */
+    private final AtomicInteger noMetaDataResults = new AtomicInteger();
+    /** Delay before each request is processed in milliseconds. */
+    private volatile int responseDelay;
+
+    /**
+     * Creates a server listening on an ephemeral port of the loopback
+     * interface and starts accepting connections.
+     *
+     * @throws IOException if the server socket cannot be created
+     */
+    public FakeTdsServer() throws IOException {
+        serverSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+
+        Thread acceptor = new Thread("FakeTdsServer acceptor") {
+            public void run() {
+                accept();
+            }
+        };
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    /**
+     * Retrieves the port the server listens on.
+     */
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * Retrieves a jTDS URL connecting to this server.
+     *
+     * @param properties additional URL properties, e.g.
+     *                   <code>";prepareSQL=3"</code>, or an empty string
+     */
+    public String getUrl(String properties) {
+        return "jdbc:jtds:sqlserver://127.0.0.1:" + getPort() + "/fake;user=fake;password=fake" + properties;
+    }
+
+    /**
+     * Registers the result returned for a SQL statement or procedure name.
+     * Statements are matched exactly (ignoring leading and trailing
+     * whitespace) or, if there's no exact match, by prefix in registration
+     * order. Prepared statements are matched with the parameter markers
+     * replaced by <code>@P0</code>, <code>@P1</code> and so on.
+     *
+     * @param sql    the SQL statement, a prefix of it or the procedure name
+     * @param result the result to return
+     */
+    public void setResult(String sql, Result result) {
+        synchronized (results) {
+            results.put(sql.trim(), result);
+            executions.put(sql.trim(), new AtomicLong());
+        }
+    }
+
+    /**
+     * Retrieves the number of requests (language batches, RPCs and cancel
+     * requests) processed so far.
+     */
+    public long getRequestCount() {
+        return requests.get();
+    }
+
+    /**
+     * Retrieves the number of times the result registered for a statement
+     * has been returned.
+     *
+     * @param sql the statement as passed to {@link #setResult}
+     */
+    public long getExecutionCount(String sql) {
+        synchronized (results) {
+            AtomicLong count = (AtomicLong) executions.get(sql.trim());
+
+            return count == null ? 0 : count.get();
+        }
+    }
+
+    /**
+     * Retrieves the rows received by bulk load requests so far.
+     *
+     * @return a list of <code>Object[]</code> rows, values decoded like RPC
+     *         parameters
+     */
+    public List getBulkRows() {
+        synchronized (bulkRows) {
+            return new ArrayList(bulkRows);
+        }
+    }
+
+    /**
+     * Retrieves the SQL of the language batches received so far.
+     *
+     * @return a list of <code>String</code>s
+     */
+    public List getBatches() {
+        synchronized (batches) {
+            return new ArrayList(batches);
+        }
+    }
+
+    /**
+     * Retrieves the number of TDS packets sent so far.
+     */
+    public long getPacketCount() {
+        return packetsSent.get();
+    }
+
+    /**
+     * Retrieves the number of connections accepted so far.
+     */
+    public int getConnectionCount() {
+        return connections.get();
+    }
+
+    /**
+     * Retrieves the number of requests received with the RESETCONNECTION
+     * status bit set.
+     */
+    public int getResetCount() {
+        return resets.get();
+    }
+
+    /**
+     * Retrieves the number of statements prepared by <code>sp_prepare</code>
+     * or <code>sp_prepexec</code> so far.
+     */
+    public int getPrepareCount() {
+        return prepares.get();
+    }
+
+    /**
+     * Retrieves the number of prepared statement handles released by
+     * <code>sp_unprepare</code> so far, whether called as an RPC or from a
+     * SQL batch.
+     */
+    public int getUnprepareCount() {
+        return unprepares.get();
+    }
+
+    /**
+     * Makes all connections forget their prepared statements before their
+     * next request, so releasing the old handles fails.
+     */
+    public void forgetPrepared() {
+        preparedGeneration.incrementAndGet();
+    }
+
+    /**
+     * Retrieves the number of <code>sp_cursorfetch</code> calls fetching
+     * rows so far.
+     */
+    public int getCursorFetchCount() {
+        return cursorFetches.get();
+    }
+
+    /**
+     * Retrieves the number of results sent without column metadata so far,
+     * because the RPC was sent with the no metadata option.
+     */
+    public int getNoMetaDataCount() {
+        return noMetaDataResults.get();
+    }
+
+    /**
+     * Sets a delay before each request is processed, to simulate a slow
+     * server or network.
+     *
+     * @param millis the delay in milliseconds, 0 for none
+     */
+    public void setResponseDelay(int millis) {
+        responseDelay = millis;
+    }
+
+    /**
+     * Stops the server and closes all client connections.
+     */
+    public void close() {
+        try {
+            serverSocket.close();
+        } catch (IOException e) {
+            // Ignore
+        }
+
+        synchronized (clients) {
+            for (Iterator it = clients.iterator(); it.hasNext();) {
+                try {
+                    ((Socket) it.next()).close();
+                } catch (IOException e) {
+                    // Ignore
+                }
+            }
+            clients.clear();
+        }
+    }
+
+    /**
+     * Accepts client connections until the server socket is closed.
+     */
+    private void accept() {
+        try {
+            while (true) {
+                final Socket socket = serverSocket.accept();
+
+                socket.setTcpNoDelay(true);
+                connections.incrementAndGet();
+
+                synchronized (clients) {
+                    clients.add(socket);
+                }
+
+                Thread worker = new Thread("FakeTdsServer connection " + connections.get()) {
+                    public void run() {
+                        try {
+                            new Session(socket).run();
+                        } catch (IOException e) {
+                            // Connection closed or protocol error, drop it
+                        } finally {
+                            try {
+                                socket.close();
+                            } catch (IOException e) {
+                                // Ignore
+                            }
+                            synchronized (clients) {
+                                clients.remove(socket);
+                            }
+                        }
+                    }
+                };
+                worker.setDaemon(true);
+                worker.start();
+            }
+        } catch (IOException e) {
+            // Server socket closed
+        }
+    }
+
+    /**
+     * Looks up the result registered for a statement or procedure.
+     */
+    Result lookup(String sql) {
+        String key = sql.trim();
+
+        synchronized (results) {
+            Result result = (Result) results.get(key);
+
+            if (result != null) {
+                ((AtomicLong) executions.get(key)).incrementAndGet();
+                return result;
+            }
+
+            for (Iterator it = results.entrySet().iterator(); it.hasNext();) {
+                Map.Entry entry = (Map.Entry) it.next();
+
+                if (key.startsWith((String) entry.getKey())) {
+                    ((AtomicLong) executions.get(entry.getKey())).incrementAndGet();
+                    return (Result) entry.getValue();
+                }
+            }
+        }
+
+        if (key.toUpperCase().startsWith("SELECT @@MAX_PRECISION")) {
+            // first statement of the driver's connection initialization
+            return Result.rows(new String[] {""}, new int[] {TINYINT},
+                               new Object[][] {{new Integer(38)}});
+        }
+
+        return Result.update(0);
+    }
+
+    /**
+     * Encodes a string as UCS-2, leaving unpaired surrogates unchanged.
+     */
+    private static byte[] toUcs2(String value) {
+        byte[] data = new byte[value.length() * 2];
+
+        for (int i = 0; i < value.length(); i++) {
+            data[i * 2] = (byte) value.charAt(i);
+            data[i * 2 + 1] = (byte) (value.charAt(i) >> 8);
+        }
+
+        return data;
+    }
+
+    /**
+     * Little endian reader for a request payload.
+     */
+    private static final class Payload {
+        final byte[] data;
+        int pos;
+
+        Payload(byte[] data) {
+            this.data = data;
+        }
+
+        boolean hasMore() {
+            return pos < data.length;
+        }
+
+        int peek() {
+            return data[pos] & 0xFF;
+        }
+
+        int u8() {
+            return data[pos++] & 0xFF;
+        }
+
+        int u16() {
+            return u8() | u8() << 8;
+        }
+
+        int i32() {
+            return u16() | u16() << 16;
+        }
+
+        long i64() {
+            return (i32() & 0xFFFFFFFFL) | (long) i32() << 32;
+        }
+
+        byte[] bytes(int len) {
+            byte[] value = new byte[len];
+            System.arraycopy(data, pos, value, 0, len);
+            pos += len;
+            return value;
+        }
+
+        String ucs2(int chars) {
+            char[] value = new char[chars];
+            for (int i = 0; i < chars; i++) {
+                value[i] = (char) u16();
+            }
+            return new String(value);
+        }
+    }
+
+    /**
+     * Writes response tokens, split into TDS packets of the negotiated size.
+     */
+    private final class TdsWriter {
+        private final OutputStream out;
+        private byte[] buf;
+        private int pos = SharedSocket.TDS_HDR_LEN;
+        private int packetId;
+
+        TdsWriter(OutputStream out, int packetSize) {
+            this.out = out;
+            buf = new byte[packetSize];
+        }
+
+        void setPacketSize(int packetSize) {
+            buf = new byte[packetSize];
+        }
+
+        void b(int value) throws IOException {
+            if (pos == buf.length) {
+                sendPacket(false);
+            }
+            buf[pos++] = (byte) value;
+        }
+
+        void s(int value) throws IOException {
+            b(value);
+            b(value >> 8);
+        }
+
+        void i(int value) throws IOException {
+            s(value);
+            s(value >> 16);
+        }
+
+        void l(long value) throws IOException {
+            i((int) value);
+            i((int) (value >> 32));
+        }
+
+        void bytes(byte[] value) throws IOException {
+            for (int i = 0; i < value.length; i++) {
+                b(value[i]);
+            }
+        }
+
+        void ucs2(String value) throws IOException {
+            for (int i = 0; i < value.length(); i++) {
+                s(value.charAt(i));
+            }
+        }
+
+        void bVarchar(String value) throws IOException {
+            b(value.length());
+            ucs2(value);
+        }
+
+        void end() throws IOException {
+            sendPacket(true);
+        }
+
+        private void sendPacket(boolean last) throws IOException {
+            buf[0] = (byte) REPLY_PKT;
+            buf[1] = (byte) (last ? 1 : 0);
+            buf[2] = (byte) (pos >> 8);
+            buf[3] = (byte) pos;
+            buf[4] = 0;
+            buf[5] = 0;
+            buf[6] = (byte) ++packetId;
+            buf[7] = 0;
+            out.write(buf, 0, pos);
+            packetsSent.incrementAndGet();
+            pos = SharedSocket.TDS_HDR_LEN;
+
+            if (last) {
+                out.flush();
+                packetId = 0;
+            }
+        }
+    }
+
+    /**
+     * The state of a client connection.
+     */
+    private final class Session {
+        private final DataInputStream in;
+        private final TdsWriter out;
+        /** <code>true</code> once TDS 7.1 has been negotiated. */
+        private boolean tds71;
+        /** The prepared statements of this connection. */
+        private final Map prepared = new HashMap();
+        /** The value of {@link #preparedGeneration} seen last. */
+        private int generation = preparedGeneration.get();
+        /** The temporary procedures of this connection, name to body. */
+        private final Map procedures = new HashMap();
+        /** The open cursors of this connection, handle to {@link Cursor}. */
+        private final Map cursors = new HashMap();
+        /** Type of the last request read. */
+        private int requestType;
+        /** <code>true</code> if the current RPC suppresses column metadata. */
+        private boolean noMetaData;
+        /** <code>true</code> if the client discarded the last request. */
+        private boolean ignored;
+        /** <code>true</code> if the last request resets the connection. */
+        private boolean reset;
+        /** The session's <code>SET ROWCOUNT</code> limit, 0 for none. */
+        private int rowCountLimit;
+
+        Session(Socket socket) throws IOException {
+            in = new DataInputStream(socket.getInputStream());
+            out = new TdsWriter(socket.getOutputStream(), 4096);
+        }
+
+        void run() throws IOException {
+            byte[] request;
+
+            while ((request = readRequest()) != null) {
+                if (ignored) {
+                    // the client will send a cancel request
+                    continue;
+                }
+
+                requests.incrementAndGet();
+
+                if (generation != preparedGeneration.get()) {
+                    generation = preparedGeneration.get();
+                    prepared.clear();
+                }
+
+                if (responseDelay > 0) {
+                    try {
+                        Thread.sleep(responseDelay);
+                    } catch (InterruptedException e) {
+                        throw new InterruptedIOException();
+                    }
+                }
+
+                if (reset && (requestType == QUERY_PKT || requestType == RPC_PKT)) {
+                    resetSession();
+                }
+
+                switch (requestType) {
+                    case PRELOGIN_PKT:
+                        preLogin();
+                        break;
+                    case MSLOGIN_PKT:
+                        login(new Payload(request));
+                        break;
+                    case QUERY_PKT:
+                        String sql = new Payload(request).ucs2(request.length / 2);
+
+                        synchronized (batches) {
+                            batches.add(sql);
+                        }
+                        query(sql);
+                        out.end();
+                        break;
+                    case RPC_PKT:
+                        rpc(new Payload(request));
+                        out.end();
+                        break;
+                    case CANCEL_PKT:
+                        done(DONE_TOKEN, DONE_ATTN, 0);
+                        out.end();
+                        break;
+                    case BULK_PKT:
+                        bulkLoad(new Payload(request));
+                        out.end();
+                        break;
+                    default:
+                        error(0, "Unsupported packet type " + requestType);
+                        done(DONE_TOKEN, DONE_ERROR, 0);
+                        out.end();
+                }
+            }
+        }
+
+        /**
+         * Reads a complete request, which may span several packets.
+         *
+         * @return the request payload or <code>null</code> at end of stream
+         */
+        private byte[] readRequest() throws IOException {
+            ByteArrayOutputStream request = new ByteArrayOutputStream();
+            byte[] hdr = new byte[SharedSocket.TDS_HDR_LEN];
+
+            reset = false;
+
+            while (true) {
+                try {
+                    in.readFully(hdr);
+                } catch (IOException e) {
+                    if (request.size() == 0) {
+                        return null;
+                    }
+                    throw e;
+                }
+
+                int len = ((hdr[2] & 0xFF) << 8 | (hdr[3] & 0xFF)) - hdr.length;
+                byte[] data = new byte[len];
+
+                in.readFully(data);
+                request.write(data);
+                requestType = hdr[0];
+                ignored = (hdr[1] & 2) != 0;
+
+                if (request.size() == data.length) {
+                    reset = (hdr[1] & 8) != 0;
+                }
+
+                if ((hdr[1] & 1) != 0) {
+                    return request.toByteArray();
+                }
+            }
+        }
+
+        private void preLogin() throws IOException {
+            // version and encryption option, encryption not supported
+            out.b(0);
+            out.b(0);
+            out.b(11);
+            out.b(0);
+            out.b(6);
+            out.b(1);
+            out.b(0);
+            out.b(17);
+            out.b(0);
+            out.b(1);
+            out.b(0xFF);
+            out.bytes(new byte[] {8, 0, 1, 0x55, 0, 0});
+            out.b(2);
+            out.end();
+        }
+
+        private void login(Payload login) throws IOException {
+            login.pos = 4;
+            // the TDS version is sent little endian
+            tds71 = login.i32() != 0x70000000;
+            int packetSize = login.i32();
+
+            if (packetSize < TdsCore.MIN_PKT_SIZE || packetSize > TdsCore.MAX_PKT_SIZE) {
+                packetSize = TdsCore.DEFAULT_MIN_PKT_SIZE_TDS70;
+            }
+
+            login.pos = 68;
+            int dbPos = login.u16();
+            int dbLen = login.u16();
+            login.pos = dbPos;
+            String database = dbLen > 0 ? login.ucs2(dbLen) : "master";
+
+            envChange(1, database, "master");
+
+            if (tds71) {
+                // collation
+                out.b(ENVCHANGE_TOKEN);
+                out.s(8);
+                out.b(7);
+                out.b(COLLATION.length);
+                out.bytes(COLLATION);
+                out.b(0);
+            } else {
+                envChange(3, "iso_1", "iso_1");
+            }
+
+            String size = String.valueOf(packetSize);
+            envChange(4, size, size);
+
+            String product = "Microsoft SQL Server";
+            out.b(LOGINACK_TOKEN);
+            out.s(1 + 4 + 1 + product.length() * 2 + 4);
+            out.b(1);
+            if (tds71) {
+                out.bytes(new byte[] {0x71, 0, 0, 1});
+            } else {
+                out.bytes(new byte[] {7, 0, 0, 0});
+            }
+            out.bVarchar(product);
+            out.bytes(new byte[] {8, 0, 0x07, (byte) 0xF8});
+
+            done(DONE_TOKEN, 0, 0);
+            out.end();
+
+            out.setPacketSize(packetSize);
+        }
+
+        /**
+         * Resets the session before a request, dropping prepared statements
+         * and temporary procedures, and acknowledges the reset.
+         */
+        private void resetSession() throws IOException {
+            resets.incrementAndGet();
+            prepared.clear();
+            procedures.clear();
+            rowCountLimit = 0;
+
+            out.b(ENVCHANGE_TOKEN);
+            out.s(3);
+            out.b(18);
+            out.b(0);
+            out.b(0);
+        }
+
+        private void envChange(int type, String newValue, String oldValue)
+                throws IOException {
+            out.b(ENVCHANGE_TOKEN);
+            out.s(3 + (newValue.length() + oldValue.length()) * 2);
+            out.b(type);
+            out.bVarchar(newValue);
+            out.bVarchar(oldValue);
+        }
+
+        private void error(int number, String message) throws IOException {
+            String server = "fake";
+            out.b(ERROR_TOKEN);
+            out.s(4 + 1 + 1 + 2 + message.length() * 2 + 1 + server.length() * 2 + 1 + 2);
+            out.i(number);
+            out.b(1);
+            out.b(16);
+            out.s(message.length());
+            out.ucs2(message);
+            out.bVarchar(server);
+            out.b(0);
+            out.s(1);
+        }
+
+        private void done(int token, int status, int count) throws IOException {
+            out.b(token);
+            out.s(status);
+            out.s(0);
+            out.i(count);
+        }
+
+        /**
+         * Sends a result followed by a DONE token of the specified type.
+         */
+        private void sendResult(Result result, int doneToken, int doneStatus)
+                throws IOException {
+            if (result.errorMessage != null) {
+                error(result.errorNumber, result.errorMessage);
+                done(doneToken, doneStatus | DONE_ERROR, 0);
+            } else if (result.types != null) {
+                done(doneToken, doneStatus | DONE_COUNT, sendRows(result));
+            } else if (result.updateCount >= 0) {
+                done(doneToken, doneStatus | DONE_COUNT, result.updateCount);
+            } else {
+                done(doneToken, doneStatus, 0);
+            }
+        }
+
+        /**
+         * Sends the rows of a result, limited by <code>SET ROWCOUNT</code>.
+         *
+         * @return the number of rows sent
+         */
+        private int sendRows(Result result) throws IOException {
+            int rows = result.rowCount;
+
+            if (rowCountLimit > 0 && rowCountLimit < rows) {
+                rows = rowCountLimit;
+            }
+
+            sendColumns(result, false);
+
+            for (int row = 0; row < rows; row++) {
+                sendRow(result, row, false);
+            }
+
+            return rows;
+        }
+
+        /**
+         * Sends the column metadata of a result.
+         *
+         * @param rowStat whether to add the hidden <code>ROWSTAT</code>
+         *                column of cursor results
+         */
+        private void sendColumns(Result result, boolean rowStat)
+                throws IOException {
+            int[] types = result.types;
+            int count = rowStat ? types.length + 1 : types.length;
+
+            if (noMetaData && !rowStat) {
+                // TDS 7.1 sends an empty token, TDS 7.0 none at all
+                noMetaDataResults.incrementAndGet();
+                if (tds71) {
+                    out.b(COLMETADATA_TOKEN);
+                    out.s(0xFFFF);
+                }
+                return;
+            }
+
+            out.b(COLMETADATA_TOKEN);
+            out.s(count);
+
+            for (int i = 0; i < count; i++) {
+                if (i == types.length) {
+                    out.s(0);
+                    out.s(0);
+                    out.b(0x38);         // int
+                    out.bVarchar("ROWSTAT");
+                    break;
+                }
+
+                out.s(0);                // user type
+                out.s(1);                // flags: nullable
+                switch (types[i]) {
+                    case INT:
+                        out.b(0x26);
+                        out.b(4);
+                        break;
+                    case BIGINT:
+                        out.b(0x26);
+                        out.b(8);
+                        break;
+                    case TINYINT:
+                        out.b(0x26);
+                        out.b(1);
+                        break;
+                    case BIT:
+                        out.b(0x68);
+                        out.b(1);
+                        break;
+                    case FLOAT:
+                        out.b(0x6D);
+                        out.b(8);
+                        break;
+                    case NVARCHAR:
+                        out.b(0xE7);
+                        out.s(NVARCHAR_LEN * 2);
+                        if (tds71) {
+                            out.bytes(COLLATION);
+                        }
+                        break;
+                    case IMAGE:
+                        out.b(0x22);
+                        out.i(Integer.MAX_VALUE);
+                        out.s(1);            // table name
+                        out.ucs2("t");
+                        break;
+                    case NTEXT:
+                        out.b(0x63);
+                        out.i(Integer.MAX_VALUE - 1);
+                        if (tds71) {
+                            out.bytes(COLLATION);
+                        }
+                        out.s(1);            // table name
+                        out.ucs2("t");
+                        break;
+                    default:
+                        out.b(0xA5);
+                        out.s(VARBINARY_LEN);
+                }
+                out.bVarchar(result.names[i]);
+            }
+
+            if (rowStat) {
+                // column number, table number and status, 0x10 = hidden
+                out.b(COLINFO_TOKEN);
+                out.s(count * 3);
+                for (int i = 0; i < count; i++) {
+                    out.b(i + 1);
+                    out.b(0);
+                    out.b(i == types.length ? 0x10 : 0);
+                }
+            }
+        }
+
+        /**
+         * Sends a row of a result.
+         *
+         * @param rowStat whether to add the <code>ROWSTAT</code> value of
+         *                cursor results
+         */
+        private void sendRow(Result result, int row, boolean rowStat)
+                throws IOException {
+            int[] types = result.types;
+
+            out.b(ROW_TOKEN);
+
+            for (int col = 0; col < types.length; col++) {
+                writeValue(types[col], result.getValue(row, col));
+            }
+            if (rowStat) {
+                out.i(1);                // SQL_ROW_SUCCESS
+            }
+        }
+
+        private void writeValue(int type, Object value) throws IOException {
+            if (value == null) {
+                if (type == NVARCHAR || type == VARBINARY) {
+                    out.s(0xFFFF);
+                } else {
+                    // also the text pointer length of IMAGE and NTEXT
+                    out.b(0);
+                }
+                return;
+            }
+
+            switch (type) {
+                case INT:
+                    out.b(4);
+                    out.i(((Number) value).intValue());
+                    break;
+                case BIGINT:
+                    out.b(8);
+                    out.l(((Number) value).longValue());
+                    break;
+                case TINYINT:
+                    out.b(1);
+                    out.b(((Number) value).intValue());
+                    break;
+                case BIT:
+                    out.b(1);
+                    out.b(((Boolean) value).booleanValue() ? 1 : 0);
+                    break;
+                case FLOAT:
+                    out.b(8);
+                    out.l(Double.doubleToLongBits(((Number) value).doubleValue()));
+                    break;
+                case NVARCHAR:
+                    String s = value.toString();
+                    if (s.length() > NVARCHAR_LEN) {
+                        s = s.substring(0, NVARCHAR_LEN);
+                    }
+                    out.s(s.length() * 2);
+                    out.ucs2(s);
+                    break;
+                case IMAGE:
+                case NTEXT:
+                    byte[] data = type == IMAGE
+                            ? (byte[]) value : toUcs2(value.toString());
+                    out.b(16);           // text pointer
+                    out.bytes(new byte[16 + 8]);
+                    out.i(data.length);
+                    out.bytes(data);
+                    break;
+                default:
+                    byte[] b = (byte[]) value;
+                    out.s(Math.min(b.length, VARBINARY_LEN));
+                    for (int i = 0; i < b.length && i < VARBINARY_LEN; i++) {
+                        out.b(b[i]);
+                    }
+            }
+        }
+
+        /**
+         * Processes a language batch. Temporary procedures created by the
+         * driver (<code>prepareSQL=1</code>) are remembered so that their
+         * body is used to look up results when they are called.
+         */
+        private void query(String sql) throws IOException {
+            String trimmed = unprepare(sql.trim(), DONE_TOKEN);
+            boolean first = trimmed.length() == sql.trim().length();
+
+            if (trimmed.length() == 0) {
+                done(DONE_TOKEN, 0, 0);
+                return;
+            }
+
+            // leading SET statements, each is answered by a DONE token
+            // without a row count; SET ROWCOUNT and SET TEXTSIZE may be
+            // followed by another statement on the same line, the other
+            // options (the driver's initial settings) end with the next SET
+            // statement or the line
+            while (trimmed.regionMatches(true, 0, "SET ", 0, 4)) {
+                int end;
+
+                if (trimmed.regionMatches(true, 0, "SET ROWCOUNT ", 0, 13)
+                        || trimmed.regionMatches(true, 0, "SET TEXTSIZE ", 0, 13)) {
+                    for (end = 13; end < trimmed.length()
+                            && !Character.isWhitespace(trimmed.charAt(end)); end++);
+
+                    if (trimmed.regionMatches(true, 4, "ROWCOUNT", 0, 8)) {
+                        rowCountLimit = Integer.parseInt(trimmed.substring(13, end));
+                    }
+                } else {
+                    end = trimmed.indexOf('\n');
+
+                    int next = trimmed.toUpperCase().indexOf(" SET ", 4);
+
+                    if (next > 0 && (end < 0 || next < end)) {
+                        end = next;
+                    }
+                }
+
+                if (end == trimmed.length()) {
+                    end = -1;
+                }
+
+                trimmed = end < 0 ? "" : trimmed.substring(end).trim();
+
+                if (trimmed.length() == 0) {
+                    done(DONE_TOKEN, 0, 0);
+                    return;
+                }
+
+                done(DONE_TOKEN, DONE_MORE, 0);
+                first = false;
+            }
+
+            sql = trimmed;
+
+            if (trimmed.regionMatches(true, 0, "create proc ", 0, 12)) {
+                int end = trimmed.indexOf(' ', 12);
+                int body = trimmed.indexOf(" as ", end);
+
+                if (!first) {
+                    error(111, "'CREATE PROCEDURE' must be the first statement in a query batch.");
+                    done(DONE_TOKEN, DONE_ERROR, 0);
+                    return;
+                }
+
+                if (end > 0 && body > 0) {
+                    procedures.put(trimmed.substring(12, end), trimmed.substring(body + 4));
+                    done(DONE_TOKEN, 0, 0);
+                    return;
+                }
+            }
+
+            sendResult(lookup(sql), DONE_TOKEN, 0);
+        }
+
+        /**
+         * Executes the leading <code>EXEC sp_unprepare</code> statements of a
+         * SQL batch, as sent by the driver to release obsolete handles. An
+         * unknown handle is answered by an error and a DONE token of the
+         * given type.
+         *
+         * @return the rest of the batch
+         */
+        private String unprepare(String sql, int doneToken) throws IOException {
+            while (sql.regionMatches(true, 0, "EXEC sp_unprepare ", 0, 18)) {
+                int end = sql.indexOf('\n');
+                String handle = end < 0 ? sql.substring(18) : sql.substring(18, end);
+
+                if (prepared.remove(Integer.valueOf(handle.trim())) != null) {
+                    unprepares.incrementAndGet();
+                } else {
+                    error(8179, "Could not find prepared statement with handle " + handle.trim() + ".");
+                    done(doneToken, DONE_MORE | DONE_ERROR, 0);
+                }
+
+                sql = end < 0 ? "" : sql.substring(end).trim();
+            }
+
+            return sql;
+        }
+
+        /**
+         * Processes a (possibly batched) RPC request.
+         */
+        private void rpc(Payload rpc) throws IOException {
+            while (rpc.hasMore()) {
+                String name;
+                int nameLen = rpc.u16();
+
+                if (nameLen == 0xFFFF) {
+                    int id = rpc.u16();
+                    name = id < SP_NAMES.length ? SP_NAMES[id] : "#" + id;
+                } else {
+                    name = rpc.ucs2(nameLen);
+                }
+
+                // option flags, 0x02 = no metadata
+                noMetaData = (rpc.u16() & 0x02) != 0;
+
+                List params = new ArrayList();
+
+                while (rpc.hasMore() && rpc.peek() != 0x80 && rpc.peek() != 0xFF) {
+                    rpc.ucs2(rpc.u8()); // parameter name
+                    rpc.u8();           // status
+                    params.add(readParam(rpc));
+                }
+
+                int status = 0;
+
+                if (rpc.hasMore()) {
+                    // batch separator, more RPCs follow
+                    rpc.u8();
+                    status = rpc.hasMore() ? DONE_MORE : 0;
+                }
+
+                execute(name, params, status);
+                noMetaData = false;
+            }
+        }
+
+        private void execute(String name, List params, int doneStatus)
+                throws IOException {
+            if ("sp_executesql".equals(name)) {
+                String sql = unprepare(((String) params.get(0)).trim(), DONEINPROC_TOKEN);
+
+                if (sql.length() > 0) {
+                    sendResult(lookup(sql), DONEINPROC_TOKEN, DONE_MORE);
+                }
+                returnStatus(0);
+            } else if ("sp_prepare".equals(name) || "sp_prepexec".equals(name)) {
+                Integer handle = new Integer(lastHandle.incrementAndGet());
+                String sql = (String) params.get(2);
+
+                prepared.put(handle, sql);
+                prepares.incrementAndGet();
+
+                if ("sp_prepexec".equals(name)) {
+                    sendResult(lookup(sql), DONEINPROC_TOKEN, DONE_MORE);
+                }
+
+                returnStatus(0);
+                returnValue(handle.intValue());
+            } else if ("sp_execute".equals(name)) {
+                String sql = (String) prepared.get(params.get(0));
+
+                if (sql == null) {
+                    error(8179, "Could not find prepared statement with handle " + params.get(0) + ".");
+                    done(DONEINPROC_TOKEN, DONE_MORE | DONE_ERROR, 0);
+                } else {
+                    sendResult(lookup(sql), DONEINPROC_TOKEN, DONE_MORE);
+                }
+
+                returnStatus(0);
+            } else if ("sp_unprepare".equals(name)) {
+                if (prepared.remove(params.get(0)) != null) {
+                    unprepares.incrementAndGet();
+                }
+                returnStatus(0);
+            } else if ("sp_cursoropen".equals(name)
+                    && (((Integer) params.get(2)).intValue() & 0xFFF) == 0x10
+                    && ((Integer) params.get(3)).intValue() == 1) {
+                openCursor(params);
+            } else if ("sp_cursorfetch".equals(name)
+                    && cursors.containsKey(params.get(0))) {
+                fetchCursor((Cursor) cursors.get(params.get(0)), params);
+            } else if ("sp_cursorclose".equals(name)) {
+                cursors.remove(params.get(0));
+                returnStatus(0);
+            } else if (name.startsWith("sp_cursor")) {
+                // an error of the cursor API range, the driver falls back to
+                // a direct select
+                error(16937, name + " is not supported");
+                done(DONEINPROC_TOKEN, DONE_MORE | DONE_ERROR, 0);
+                returnStatus(1);
+            } else {
+                String body = (String) procedures.get(name);
+
+                sendResult(lookup(body != null ? body : name), DONEINPROC_TOKEN, DONE_MORE);
+                returnStatus(0);
+            }
+
+            done(DONEPROC_TOKEN, doneStatus, 0);
+        }
+
+        /**
+         * Opens a fast forward only, read only cursor. The parameters are
+         * the cursor handle, statement, scroll options, concurrency options
+         * and number of rows to fetch.
+         */
+        private void openCursor(List params) throws IOException {
+            Result result = lookup((String) params.get(1));
+            int scrollOpt = ((Integer) params.get(2)).intValue();
+
+            if (result.types == null) {
+                sendResult(result, DONEINPROC_TOKEN, DONE_MORE);
+                returnStatus(1);
+                return;
+            }
+
+            Cursor cursor = new Cursor(result);
+            Integer handle = new Integer(lastHandle.incrementAndGet());
+
+            cursors.put(handle, cursor);
+            sendColumns(result, true);
+            if ((scrollOpt & 0x2000) != 0) {
+                // auto fetch
+                done(DONEINPROC_TOKEN, DONE_MORE | DONE_COUNT,
+                        cursor.fetch(((Integer) params.get(4)).intValue()));
+            } else {
+                done(DONEINPROC_TOKEN, DONE_MORE, 0);
+            }
+
+            returnStatus(0);
+            returnValue(handle.intValue());
+            returnValue(scrollOpt & 0xFFF);
+            returnValue(1);
+            returnValue(-1);
+        }
+
+        /**
+         * Fetches rows from a cursor or returns the position of the last
+         * fetch. The parameters are the cursor handle, fetch type, row number
+         * and number of rows.
+         */
+        private void fetchCursor(Cursor cursor, List params) throws IOException {
+            int fetchType = ((Integer) params.get(1)).intValue();
+
+            if (fetchType == 256) {
+                // FETCH_INFO, the position of the last fetch and row count
+                returnStatus(0);
+                returnValue(cursor.position);
+                returnValue(-1);
+                return;
+            }
+
+            if (fetchType == 1) {
+                // FETCH_FIRST
+                cursor.next = 0;
+            } else if (fetchType != 2) {
+                error(16937, "Fetch type " + fetchType + " is not supported");
+                done(DONEINPROC_TOKEN, DONE_MORE | DONE_ERROR, 0);
+                returnStatus(1);
+                return;
+            }
+
+            cursorFetches.incrementAndGet();
+            // metadata suppressed by the client
+            out.b(COLMETADATA_TOKEN);
+            out.s(0xFFFF);
+            done(DONEINPROC_TOKEN, DONE_MORE | DONE_COUNT,
+                    cursor.fetch(((Integer) params.get(3)).intValue()));
+            returnStatus(0);
+        }
+
+        /**
+         * A fast forward only cursor.
+         */
+        private final class Cursor {
+            final Result result;
+            /** Index of the next row to fetch. */
+            int next;
+            /** Row number of the first row of the last fetch. */
+            int position;
+
+            Cursor(Result result) {
+                this.result = result;
+            }
+
+            /**
+             * Sends the next rows of the cursor.
+             *
+             * @return the number of rows sent
+             */
+            int fetch(int count) throws IOException {
+                int rows = Math.min(count, result.rowCount - next);
+
+                position = next + 1;
+                for (int i = 0; i < rows; i++) {
+                    sendRow(result, next++, true);
+                }
+
+                return rows;
+            }
+        }
+
+        /**
+         * Processes a bulk load request: column metadata, rows and a DONE
+         * token.
+         */
+        private void bulkLoad(Payload bulk) throws IOException {
+            if (bulk.u8() != COLMETADATA_TOKEN) {
+                throw new SocketException("Bulk load without column metadata");
+            }
+
+            int[][] columns = new int[bulk.u16()][];
+
+            for (int i = 0; i < columns.length; i++) {
+                bulk.u16();      // user type
+                bulk.u16();      // flags
+                columns[i] = readTypeInfo(bulk);
+                bulk.ucs2(bulk.u8());
+            }
+
+            int count = 0;
+
+            while (bulk.hasMore() && bulk.peek() == ROW_TOKEN) {
+                bulk.u8();
+
+                Object[] row = new Object[columns.length];
+
+                for (int i = 0; i < columns.length; i++) {
+                    row[i] = readValue(bulk, columns[i]);
+                }
+
+                synchronized (bulkRows) {
+                    bulkRows.add(row);
+                }
+
+                count++;
+            }
+
+            done(DONE_TOKEN, DONE_COUNT, count);
+        }
+
+        private void returnStatus(int status) throws IOException {
+            out.b(RETURNSTATUS_TOKEN);
+            out.i(status);
+        }
+
+        private void returnValue(int value) throws IOException {
+            String name = "@handle";
+            out.b(RETURNVALUE_TOKEN);
+            out.s(1 + name.length() * 2 + 1 + 4 + 2 + 5);
+            out.bVarchar(name);
+            out.b(1);
+            out.s(0);
+            out.s(0);
+            out.b(0x26);
+            out.b(4);
+            out.b(4);
+            out.i(value);
+        }
+
+        /**
+         * Reads the type information and value of an RPC parameter.
+         *
+         * @return the value as <code>Integer</code>, <code>Long</code>,
+         *         <code>Double</code>, <code>Boolean</code>,
+         *         <code>BigDecimal</code>, <code>String</code> or
+         *         <code>byte[]</code>
+         */
+        private Object readParam(Payload p) throws IOException {
+            return readValue(p, readTypeInfo(p));
+        }
+
+        /**
+         * Reads the type information of an RPC parameter or column.
+         *
+         * @return the type and, for decimals, the scale
+         */
+        private int[] readTypeInfo(Payload p) throws IOException {
+            int type = p.u8();
+            int scale = 0;
+
+            switch (type) {
+                case 0x30: // tinyint
+                case 0x32: // bit
+                case 0x34: // smallint
+                case 0x38: // int
+                case 0x7F: // bigint
+                case 0x3E: // float
+                case 0x3B: // real
+                case 0x3A: // smalldatetime
+                case 0x7A: // smallmoney
+                case 0x3D: // datetime
+                case 0x3C: // money
+                    break;
+
+                case 0x26: // intn
+                case 0x68: // bitn
+                case 0x6D: // floatn
+                case 0x6F: // datetimen
+                case 0x6E: // moneyn
+                case 0x24: // uniqueidentifier
+                case 0x25: // varbinary
+                case 0x2D: // binary
+                case 0x27: // varchar
+                case 0x2F: // char
+                    p.u8(); // maximum length
+                    break;
+
+                case 0x6A: // decimal
+                case 0x6C: // numeric
+                    p.u8(); // maximum length
+                    p.u8(); // precision
+                    scale = p.u8();
+                    break;
+
+                case 0xA7: // varchar
+                case 0xAF: // char
+                case 0xE7: // nvarchar
+                case 0xEF: // nchar
+                case 0xA5: // varbinary
+                case 0xAD: // binary
+                    p.u16(); // maximum length
+                    if (tds71 && type != 0xA5 && type != 0xAD) {
+                        p.bytes(5); // collation
+                    }
+                    break;
+
+                case 0x23: // text
+                case 0x63: // ntext
+                case 0x22: // image
+                    p.i32(); // maximum length
+                    if (tds71 && type != 0x22) {
+                        p.bytes(5); // collation
+                    }
+                    break;
+
+                default:
+                    throw new SocketException("Unsupported parameter type 0x" + Integer.toHexString(type));
+            }
+
+            return new int[] {type, scale};
+        }
+
+        /**
+         * Reads a value of the type read by {@link #readTypeInfo}.
+         */
+        private Object readValue(Payload p, int[] typeInfo) throws IOException {
+            int type = typeInfo[0];
+            int len;
+
+            switch (type) {
+                case 0x30: // tinyint
+                    return new Integer(p.u8());
+                case 0x32: // bit
+                    return Boolean.valueOf(p.u8() != 0);
+                case 0x34: // smallint
+                    return new Integer((short) p.u16());
+                case 0x38: // int
+                    return new Integer(p.i32());
+                case 0x7F: // bigint
+                    return new Long(p.i64());
+                case 0x3E: // float
+                    return new Double(Double.longBitsToDouble(p.i64()));
+                case 0x3B: // real
+                    return new Double(Float.intBitsToFloat(p.i32()));
+                case 0x3A: // smalldatetime
+                case 0x7A: // smallmoney
+                    return p.bytes(4);
+                case 0x3D: // datetime
+                case 0x3C: // money
+                    return p.bytes(8);
+
+                case 0x26: // intn
+                case 0x68: // bitn
+                case 0x6D: // floatn
+                case 0x6F: // datetimen
+                case 0x6E: // moneyn
+                case 0x24: // uniqueidentifier
+                case 0x25: // varbinary
+                case 0x2D: // binary
+                case 0x27: // varchar
+                case 0x2F: // char
+                    len = p.u8();
+                    if (len == 0 && type != 0x27 && type != 0x2F) {
+                        return null;
+                    }
+                    if (type == 0x26) {
+                        return len == 8 ? (Object) new Long(p.i64())
+                                : new Integer(len == 4 ? p.i32() : len == 2 ? (short) p.u16() : p.u8());
+                    }
+                    if (type == 0x68) {
+                        return Boolean.valueOf(p.u8() != 0);
+                    }
+                    if (type == 0x6D) {
+                        return new Double(len == 8 ? Double.longBitsToDouble(p.i64())
+                                : Float.intBitsToFloat(p.i32()));
+                    }
+                    if (type == 0x27 || type == 0x2F) {
+                        return new String(p.bytes(len), "Cp1252");
+                    }
+                    return p.bytes(len);
+
+                case 0x6A: // decimal
+                case 0x6C: // numeric
+                    len = p.u8();
+                    if (len == 0) {
+                        return null;
+                    }
+                    int sign = p.u8();
+                    byte[] magnitude = new byte[len - 1];
+                    for (int i = magnitude.length - 1; i >= 0; i--) {
+                        magnitude[i] = (byte) p.u8();
+                    }
+                    return new BigDecimal(new BigInteger(sign == 0 ? -1 : 1, magnitude), typeInfo[1]);
+
+                case 0xA7: // varchar
+                case 0xAF: // char
+                case 0xE7: // nvarchar
+                case 0xEF: // nchar
+                case 0xA5: // varbinary
+                case 0xAD: // binary
+                    len = p.u16();
+                    if (len == 0xFFFF) {
+                        return null;
+                    }
+                    if (type == 0xE7 || type == 0xEF) {
+                        return p.ucs2(len / 2);
+                    }
+                    if (type == 0xA7 || type == 0xAF) {
+                        return new String(p.bytes(len), "Cp1252");
+                    }
+                    return p.bytes(len);
+
+                default: // text, ntext, image
+                    len = p.i32();
+                    if (type == 0x63) {
+                        return p.ucs2(len / 2);
+                    }
+                    if (type == 0x23) {
+                        return new String(p.bytes(len), "Cp1252");
+                    }
+                    return p.bytes(len);
+            }
+        }
+    }
+}
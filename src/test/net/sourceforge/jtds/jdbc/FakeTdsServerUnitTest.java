@@ -0,0 +1,174 @@
+// jTDS JDBC Driver for Microsoft SQL Server and Sybase
+// Copyright (C) 2004 The jTDS Project
+//
+// This library is free software; you can redistribute it and/or
+// modify it under the terms of the GNU Lesser General Public
+// License as published by the Free Software Foundation; either
+// version 2.1 of the License, or (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+//
+package net.sourceforge.jtds.jdbc;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * Unit tests for the {@link FakeTdsServer}, running the driver against it.
+ */
+public class FakeTdsServerUnitTest extends UnitTestBase {
+    private FakeTdsServer server;
+
+    public FakeTdsServerUnitTest(String name) {
+        super(name);
+    }
+
+    public void setUp() throws Exception {
+        Class.forName(Driver.class.getName());
+        server = new FakeTdsServer();
+    }
+
+    public void tearDown() throws Exception {
+        server.close();
+    }
+
+    /**
+     * Test a generated result set returned for a language batch.
+     */
+    public void testGeneratedResult() throws Exception {
+        server.setResult("SELECT * FROM wide", FakeTdsServer.Result.generated(6, 1000));
+
+        Connection con = DriverManager.getConnection(server.getUrl(""));
+        Statement stmt = con.createStatement();
+        ResultSet rs = stmt.executeQuery("SELECT * FROM wide");
+
+        assertEquals(6, rs.getMetaData().getColumnCount());
+
+        int rows = 0;
+
+        while (rs.next()) {
+            assertEquals(rows * 6, rs.getInt(1));
+            assertEquals("row " + rows + " column 1", rs.getString(2));
+            rows++;
+        }
+
+        assertEquals(1000, rows);
+        con.close();
+    }
+
+    /**
+     * Test fixed result sets and update counts for prepared statements
+     * executed with <code>sp_prepare</code>/<code>sp_execute</code> and
+     * <code>sp_executesql</code>.
+     */
+    public void testPreparedStatements() throws Exception {
+        // prefix match, prepareSQL=0 sends the parameter values inline
+        server.setResult("SELECT name FROM t WHERE id =",
+                FakeTdsServer.Result.rows(new String[] {"name"},
+                        new int[] {FakeTdsServer.NVARCHAR},
+                        new Object[][] {{"one"}, {null}}));
+        server.setResult("UPDATE t", FakeTdsServer.Result.update(3));
+
+        for (int prepareSql = 0; prepareSql <= 3; prepareSql++) {
+            Connection con = DriverManager.getConnection(
+                    server.getUrl(";prepareSQL=" + prepareSql));
+            PreparedStatement pstmt = con.prepareStatement("SELECT name FROM t WHERE id = ?");
+
+            for (int i = 0; i < 3; i++) {
+                pstmt.setInt(1, i);
+                ResultSet rs = pstmt.executeQuery();
+                assertTrue(rs.next());
+                assertEquals("one", rs.getString(1));
+                assertTrue(rs.next());
+                assertNull(rs.getString(1));
+                assertFalse(rs.next());
+                rs.close();
+            }
+
+            pstmt.close();
+
+            pstmt = con.prepareStatement("UPDATE t SET name = ? WHERE id = ?");
+            pstmt.setString(1, "x");
+            pstmt.setLong(2, 1);
+            assertEquals(3, pstmt.executeUpdate());
+            pstmt.close();
+            con.close();
+        }
+    }
+
+    /**
+     * Test prepared statement batches, sent as one request per batch with
+     * parameter types changing within the batch.
+     */
+    public void testPreparedBatch() throws Exception {
+        server.setResult("INSERT INTO t", FakeTdsServer.Result.update(1));
+
+        for (int prepareSql = 0; prepareSql <= 3; prepareSql++) {
+            Connection con = DriverManager.getConnection(
+                    server.getUrl(";prepareSQL=" + prepareSql));
+            // the initial settings are executed with the first request
+            con.createStatement().execute("SELECT 1");
+
+            PreparedStatement pstmt = con.prepareStatement("INSERT INTO t VALUES (?, ?)");
+
+            for (int i = 0; i < 1000; i++) {
+                pstmt.setInt(1, i);
+                if (i % 100 == 0) {
+                    pstmt.setLong(2, i);
+                } else {
+                    pstmt.setString(2, "value " + i);
+                }
+                pstmt.addBatch();
+            }
+
+            long requests = server.getRequestCount();
+            int[] counts = pstmt.executeBatch();
+
+            assertEquals(1000, counts.length);
+            for (int i = 0; i < counts.length; i++) {
+                assertEquals(1, counts[i]);
+            }
+            assertEquals((prepareSql + 1) * 1000, server.getExecutionCount("INSERT INTO t"));
+            if (prepareSql == 0 || prepareSql == 2) {
+                // a single request for the whole batch
+                assertEquals(requests + 1, server.getRequestCount());
+            }
+
+            pstmt.close();
+            con.close();
+        }
+    }
+
+    /**
+     * Test that scripted errors are reported as <code>SQLException</code>s.
+     */
+    public void testError() throws Exception {
+        server.setResult("SELECT * FROM missing", FakeTdsServer.Result.error(208, "Invalid object name 'missing'."));
+
+        Connection con = DriverManager.getConnection(server.getUrl(""));
+
+        try {
+            con.createStatement().executeQuery("SELECT * FROM missing");
+            fail("Expected SQLException");
+        } catch (SQLException e) {
+            assertEquals(208, e.getErrorCode());
+        }
+
+        // the connection is still usable
+        assertEquals(0, con.createStatement().executeUpdate("DELETE FROM t"));
+        con.close();
+
+        assertEquals(1, server.getConnectionCount());
+    }
+}
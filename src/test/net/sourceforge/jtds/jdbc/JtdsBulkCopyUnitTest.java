@@ -0,0 +1,174 @@
+// jTDS JDBC Driver for Microsoft SQL Server and Sybase
+// Copyright (C) 2004 The jTDS Project
+//
+// This library is free software; you can redistribute it and/or
+// modify it under the terms of the GNU Lesser General Public
+// License as published by the Free Software Foundation; either
+// version 2.1 of the License, or (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+//
+package net.sourceforge.jtds.jdbc;
+
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Unit tests for {@link JtdsBulkCopy}, run against the
+ * {@link FakeTdsServer}.
+ */
+public class JtdsBulkCopyUnitTest extends UnitTestBase {
+    private static final int[] TYPES = {
+        FakeTdsServer.INT, FakeTdsServer.NVARCHAR, FakeTdsServer.FLOAT,
+        FakeTdsServer.BIT, FakeTdsServer.VARBINARY
+    };
+
+    private FakeTdsServer server;
+    private JtdsConnection con;
+
+    public JtdsBulkCopyUnitTest(String name) {
+        super(name);
+    }
+
+    public void setUp() throws Exception {
+        Class.forName(Driver.class.getName());
+        server = new FakeTdsServer();
+        server.setResult("SELECT TOP 0 * FROM bulk",
+                FakeTdsServer.Result.rows(
+                        new String[] {"id", "name", "value", "flag", "data"},
+                        TYPES, new Object[0][]));
+        server.setResult("INSERT BULK bulk", FakeTdsServer.Result.update(0));
+        con = (JtdsConnection) DriverManager.getConnection(server.getUrl(""));
+    }
+
+    public void tearDown() throws Exception {
+        con.close();
+        server.close();
+    }
+
+    /**
+     * Test loading rows in several batches.
+     */
+    public void testWriteRows() throws Exception {
+        List rows = new ArrayList();
+
+        for (int i = 0; i < 2500; i++) {
+            rows.add(new Object[] {new Integer(i), i % 7 == 0 ? null : "row " + i,
+                    new Double(i / 4.0), Boolean.valueOf(i % 2 == 0),
+                    new byte[] {(byte) i, 1, 2}});
+        }
+
+        JtdsBulkCopy bulk = con.createBulkCopy("bulk");
+
+        bulk.setBatchSize(1000);
+        assertEquals(2500, bulk.writeRows(rows.iterator()));
+        assertEquals(2500, bulk.getRowsCopied());
+        assertEquals(3, server.getExecutionCount("INSERT BULK bulk"));
+
+        List received = server.getBulkRows();
+
+        assertEquals(2500, received.size());
+
+        for (int i = 0; i < 2500; i++) {
+            Object[] row = (Object[]) received.get(i);
+
+            assertEquals(new Integer(i), row[0]);
+            assertEquals(i % 7 == 0 ? null : "row " + i, row[1]);
+            assertEquals(new Double(i / 4.0), row[2]);
+            assertEquals(Boolean.valueOf(i % 2 == 0), row[3]);
+            assertTrue(Arrays.equals(new byte[] {(byte) i, 1, 2}, (byte[]) row[4]));
+        }
+    }
+
+    /**
+     * Test loading the rows of a result set, converting the values.
+     */
+    public void testWriteResultSet() throws Exception {
+        server.setResult("SELECT * FROM source",
+                FakeTdsServer.Result.generated(new int[] {
+                        FakeTdsServer.BIGINT, FakeTdsServer.INT,
+                        FakeTdsServer.INT, FakeTdsServer.TINYINT,
+                        FakeTdsServer.NVARCHAR}, 100));
+
+        ResultSet rs = con.createStatement().executeQuery("SELECT * FROM source");
+        JtdsBulkCopy bulk = con.createBulkCopy("bulk");
+
+        assertEquals(100, bulk.writeRows(rs));
+        assertEquals(1, server.getExecutionCount("INSERT BULK bulk"));
+        assertEquals(100, server.getBulkRows().size());
+    }
+
+    /**
+     * Test that a failing row source discards the current batch and leaves
+     * the connection usable.
+     */
+    public void testSourceError() throws Exception {
+        List rows = new ArrayList();
+
+        rows.add(new Object[] {new Integer(1), "one", null, null, null});
+        rows.add(new Object[] {"two", "two", null, null, null});
+
+        JtdsBulkCopy bulk = con.createBulkCopy("bulk");
+
+        try {
+            bulk.writeRows(rows.iterator());
+            fail("Expected a conversion error");
+        } catch (SQLException e) {
+            assertTrue(e.getSQLState().startsWith("22"));
+        }
+
+        assertEquals(0, bulk.getRowsCopied());
+        assertEquals(0, server.getBulkRows().size());
+
+        ResultSet rs = con.createStatement().executeQuery("SELECT TOP 0 * FROM bulk");
+
+        assertFalse(rs.next());
+    }
+
+    /**
+     * Test that values longer than their column are rejected before they
+     * are sent.
+     */
+    public void testValueTooLong() throws Exception {
+        char[] name = new char[65];
+        List rows = new ArrayList();
+
+        Arrays.fill(name, 'x');
+        rows.add(new Object[] {new Integer(1), new String(name), null, null, null});
+
+        JtdsBulkCopy bulk = con.createBulkCopy("bulk");
+
+        try {
+            bulk.writeRows(rows.iterator());
+            fail("Expected a string data truncation error");
+        } catch (SQLException e) {
+            assertEquals("22001", e.getSQLState());
+        }
+
+        rows.set(0, new Object[] {new Integer(1), null, null, null, new byte[65]});
+
+        try {
+            bulk.writeRows(rows.iterator());
+            fail("Expected a binary data truncation error");
+        } catch (SQLException e) {
+            assertEquals("22001", e.getSQLState());
+        }
+
+        assertEquals(0, server.getBulkRows().size());
+
+        rows.set(0, new Object[] {new Integer(1), new String(name, 0, 64), null, null, new byte[64]});
+        assertEquals(1, bulk.writeRows(rows.iterator()));
+        assertEquals(1, server.getBulkRows().size());
+    }
+}
@@ -0,0 +1,354 @@
+// jTDS JDBC Driver for Microsoft SQL Server and Sybase
+// Copyright (C) 2004 The jTDS Project
+//
+// This library is free software; you can redistribute it and/or
+// modify it under the terms of the GNU Lesser General Public
+// License as published by the Free Software Foundation; either
+// version 2.1 of the License, or (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+//
+package net.sourceforge.jtds.jdbc;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.sourceforge.jtds.jdbcx.JtdsConnectionPool;
+import net.sourceforge.jtds.jdbcx.JtdsDataSource;
+
+/**
+ * Unit tests for {@link JtdsConnectionPool}, run against the
+ * {@link FakeTdsServer}.
+ */
+public class JtdsConnectionPoolUnitTest extends UnitTestBase {
+    private FakeTdsServer server;
+    private JtdsConnectionPool pool;
+
+    public JtdsConnectionPoolUnitTest(String name) {
+        super(name);
+    }
+
+    public void setUp() throws Exception {
+        server = new FakeTdsServer();
+
+        JtdsDataSource ds = new JtdsDataSource();
+
+        ds.setServerName("127.0.0.1");
+        ds.setPortNumber(server.getPort());
+        ds.setDatabaseName("fake");
+        ds.setUser("fake");
+        ds.setPassword("fake");
+
+        pool = new JtdsConnectionPool(ds);
+    }
+
+    public void tearDown() throws Exception {
+        pool.close();
+        server.close();
+    }
+
+    /**
+     * Test that returned connections are reused and reset.
+     */
+    public void testReuse() throws Exception {
+        for (int i = 0; i < 10; i++) {
+            Connection con = pool.getConnection();
+
+            assertEquals(1, pool.getActiveCount());
+            con.setAutoCommit(false);
+            con.close();
+            assertEquals(0, pool.getActiveCount());
+        }
+
+        Connection con = pool.getConnection();
+
+        assertTrue(con.getAutoCommit());
+        con.close();
+
+        assertEquals(1, server.getConnectionCount());
+        assertEquals(1, pool.getCreatedCount());
+        assertEquals(11, pool.getBorrowCount());
+        assertEquals(1, pool.getIdleCount());
+        assertEquals(0, pool.getWaitCount());
+    }
+
+    /**
+     * Test that returning a connection doesn't cost a round trip and that the
+     * reset and the settings executed after it are sent with the next
+     * request.
+     */
+    public void testReset() throws Exception {
+        server.setResult("SELECT * FROM t", FakeTdsServer.Result.generated(1, 1));
+
+        Connection con = pool.getConnection();
+
+        con.createStatement().executeQuery("SELECT * FROM t").close();
+
+        long requests = server.getRequestCount();
+
+        con.close();
+        assertEquals(requests, server.getRequestCount());
+        assertEquals(0, server.getResetCount());
+
+        con = pool.getConnection();
+
+        ResultSet rs = con.createStatement().executeQuery("SELECT * FROM t");
+
+        assertTrue(rs.next());
+        assertEquals(1, server.getResetCount());
+        assertEquals(requests + 1, server.getRequestCount());
+
+        List batches = server.getBatches();
+        String sql = (String) batches.get(batches.size() - 1);
+
+        assertTrue(sql.startsWith("SET TRANSACTION ISOLATION LEVEL READ COMMITTED"));
+        assertTrue(sql.endsWith(" SELECT * FROM t"));
+        assertEquals("fake", con.getCatalog());
+
+        rs.next();
+        con.createStatement().executeQuery("SELECT * FROM t").close();
+        con.close();
+
+        assertEquals(1, server.getResetCount());
+        assertEquals(1, server.getConnectionCount());
+    }
+
+    /**
+     * Test that the state of the driver is reset with the session, i.e.
+     * auto-commit and isolation level are restored and statements prepared
+     * before the reset are prepared again.
+     */
+    public void testResetState() throws Exception {
+        server.setResult("SELECT * FROM t WHERE", FakeTdsServer.Result.generated(1, 1));
+
+        Connection con = pool.getConnection();
+        PreparedStatement ps = con.prepareStatement("SELECT * FROM t WHERE id = ?");
+
+        ps.setInt(1, 1);
+        ps.executeQuery().close();
+        ps.close();
+
+        con.setAutoCommit(false);
+        con.setTransactionIsolation(Connection.TRANSACTION_SERIALIZABLE);
+        con.close();
+
+        con = pool.getConnection();
+
+        assertTrue(con.getAutoCommit());
+        assertEquals(Connection.TRANSACTION_READ_COMMITTED, con.getTransactionIsolation());
+        // the reset is sent with the next request
+        assertEquals(0, server.getResetCount());
+
+        ps = con.prepareStatement("SELECT * FROM t WHERE id = ?");
+        ps.setInt(1, 1);
+
+        int batches = server.getBatches().size();
+        ResultSet rs = ps.executeQuery();
+
+        assertEquals(1, server.getResetCount());
+
+        // the reset restores the SET options of the login, the initial
+        // settings are executed again after it, as a batch of their own
+        // before an RPC
+        List sent = server.getBatches();
+
+        assertEquals(batches + 1, sent.size());
+
+        String sql = (String) sent.get(batches);
+
+        assertTrue(sql.indexOf("SET TEXTSIZE 2147483647") >= 0);
+        assertTrue(sql.indexOf("SET QUOTED_IDENTIFIER ON") >= 0);
+        assertTrue(sql.indexOf("SET IMPLICIT_TRANSACTIONS OFF") >= 0);
+        assertTrue(sql.indexOf("SET TRANSACTION ISOLATION LEVEL READ COMMITTED") >= 0);
+
+        assertTrue(rs.next());
+        rs.close();
+        ps.close();
+        con.close();
+    }
+
+    /**
+     * Test that borrowing from an exhausted pool fails after the maximum
+     * wait time, and succeeds once a connection is returned.
+     */
+    public void testExhausted() throws Exception {
+        pool.setMaxSize(2);
+        pool.setMaxWait(200);
+
+        final Connection con1 = pool.getConnection();
+        Connection con2 = pool.getConnection();
+
+        try {
+            pool.getConnection();
+            fail("Expected the pool to be exhausted");
+        } catch (SQLException e) {
+            assertEquals("HYT00", e.getSQLState());
+        }
+
+        assertEquals(1, pool.getTimeoutCount());
+
+        pool.setMaxWait(5000);
+
+        new Thread() {
+            public void run() {
+                try {
+                    Thread.sleep(100);
+                    con1.close();
+                } catch (Exception e) {
+                    // the borrow below fails
+                }
+            }
+        }.start();
+
+        Connection con3 = pool.getConnection();
+
+        assertEquals(2, pool.getTotalCount());
+        assertEquals(1, pool.getWaitCount());
+        assertTrue(pool.getMaxWaitTime() >= 50);
+
+        con2.close();
+        con3.close();
+        assertEquals(2, server.getConnectionCount());
+    }
+
+    /**
+     * Test that concurrent borrowers never exceed the maximum size.
+     */
+    public void testConcurrent() throws Exception {
+        final int threads = 8;
+        final int loops = 200;
+        final AtomicInteger errors = new AtomicInteger();
+        final CountDownLatch done = new CountDownLatch(threads);
+
+        pool.setMaxSize(3);
+
+        for (int i = 0; i < threads; i++) {
+            new Thread() {
+                public void run() {
+                    try {
+                        for (int j = 0; j < loops; j++) {
+                            Connection con = pool.getConnection();
+
+                            if (pool.getActiveCount() > 3) {
+                                errors.incrementAndGet();
+                            }
+
+                            con.createStatement().close();
+                            con.close();
+                        }
+                    } catch (SQLException e) {
+                        errors.incrementAndGet();
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }.start();
+        }
+
+        assertTrue(done.await(30, TimeUnit.SECONDS));
+        assertEquals(0, errors.get());
+        assertEquals(threads * loops, pool.getBorrowCount());
+        assertEquals(0, pool.getActiveCount());
+        assertTrue(pool.getCreatedCount() <= 3);
+    }
+
+    /**
+     * Test that filling the pool opens the connections concurrently and that
+     * no request is sent after the logins.
+     */
+    public void testFill() throws Exception {
+        pool.setMinSize(10);
+        server.setResponseDelay(100);
+
+        long start = System.currentTimeMillis();
+
+        pool.fill();
+
+        // opening the connections one by one takes at least 2 s
+        assertTrue(System.currentTimeMillis() - start < 1500);
+        assertEquals(10, pool.getTotalCount());
+        assertEquals(10, pool.getIdleCount());
+        assertEquals(10, server.getConnectionCount());
+        // the login of each connection
+        assertEquals(10, server.getRequestCount());
+
+        pool.fill();
+        assertEquals(10, pool.getCreatedCount());
+
+        // the initial settings are written in front of the first SQL batch,
+        // on the same line
+        server.setResponseDelay(0);
+        Connection con = pool.getConnection();
+
+        con.createStatement().execute("SELECT 1");
+        assertEquals(11, server.getRequestCount());
+
+        List batches = server.getBatches();
+
+        assertEquals(1, batches.size());
+
+        String sql = (String) batches.get(0);
+
+        assertTrue(sql.startsWith("SET TRANSACTION ISOLATION LEVEL"));
+        assertTrue(sql.endsWith(" SELECT 1"));
+        assertTrue(sql.indexOf('\n') < 0);
+        con.close();
+    }
+
+    /**
+     * Test that no connection is left reserved if filling the pool fails.
+     */
+    public void testFillFailure() throws Exception {
+        pool.setMinSize(5);
+        server.close();
+
+        try {
+            pool.fill();
+            fail("Expected an SQLException");
+        } catch (SQLException e) {
+            // expected
+        }
+
+        assertEquals(0, pool.getTotalCount());
+        assertEquals(0, pool.getCreatedCount());
+    }
+
+    /**
+     * Test that connections exceeding the maximum lifetime are replaced and
+     * that closing the pool closes idle connections.
+     */
+    public void testLifetimeAndClose() throws Exception {
+        pool.setMaxLifetime(50);
+
+        pool.getConnection().close();
+        Thread.sleep(100);
+        pool.getConnection().close();
+
+        assertEquals(2, pool.getCreatedCount());
+        assertEquals(1, pool.getDestroyedCount());
+
+        pool.close();
+
+        assertEquals(0, pool.getTotalCount());
+
+        try {
+            pool.getConnection();
+            fail("Expected the pool to be closed");
+        } catch (SQLException e) {
+            assertEquals("08003", e.getSQLState());
+        }
+    }
+}
@@ -0,0 +1,284 @@
+// jTDS JDBC Driver for Microsoft SQL Server and Sybase
+// Copyright (C) 2004 The jTDS Project
+//
+// This library is free software; you can redistribute it and/or
+// modify it under the terms of the GNU Lesser General Public
+// License as published by the Free Software Foundation; either
+// version 2.1 of the License, or (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+//
+package net.sourceforge.jtds.jdbc;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import net.sourceforge.jtds.util.BlobBuffer;
+import net.sourceforge.jtds.util.LobStore;
+
+/**
+ * Unit tests for the disk storage of LOBs by {@link BlobBuffer} and
+ * {@link LobStore}.
+ */
+public class LobStoreUnitTest extends UnitTestBase {
+    /** Size of the test data, spanning several extents. */
+    private static final int SIZE = 300000;
+
+    private File dir;
+
+    public LobStoreUnitTest(String name) {
+        super(name);
+    }
+
+    public void setUp() throws Exception {
+        dir = File.createTempFile("jtds", ".dir");
+        dir.delete();
+        dir.mkdir();
+    }
+
+    public void tearDown() throws Exception {
+        File[] files = dir.listFiles();
+
+        for (int i = 0; i < files.length; i++) {
+            files[i].delete();
+        }
+        dir.delete();
+    }
+
+    /**
+     * Test reading and writing data across extent boundaries.
+     */
+    public void testReadWrite() throws Exception {
+        LobStore store = new LobStore(dir);
+        BlobBuffer buffer = new BlobBuffer(store, 1000);
+        byte[] data = getData(0);
+
+        assertEquals(SIZE, buffer.setBytes(1, data, 0, SIZE, true));
+        assertEquals(SIZE, buffer.getLength());
+        assertTrue(Arrays.equals(data, buffer.getBytes(1, SIZE)));
+
+        // Ranges crossing extents
+        assertTrue(Arrays.equals(Arrays.copyOfRange(data, 65530, 131080),
+                buffer.getBytes(65531, 131080 - 65530)));
+        assertEquals(65531, buffer.position(Arrays.copyOfRange(data, 65530, 65540), 1));
+
+        // Single bytes
+        OutputStream out = buffer.setBinaryStream(65536, false);
+
+        out.write(1);
+        out.write(2);
+        out.close();
+        data[65535] = 1;
+        data[65536] = 2;
+
+        InputStream in = buffer.getBinaryStream(false);
+
+        for (int i = 0; i < SIZE; i++) {
+            assertEquals(data[i] & 0xFF, in.read());
+        }
+        assertEquals(-1, in.read());
+
+        // Append
+        buffer.setBytes(SIZE + 1, data, 0, 10, true);
+        assertEquals(SIZE + 10, buffer.getLength());
+        assertTrue(Arrays.equals(Arrays.copyOf(data, 10), buffer.getBytes(SIZE + 1, 10)));
+
+        // Truncate and extend again
+        buffer.truncate(70000);
+        buffer.setBytes(70001, new byte[100000], 0, 100000, true);
+        assertEquals(170000, buffer.getLength());
+        assertEquals(data[69999], buffer.getBytes(70000, 1)[0]);
+        assertEquals(0, buffer.getBytes(70001, 1)[0]);
+        store.close();
+    }
+
+    /**
+     * Test that the LOBs of a store share one file, which is deleted once
+     * the store is closed and no longer used.
+     */
+    public void testSharedFile() throws Exception {
+        LobStore store = new LobStore(dir);
+        BlobBuffer[] buffers = new BlobBuffer[5];
+
+        for (int i = 0; i < buffers.length; i++) {
+            buffers[i] = new BlobBuffer(store, 1000);
+            buffers[i].setBytes(1, getData(i), 0, SIZE, true);
+        }
+
+        assertEquals(1, dir.listFiles().length);
+
+        for (int i = 0; i < buffers.length; i++) {
+            assertTrue(Arrays.equals(getData(i), buffers[i].getBytes(1, SIZE)));
+        }
+
+        // Extents of the truncated LOB are reused
+        buffers[0].truncate(0);
+        buffers[0].setBytes(1, getData(7), 0, SIZE, true);
+
+        for (int i = 1; i < buffers.length; i++) {
+            assertTrue(Arrays.equals(getData(i), buffers[i].getBytes(1, SIZE)));
+        }
+        assertTrue(Arrays.equals(getData(7), buffers[0].getBytes(1, SIZE)));
+
+        store.close();
+        assertEquals(1, dir.listFiles().length);
+
+        // Still readable after the store is closed
+        assertTrue(Arrays.equals(getData(1), buffers[1].getBytes(1, SIZE)));
+
+        for (int i = 0; i < buffers.length; i++) {
+            buffers[i].truncate(0);
+        }
+
+        assertEquals(0, dir.listFiles().length);
+    }
+
+    /**
+     * Test the transfer of the data to output streams.
+     */
+    public void testTransferTo() throws Exception {
+        LobStore store = new LobStore(dir);
+        BlobBuffer buffer = new BlobBuffer(store, 1000);
+        byte[] data = getData(3);
+
+        buffer.setBytes(1, data, 0, SIZE, true);
+
+        InputStream in = buffer.getBinaryStream(false);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+        assertEquals(100, in.skip(100));
+        assertEquals(SIZE - 100, transferTo(in, bytes));
+        assertTrue(Arrays.equals(Arrays.copyOfRange(data, 100, SIZE), bytes.toByteArray()));
+        assertEquals(-1, in.read());
+
+        File file = new File(dir, "copy");
+        OutputStream out = new FileOutputStream(file);
+
+        assertEquals(SIZE, transferTo(buffer.getBinaryStream(false), out));
+        out.close();
+
+        byte[] copy = new byte[SIZE];
+        InputStream fileIn = new FileInputStream(file);
+        int count = 0;
+
+        for (int n; count < SIZE && (n = fileIn.read(copy, count, SIZE - count)) > 0; ) {
+            count += n;
+        }
+        fileIn.close();
+        assertEquals(SIZE, count);
+        assertTrue(Arrays.equals(data, copy));
+
+        // In memory
+        buffer = new BlobBuffer(store, 1000);
+        buffer.setBytes(1, data, 0, 500, true);
+        bytes.reset();
+        assertEquals(500, transferTo(buffer.getBinaryStream(false), bytes));
+        assertTrue(Arrays.equals(Arrays.copyOf(data, 500), bytes.toByteArray()));
+        store.close();
+    }
+
+    /**
+     * Test that a file that could not be deleted while mapped (on Windows)
+     * is deleted once its segments have been garbage collected.
+     */
+    public void testDeleteLater() throws Exception {
+        File file = File.createTempFile("jtds", ".tmp", dir);
+        ByteBuffer segment = ByteBuffer.allocate(16);
+        Method deleteLater = LobStore.class.getDeclaredMethod("deleteLater",
+                File.class, ByteBuffer[].class);
+        Method retryDeletes = LobStore.class.getDeclaredMethod("retryDeletes");
+
+        deleteLater.setAccessible(true);
+        retryDeletes.setAccessible(true);
+        deleteLater.invoke(null, file, new ByteBuffer[] {null, segment});
+
+        retryDeletes.invoke(null);
+        assertTrue(file.exists());
+
+        WeakReference ref = new WeakReference(segment);
+
+        segment = null;
+
+        for (int i = 0; i < 100 && ref.get() != null; i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+
+        retryDeletes.invoke(null);
+        assertFalse(file.exists());
+    }
+
+    /**
+     * Test that the file of a store garbage collected without being closed
+     * is deleted.
+     */
+    public void testCollectedStore() throws Exception {
+        WeakReference ref = writeUnclosed();
+        Method retryDeletes = LobStore.class.getDeclaredMethod("retryDeletes");
+
+        retryDeletes.setAccessible(true);
+        assertEquals(1, dir.listFiles().length);
+
+        for (int i = 0; i < 100 && ref.get() != null; i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+
+        assertNull(ref.get());
+
+        for (int i = 0; i < 100 && dir.listFiles().length > 0; i++) {
+            retryDeletes.invoke(null);
+            Thread.sleep(10);
+        }
+
+        assertEquals(0, dir.listFiles().length);
+    }
+
+    /**
+     * Writes a LOB to a new store, which is not closed.
+     *
+     * @return a weak reference to the store
+     */
+    private WeakReference writeUnclosed() throws Exception {
+        LobStore store = new LobStore(dir);
+        BlobBuffer buffer = new BlobBuffer(store, 1000);
+
+        buffer.setBytes(1, getData(4), 0, SIZE, true);
+
+        return new WeakReference(store);
+    }
+
+    private static long transferTo(InputStream in, OutputStream out)
+            throws Exception {
+        // InputStream.transferTo is not available before Java 9
+        Method method = in.getClass().getMethod("transferTo", OutputStream.class);
+
+        method.setAccessible(true);
+
+        return ((Long) method.invoke(in, out)).longValue();
+    }
+
+    private static byte[] getData(int seed) {
+        byte[] data = new byte[SIZE];
+
+        new Random(seed).nextBytes(data);
+
+        return data;
+    }
+}
@@ -0,0 +1,274 @@
+// jTDS JDBC Driver for Microsoft SQL Server and Sybase
+// Copyright (C) 2004 The jTDS Project
+//
+// This library is free software; you can redistribute it and/or
+// modify it under the terms of the GNU Lesser General Public
+// License as published by the Free Software Foundation; either
+// version 2.1 of the License, or (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+//
+package net.sourceforge.jtds.jdbc;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+
+/**
+ * Unit tests for the streaming of LOB values from the server response,
+ * enabled by the <code>streamLOBs</code> connection property, run against
+ * the {@link FakeTdsServer}.
+ */
+public class LobStreamingUnitTest extends UnitTestBase {
+    private static final int ROWS = 5;
+
+    private FakeTdsServer server;
+
+    public LobStreamingUnitTest(String name) {
+        super(name);
+    }
+
+    public void setUp() throws Exception {
+        Class.forName(Driver.class.getName());
+        server = new FakeTdsServer();
+
+        Object[][] rows = new Object[ROWS][];
+
+        for (int i = 0; i < rows.length; i++) {
+            rows[i] = new Object[] {new Integer(i), getBytes(i), "row " + i,
+                    i == 2 ? null : getText(i)};
+        }
+
+        server.setResult("SELECT * FROM t", FakeTdsServer.Result.rows(
+                new String[] {"i", "b", "s", "t"},
+                new int[] {FakeTdsServer.INT, FakeTdsServer.IMAGE,
+                        FakeTdsServer.NVARCHAR, FakeTdsServer.NTEXT},
+                rows));
+    }
+
+    public void tearDown() throws Exception {
+        server.close();
+    }
+
+    /**
+     * Test that the values are streamed and skipped if not read.
+     */
+    public void testStream() throws Exception {
+        Connection con = connect(true);
+        ResultSet rs = con.createStatement().executeQuery("SELECT * FROM t");
+
+        for (int i = 0; i < ROWS; i++) {
+            assertTrue(rs.next());
+
+            if (i == 1) {
+                // skip the row
+                continue;
+            }
+
+            assertEquals(i, rs.getInt(1));
+            assertTrue(Arrays.equals(getBytes(i), read(rs.getBinaryStream(2))));
+            assertEquals("row " + i, rs.getString(3));
+
+            if (i == 3) {
+                // skip the value
+                continue;
+            }
+
+            Reader reader = rs.getCharacterStream(4);
+
+            if (i == 2) {
+                assertNull(reader);
+                assertTrue(rs.wasNull());
+            } else {
+                assertEquals(getText(i), read(reader));
+            }
+        }
+
+        assertFalse(rs.next());
+        con.close();
+    }
+
+    /**
+     * Test that streamed NTEXT values are decoded as UCS-2, passing unpaired
+     * surrogates through unchanged.
+     */
+    public void testUnpairedSurrogates() throws Exception {
+        StringBuilder buf = new StringBuilder();
+
+        for (int i = 0; buf.length() < 50000; i++) {
+            buf.append("text ").append(i).append(i % 3 == 0 ? '\ud800' : '\udc00');
+        }
+
+        String text = buf.toString();
+
+        server.setResult("SELECT t FROM t", FakeTdsServer.Result.rows(
+                new String[] {"t"}, new int[] {FakeTdsServer.NTEXT},
+                new Object[][] {{text}}));
+
+        Connection con = connect(true);
+        ResultSet rs = con.createStatement().executeQuery("SELECT t FROM t");
+
+        assertTrue(rs.next());
+        assertEquals(text, read(rs.getCharacterStream(1)));
+        con.close();
+    }
+
+    /**
+     * Test that a value can be retrieved only once as a stream and that the
+     * stream is invalid once a later column is retrieved.
+     */
+    public void testStreamOnce() throws Exception {
+        Connection con = connect(true);
+        ResultSet rs = con.createStatement().executeQuery("SELECT * FROM t");
+
+        assertTrue(rs.next());
+
+        InputStream in = rs.getBinaryStream(2);
+
+        assertEquals(getBytes(0)[0] & 0xFF, in.read());
+
+        try {
+            rs.getBytes(2);
+            fail("Expected an SQLException");
+        } catch (SQLException e) {
+            assertEquals("HY010", e.getSQLState());
+        }
+
+        // The later values are read from the response
+        assertEquals(getText(0), rs.getString(4));
+        assertEquals("row 0", rs.getString(3));
+        assertEquals(0, rs.getInt(1));
+
+        try {
+            in.read();
+            fail("Expected an IOException");
+        } catch (IOException e) {
+            // expected
+        }
+
+        // Values read before the stream is requested are not streamed
+        assertTrue(rs.next());
+        assertEquals(getText(1), rs.getString(4));
+        assertTrue(Arrays.equals(getBytes(1), read(rs.getBinaryStream(2))));
+        assertTrue(Arrays.equals(getBytes(1), read(rs.getBinaryStream(2))));
+
+        con.close();
+    }
+
+    /**
+     * Test that the remaining rows are cached when another statement is
+     * executed.
+     */
+    public void testCacheRows() throws Exception {
+        Connection con = connect(true);
+        ResultSet rs = con.createStatement().executeQuery("SELECT * FROM t");
+
+        assertTrue(rs.next());
+        con.createStatement().executeQuery("SELECT * FROM t").close();
+
+        for (int i = 0; i < ROWS; i++) {
+            if (i > 0) {
+                assertTrue(rs.next());
+            }
+
+            assertEquals(i, rs.getInt(1));
+            assertTrue(Arrays.equals(getBytes(i), read(rs.getBinaryStream(2))));
+            assertEquals("row " + i, rs.getString(3));
+            assertEquals(i == 2 ? null : getText(i), rs.getString(4));
+        }
+
+        assertFalse(rs.next());
+        con.close();
+    }
+
+    /**
+     * Test that the values are not streamed without <code>streamLOBs</code>
+     * or from scrollable result sets.
+     */
+    public void testNotStreamed() throws Exception {
+        Connection con = connect(false);
+
+        assertBuffered(con.createStatement());
+        con.close();
+
+        con = connect(true);
+        assertBuffered(con.createStatement(ResultSet.TYPE_SCROLL_INSENSITIVE,
+                ResultSet.CONCUR_READ_ONLY));
+        con.close();
+    }
+
+    private void assertBuffered(Statement stmt) throws Exception {
+        ResultSet rs = stmt.executeQuery("SELECT * FROM t");
+
+        for (int i = 0; i < ROWS; i++) {
+            assertTrue(rs.next());
+            assertTrue(Arrays.equals(getBytes(i), read(rs.getBinaryStream(2))));
+            assertTrue(Arrays.equals(getBytes(i), rs.getBytes(2)));
+            assertEquals(i == 2 ? null : getText(i), rs.getString(4));
+        }
+
+        assertFalse(rs.next());
+        rs.close();
+    }
+
+    private Connection connect(boolean streamLobs) throws SQLException {
+        return DriverManager.getConnection(server.getUrl(
+                ";lobBuffer=1000;streamLOBs=" + streamLobs));
+    }
+
+    private static byte[] getBytes(int row) {
+        byte[] value = new byte[100000 + row];
+
+        for (int i = 0; i < value.length; i++) {
+            value[i] = (byte) (i * 31 + row);
+        }
+
+        return value;
+    }
+
+    private static String getText(int row) {
+        StringBuilder buf = new StringBuilder();
+
+        while (buf.length() < 50000) {
+            buf.append("text \u00e4\u20ac ").append(row).append(' ').append(buf.length());
+        }
+
+        return buf.toString();
+    }
+
+    private static byte[] read(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buf = new byte[1000];
+
+        for (int len; (len = in.read(buf)) >= 0; ) {
+            out.write(buf, 0, len);
+        }
+
+        return out.toByteArray();
+    }
+
+    private static String read(Reader in) throws IOException {
+        StringBuilder buf = new StringBuilder();
+        char[] chars = new char[1000];
+
+        for (int len; (len = in.read(chars)) >= 0; ) {
+            buf.append(chars, 0, len);
+        }
+
+        return buf.toString();
+    }
+}
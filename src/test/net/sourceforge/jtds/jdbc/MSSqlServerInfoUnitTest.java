@@ -0,0 +1,184 @@
+// jTDS JDBC Driver for Microsoft SQL Server and Sybase
+// Copyright (C) 2004 The jTDS Project
+//
+// This library is free software; you can redistribute it and/or
+// modify it under the terms of the GNU Lesser General Public
+// License as published by the Free Software Foundation; either
+// version 2.1 of the License, or (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+//
+package net.sourceforge.jtds.jdbc;
+
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.SocketException;
+import java.sql.SQLException;
+
+/**
+ * Unit tests for the caching of SQL Server Browser responses by
+ * {@link MSSqlServerInfo}, using a local UDP responder.
+ */
+public class MSSqlServerInfoUnitTest extends UnitTestBase {
+    private static final String RESPONSE =
+            "ServerName;HOST;InstanceName;MSSQLSERVER;IsClustered;No;"
+            + "Version;8.00.194;tcp;1433;;"
+            + "ServerName;HOST;InstanceName;DOG;IsClustered;No;"
+            + "Version;8.00.194;tcp;3546;;";
+
+    private Responder responder;
+
+    public MSSqlServerInfoUnitTest(String name) {
+        super(name);
+    }
+
+    public void setUp() throws Exception {
+        responder = new Responder();
+    }
+
+    public void tearDown() throws Exception {
+        MSSqlServerInfo.invalidate("127.0.0.1", responder.getPort());
+        responder.close();
+    }
+
+    /**
+     * Test that the response is cached.
+     */
+    public void testCache() throws Exception {
+        int port = responder.getPort();
+
+        assertEquals(3546, MSSqlServerInfo.getInstance("127.0.0.1", port)
+                .getPortForInstance("dog"));
+        assertEquals(1433, MSSqlServerInfo.getInstance("127.0.0.1", port)
+                .getPortForInstance(null));
+        assertEquals(-1, MSSqlServerInfo.getInstance("127.0.0.1", port)
+                .getPortForInstance("cat"));
+        assertEquals(1, responder.getRequestCount());
+
+        // Asked again after invalidation
+        MSSqlServerInfo.invalidate("127.0.0.1", port);
+        assertEquals(3546, MSSqlServerInfo.getInstance("127.0.0.1", port)
+                .getPortForInstance("DOG"));
+        assertEquals(2, responder.getRequestCount());
+    }
+
+    /**
+     * Test that a failed lookup is cached.
+     */
+    public void testNegativeCache() throws Exception {
+        int port = responder.getPort();
+
+        responder.setResponse("");
+
+        for (int i = 0; i < 3; i++) {
+            try {
+                MSSqlServerInfo.getInstance("127.0.0.1", port);
+                fail("Expected an SQLException");
+            } catch (SQLException e) {
+                assertEquals("HY000", e.getSQLState());
+            }
+        }
+
+        assertEquals(1, responder.getRequestCount());
+    }
+
+    /**
+     * Test that concurrent lookups send a single request.
+     */
+    public void testConcurrentLookups() throws Exception {
+        final int port = responder.getPort();
+        final int[] ports = new int[10];
+        Thread[] threads = new Thread[ports.length];
+
+        responder.setDelay(200);
+
+        for (int i = 0; i < threads.length; i++) {
+            final int index = i;
+
+            threads[i] = new Thread() {
+                public void run() {
+                    try {
+                        ports[index] = MSSqlServerInfo.getInstance("127.0.0.1", port)
+                                .getPortForInstance("DOG");
+                    } catch (SQLException e) {
+                        ports[index] = -2;
+                    }
+                }
+            };
+            threads[i].start();
+        }
+
+        for (int i = 0; i < threads.length; i++) {
+            threads[i].join();
+            assertEquals(3546, ports[i]);
+        }
+
+        assertEquals(1, responder.getRequestCount());
+    }
+
+    /**
+     * Answers SQL Server Browser requests on an ephemeral port.
+     */
+    private static class Responder extends Thread {
+        private final DatagramSocket socket;
+        private volatile String response = RESPONSE;
+        private volatile int delay;
+        private volatile int requests;
+
+        Responder() throws SocketException {
+            socket = new DatagramSocket(0, InetAddress.getLoopbackAddress());
+            setDaemon(true);
+            start();
+        }
+
+        int getPort() {
+            return socket.getLocalPort();
+        }
+
+        int getRequestCount() {
+            return requests;
+        }
+
+        void setResponse(String response) {
+            this.response = response;
+        }
+
+        void setDelay(int delay) {
+            this.delay = delay;
+        }
+
+        void close() {
+            socket.close();
+        }
+
+        public void run() {
+            try {
+                while (true) {
+                    DatagramPacket request = new DatagramPacket(new byte[16], 16);
+
+                    socket.receive(request);
+                    requests++;
+                    Thread.sleep(delay);
+
+                    // 3 bytes header, an empty response is invalid
+                    byte[] data = response.length() == 0
+                            ? new byte[] {0x05}
+                            : ("\u0005\u0000\u0000" + response).getBytes("ISO-8859-1");
+
+                    socket.send(new DatagramPacket(data, data.length,
+                            request.getSocketAddress()));
+                }
+            } catch (Exception e) {
+                // closed
+            }
+        }
+    }
+}
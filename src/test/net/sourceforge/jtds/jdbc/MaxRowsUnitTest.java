@@ -0,0 +1,158 @@
+// jTDS JDBC Driver for Microsoft SQL Server and Sybase
+// Copyright (C) 2004 The jTDS Project
+//
+// This library is free software; you can redistribute it and/or
+// modify it under the terms of the GNU Lesser General Public
+// License as published by the Free Software Foundation; either
+// version 2.1 of the License, or (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+//
+package net.sourceforge.jtds.jdbc;
+
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * Unit tests for sending the <code>SET ROWCOUNT</code> and
+ * <code>SET TEXTSIZE</code> statements for <code>setMaxRows</code> and
+ * <code>setMaxFieldSize</code> with the request, run against the
+ * {@link FakeTdsServer}.
+ */
+public class MaxRowsUnitTest extends UnitTestBase {
+    private FakeTdsServer server;
+    private JtdsConnection con;
+
+    public MaxRowsUnitTest(String name) {
+        super(name);
+    }
+
+    public void setUp() throws Exception {
+        Class.forName(Driver.class.getName());
+        server = new FakeTdsServer();
+        server.setResult("SELECT * FROM t", FakeTdsServer.Result.generated(1, 20));
+        server.setResult("UPDATE t", FakeTdsServer.Result.update(7));
+        server.setResult("SELECT * FROM bad", FakeTdsServer.Result.error(208, "Invalid object name 'bad'."));
+        con = (JtdsConnection) DriverManager.getConnection(server.getUrl(""));
+        // the initial settings are sent with the first request
+        con.createStatement().execute("SELECT 1");
+    }
+
+    public void tearDown() throws Exception {
+        con.close();
+        server.close();
+    }
+
+    /**
+     * Test that alternating statements with different maximum row counts
+     * return the right number of rows without additional round trips.
+     */
+    public void testAlternatingMaxRows() throws Exception {
+        Statement limited = con.createStatement();
+        Statement unlimited = con.createStatement();
+
+        limited.setMaxRows(5);
+        limited.setMaxFieldSize(100);
+
+        long requests = server.getRequestCount();
+
+        for (int i = 0; i < 5; i++) {
+            assertEquals(5, count(limited.executeQuery("SELECT * FROM t")));
+            assertEquals(20, count(unlimited.executeQuery("SELECT * FROM t")));
+        }
+
+        assertEquals(requests + 10, server.getRequestCount());
+        assertEquals(0, con.getRowCount());
+    }
+
+    /**
+     * Test that the update count is returned when the row count is changed
+     * with the update.
+     */
+    public void testUpdate() throws Exception {
+        Statement stmt = con.createStatement();
+
+        stmt.setMaxRows(3);
+        assertEquals(7, stmt.executeUpdate("UPDATE t SET x = 1"));
+        assertEquals(3, con.getRowCount());
+    }
+
+    /**
+     * Test that a prepared statement executed as RPC sets the row count
+     * before the call.
+     */
+    public void testPrepared() throws Exception {
+        PreparedStatement ps = con.prepareStatement("SELECT * FROM t WHERE id = ?");
+
+        ps.setInt(1, 1);
+        ps.setMaxRows(4);
+        assertEquals(4, count(ps.executeQuery()));
+
+        ps.setMaxRows(0);
+        assertEquals(20, count(ps.executeQuery()));
+        ps.close();
+    }
+
+    /**
+     * Test that the row count is set with a separate request if the batch
+     * has to start with its first statement.
+     */
+    public void testCreateProcedure() throws Exception {
+        Statement stmt = con.createStatement();
+
+        stmt.setMaxRows(5);
+
+        long requests = server.getRequestCount();
+
+        stmt.execute("CREATE PROC p AS SELECT * FROM t");
+        assertEquals(requests + 2, server.getRequestCount());
+        assertEquals(5, con.getRowCount());
+
+        // no further change, no further request
+        stmt.execute("create proc q AS SELECT * FROM t");
+        assertEquals(requests + 3, server.getRequestCount());
+    }
+
+    /**
+     * Test that a failed request invalidates the row count of the
+     * connection, so that it's sent again with the next request.
+     */
+    public void testError() throws Exception {
+        Statement stmt = con.createStatement();
+
+        stmt.setMaxRows(5);
+
+        try {
+            stmt.executeQuery("SELECT * FROM bad");
+            fail("Expected an error");
+        } catch (SQLException e) {
+            assertEquals(208, e.getErrorCode());
+        }
+
+        assertEquals(-1, con.getRowCount());
+        assertEquals(5, count(stmt.executeQuery("SELECT * FROM t")));
+        assertEquals(5, con.getRowCount());
+    }
+
+    private static int count(ResultSet rs) throws SQLException {
+        int rows = 0;
+
+        while (rs.next()) {
+            rows++;
+        }
+
+        rs.close();
+
+        return rows;
+    }
+}
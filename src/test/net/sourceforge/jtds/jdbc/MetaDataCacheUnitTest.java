@@ -0,0 +1,187 @@
+// jTDS JDBC Driver for Microsoft SQL Server and Sybase
+// Copyright (C) 2004 The jTDS Project
+//
+// This library is free software; you can redistribute it and/or
+// modify it under the terms of the GNU Lesser General Public
+// License as published by the Free Software Foundation; either
+// version 2.1 of the License, or (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+//
+package net.sourceforge.jtds.jdbc;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * Unit tests for the {@link MetaDataCache} and the suppression of column
+ * meta data by the <code>cacheMetaData</code> connection property, run
+ * against the {@link FakeTdsServer}.
+ */
+public class MetaDataCacheUnitTest extends UnitTestBase {
+    private FakeTdsServer server;
+
+    public MetaDataCacheUnitTest(String name) {
+        super(name);
+    }
+
+    public void setUp() throws Exception {
+        Class.forName(Driver.class.getName());
+        server = new FakeTdsServer();
+        server.setResult("SELECT * FROM t", FakeTdsServer.Result.generated(2, 3));
+        server.setResult("SELECT * FROM u", FakeTdsServer.Result.generated(3, 3));
+    }
+
+    public void tearDown() throws Exception {
+        server.close();
+    }
+
+    /**
+     * Test that results with the same meta data share the column
+     * descriptors.
+     */
+    public void testSharedColumns() throws Exception {
+        JtdsConnection con = (JtdsConnection) DriverManager.getConnection(server.getUrl(""));
+        Statement stmt = con.createStatement();
+
+        ColInfo[] columns = select(stmt, "SELECT * FROM t");
+        long hits = con.getMetaDataCache().getHitCount();
+
+        assertSame(columns, select(stmt, "SELECT * FROM t"));
+        assertSame(columns, select(con.createStatement(), "SELECT * FROM t"));
+        assertEquals(hits + 2, con.getMetaDataCache().getHitCount());
+
+        ColInfo[] other = select(stmt, "SELECT * FROM u");
+
+        assertEquals(3, other.length);
+        assertSame(columns, select(stmt, "SELECT * FROM t"));
+        assertSame(other, select(stmt, "SELECT * FROM u"));
+        con.close();
+    }
+
+    /**
+     * Test that changing the columns of a result doesn't change the shared
+     * column descriptors.
+     */
+    public void testColumnsCopiedOnUpdate() throws Exception {
+        Connection con = DriverManager.getConnection(server.getUrl(""));
+        Statement stmt = con.createStatement();
+        JtdsResultSet rs = (JtdsResultSet) stmt.executeQuery("SELECT * FROM t");
+        String name = rs.getMetaData().getColumnLabel(1);
+
+        rs.setColLabel(1, "renamed");
+        assertEquals("renamed", rs.getMetaData().getColumnLabel(1));
+        rs.close();
+
+        rs = (JtdsResultSet) stmt.executeQuery("SELECT * FROM t");
+        assertEquals(name, rs.getMetaData().getColumnLabel(1));
+        con.close();
+    }
+
+    /**
+     * Test that the meta data of statements prepared with
+     * <code>sp_prepexec</code> is suppressed on later executions.
+     */
+    public void testNoMetaDataPrepare() throws Exception {
+        Connection con = DriverManager.getConnection(server.getUrl(
+                ";prepareSQL=3;cacheMetaData=true"));
+
+        assertNoMetaData(con, 2);
+        con.close();
+    }
+
+    /**
+     * Test that the meta data of statements executed with
+     * <code>sp_executesql</code> is suppressed on later executions with the
+     * same parameter types.
+     */
+    public void testNoMetaDataExecuteSql() throws Exception {
+        Connection con = DriverManager.getConnection(server.getUrl(
+                ";prepareSQL=2;cacheMetaData=true"));
+
+        assertNoMetaData(con, 2);
+
+        // Other parameter types may change the meta data
+        PreparedStatement pstmt = con.prepareStatement("SELECT * FROM t WHERE a = ?");
+        int count = server.getNoMetaDataCount();
+
+        pstmt.setInt(1, 1);
+        assertRows(pstmt.executeQuery());
+        pstmt.setString(1, "1");
+        assertRows(pstmt.executeQuery());
+        assertEquals(count, server.getNoMetaDataCount());
+        pstmt.setString(1, "2");
+        assertRows(pstmt.executeQuery());
+        assertEquals(count + 1, server.getNoMetaDataCount());
+        con.close();
+    }
+
+    /**
+     * Test that the meta data is not suppressed without
+     * <code>cacheMetaData</code>.
+     */
+    public void testNoCacheMetaData() throws Exception {
+        Connection con = DriverManager.getConnection(server.getUrl(
+                ";prepareSQL=3"));
+
+        assertNoMetaData(con, 0);
+        con.close();
+
+        con = DriverManager.getConnection(server.getUrl(";prepareSQL=2"));
+        assertNoMetaData(con, 0);
+        con.close();
+    }
+
+    /**
+     * Executes a prepared statement three times.
+     *
+     * @param expected the number of executions expected to suppress the
+     *                 meta data
+     */
+    private void assertNoMetaData(Connection con, int expected)
+            throws SQLException {
+        int count = server.getNoMetaDataCount();
+        PreparedStatement pstmt = con.prepareStatement("SELECT * FROM t WHERE a = ?");
+
+        for (int i = 0; i < 3; i++) {
+            pstmt.setInt(1, i);
+            assertRows(pstmt.executeQuery());
+        }
+
+        assertEquals(expected, server.getNoMetaDataCount() - count);
+        pstmt.close();
+    }
+
+    private static ColInfo[] select(Statement stmt, String sql)
+            throws SQLException {
+        JtdsResultSet rs = (JtdsResultSet) stmt.executeQuery(sql);
+        ColInfo[] columns = rs.getColumns();
+
+        while (rs.next());
+        rs.close();
+
+        return columns;
+    }
+
+    private static void assertRows(ResultSet rs) throws SQLException {
+        for (int row = 0; row < 3; row++) {
+            assertTrue(rs.next());
+            assertEquals(row * 2, rs.getInt(1));
+            assertEquals("row " + row + " column 1", rs.getString(2));
+        }
+
+        assertFalse(rs.next());
+        rs.close();
+    }
+}
@@ -0,0 +1,91 @@
+// jTDS JDBC Driver for Microsoft SQL Server and Sybase
+// Copyright (C) 2004 The jTDS Project
+//
+// This library is free software; you can redistribute it and/or
+// modify it under the terms of the GNU Lesser General Public
+// License as published by the Free Software Foundation; either
+// version 2.1 of the License, or (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+//
+package net.sourceforge.jtds.jdbc;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit tests for the {@link PacketBufferPool} class.
+ */
+public class PacketBufferPoolUnitTest extends TestCase {
+
+    public PacketBufferPoolUnitTest(String name) {
+        super(name);
+    }
+
+    /**
+     * Test that buffers are rounded up to the size classes.
+     */
+    public void testSizeClasses() {
+        assertEquals(512, PacketBufferPool.get(1).length);
+        assertEquals(512, PacketBufferPool.get(512).length);
+        assertEquals(1024, PacketBufferPool.get(513).length);
+        assertEquals(4096, PacketBufferPool.get(4096).length);
+        assertEquals(65536, PacketBufferPool.get(65536).length);
+        assertEquals(65537, PacketBufferPool.get(65537).length);
+    }
+
+    /**
+     * Test that returned buffers are reused and counted as hits.
+     */
+    public void testReuse() {
+        byte[] buffer = PacketBufferPool.get(2048);
+        PacketBufferPool.release(buffer);
+
+        long hits = PacketBufferPool.getHitCount();
+        byte[] reused = PacketBufferPool.get(2000);
+
+        assertSame(buffer, reused);
+        assertEquals(hits + 1, PacketBufferPool.getHitCount());
+    }
+
+    /**
+     * Test that buffers not matching a size class are not pooled.
+     */
+    public void testForeignBuffer() {
+        int free = PacketBufferPool.getFreeCount();
+
+        PacketBufferPool.release(new byte[4000]);
+        PacketBufferPool.release(new byte[0]);
+        PacketBufferPool.release(null);
+
+        assertEquals(free, PacketBufferPool.getFreeCount());
+    }
+
+    /**
+     * Test that the number of pooled buffers is bounded.
+     */
+    public void testBounded() {
+        int size = 65536;
+        int max = PacketBufferPool.MAX_CLASS_BYTES / size;
+
+        for (int i = 0; i < max * 4; i++) {
+            PacketBufferPool.release(new byte[size]);
+        }
+
+        int pooled = 0;
+        long misses = PacketBufferPool.getMissCount();
+
+        while (PacketBufferPool.getMissCount() == misses) {
+            PacketBufferPool.get(size);
+            pooled++;
+        }
+
+        assertEquals(max + 1, pooled);
+    }
+}
@@ -0,0 +1,192 @@
+// jTDS JDBC Driver for Microsoft SQL Server and Sybase
+// Copyright (C) 2004 The jTDS Project
+//
+// This library is free software; you can redistribute it and/or
+// modify it under the terms of the GNU Lesser General Public
+// License as published by the Free Software Foundation; either
+// version 2.1 of the License, or (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+//
+package net.sourceforge.jtds.jdbc;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+
+/**
+ * Unit tests for preparing statements with <code>sp_prepexec</code> and
+ * releasing obsolete handles with the next request, run against the
+ * {@link FakeTdsServer}.
+ */
+public class PrepExecUnitTest extends UnitTestBase {
+    private FakeTdsServer server;
+    private Connection con;
+
+    public PrepExecUnitTest(String name) {
+        super(name);
+    }
+
+    public void setUp() throws Exception {
+        Class.forName(Driver.class.getName());
+        server = new FakeTdsServer();
+        server.setResult("SELECT * FROM t WHERE", FakeTdsServer.Result.generated(2, 3));
+        server.setResult("SELECT * FROM u WHERE", FakeTdsServer.Result.generated(1, 5));
+        server.setResult("SELECT * FROM t", FakeTdsServer.Result.generated(1, 7));
+        con = DriverManager.getConnection(server.getUrl(";maxStatements=1"));
+        // the initial settings are sent with the first request
+        con.createStatement().execute("SELECT 1");
+    }
+
+    public void tearDown() throws Exception {
+        con.close();
+        server.close();
+    }
+
+    /**
+     * Test that the first execution prepares the statement in the same
+     * round trip and later executions reuse the handle.
+     */
+    public void testPrepExec() throws Exception {
+        PreparedStatement pstmt = con.prepareStatement("SELECT * FROM t WHERE id = ?");
+        long requests = server.getRequestCount();
+
+        for (int i = 0; i < 3; i++) {
+            pstmt.setInt(1, i);
+            assertEquals(3, count(pstmt.executeQuery()));
+        }
+
+        assertEquals(requests + 3, server.getRequestCount());
+        assertEquals(1, server.getPrepareCount());
+
+        // a second statement with the same SQL uses the cached handle
+        PreparedStatement other = con.prepareStatement("SELECT * FROM t WHERE id = ?");
+
+        other.setInt(1, 1);
+        assertEquals(3, count(other.executeQuery()));
+        assertEquals(1, server.getPrepareCount());
+
+        other.close();
+        pstmt.close();
+    }
+
+    /**
+     * Test that closing a statement with an obsolete handle doesn't send a
+     * request and the handle is released by a separate request before the
+     * next SQL batch, which must be able to start with its own statement.
+     */
+    public void testUnprepareWithBatch() throws Exception {
+        PreparedStatement t = prepare("SELECT * FROM t WHERE id = ?", 3);
+        PreparedStatement u = prepare("SELECT * FROM u WHERE id = ?", 5);
+        long requests = server.getRequestCount();
+
+        // the handle of t was evicted from the cache by u
+        t.close();
+
+        assertEquals(requests, server.getRequestCount());
+        assertEquals(0, server.getUnprepareCount());
+
+        con.createStatement().execute("CREATE PROC p AS SELECT * FROM t");
+
+        assertEquals(requests + 2, server.getRequestCount());
+        assertEquals(1, server.getUnprepareCount());
+
+        // nothing left to release
+        ResultSet rs = con.createStatement().executeQuery("SELECT * FROM t");
+
+        assertEquals(7, count(rs));
+        assertEquals(requests + 3, server.getRequestCount());
+
+        u.close();
+    }
+
+    /**
+     * Test that an obsolete handle is released with the next RPC and the
+     * RPC's results are not affected.
+     */
+    public void testUnprepareWithRpc() throws Exception {
+        PreparedStatement t = prepare("SELECT * FROM t WHERE id = ?", 3);
+        PreparedStatement u = prepare("SELECT * FROM u WHERE id = ?", 5);
+        long requests = server.getRequestCount();
+
+        t.close();
+
+        u.setInt(1, 2);
+        assertEquals(5, count(u.executeQuery()));
+        assertEquals(requests + 1, server.getRequestCount());
+        assertEquals(1, server.getUnprepareCount());
+
+        // nothing left to release
+        assertEquals(5, count(u.executeQuery()));
+        assertEquals(1, server.getUnprepareCount());
+
+        u.close();
+    }
+
+    /**
+     * Test that an error releasing an obsolete handle with the next RPC
+     * doesn't affect the RPC's results or the update counts of a batch.
+     */
+    public void testUnprepareError() throws Exception {
+        PreparedStatement t = prepare("SELECT * FROM t WHERE id = ?", 3);
+        PreparedStatement u = prepare("SELECT * FROM u WHERE id = ?", 5);
+
+        t.close();
+        u.close();
+        // the server has released the handles already
+        server.forgetPrepared();
+
+        PreparedStatement pstmt = con.prepareStatement("SELECT * FROM t WHERE id = ?");
+
+        pstmt.setInt(1, 1);
+        assertEquals(3, count(pstmt.executeQuery()));
+        assertEquals(0, server.getUnprepareCount());
+        pstmt.close();
+
+        server.forgetPrepared();
+        server.setResult("UPDATE t", FakeTdsServer.Result.update(2));
+
+        pstmt = con.prepareStatement("UPDATE t SET id = ? WHERE id = 1");
+
+        for (int i = 0; i < 3; i++) {
+            pstmt.setInt(1, i);
+            pstmt.addBatch();
+        }
+
+        int[] counts = pstmt.executeBatch();
+
+        assertEquals(3, counts.length);
+        for (int i = 0; i < counts.length; i++) {
+            assertEquals(2, counts[i]);
+        }
+        pstmt.close();
+    }
+
+    private PreparedStatement prepare(String sql, int rows) throws Exception {
+        PreparedStatement pstmt = con.prepareStatement(sql);
+
+        pstmt.setInt(1, 1);
+        assertEquals(rows, count(pstmt.executeQuery()));
+
+        return pstmt;
+    }
+
+    private static int count(ResultSet rs) throws Exception {
+        int rows = 0;
+
+        while (rs.next()) {
+            rows++;
+        }
+        rs.close();
+
+        return rows;
+    }
+}
@@ -0,0 +1,83 @@
+// jTDS JDBC Driver for Microsoft SQL Server and Sybase
+// Copyright (C) 2004 The jTDS Project
+//
+// This library is free software; you can redistribute it and/or
+// modify it under the terms of the GNU Lesser General Public
+// License as published by the Free Software Foundation; either
+// version 2.1 of the License, or (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+//
+package net.sourceforge.jtds.jdbc;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit tests for the {@link PrimitiveRow} class.
+ */
+public class PrimitiveRowUnitTest extends TestCase {
+
+    public PrimitiveRowUnitTest(String name) {
+        super(name);
+    }
+
+    /**
+     * Test that primitive values are widened and boxed correctly.
+     */
+    public void testValues() {
+        PrimitiveRow row = new PrimitiveRow(4);
+        row.setInt(0, 42);
+        row.setLong(1, Long.MAX_VALUE);
+        row.setFloat(2, 1.5f);
+        row.setDouble(3, 2.25);
+
+        assertEquals(PrimitiveRow.INT, row.getKind(0));
+        assertEquals(42, row.getInt(0));
+        assertEquals(42L, row.getLong(0));
+        assertEquals(42.0, row.getDouble(0), 0);
+        assertEquals(Long.MAX_VALUE, row.getLong(1));
+        assertEquals(1.5f, row.getFloat(2), 0);
+        assertEquals(2.25, row.getDouble(3), 0);
+
+        Object[] data = new Object[4];
+        row.box(data);
+
+        assertEquals(new Integer(42), data[0]);
+        assertEquals(new Long(Long.MAX_VALUE), data[1]);
+        assertEquals(new Float(1.5f), data[2]);
+        assertEquals(new Double(2.25), data[3]);
+
+        for (int i = 0; i < 4; i++) {
+            assertFalse(row.isSet(i));
+        }
+    }
+
+    /**
+     * Test the <code>NULL</code> bitmap beyond the first 64 columns.
+     */
+    public void testNulls() {
+        PrimitiveRow row = new PrimitiveRow(130);
+        row.setNull(129, PrimitiveRow.LONG);
+        row.setInt(65, 7);
+
+        assertTrue(row.isNull(129));
+        assertFalse(row.isNull(1));
+        assertFalse(row.isNull(65));
+        assertEquals(0, row.getLong(129));
+
+        Object[] data = new Object[130];
+        data[129] = "stale";
+        row.box(data, 129);
+        assertNull(data[129]);
+
+        row.setLong(129, 3);
+        assertFalse(row.isNull(129));
+    }
+}
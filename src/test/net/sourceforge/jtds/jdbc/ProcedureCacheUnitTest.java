@@ -0,0 +1,183 @@
+// jTDS JDBC Driver for Microsoft SQL Server and Sybase
+// Copyright (C) 2004 The jTDS Project
+//
+// This library is free software; you can redistribute it and/or
+// modify it under the terms of the GNU Lesser General Public
+// License as published by the Free Software Foundation; either
+// version 2.1 of the License, or (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+//
+package net.sourceforge.jtds.jdbc;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+
+import net.sourceforge.jtds.jdbc.cache.ProcedureCache;
+
+/**
+ * Unit tests for the eviction policies of {@link ProcedureCache}.
+ */
+public class ProcedureCacheUnitTest extends UnitTestBase {
+
+    public ProcedureCacheUnitTest(String name) {
+        super(name);
+    }
+
+    /**
+     * Test that the least recently used entry is released.
+     */
+    public void testLru() {
+        ProcedureCache cache = ProcedureCache.getInstance("LRU", 2);
+
+        assertEquals("", use(cache, "a"));
+        assertEquals("", use(cache, "b"));
+        assertEquals("", use(cache, "a"));
+        assertEquals("b", use(cache, "c"));
+    }
+
+    /**
+     * Test that the oldest entry is released, whether used or not.
+     */
+    public void testFifo() {
+        ProcedureCache cache = ProcedureCache.getInstance(ProcedureCache.FIFO, 2);
+
+        assertEquals("", use(cache, "a"));
+        assertEquals("", use(cache, "b"));
+        assertEquals("", use(cache, "a"));
+        assertEquals("a", use(cache, "c"));
+    }
+
+    /**
+     * Test that frequently used entries survive a series of statements
+     * executed only once, which evicts them from a LRU cache.
+     */
+    public void testLfu() {
+        ProcedureCache lfu = ProcedureCache.getInstance(ProcedureCache.LFU, 2);
+        ProcedureCache lru = ProcedureCache.getInstance(ProcedureCache.LRU, 2);
+
+        for (int i = 0; i < 5; i++) {
+            use(lfu, "hot");
+            use(lru, "hot");
+        }
+
+        StringBuilder lfuReleased = new StringBuilder();
+        StringBuilder lruReleased = new StringBuilder();
+
+        for (int i = 0; i < 20; i++) {
+            lfuReleased.append(use(lfu, "once" + i));
+            lruReleased.append(use(lru, "once" + i));
+        }
+
+        assertTrue(lfuReleased.toString().indexOf("hot") < 0);
+        assertTrue(lruReleased.toString().indexOf("hot") >= 0);
+
+        // the hot statement is still cached
+        long hits = lfu.getHitCount();
+
+        use(lfu, "hot");
+        assertEquals(hits + 1, lfu.getHitCount());
+    }
+
+    /**
+     * Test that entries in use are not released, even if they are the least
+     * recently used ones.
+     */
+    public void testInUse() {
+        ProcedureCache cache = ProcedureCache.getInstance(ProcedureCache.LRU, 1);
+        ProcEntry a = new ProcEntry();
+
+        a.setName("a");
+        cache.put("a", a);
+
+        assertEquals("b", use(cache, "b"));
+        assertEquals(1, cache.getHandleCount());
+        assertEquals("", names(cache.getObsoleteHandles(Collections.singleton(a))));
+        assertEquals("a", use(cache, "c"));
+    }
+
+    /**
+     * Test that a cache of size <code>Integer.MAX_VALUE</code> never
+     * releases entries.
+     */
+    public void testUnbounded() {
+        ProcedureCache cache = ProcedureCache.getInstance(ProcedureCache.LRU, Integer.MAX_VALUE);
+
+        for (int i = 0; i < 1000; i++) {
+            assertEquals("", use(cache, "s" + i % 700));
+        }
+
+        assertEquals(700, cache.getHandleCount());
+        assertEquals(0, cache.getEvictionCount());
+    }
+
+    /**
+     * Test the cache statistics.
+     */
+    public void testStatistics() {
+        ProcedureCache cache = ProcedureCache.getInstance(ProcedureCache.LRU, 2);
+
+        use(cache, "a");
+        use(cache, "a");
+        use(cache, "b");
+        use(cache, "a");
+        use(cache, "c");
+
+        assertEquals(2, cache.getHitCount());
+        assertEquals(3, cache.getMissCount());
+        assertEquals(0.4, cache.getHitRatio(), 0.0001);
+        assertEquals(2, cache.getHandleCount());
+        assertEquals(1, cache.getEvictionCount());
+        assertTrue(cache.getScavengeTime() >= 0);
+    }
+
+    /**
+     * Test that an unknown policy is rejected.
+     */
+    public void testUnknownPolicy() {
+        try {
+            ProcedureCache.getInstance("mru", 10);
+            fail("Expected an IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+    }
+
+    /**
+     * Executes a statement: looks up or adds the handle, then closes the
+     * statement.
+     *
+     * @return the names of the handles released, concatenated
+     */
+    private static String use(ProcedureCache cache, String key) {
+        ProcEntry entry = (ProcEntry) cache.get(key);
+
+        if (entry == null) {
+            entry = new ProcEntry();
+            entry.setName(key);
+            cache.put(key, entry);
+        }
+
+        return names(cache.getObsoleteHandles(Collections.singleton(entry)));
+    }
+
+    private static String names(Collection handles) {
+        StringBuilder names = new StringBuilder();
+
+        if (handles != null) {
+            for (Iterator it = handles.iterator(); it.hasNext();) {
+                names.append(it.next());
+            }
+        }
+
+        return names.toString();
+    }
+}
@@ -0,0 +1,105 @@
+// jTDS JDBC Driver for Microsoft SQL Server and Sybase
+// Copyright (C) 2004 The jTDS Project
+//
+// This library is free software; you can redistribute it and/or
+// modify it under the terms of the GNU Lesser General Public
+// License as published by the Free Software Foundation; either
+// version 2.1 of the License, or (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+//
+package net.sourceforge.jtds.jdbc;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit tests for the decoding of strings by {@link ResponseStream}, run
+ * against the {@link FakeTdsServer}.
+ */
+public class ResponseStreamUnitTest extends TestCase {
+    private static final String[] VALUES = {
+        "",
+        "a",
+        "ASCII text of some length, 1234567890",
+        "\u00e4\u00f6\u00fc \u00df \u20ac",
+        "\u65e5\u672c\u8a9e",
+        "pair \ud83d\ude00 of surrogates",
+        "unpaired \ud800 surrogate",
+        "unpaired \udc00",
+        "\ud800"
+    };
+
+    public ResponseStreamUnitTest(String name) {
+        super(name);
+    }
+
+    /**
+     * Test that Unicode strings are decoded unchanged, including strings
+     * split between packets and unpaired surrogates.
+     */
+    public void testUnicodeStrings() throws Exception {
+        // odd row sizes, so that values are split between packets at any
+        // position
+        Object[][] rows = new Object[1000][];
+
+        for (int i = 0; i < rows.length; i++) {
+            rows[i] = new Object[] {new Integer(i & 0xFF), getValue(i)};
+        }
+
+        FakeTdsServer server = new FakeTdsServer();
+
+        server.setResult("SELECT * FROM t", FakeTdsServer.Result.rows(
+                new String[] {"t", "s"},
+                new int[] {FakeTdsServer.TINYINT, FakeTdsServer.NVARCHAR},
+                rows));
+        Class.forName(Driver.class.getName());
+
+        Connection con = DriverManager.getConnection(server.getUrl(""));
+
+        try {
+            ResultSet rs = con.createStatement().executeQuery("SELECT * FROM t");
+
+            for (int i = 0; i < rows.length; i++) {
+                assertTrue(rs.next());
+                assertEquals(i & 0xFF, rs.getInt(1));
+                assertEquals(getValue(i), rs.getString(2));
+            }
+
+            assertFalse(rs.next());
+        } finally {
+            con.close();
+            server.close();
+        }
+    }
+
+    /**
+     * Test that the Java charset of a <code>CharsetInfo</code> is looked up
+     * once.
+     */
+    public void testJavaCharset() {
+        CharsetInfo info = new CharsetInfo("1|Cp1252");
+
+        assertNotNull(info.getJavaCharset());
+        assertTrue(info.getJavaCharset() == info.getJavaCharset());
+        assertEquals("windows-1252", info.getJavaCharset().name());
+
+        assertNull(new CharsetInfo("1|NoSuchCharset").getJavaCharset());
+    }
+
+    private static String getValue(int row) {
+        String value = VALUES[row % VALUES.length] + row;
+
+        return value.length() > 64 ? value.substring(0, 64) : value;
+    }
+}
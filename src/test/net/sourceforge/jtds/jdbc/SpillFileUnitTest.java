@@ -0,0 +1,93 @@
+// jTDS JDBC Driver for Microsoft SQL Server and Sybase
+// Copyright (C) 2004 The jTDS Project
+//
+// This library is free software; you can redistribute it and/or
+// modify it under the terms of the GNU Lesser General Public
+// License as published by the Free Software Foundation; either
+// version 2.1 of the License, or (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+//
+package net.sourceforge.jtds.jdbc;
+
+import java.io.IOException;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit tests for the {@link SpillFile} class.
+ */
+public class SpillFileUnitTest extends TestCase {
+
+    public SpillFileUnitTest(String name) {
+        super(name);
+    }
+
+    /**
+     * Creates a TDS packet of the specified length filled with a marker.
+     */
+    private static byte[] packet(int len, int marker) {
+        byte[] buf = new byte[len];
+        for (int i = SharedSocket.TDS_HDR_LEN; i < len; i++) {
+            buf[i] = (byte) marker;
+        }
+        buf[0] = TdsCore.REPLY_PKT;
+        buf[2] = (byte) (len >> 8);
+        buf[3] = (byte) len;
+        return buf;
+    }
+
+    /**
+     * Test that interleaved queues are read back in order, including records
+     * that would cross a segment boundary, and that the file is reused once
+     * all queues are empty.
+     */
+    public void testInterleavedQueues() throws IOException {
+        SpillFile spill = new SpillFile(null, SpillFile.LINK_LEN + 65536);
+
+        try {
+            long[] head = {SpillFile.NO_RECORD, SpillFile.NO_RECORD};
+            long[] tail = {SpillFile.NO_RECORD, SpillFile.NO_RECORD};
+
+            for (int i = 0; i < 10; i++) {
+                int q = i % 2;
+                tail[q] = spill.write(tail[q], packet(512 + i * 4096, i), 512 + i * 4096);
+                if (head[q] == SpillFile.NO_RECORD) {
+                    head[q] = tail[q];
+                }
+            }
+
+            long mapped = spill.getMappedSize();
+
+            for (int q = 0; q < 2; q++) {
+                for (int i = q; i < 10; i += 2) {
+                    int len = spill.getPktLen(head[q]);
+                    assertEquals(512 + i * 4096, len);
+                    byte[] buf = new byte[len];
+                    head[q] = spill.read(head[q], buf, len);
+                    assertEquals((byte) i, buf[len - 1]);
+                }
+                assertEquals(SpillFile.NO_RECORD, head[q]);
+            }
+
+            // file has been rewound, so the same data fits without growing it
+            long t = SpillFile.NO_RECORD;
+            for (int i = 0; i < 10; i++) {
+                t = spill.write(t, packet(512 + i * 4096, i), 512 + i * 4096);
+            }
+            assertEquals(mapped, spill.getMappedSize());
+
+            spill.release(10);
+            assertEquals(0, spill.write(SpillFile.NO_RECORD, packet(512, 1), 512));
+        } finally {
+            spill.close();
+        }
+    }
+}
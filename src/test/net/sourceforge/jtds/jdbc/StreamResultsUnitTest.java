@@ -0,0 +1,191 @@
+// jTDS JDBC Driver for Microsoft SQL Server and Sybase
+// Copyright (C) 2004 The jTDS Project
+//
+// This library is free software; you can redistribute it and/or
+// modify it under the terms of the GNU Lesser General Public
+// License as published by the Free Software Foundation; either
+// version 2.1 of the License, or (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+//
+package net.sourceforge.jtds.jdbc;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * Unit tests for the <code>streamResults</code> connection property, run
+ * against the {@link FakeTdsServer}.
+ */
+public class StreamResultsUnitTest extends UnitTestBase {
+    private static final int ROWS = 20000;
+
+    private FakeTdsServer server;
+    private Connection con;
+
+    public StreamResultsUnitTest(String name) {
+        super(name);
+    }
+
+    public void setUp() throws Exception {
+        Class.forName(Driver.class.getName());
+        server = new FakeTdsServer();
+        server.setResult("SELECT * FROM big", FakeTdsServer.Result.generated(6, ROWS));
+        server.setResult("SELECT * FROM small", FakeTdsServer.Result.generated(1, 1));
+        con = DriverManager.getConnection(server.getUrl(";streamResults=true"));
+    }
+
+    public void tearDown() throws Exception {
+        con.close();
+        server.close();
+    }
+
+    /**
+     * Test that a statement executed by the thread reading a streaming
+     * result set fails instead of buffering the result.
+     */
+    public void testSameThread() throws Exception {
+        ResultSet rs = con.createStatement().executeQuery("SELECT * FROM big");
+        Statement stmt = con.createStatement();
+
+        assertTrue(rs.next());
+
+        try {
+            stmt.executeQuery("SELECT * FROM small");
+            fail("Expected the streaming result set to block the connection");
+        } catch (SQLException e) {
+            assertEquals("HY010", e.getSQLState());
+        }
+
+        int rows = 1;
+
+        while (rs.next()) {
+            rows++;
+        }
+
+        assertEquals(ROWS, rows);
+
+        // the connection is free again
+        ResultSet small = stmt.executeQuery("SELECT * FROM small");
+
+        assertTrue(small.next());
+        assertFalse(small.next());
+    }
+
+    /**
+     * Test that a statement executed by another thread waits until the
+     * streaming result set has been read.
+     */
+    public void testOtherThreadWaits() throws Exception {
+        ResultSet rs = con.createStatement().executeQuery("SELECT * FROM big");
+        final int[] rowsWhenDone = new int[] {-1};
+        final int[] rowsRead = new int[1];
+        final Exception[] error = new Exception[1];
+
+        assertTrue(rs.next());
+        rowsRead[0] = 1;
+
+        Thread other = new Thread() {
+            public void run() {
+                try {
+                    ResultSet small = con.createStatement().executeQuery("SELECT * FROM small");
+
+                    synchronized (rowsRead) {
+                        rowsWhenDone[0] = rowsRead[0];
+                    }
+
+                    small.close();
+                } catch (Exception e) {
+                    error[0] = e;
+                }
+            }
+        };
+
+        other.start();
+        Thread.sleep(100);
+
+        while (true) {
+            synchronized (rowsRead) {
+                if (!rs.next()) {
+                    break;
+                }
+                rowsRead[0]++;
+            }
+        }
+
+        other.join(10000);
+
+        assertNull(error[0]);
+        assertEquals(ROWS, rowsWhenDone[0]);
+    }
+
+    /**
+     * Test that waiting for a streaming result set is limited by the query
+     * timeout.
+     */
+    public void testWaitTimeout() throws Exception {
+        ResultSet rs = con.createStatement().executeQuery("SELECT * FROM big");
+        final SQLException[] error = new SQLException[1];
+
+        assertTrue(rs.next());
+
+        Thread other = new Thread() {
+            public void run() {
+                try {
+                    Statement stmt = con.createStatement();
+
+                    stmt.setQueryTimeout(1);
+                    stmt.executeQuery("SELECT * FROM small");
+                } catch (SQLException e) {
+                    error[0] = e;
+                }
+            }
+        };
+
+        other.start();
+        other.join(10000);
+
+        assertNotNull(error[0]);
+        assertEquals("HYT00", error[0].getSQLState());
+
+        rs.close();
+    }
+
+    /**
+     * Test that without <code>streamResults</code> the open result set is
+     * buffered and both results can be read.
+     */
+    public void testBuffered() throws Exception {
+        Connection buffered = DriverManager.getConnection(server.getUrl(""));
+
+        try {
+            ResultSet rs = buffered.createStatement().executeQuery("SELECT * FROM big");
+
+            assertTrue(rs.next());
+
+            ResultSet small = buffered.createStatement().executeQuery("SELECT * FROM small");
+
+            assertTrue(small.next());
+
+            int rows = 1;
+
+            while (rs.next()) {
+                rows++;
+            }
+
+            assertEquals(ROWS, rows);
+        } finally {
+            buffered.close();
+        }
+    }
+}
@@ -0,0 +1,166 @@
+// jTDS JDBC Driver for Microsoft SQL Server and Sybase
+// Copyright (C) 2004 The jTDS Project
+//
+// This library is free software; you can redistribute it and/or
+// modify it under the terms of the GNU Lesser General Public
+// License as published by the Free Software Foundation; either
+// version 2.1 of the License, or (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+//
+package net.sourceforge.jtds.jdbc;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.sourceforge.jtds.util.TimerThread;
+
+/**
+ * Unit tests for the {@link TimerThread} class.
+ */
+public class TimerThreadUnitTest extends UnitTestBase {
+    private TimerThread timer;
+
+    public TimerThreadUnitTest(String name) {
+        super(name);
+    }
+
+    public void setUp() {
+        timer = new TimerThread();
+        timer.start();
+    }
+
+    public void tearDown() {
+        timer.interrupt();
+    }
+
+    /**
+     * Test that a timer doesn't expire early and is reported as expired.
+     */
+    public void testExpiry() throws Exception {
+        final CountDownLatch fired = new CountDownLatch(1);
+        final long[] firedAt = new long[1];
+        long start = System.nanoTime();
+
+        Object handle = timer.setTimer(100, new TimerThread.TimerListener() {
+            public void timerExpired() {
+                firedAt[0] = System.nanoTime();
+                fired.countDown();
+            }
+        });
+
+        assertFalse(timer.hasExpired(handle));
+        assertTrue(fired.await(5, TimeUnit.SECONDS));
+        assertTrue(firedAt[0] - start >= 100 * 1000000L);
+        assertTrue(timer.hasExpired(handle));
+        assertFalse(timer.cancelTimer(handle));
+    }
+
+    /**
+     * Test that cancelled timers never fire, while the others do, with
+     * timers set and cancelled by concurrent threads.
+     */
+    public void testConcurrentCancel() throws Exception {
+        final int threads = 8;
+        final int timers = 500;
+        final AtomicInteger fired = new AtomicInteger();
+        final AtomicInteger cancelled = new AtomicInteger();
+        final CountDownLatch done = new CountDownLatch(threads);
+        final TimerThread.TimerListener listener = new TimerThread.TimerListener() {
+            public void timerExpired() {
+                fired.incrementAndGet();
+            }
+        };
+
+        for (int i = 0; i < threads; i++) {
+            new Thread() {
+                public void run() {
+                    for (int j = 0; j < timers; j++) {
+                        Object handle = timer.setTimer(1 + j % 200, listener);
+
+                        if (j % 2 == 0 && timer.cancelTimer(handle)) {
+                            cancelled.incrementAndGet();
+                        }
+                    }
+                    done.countDown();
+                }
+            }.start();
+        }
+
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+
+        long deadline = System.currentTimeMillis() + 5000;
+
+        while (fired.get() + cancelled.get() < threads * timers
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+
+        assertEquals(threads * timers, fired.get() + cancelled.get());
+        assertTrue(cancelled.get() >= threads * timers / 4);
+    }
+
+    /**
+     * Test that timers set in a listener and timers far beyond the current
+     * revolution of the wheel fire in order.
+     */
+    public void testOrder() throws Exception {
+        final StringBuffer order = new StringBuffer();
+        final CountDownLatch fired = new CountDownLatch(3);
+
+        timer.setTimer(5200, new TimerThread.TimerListener() {
+            public void timerExpired() {
+                order.append('c');
+                fired.countDown();
+            }
+        });
+        timer.setTimer(50, new TimerThread.TimerListener() {
+            public void timerExpired() {
+                order.append('a');
+                fired.countDown();
+
+                timer.setTimer(50, new TimerThread.TimerListener() {
+                    public void timerExpired() {
+                        order.append('b');
+                        fired.countDown();
+                    }
+                });
+            }
+        });
+
+        assertTrue(fired.await(10, TimeUnit.SECONDS));
+        assertEquals("abc", order.toString());
+    }
+
+    /**
+     * Test that a timer set while the thread sleeps until a later timer
+     * wakes it up in time.
+     */
+    public void testEarlierTimer() throws Exception {
+        final CountDownLatch fired = new CountDownLatch(1);
+        TimerThread.TimerListener listener = new TimerThread.TimerListener() {
+            public void timerExpired() {
+                fired.countDown();
+            }
+        };
+
+        Object later = timer.setTimer(5000, listener);
+
+        Thread.sleep(100);
+
+        long start = System.nanoTime();
+
+        timer.setTimer(100, listener);
+        assertTrue(fired.await(2, TimeUnit.SECONDS));
+        assertTrue(System.nanoTime() - start < 1000 * 1000000L);
+        assertTrue(timer.cancelTimer(later));
+    }
+}
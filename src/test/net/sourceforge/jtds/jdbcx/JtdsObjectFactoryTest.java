@@ -81,6 +81,7 @@ public class JtdsObjectFactoryTest extends UnitTestBase
       assertEquals( 0, ds.getBufferMinPackets() );
       assertFalse ( ds.getCacheMetaData() );
       assertNull  ( ds.getCharset() );
+      assertFalse ( ds.getCursorPrefetch() );
       assertNull  ( ds.getDatabaseName() );
       assertNull  ( ds.getDomain() );
       assertNull  ( ds.getInstance() );
@@ -104,12 +105,16 @@ public class JtdsObjectFactoryTest extends UnitTestBase
       assertFalse ( ds.getSocketKeepAlive() );
       assertEquals( 0, ds.getSocketTimeout() );
       assertNull  ( ds.getSsl() );
+      assertNull  ( ds.getStatementCache() );
+      assertFalse ( ds.getStreamLOBs() );
+      assertFalse ( ds.getStreamResults() );
       assertFalse ( ds.getTcpNoDelay() );
       assertNull  ( ds.getTds() );
       assertFalse ( ds.getUseCursors() );
       assertFalse ( ds.getUseJCIFS() );
       assertFalse ( ds.getUseLOBs() );
       assertFalse ( ds.getUseNTLMV2() );
+      assertFalse ( ds.getUseNIO() );
       assertNull  ( ds.getUser() );
       assertNull  ( ds.getWsid() );
       assertFalse ( ds.getXaEmulation() );
@@ -130,6 +135,7 @@ public class JtdsObjectFactoryTest extends UnitTestBase
       defaults.put( Driver.BUFFERMINPACKETS             , DefaultProperties.BUFFER_MIN_PACKETS    );
       defaults.put( Driver.CACHEMETA                    , DefaultProperties.CACHEMETA             );
       defaults.put( Driver.CHARSET                      , DefaultProperties.CHARSET               );
+      defaults.put( Driver.CURSORPREFETCH               , DefaultProperties.CURSOR_PREFETCH       );
       defaults.put( Driver.DATABASENAME                 , DefaultProperties.DATABASE_NAME         );
       defaults.put( Driver.DOMAIN                       , DefaultProperties.DOMAIN                );
       defaults.put( Driver.INSTANCE                     , DefaultProperties.INSTANCE              );
@@ -153,12 +159,16 @@ public class JtdsObjectFactoryTest extends UnitTestBase
       defaults.put( Driver.SOKEEPALIVE                  , DefaultProperties.SOCKET_KEEPALIVE      );
       defaults.put( Driver.SOTIMEOUT                    , DefaultProperties.SOCKET_TIMEOUT        );
       defaults.put( Driver.SSL                          , DefaultProperties.SSL                   );
+      defaults.put( Driver.STATEMENTCACHE               , DefaultProperties.STATEMENT_CACHE       );
+      defaults.put( Driver.STREAMLOBS                   , DefaultProperties.STREAM_LOBS           );
+      defaults.put( Driver.STREAMRESULTS                , DefaultProperties.STREAM_RESULTS        );
       defaults.put( Driver.TCPNODELAY                   , DefaultProperties.TCP_NODELAY           );
       defaults.put( Driver.TDS                          , DefaultProperties.TDS_VERSION_42        );
       defaults.put( Driver.USECURSORS                   , DefaultProperties.USECURSORS            );
       defaults.put( Driver.USEJCIFS                     , DefaultProperties.USEJCIFS              );
       defaults.put( Driver.USELOBS                      , DefaultProperties.USELOBS               );
       defaults.put( Driver.USENTLMV2                    , DefaultProperties.USENTLMV2             );
+      defaults.put( Driver.USENIO                       , DefaultProperties.USENIO                );
       defaults.put( Driver.USEKERBEROS                  , DefaultProperties.USEKERBEROS           );
       defaults.put( Driver.USER                         , DefaultProperties.USER                  );
       defaults.put( Driver.WSID                         , DefaultProperties.WSID                  );
@@ -183,6 +193,7 @@ public class JtdsObjectFactoryTest extends UnitTestBase
       ds.setBufferMinPackets             ( 123456 ); assertEquals( 123456, ds.getBufferMinPackets()              );
       ds.setCacheMetaData                ( true   ); assertEquals( true  , ds.getCacheMetaData()                 );
       ds.setCharset                      ( "1234" ); assertEquals( "1234", ds.getCharset()                       );
+      ds.setCursorPrefetch               ( true   ); assertEquals( true  , ds.getCursorPrefetch()                );
       ds.setDatabaseName                 ( "1234" ); assertEquals( "1234", ds.getDatabaseName()                  );
       ds.setDomain                       ( "1234" ); assertEquals( "1234", ds.getDomain()                        );
       ds.setInstance                     ( "1234" ); assertEquals( "1234", ds.getInstance()                      );
@@ -206,12 +217,16 @@ public class JtdsObjectFactoryTest extends UnitTestBase
       ds.setSocketKeepAlive              ( true   ); assertEquals( true  , ds.getSocketKeepAlive()               );
       ds.setSocketTimeout                ( 123456 ); assertEquals( 123456, ds.getSocketTimeout()                 );
       ds.setSsl                          ( "1234" ); assertEquals( "1234", ds.getSsl()                           );
+      ds.setStatementCache               ( "lfu"  ); assertEquals( "lfu" , ds.getStatementCache()                );
+      ds.setStreamLOBs                   ( true   ); assertEquals( true  , ds.getStreamLOBs()                    );
+      ds.setStreamResults                ( true   ); assertEquals( true  , ds.getStreamResults()                 );
       ds.setTcpNoDelay                   ( false  ); assertEquals( false , ds.getTcpNoDelay()                    );
       ds.setTds                          ( "1234" ); assertEquals( "1234", ds.getTds()                           );
       ds.setUseCursors                   ( true   ); assertEquals( true  , ds.getUseCursors()                    );
       ds.setUseJCIFS                     ( true   ); assertEquals( true  , ds.getUseJCIFS()                      );
       ds.setUseLOBs                      ( false  ); assertEquals( false , ds.getUseLOBs()                       );
       ds.setUseNTLMV2                    ( true   ); assertEquals( true  , ds.getUseNTLMV2()                     );
+      ds.setUseNIO                       ( true   ); assertEquals( true  , ds.getUseNIO()                        );
       ds.setUser                         ( "1234" ); assertEquals( "1234", ds.getUser()                          );
       ds.setWsid                         ( "1234" ); assertEquals( "1234", ds.getWsid()                          );
       ds.setXaEmulation                  ( false  ); assertEquals( false , ds.getXaEmulation()                   );
@@ -228,6 +243,7 @@ public class JtdsObjectFactoryTest extends UnitTestBase
       assertEquals( DefaultProperties.BUFFER_MIN_PACKETS   , String.valueOf( ds.getBufferMinPackets()              ) );
       assertEquals( DefaultProperties.CACHEMETA            , String.valueOf( ds.getCacheMetaData()                 ) );
       assertEquals( DefaultProperties.CHARSET              , String.valueOf( ds.getCharset()                       ) );
+      assertEquals( DefaultProperties.CURSOR_PREFETCH      , String.valueOf( ds.getCursorPrefetch()                ) );
       assertEquals( DefaultProperties.DATABASE_NAME        , String.valueOf( ds.getDatabaseName()                  ) );
       assertEquals( DefaultProperties.DOMAIN               , String.valueOf( ds.getDomain()                        ) );
       assertEquals( DefaultProperties.INSTANCE             , String.valueOf( ds.getInstance()                      ) );
@@ -251,12 +267,16 @@ public class JtdsObjectFactoryTest extends UnitTestBase
       assertEquals( DefaultProperties.SOCKET_KEEPALIVE     , String.valueOf( ds.getSocketKeepAlive()               ) );
       assertEquals( DefaultProperties.SOCKET_TIMEOUT       , String.valueOf( ds.getSocketTimeout()                 ) );
       assertEquals( DefaultProperties.SSL                  , String.valueOf( ds.getSsl()                           ) );
+      assertEquals( DefaultProperties.STATEMENT_CACHE      , String.valueOf( ds.getStatementCache()                ) );
+      assertEquals( DefaultProperties.STREAM_LOBS          , String.valueOf( ds.getStreamLOBs()                    ) );
+      assertEquals( DefaultProperties.STREAM_RESULTS       , String.valueOf( ds.getStreamResults()                 ) );
       assertEquals( DefaultProperties.TCP_NODELAY          , String.valueOf( ds.getTcpNoDelay()                    ) );
       assertEquals( DefaultProperties.TDS_VERSION_42       , String.valueOf( ds.getTds()                           ) );
       assertEquals( DefaultProperties.USECURSORS           , String.valueOf( ds.getUseCursors()                    ) );
       assertEquals( DefaultProperties.USEJCIFS             , String.valueOf( ds.getUseJCIFS()                      ) );
       assertEquals( DefaultProperties.USELOBS              , String.valueOf( ds.getUseLOBs()                       ) );
       assertEquals( DefaultProperties.USENTLMV2            , String.valueOf( ds.getUseNTLMV2()                     ) );
+      assertEquals( DefaultProperties.USENIO               , String.valueOf( ds.getUseNIO()                        ) );
       assertEquals( DefaultProperties.USER                 , String.valueOf( ds.getUser()                          ) );
       assertEquals( DefaultProperties.WSID                 , String.valueOf( ds.getWsid()                          ) );
       assertEquals( DefaultProperties.XAEMULATION          , String.valueOf( ds.getXaEmulation()                   ) );